@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.collections.map.LRUMap;
+
+/**
+ * A thread-safe, size-bounded LRU cache that counts hits, misses and
+ * evictions.
+ *
+ * @author Christian Morgner
+ */
+public class FixedSizeCache<K, V> {
+
+	private final AtomicLong hits      = new AtomicLong(0L);
+	private final AtomicLong misses    = new AtomicLong(0L);
+	private final AtomicLong evictions = new AtomicLong(0L);
+	private Map<K, V> cache            = null;
+	private int maxSize                = 0;
+
+	public FixedSizeCache(final int maxSize) {
+
+		this.maxSize = maxSize;
+		this.cache   = Collections.synchronizedMap(new LRUMap(maxSize) {
+
+			@Override
+			protected boolean removeLRU(final LinkEntry entry) {
+
+				evictions.incrementAndGet();
+				onEviction((K)entry.getKey(), (V)entry.getValue());
+
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Called when the least recently used entry is evicted to make room
+	 * for a new one, on the thread that called {@link #put(Object, Object)}.
+	 * Subclasses can override this to release state that belongs to the
+	 * evicted entry.
+	 *
+	 * @param key the key of the evicted entry
+	 * @param value the value of the evicted entry
+	 */
+	protected void onEviction(final K key, final V value) {
+	}
+
+	public V get(final K key) {
+
+		final V value = cache.get(key);
+		if (value != null) {
+
+			hits.incrementAndGet();
+
+		} else {
+
+			misses.incrementAndGet();
+		}
+
+		return value;
+	}
+
+	public void put(final K key, final V value) {
+		cache.put(key, value);
+	}
+
+	public V remove(final K key) {
+		return cache.remove(key);
+	}
+
+	public boolean containsKey(final K key) {
+		return cache.containsKey(key);
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRate() {
+
+		final long _hits  = hits.get();
+		final long total = _hits + misses.get();
+
+		return total > 0 ? (double)_hits / (double)total : 0.0;
+	}
+
+	/**
+	 * Returns the size and the hit/miss/eviction counters of this cache,
+	 * e.g. for inclusion in a REST result.
+	 *
+	 * @return a map with the statistics of this cache
+	 */
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("size", size());
+		stats.put("maxSize", maxSize);
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		stats.put("evictions", evictions.get());
+		stats.put("hitRate", getHitRate());
+
+		return stats;
+	}
+}
@@ -252,6 +252,45 @@ public class SecurityContext {
 
 	}
 
+	/**
+	 * Creates a copy of this security context that can be used in another
+	 * thread. The copy has the same user, access mode, authenticator,
+	 * attributes, custom view and query ranges, but uses the given request
+	 * instead of the request of this context.
+	 *
+	 * @param request the request of the copy, or null
+	 * @return the copy
+	 */
+	public SecurityContext copy(final HttpServletRequest request) {
+
+		final SecurityContext copy;
+
+		if (this instanceof SuperUserSecurityContext) {
+
+			copy = new SuperUserSecurityContext();
+
+		} else {
+
+			// resolve the user in this thread, the copy must not need the request to do so
+			copy = new SecurityContext(getUser(false), accessMode);
+		}
+
+		copy.request       = request;
+		copy.authenticator = authenticator;
+
+		copy.ranges.putAll(ranges);
+
+		synchronized (attrs) {
+			copy.attrs.putAll(attrs);
+		}
+
+		if (customView != null) {
+			copy.customView = new LinkedHashSet<>(customView);
+		}
+
+		return copy;
+	}
+
 	public HttpSession getSession() {
 
 		final HttpSession session = request.getSession();
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry for runtime statistics of modules that are not known to the
+ * core, e.g. caches and executors of the UI module. The statistics of all
+ * registered sources are included in the output of the _env resource.
+ *
+ * @author Christian Morgner
+ */
+public class StatisticsRegistry {
+
+	private static final Logger logger                         = Logger.getLogger(StatisticsRegistry.class.getName());
+	private static final ConcurrentMap<String, Source> sources = new ConcurrentHashMap<>();
+
+	/**
+	 * A source of statistics.
+	 */
+	public interface Source {
+
+		public Map<String, Object> getStatistics();
+	}
+
+	public static void register(final String name, final Source source) {
+		sources.put(name, source);
+	}
+
+	public static void unregister(final String name) {
+		sources.remove(name);
+	}
+
+	/**
+	 * Returns the statistics of all registered sources, keyed by the
+	 * name they were registered with.
+	 *
+	 * @return the statistics of all sources
+	 */
+	public static Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		for (final Entry<String, Source> entry : sources.entrySet()) {
+
+			try {
+
+				stats.put(entry.getKey(), entry.getValue().getStatistics());
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Unable to get statistics of {0}: {1}", new Object[] { entry.getKey(), t.getMessage() });
+			}
+		}
+
+		return stats;
+	}
+}
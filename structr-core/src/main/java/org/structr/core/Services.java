@@ -109,20 +109,21 @@ public class Services {
 	public static final String APPLICATION_SESSION_TIMEOUT      = "application.session.timeout";
 
 	// singleton instance
-	private static int globalSessionTimeout            = -1;
-	private static Services singletonInstance          = null;
+	private static final ThreadLocal<ConfigurationProvider> localConfiguration = new ThreadLocal<>();
+	private static int globalSessionTimeout                                    = -1;
+	private static Services singletonInstance                                  = null;
 
 	// non-static members
-	private final Map<String, Object> attributes       = new ConcurrentHashMap<>(10, 0.9f, 8);
-	private final Map<Class, Service> serviceCache     = new ConcurrentHashMap<>(10, 0.9f, 8);
-	private final Set<Class> registeredServiceClasses  = new LinkedHashSet<>();
-	private final Set<String> configuredServiceClasses = new LinkedHashSet<>();
-	private StructrConf structrConf                    = new StructrConf();
-	private ConfigurationProvider configuration        = null;
-	private boolean initializationDone                 = false;
-	private boolean shutdownDone                       = false;
-	private String configuredServiceNames              = null;
-	private String configurationClass                  = null;
+	private final Map<String, Object> attributes         = new ConcurrentHashMap<>(10, 0.9f, 8);
+	private final Map<Class, Service> serviceCache       = new ConcurrentHashMap<>(10, 0.9f, 8);
+	private final Set<Class> registeredServiceClasses    = new LinkedHashSet<>();
+	private final Set<String> configuredServiceClasses   = new LinkedHashSet<>();
+	private StructrConf structrConf                      = new StructrConf();
+	private volatile ConfigurationProvider configuration = null;
+	private boolean initializationDone                   = false;
+	private boolean shutdownDone                         = false;
+	private String configuredServiceNames                = null;
+	private String configurationClass                    = null;
 
 	private Services() { }
 
@@ -427,6 +428,13 @@ public class Services {
 
 	public ConfigurationProvider getConfigurationProvider() {
 
+		// a configuration provider that is being built by this thread
+		final ConfigurationProvider local = localConfiguration.get();
+		if (local != null) {
+
+			return local;
+		}
+
 		// instantiate configuration provider
 		if (configuration == null) {
 
@@ -450,6 +458,34 @@ public class Services {
 		return configuration;
 	}
 
+	/**
+	 * Replaces the configuration provider. This is a single reference
+	 * assignment, so other threads either see the old or the new provider.
+	 *
+	 * @param configuration the new configuration provider
+	 */
+	public void setConfigurationProvider(final ConfigurationProvider configuration) {
+		this.configuration = configuration;
+	}
+
+	/**
+	 * Sets the configuration provider that is returned for the current
+	 * thread only, e.g. while a new provider is being built.
+	 *
+	 * @param configuration the configuration provider of the current thread, or null to reset
+	 */
+	public static void setLocalConfigurationProvider(final ConfigurationProvider configuration) {
+
+		if (configuration != null) {
+
+			localConfiguration.set(configuration);
+
+		} else {
+
+			localConfiguration.remove();
+		}
+	}
+
 	/**
 	 * Store an attribute value in the service config
 	 *
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.util.List;
+
+/**
+ * A listener that is notified of the modifications of every committed
+ * top-level transaction, see
+ * {@link TransactionCommand#registerCommitListener(CommitListener)}.
+ *
+ * Unlike a {@link org.structr.core.StructrTransactionListener}, a commit
+ * listener is also notified of transactions that do not execute callbacks
+ * or send notifications, so it is the right place to invalidate caches.
+ *
+ * @author Christian Morgner
+ */
+public interface CommitListener {
+
+	/**
+	 * Called after a transaction was committed. No transaction is open when
+	 * this method is called, so implementations must only use the cached
+	 * state of the modification events (UUIDs, classes, relationship types
+	 * and end node IDs).
+	 *
+	 * @param modificationEvents the modification events of the transaction
+	 */
+	public void afterCommit(final List<ModificationEvent> modificationEvents);
+}
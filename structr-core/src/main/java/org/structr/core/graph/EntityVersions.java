@@ -0,0 +1,458 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.collections.map.LRUMap;
+import org.structr.common.FixedSizeCache;
+import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.search.SearchCommand;
+
+/**
+ * Per-entity version counters and dependency fingerprints.
+ *
+ * Every successful commit increments a global sequence and assigns it
+ * as the new version of each modified entity and of the types of those
+ * entities (including all supertypes). The versions are kept in memory
+ * only, in a bounded LRU map. Entities that are not in the map report
+ * the highest version that was ever evicted, so that versions never go
+ * backwards.
+ *
+ * While tracking is enabled for the current thread, the node and
+ * relationship factories and the search command record the UUIDs and
+ * types of everything that is read. The recorded set can be turned into
+ * a fingerprint that changes whenever one of the recorded entities (or
+ * the result of one of the recorded type queries) changes, which is used
+ * as a strong ETag by the servlets.
+ *
+ * @author Christian Morgner
+ */
+public class EntityVersions {
+
+	public static final String ENTITY_VERSIONS_MAX_SIZE         = "EntityVersions.maxSize";
+	public static final String ENTITY_VERSIONS_MAX_DEPENDENCIES = "EntityVersions.maxDependencies";
+	public static final String ENTITY_VERSIONS_MAX_REQUESTS     = "EntityVersions.maxRequests";
+
+	public static final String ANY_TYPE                         = "type:*";
+
+	private static final Charset UTF8                           = Charset.forName("utf-8");
+	private static final ThreadLocal<Set<String>> reads         = new ThreadLocal<>();
+	private static volatile EntityVersions instance             = null;
+
+	private final AtomicLong sequence                           = new AtomicLong(0L);
+	private final AtomicLong commits                            = new AtomicLong(0L);
+	private final AtomicLong notModified                        = new AtomicLong(0L);
+	private final long epoch                                    = System.currentTimeMillis();
+	private FixedSizeCache<String, Set<String>> requests        = null;
+	private Map<String, Long> versions                          = null;
+	private volatile long floor                                 = 0L;
+	private int maxDependencies                                 = 0;
+	private int maxSize                                         = 0;
+
+	EntityVersions(final int maxSize, final int maxDependencies, final int maxRequests) {
+
+		this.maxSize         = maxSize;
+		this.maxDependencies = maxDependencies;
+		this.requests        = new FixedSizeCache<>(maxRequests);
+		this.versions        = Collections.synchronizedMap(new LRUMap(maxSize) {
+
+			@Override
+			protected boolean removeLRU(final LinkEntry entry) {
+
+				// evicted entities report the highest evicted version from now on
+				floor = Math.max(floor, (Long)entry.getValue());
+				return true;
+			}
+		});
+	}
+
+	public static synchronized EntityVersions getInstance() {
+
+		if (instance == null) {
+
+			final int maxSize         = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(ENTITY_VERSIONS_MAX_SIZE, "100000"), 100000));
+			final int maxDependencies = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(ENTITY_VERSIONS_MAX_DEPENDENCIES, "10000"), 10000));
+			final int maxRequests     = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(ENTITY_VERSIONS_MAX_REQUESTS, "10000"), 10000));
+
+			instance = new EntityVersions(maxSize, maxDependencies, maxRequests);
+		}
+
+		return instance;
+	}
+
+	// ----- read tracking -----
+	/**
+	 * Starts recording the entities read by the current thread and returns
+	 * the set that was recorded before, if any.
+	 *
+	 * @return the previous set of recorded reads, or null
+	 */
+	public static Set<String> startTracking() {
+
+		final Set<String> previous = reads.get();
+
+		reads.set(new LinkedHashSet<String>());
+
+		return previous;
+	}
+
+	/**
+	 * Stops recording and returns the recorded set. The given previous set
+	 * is restored and receives all reads recorded since.
+	 *
+	 * @param previous the return value of {@link #startTracking()}
+	 * @return the recorded reads, or an empty set if tracking was not enabled
+	 */
+	public static Set<String> stopTracking(final Set<String> previous) {
+
+		Set<String> recorded = reads.get();
+		if (recorded == null) {
+
+			recorded = Collections.emptySet();
+
+		} else if (previous != null) {
+
+			previous.addAll(recorded);
+		}
+
+		if (previous != null) {
+
+			reads.set(previous);
+
+		} else {
+
+			reads.remove();
+		}
+
+		return recorded;
+	}
+
+	public static boolean isTracking() {
+		return reads.get() != null;
+	}
+
+	public static void recordRead(final String key) {
+
+		final Set<String> recorded = reads.get();
+		if (recorded != null && key != null) {
+
+			recorded.add(key);
+		}
+	}
+
+	public static void recordReads(final Collection<String> keys) {
+
+		final Set<String> recorded = reads.get();
+		if (recorded != null && keys != null) {
+
+			recorded.addAll(keys);
+		}
+	}
+
+	public static void recordRead(final GraphObject obj) {
+
+		final Set<String> recorded = reads.get();
+		if (recorded != null && obj != null) {
+
+			final String uuid = obj.getUuid();
+			if (uuid != null) {
+
+				recorded.add(uuid);
+			}
+		}
+	}
+
+	public static String getTypeKey(final String type) {
+		return "type:" + type;
+	}
+
+	// ----- versions -----
+	/**
+	 * Called by {@link TransactionCommand} right before and right after a
+	 * successful commit. Assigning new versions twice makes sure that a
+	 * reader which saw the old state can never compute the fingerprint of
+	 * the final state.
+	 *
+	 * @param modificationEvents the modification events of the transaction
+	 */
+	static void onCommit(final List<ModificationEvent> modificationEvents) {
+
+		final EntityVersions versions = instance;
+		if (versions != null && modificationEvents != null && !modificationEvents.isEmpty()) {
+
+			versions.increment(modificationEvents);
+		}
+	}
+
+	public long getVersion(final String key) {
+
+		final Long version = versions.get(key);
+		if (version != null) {
+
+			return version;
+		}
+
+		return floor;
+	}
+
+	public long getSequence() {
+		return sequence.get();
+	}
+
+	/**
+	 * Returns a fingerprint of the current versions of the given keys. The
+	 * variant identifies the representation (e.g. URL and principal) and
+	 * is included so that different representations of the same set of
+	 * entities get different fingerprints.
+	 *
+	 * @param variant the representation variant
+	 * @param keys the UUIDs and type keys to include
+	 * @return the fingerprint as a hex string
+	 */
+	public String getFingerprint(final String variant, final Collection<String> keys) {
+
+		final List<String> sortedKeys = new ArrayList<>(keys);
+		Collections.sort(sortedKeys);
+
+		try {
+
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+			digest.update(Long.toString(epoch).getBytes(UTF8));
+			digest.update((byte)0);
+			digest.update(variant.getBytes(UTF8));
+
+			for (final String key : sortedKeys) {
+
+				digest.update((byte)0);
+				digest.update(key.getBytes(UTF8));
+				digest.update((byte)'=');
+				digest.update(Long.toString(getVersion(key)).getBytes(UTF8));
+			}
+
+			return new String(Hex.encodeHex(digest.digest()));
+
+		} catch (NoSuchAlgorithmException nsaex) {
+
+			// SHA-1 is mandatory in every JRE
+			throw new IllegalStateException(nsaex);
+		}
+	}
+
+	/**
+	 * Stores the dependencies of a response so that later requests for the
+	 * same key can be answered without rendering, and returns the strong
+	 * ETag for the response. Returns null if there are too many dependencies
+	 * to be stored.
+	 *
+	 * @param requestKey the request key, including the principal
+	 * @param dependencies the recorded dependencies of the response
+	 * @return the ETag, or null
+	 */
+	public String remember(final String requestKey, final Set<String> dependencies) {
+
+		if (dependencies.size() > maxDependencies) {
+
+			requests.remove(requestKey);
+			return null;
+		}
+
+		final Set<String> keys = new LinkedHashSet<>(dependencies);
+
+		requests.put(requestKey, keys);
+
+		return quote(getFingerprint(requestKey, keys));
+	}
+
+	/**
+	 * Returns the strong ETag that the response for the given request key
+	 * would currently have, based on the dependencies of the last response
+	 * for that key, or null if no dependencies are known.
+	 *
+	 * @param requestKey the request key, including the principal
+	 * @return the current ETag, or null
+	 */
+	public String getCurrentETag(final String requestKey) {
+
+		final Set<String> keys = requests.get(requestKey);
+		if (keys != null) {
+
+			return quote(getFingerprint(requestKey, keys));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks if the given If-None-Match header value matches the current
+	 * ETag of the given request key.
+	 *
+	 * @param requestKey the request key, including the principal
+	 * @param ifNoneMatch the value of the If-None-Match header
+	 * @return the matching ETag, or null if the ETag does not match
+	 */
+	public String notModified(final String requestKey, final String ifNoneMatch) {
+
+		if (ifNoneMatch != null) {
+
+			final String etag = getCurrentETag(requestKey);
+			if (etag != null && matches(ifNoneMatch, etag)) {
+
+				notModified.incrementAndGet();
+				return etag;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks if the given If-None-Match header value contains the given
+	 * ETag.
+	 *
+	 * @param ifNoneMatch the value of the If-None-Match header
+	 * @param etag the quoted ETag
+	 * @return whether the ETag matches
+	 */
+	public static boolean matches(final String ifNoneMatch, final String etag) {
+
+		for (String candidate : ifNoneMatch.split(",")) {
+
+			candidate = candidate.trim();
+
+			if ("*".equals(candidate)) {
+				return true;
+			}
+
+			// If-None-Match uses the weak comparison function
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+
+			if (etag.equals(candidate)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public void clear() {
+
+		versions.clear();
+		requests.clear();
+
+		// make sure that no version reported so far is ever reported again
+		floor = sequence.incrementAndGet();
+	}
+
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("size", versions.size());
+		stats.put("maxSize", maxSize);
+		stats.put("sequence", sequence.get());
+		stats.put("commits", commits.get());
+		stats.put("notModified", notModified.get());
+		stats.put("requests", requests.getStatistics());
+
+		return stats;
+	}
+
+	// ----- package-private methods -----
+	void increment(final List<ModificationEvent> modificationEvents) {
+
+		final Map<Class, List<String>> typeKeys = new HashMap<>();
+		final Long version                      = sequence.incrementAndGet();
+
+		commits.incrementAndGet();
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			final GraphObject obj = event.getGraphObject();
+			final String uuid     = event.getUuid();
+
+			if (uuid != null) {
+				versions.put(uuid, version);
+			}
+
+			if (obj != null) {
+
+				for (final String typeKey : getTypeKeys(typeKeys, obj.getClass())) {
+					versions.put(typeKey, version);
+				}
+
+				if (obj instanceof RelationshipInterface) {
+
+					final RelationshipInterface rel = (RelationshipInterface)obj;
+					final String sourceId           = rel.getSourceNodeId();
+					final String targetId           = rel.getTargetNodeId();
+
+					if (sourceId != null) {
+						versions.put(sourceId, version);
+					}
+
+					if (targetId != null) {
+						versions.put(targetId, version);
+					}
+				}
+			}
+		}
+
+		versions.put(ANY_TYPE, version);
+	}
+
+	// ----- private methods -----
+	private static List<String> getTypeKeys(final Map<Class, List<String>> typeKeys, final Class type) {
+
+		List<String> keys = typeKeys.get(type);
+		if (keys == null) {
+
+			keys = new ArrayList<>();
+
+			for (final Class superType : SearchCommand.typeAndAllSupertypes(type)) {
+				keys.add(getTypeKey(superType.getSimpleName()));
+			}
+
+			typeKeys.put(type, keys);
+		}
+
+		return keys;
+	}
+
+	private static String quote(final String fingerprint) {
+		return "\"" + fingerprint + "\"";
+	}
+}
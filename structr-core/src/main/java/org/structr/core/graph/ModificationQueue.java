@@ -50,6 +50,7 @@ public class ModificationQueue {
 	private final ConcurrentSkipListMap<String, GraphObjectModificationState> modifications = new ConcurrentSkipListMap<>();
 	private final List<ModificationEvent> modificationEvents                                = new LinkedList<>();
 	private final Map<String, TransactionPostProcess> postProcesses                         = new LinkedHashMap<>();
+	private final List<TransactionCompletion> completions                                   = new LinkedList<>();
 	private final Set<String> alreadyPropagated                                             = new LinkedHashSet<>();
 	private final Set<String> synchronizationKeys                                           = new TreeSet<>();
 
@@ -237,6 +238,26 @@ public class ModificationQueue {
 		}
 	}
 
+	public void afterCompletion(final TransactionCompletion completion) {
+		completions.add(completion);
+	}
+
+	public void doCompletions(final boolean committed) {
+
+		for (final TransactionCompletion completion : completions) {
+
+			try {
+				completion.afterCompletion(committed);
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Exception in transaction completion", t);
+			}
+		}
+
+		completions.clear();
+	}
+
 	public boolean isDeleted(final Node node) {
 
 		final GraphObjectModificationState state = modifications.get("N" + node.getId());
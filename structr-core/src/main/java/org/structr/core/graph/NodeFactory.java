@@ -91,6 +91,9 @@ public class NodeFactory<T extends NodeInterface & AccessControllable> extends F
 		newNode.init(factoryProfile.getSecurityContext(), node, nodeClass);
 		newNode.onNodeInstantiation();
 
+		// record read for dependency fingerprints, including nodes that are not readable
+		EntityVersions.recordRead(newNode);
+
 		// check access
 		if (isCreation || securityContext.isReadable(newNode, factoryProfile.includeDeletedAndHidden(), factoryProfile.publicOnly())) {
 
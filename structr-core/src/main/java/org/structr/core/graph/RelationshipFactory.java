@@ -94,6 +94,9 @@ public class RelationshipFactory<T extends RelationshipInterface> extends Factor
 
 		newRel.onRelationshipInstantiation();
 
+		// record read for dependency fingerprints
+		EntityVersions.recordRead(newRel);
+
 		return newRel;
 	}
 
@@ -22,6 +22,7 @@ package org.structr.core.graph;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import org.neo4j.graphdb.GraphDatabaseService;
 
@@ -36,6 +37,7 @@ import org.structr.core.StructrTransactionListener;
 import org.structr.core.TransactionSource;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.property.PropertyKey;
+import org.structr.schema.SchemaService;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -59,6 +61,7 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 
 	private static final Logger logger                                  = Logger.getLogger(TransactionCommand.class.getName());
 	private static final Set<StructrTransactionListener> listeners      = new LinkedHashSet<>();
+	private static final Set<CommitListener> commitListeners            = new CopyOnWriteArraySet<>();
 	private static final ThreadLocal<ModificationQueue> queues          = new ThreadLocal<>();
 	private static final ThreadLocal<ErrorBuffer> buffers               = new ThreadLocal<>();
 	private static final ThreadLocal<TransactionCommand> currentCommand = new ThreadLocal<>();
@@ -72,6 +75,9 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 
 		if (tx == null) {
 
+			// a transaction must not see an older schema than the last committed one
+			SchemaService.awaitActivation();
+
 			// start new transaction
 			tx = new TransactionReference(graphDb.beginTx());
 
@@ -169,11 +175,35 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 				currentCommand.remove();
 				transactions.remove();
 
+				boolean successful = tx.isSuccessful() && modificationQueue != null;
+				if (successful) {
+					EntityVersions.onCommit(modificationQueue.getModificationEvents());
+				}
+
 				try {
 					tx.close();
 
 				} catch (Throwable t) {
+
 					t.printStackTrace();
+
+					// commit failed, the transaction was rolled back
+					successful = false;
+				}
+
+				if (successful) {
+
+					final List<ModificationEvent> modificationEvents = modificationQueue.getModificationEvents();
+
+					EntityVersions.onCommit(modificationEvents);
+
+					if (!modificationEvents.isEmpty()) {
+						notifyCommitListeners(modificationEvents);
+					}
+				}
+
+				if (modificationQueue != null) {
+					modificationQueue.doCompletions(successful);
 				}
 
 			} else {
@@ -242,6 +272,28 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 
 	}
 
+	/**
+	 * Registers an action that is executed when the current top-level
+	 * transaction was committed or rolled back. This is called for every
+	 * transaction, regardless of whether it notifies the transaction
+	 * listeners. Outside of a transaction, the action is executed
+	 * immediately as if a transaction had been committed.
+	 *
+	 * @param completion
+	 */
+	public static void afterCompletion(final TransactionCompletion completion) {
+
+		final ModificationQueue modificationQueue = queues.get();
+		if (modificationQueue != null) {
+
+			modificationQueue.afterCompletion(completion);
+
+		} else {
+
+			completion.afterCompletion(true);
+		}
+	}
+
 	public static void nodeCreated(NodeInterface node) {
 
 		TransactionCommand command = currentCommand.get();
@@ -380,10 +432,41 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 		return listeners;
 	}
 
+	/**
+	 * Registers a listener that is notified of the modifications of every
+	 * committed top-level transaction, including the ones that do not
+	 * notify the transaction listeners.
+	 *
+	 * @param listener
+	 */
+	public static void registerCommitListener(final CommitListener listener) {
+		commitListeners.add(listener);
+	}
+
+	public static void removeCommitListener(final CommitListener listener) {
+		commitListeners.remove(listener);
+	}
+
 	public static boolean inTransaction() {
 		return currentCommand.get() != null;
 	}
 
+	/**
+	 * Indicates whether the current transaction has modified any graph
+	 * object so far, i.e. whether it sees uncommitted data.
+	 *
+	 * @return whether the current transaction contains modifications
+	 */
+	public static boolean hasModifications() {
+
+		final ModificationQueue queue = queues.get();
+		if (queue != null) {
+			return !queue.getModificationEvents().isEmpty();
+		}
+
+		return false;
+	}
+
 	public static boolean isDeleted(final Node node) {
 
 		if (!inTransaction()) {
@@ -416,4 +499,18 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 	private ModificationQueue getModificationQueue() {
 		return queues.get();
 	}
+
+	private void notifyCommitListeners(final List<ModificationEvent> modificationEvents) {
+
+		for (final CommitListener listener : commitListeners) {
+
+			try {
+				listener.afterCommit(modificationEvents);
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Exception in commit listener", t);
+			}
+		}
+	}
 }
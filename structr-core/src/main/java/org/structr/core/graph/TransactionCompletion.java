@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+/**
+ * An action that is executed when the top-level transaction it was
+ * registered in has finished, see
+ * {@link TransactionCommand#afterCompletion(TransactionCompletion)}.
+ *
+ * @author Christian Morgner
+ */
+public interface TransactionCompletion {
+
+	/**
+	 * Called after the transaction was committed or rolled back. No
+	 * transaction is open when this method is called.
+	 *
+	 * @param committed whether the transaction was committed
+	 */
+	public void afterCompletion(final boolean committed);
+}
@@ -51,6 +51,7 @@ import org.structr.core.Result;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.AbstractRelationship;
+import org.structr.core.graph.EntityVersions;
 import org.structr.core.graph.Factory;
 import org.structr.core.graph.NodeFactory;
 import org.structr.core.graph.NodeInterface;
@@ -109,6 +110,7 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 	}
 
 	private final SearchAttributeGroup rootGroup = new SearchAttributeGroup(BooleanClause.Occur.MUST);
+	private final Set<String> searchedTypes      = new LinkedHashSet<>();
 	private SearchAttributeGroup currentGroup    = rootGroup;
 	private PropertyKey sortKey                  = null;
 	private boolean publicOnly                   = false;
@@ -422,6 +424,22 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 
 	@Override
 	public Result<T> getResult() throws FrameworkException {
+
+		// a new or modified entity of one of the searched types can change the result
+		if (EntityVersions.isTracking()) {
+
+			if (searchedTypes.isEmpty()) {
+
+				EntityVersions.recordRead(EntityVersions.ANY_TYPE);
+
+			} else {
+
+				for (final String type : searchedTypes) {
+					EntityVersions.recordRead(EntityVersions.getTypeKey(type));
+				}
+			}
+		}
+
 		return doSearch();
 	}
 
@@ -552,6 +570,8 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 	public org.structr.core.app.Query<T> andType(final Class type) {
 
 		currentGroup.getSearchAttributes().add(new TypeSearchAttribute(type, BooleanClause.Occur.MUST, exactSearch));
+		searchedTypes.add(type.getSimpleName());
+
 		return this;
 	}
 
@@ -559,6 +579,8 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 	public org.structr.core.app.Query<T> orType(final Class type) {
 
 		currentGroup.getSearchAttributes().add(new TypeSearchAttribute(type, BooleanClause.Occur.SHOULD, exactSearch));
+		searchedTypes.add(type.getSimpleName());
+
 		return this;
 	}
 
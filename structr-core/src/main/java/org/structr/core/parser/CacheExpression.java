@@ -18,11 +18,11 @@
  */
 package org.structr.core.parser;
 
-import java.util.Random;
 import org.apache.commons.lang3.StringUtils;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
-import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.Tx;
 import org.structr.schema.action.ActionContext;
 
 /**
@@ -100,55 +100,41 @@ public class CacheExpression extends Expression {
 
 		final long timeout = ((Number)timeoutValue).longValue();
 
-		// get or create new cached value
-		final Services services = Services.getInstance();
-		CachedValue cachedValue = (CachedValue)services.getAttribute(key);
-		if (cachedValue == null) {
+		// single-flight lookup in the bounded function cache (this is the only place the value expression is evaluated)
+		return FunctionCache.getInstance().get(key, timeout, new FunctionCache.ValueSource() {
 
-			cachedValue = new CachedValue(timeout);
-			services.setAttribute(key, cachedValue);
+			@Override
+			public Object getValue() throws FrameworkException {
+				return valueExpression.evaluate(ctx, entity);
+			}
 
-		} else {
+			@Override
+			public FunctionCache.ValueSource detach() {
 
-			cachedValue.setTimeoutSeconds(timeout);
-		}
+				// take a private copy of the context in the calling thread, the original one belongs to the request
+				final ActionContext backgroundContext = ctx.detach();
 
-		// refresh value from value expression (this is the only place the value expression is evaluated)
-		if (cachedValue.isExpired()) {
-			cachedValue.refresh(valueExpression.evaluate(ctx, entity));
-		}
+				return new FunctionCache.ValueSource() {
 
-		return cachedValue.getValue();
-	}
+					@Override
+					public Object getValue() throws FrameworkException {
 
-	private static final class CachedValue {
+						try (final Tx tx = StructrApp.getInstance(backgroundContext.getSecurityContext()).tx()) {
 
-		private Random random       = new Random(System.currentTimeMillis());
-		private Object value        = null;
-		private long timeoutSeconds = 0L;
-		private long timeout        = 0L;
+							final Object value = valueExpression.evaluate(backgroundContext, entity);
+							tx.success();
 
-		public CachedValue(final long timeoutSeconds) {
-			setTimeoutSeconds(timeoutSeconds);
-		}
-
-		public final void setTimeoutSeconds(final long timeoutSeconds) {
-			this.timeoutSeconds = timeoutSeconds;
-		}
+							return value;
+						}
+					}
 
-		public final Object getValue() {
-			return value;
-		}
-
-		public final boolean isExpired() {
-			return System.currentTimeMillis() > timeout;
-		}
-
-		public final void refresh(final Object value) {
-
-			this.timeout = System.currentTimeMillis() + ((timeoutSeconds + random.nextInt(10)) * 1000);
-			this.value   = value;
-		}
+					@Override
+					public FunctionCache.ValueSource detach() {
+						return this;
+					}
+				};
+			}
+		});
 	}
 
 	@Override
@@ -25,6 +25,12 @@ import org.structr.core.GraphObject;
 import org.structr.schema.action.ActionContext;
 
 /**
+ * Base class for all nodes of a parsed expression tree.
+ *
+ * Parsed expression trees are cached and shared between threads, so
+ * implementations must not modify their state in evaluate() or
+ * transform(); the tree may only be built by {@link #add(Expression)}
+ * while parsing.
  *
  * @author Christian Morgner
  */
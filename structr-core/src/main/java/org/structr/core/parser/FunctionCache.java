@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.FixedSizeCache;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+
+/**
+ * Bounded store for the values of the cache() builtin function.
+ *
+ * Entries are evicted in LRU order once the configured maximum size is
+ * reached. When an entry expires, only one thread re-evaluates it while
+ * all other threads keep getting the stale value. If stale-while-revalidate
+ * is enabled, the refresh is done by a background thread and the calling
+ * thread gets the stale value as well.
+ *
+ * @author Christian Morgner
+ */
+public class FunctionCache {
+
+	private static final Logger logger                          = Logger.getLogger(FunctionCache.class.getName());
+
+	public static final String FUNCTION_CACHE_MAX_SIZE          = "FunctionCache.maxSize";
+	public static final String FUNCTION_CACHE_STALE_REVALIDATE  = "FunctionCache.staleWhileRevalidate";
+	public static final String FUNCTION_CACHE_REFRESH_THREADS   = "FunctionCache.refreshThreads";
+
+	private static FunctionCache instance                       = null;
+
+	private final AtomicLong hits                               = new AtomicLong(0L);
+	private final AtomicLong misses                             = new AtomicLong(0L);
+	private final AtomicLong staleHits                          = new AtomicLong(0L);
+	private final AtomicLong refreshes                          = new AtomicLong(0L);
+	private final AtomicLong backgroundRefreshes                = new AtomicLong(0L);
+	private final AtomicLong failedRefreshes                    = new AtomicLong(0L);
+	private final AtomicLong refreshTime                        = new AtomicLong(0L);
+	private final AtomicLong maxRefreshTime                     = new AtomicLong(0L);
+	private FixedSizeCache<String, CachedValue> cache           = null;
+	private ExecutorService refreshExecutor                     = null;
+	private boolean staleWhileRevalidate                        = false;
+
+	/**
+	 * Computes the value of a cache entry.
+	 */
+	public interface ValueSource {
+
+		/**
+		 * Computes the value in the calling thread, which is expected to
+		 * have an open transaction.
+		 */
+		Object getValue() throws FrameworkException;
+
+		/**
+		 * Returns a source that computes the value in a background thread.
+		 * This method is called in the calling thread before the refresh
+		 * is scheduled, so the returned source can take private copies of
+		 * all thread-bound state. Its getValue() method is responsible for
+		 * opening a transaction itself.
+		 */
+		ValueSource detach();
+	}
+
+	FunctionCache(final int maxSize, final boolean staleWhileRevalidate, final int refreshThreads) {
+
+		this.cache                = new FixedSizeCache<>(maxSize);
+		this.staleWhileRevalidate = staleWhileRevalidate;
+
+		if (staleWhileRevalidate) {
+
+			this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxSize), new RefreshThreadFactory());
+		}
+	}
+
+	public static synchronized FunctionCache getInstance() {
+
+		if (instance == null) {
+
+			final int maxSize            = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(FUNCTION_CACHE_MAX_SIZE, "10000"), 10000));
+			final int refreshThreads     = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(FUNCTION_CACHE_REFRESH_THREADS, "2"), 2));
+			final boolean swr            = Services.parseBoolean(StructrApp.getConfigurationValue(FUNCTION_CACHE_STALE_REVALIDATE, "false"), false);
+
+			instance = new FunctionCache(maxSize, swr, refreshThreads);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns the cached value for the given key, computing it from the
+	 * given source if there is no value yet. Expired values are refreshed
+	 * by exactly one thread at a time.
+	 *
+	 * @param key the cache key
+	 * @param timeoutSeconds the time to live of the value in seconds
+	 * @param source the source to compute the value from
+	 * @return the cached value
+	 * @throws FrameworkException
+	 */
+	public Object get(final String key, final long timeoutSeconds, final ValueSource source) throws FrameworkException {
+
+		final CachedValue cachedValue = getOrCreate(key);
+
+		cachedValue.setTimeoutSeconds(timeoutSeconds);
+
+		if (!cachedValue.isExpired()) {
+
+			hits.incrementAndGet();
+			return cachedValue.getValue();
+		}
+
+		if (!cachedValue.hasValue()) {
+
+			// there is nothing to return yet, so all threads wait for the first computation
+			synchronized (cachedValue) {
+
+				if (!cachedValue.hasValue()) {
+
+					misses.incrementAndGet();
+					refresh(cachedValue, source);
+
+				} else {
+
+					hits.incrementAndGet();
+				}
+
+				return cachedValue.getValue();
+			}
+		}
+
+		// value is stale, let exactly one thread refresh it
+		if (cachedValue.startRefresh()) {
+
+			if (refreshExecutor != null && refreshInBackground(cachedValue, source)) {
+
+				staleHits.incrementAndGet();
+				return cachedValue.getValue();
+			}
+
+			misses.incrementAndGet();
+			refresh(cachedValue, source);
+
+			return cachedValue.getValue();
+		}
+
+		// another thread is already refreshing the value
+		staleHits.incrementAndGet();
+
+		return cachedValue.getValue();
+	}
+
+	public void remove(final String key) {
+		cache.remove(key);
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+		final long refreshCount         = refreshes.get();
+
+		stats.put("size", cache.size());
+		stats.put("maxSize", cache.getMaxSize());
+		stats.put("staleWhileRevalidate", staleWhileRevalidate);
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		stats.put("staleHits", staleHits.get());
+		stats.put("evictions", cache.getEvictions());
+		stats.put("refreshes", refreshCount);
+		stats.put("backgroundRefreshes", backgroundRefreshes.get());
+		stats.put("failedRefreshes", failedRefreshes.get());
+		stats.put("averageRefreshTime", refreshCount > 0 ? refreshTime.get() / refreshCount : 0L);
+		stats.put("maxRefreshTime", maxRefreshTime.get());
+
+		return stats;
+	}
+
+	// ----- private methods -----
+	private CachedValue getOrCreate(final String key) {
+
+		// synchronize on the cache to make sure that there is only one entry per key
+		synchronized (cache) {
+
+			CachedValue cachedValue = cache.get(key);
+			if (cachedValue == null) {
+
+				cachedValue = new CachedValue();
+				cache.put(key, cachedValue);
+			}
+
+			return cachedValue;
+		}
+	}
+
+	private boolean refreshInBackground(final CachedValue cachedValue, final ValueSource source) {
+
+		final ValueSource detached = source.detach();
+
+		try {
+
+			refreshExecutor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						refresh(cachedValue, detached);
+						backgroundRefreshes.incrementAndGet();
+
+					} catch (Throwable t) {
+
+						logger.log(Level.WARNING, "Unable to refresh cached value in background: {0}", t.getMessage());
+					}
+				}
+			});
+
+			return true;
+
+		} catch (RejectedExecutionException rex) {
+
+			// refresh queue is full, fall back to refreshing in the calling thread
+			return false;
+		}
+	}
+
+	private void refresh(final CachedValue cachedValue, final ValueSource source) throws FrameworkException {
+
+		final long t0 = System.currentTimeMillis();
+
+		try {
+
+			cachedValue.refresh(source.getValue());
+
+		} catch (FrameworkException | RuntimeException ex) {
+
+			failedRefreshes.incrementAndGet();
+			throw ex;
+
+		} finally {
+
+			final long duration = System.currentTimeMillis() - t0;
+
+			refreshes.incrementAndGet();
+			refreshTime.addAndGet(duration);
+
+			long max = maxRefreshTime.get();
+			while (duration > max && !maxRefreshTime.compareAndSet(max, duration)) {
+				max = maxRefreshTime.get();
+			}
+
+			cachedValue.endRefresh();
+		}
+	}
+
+	// ----- nested classes -----
+	private static final class CachedValue {
+
+		private static final Random random         = new Random(System.currentTimeMillis());
+		private final AtomicBoolean refreshing     = new AtomicBoolean(false);
+		private volatile boolean hasValue          = false;
+		private volatile Object value              = null;
+		private volatile long timeoutSeconds       = 0L;
+		private volatile long timeout              = 0L;
+
+		public final void setTimeoutSeconds(final long timeoutSeconds) {
+			this.timeoutSeconds = timeoutSeconds;
+		}
+
+		public final Object getValue() {
+			return value;
+		}
+
+		public final boolean hasValue() {
+			return hasValue;
+		}
+
+		public final boolean isExpired() {
+			return System.currentTimeMillis() > timeout;
+		}
+
+		public final boolean startRefresh() {
+			return refreshing.compareAndSet(false, true);
+		}
+
+		public final void endRefresh() {
+			refreshing.set(false);
+		}
+
+		public final void refresh(final Object value) {
+
+			this.value    = value;
+			this.timeout  = System.currentTimeMillis() + ((timeoutSeconds + random.nextInt(10)) * 1000);
+			this.hasValue = true;
+		}
+	}
+
+	private static final class RefreshThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+
+			final Thread thread = new Thread(runnable, "FunctionCacheRefresh-" + count.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
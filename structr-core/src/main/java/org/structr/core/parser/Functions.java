@@ -73,6 +73,7 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.mail.EmailException;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicRelationshipType;
+import org.structr.common.FixedSizeCache;
 import org.structr.common.GraphObjectComparator;
 import org.structr.common.MailHelper;
 import org.structr.common.Permission;
@@ -117,6 +118,8 @@ public class Functions {
 	private static final Logger logger = Logger.getLogger(Functions.class.getName());
 	public static final Map<String, Function<Object, Object>> functions = new LinkedHashMap<>();
 
+	private static final FixedSizeCache<String, Expression> expressionCache = new FixedSizeCache<>(10000);
+
 	public static final String NULL_STRING = "___NULL___";
 
 	public static final String ERROR_MESSAGE_MD5 = "Usage: ${md5(string)}. Example: ${md5(this.email)}";
@@ -230,6 +233,39 @@ public class Functions {
 
 	public static Object evaluate(final ActionContext actionContext, final GraphObject entity, final String expression) throws FrameworkException {
 
+		Expression root = expressionCache.get(expression);
+		if (root == null) {
+
+			root = parse(expression);
+			expressionCache.put(expression, root);
+		}
+
+		return root.evaluate(actionContext, entity);
+	}
+
+	/**
+	 * Returns the statistics of the parsed expression cache.
+	 *
+	 * @return a map with cache statistics
+	 */
+	public static Map<String, Object> getExpressionCacheStatistics() {
+		return expressionCache.getStatistics();
+	}
+
+	public static void clearExpressionCache() {
+		expressionCache.clear();
+	}
+
+	/**
+	 * Parses the given expression into an expression tree. The resulting
+	 * tree is not modified by evaluation and can be shared between threads.
+	 *
+	 * @param expression
+	 * @return the root of the expression tree
+	 * @throws FrameworkException
+	 */
+	public static Expression parse(final String expression) throws FrameworkException {
+
 		final String expressionWithoutNewlines = expression.replace('\n', ' ');
 		final StreamTokenizer tokenizer        = new StreamTokenizer(new StringReader(expressionWithoutNewlines));
 		tokenizer.eolIsSignificant(true);
@@ -347,7 +383,7 @@ public class Functions {
 			throw new FrameworkException(422, "Invalid expression: mismatched closing bracket after " + lastToken);
 		}
 
-		return root.evaluate(actionContext, entity);
+		return root;
 	}
 
 	private static Expression checkReservedWords(final String word) throws FrameworkException {
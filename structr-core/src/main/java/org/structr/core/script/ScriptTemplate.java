@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.script;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A template string that is split into literal text and script expressions
+ * (<code>${...}</code> and <code>${{...}}</code>) once, so that it can be
+ * rendered by appending the segments to an output buffer instead of
+ * searching and replacing each expression in the source string.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Christian Morgner
+ */
+public class ScriptTemplate {
+
+	private final List<Segment> segments;
+	private final List<String> expressions;
+	private final String source;
+
+	private ScriptTemplate(final String source, final List<Segment> segments, final List<String> expressions) {
+
+		this.source      = source;
+		this.segments    = Collections.unmodifiableList(segments);
+		this.expressions = Collections.unmodifiableList(expressions);
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public List<Segment> getSegments() {
+		return segments;
+	}
+
+	public List<String> getExpressions() {
+		return expressions;
+	}
+
+	public boolean hasExpressions() {
+		return !expressions.isEmpty();
+	}
+
+	/**
+	 * Splits the given source into literal and expression segments.
+	 * Expressions start with <code>${</code> and end with the matching
+	 * closing brace, braces inside of quoted strings are ignored.
+	 *
+	 * @param source
+	 * @return the compiled template
+	 */
+	public static ScriptTemplate compile(final String source) {
+
+		final List<Segment> segments   = new ArrayList<>();
+		final List<String> expressions = new ArrayList<>();
+		final int length               = source.length();
+		boolean inSingleQuotes         = false;
+		boolean inDoubleQuotes         = false;
+		boolean inTemplate             = false;
+		boolean hasDollar              = false;
+		int level                      = 0;
+		int start                      = 0;
+		int end                        = 0;
+
+		for (int i=0; i<length; i++) {
+
+			final char c = source.charAt(i);
+
+			switch (c) {
+
+				case '\'':
+					if (inTemplate) {
+						inSingleQuotes = !inSingleQuotes;
+					}
+					hasDollar = false;
+					break;
+
+				case '\"':
+					if (inTemplate) {
+						inDoubleQuotes = !inDoubleQuotes;
+					}
+					hasDollar = false;
+					break;
+
+				case '$':
+					hasDollar = true;
+					break;
+
+				case '{':
+					if (!inTemplate && hasDollar) {
+
+						inTemplate = true;
+						start = i-1;
+
+					} else if (inTemplate && !inSingleQuotes && !inDoubleQuotes) {
+						level++;
+					}
+
+					hasDollar = false;
+					break;
+
+				case '}':
+
+					if (!inSingleQuotes && !inDoubleQuotes && inTemplate && level-- == 0) {
+
+						inTemplate = false;
+
+						// literal text before the expression
+						if (start > end) {
+							segments.add(new Segment(source.substring(end, start), false));
+						}
+
+						end = i+1;
+
+						final String expression = source.substring(start, end);
+
+						segments.add(new Segment(expression, true));
+						expressions.add(expression);
+
+						level = 0;
+					}
+					hasDollar = false;
+					break;
+
+				default:
+					hasDollar = false;
+					break;
+			}
+		}
+
+		// remaining literal text
+		if (end < length) {
+			segments.add(new Segment(source.substring(end), false));
+		}
+
+		return new ScriptTemplate(source, segments, expressions);
+	}
+
+	/**
+	 * A part of a template, either literal text or a script expression
+	 * including its delimiters.
+	 */
+	public static class Segment {
+
+		private final boolean expression;
+		private final String text;
+
+		public Segment(final String text, final boolean expression) {
+
+			this.expression = expression;
+			this.text       = text;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public boolean isExpression() {
+			return expression;
+		}
+	}
+}
@@ -1,15 +1,21 @@
 package org.structr.core.script;
 
 import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeJavaTopPackage;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
+import org.structr.common.FixedSizeCache;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.parser.Functions;
 import org.structr.core.property.DateProperty;
@@ -22,6 +28,14 @@ import org.structr.schema.parser.DatePropertyParser;
  */
 public class Scripting {
 
+	private static final Logger logger                      = Logger.getLogger(Scripting.class.getName());
+
+	public static final String SCRIPTING_OPTIMIZATION_LEVEL = "Scripting.optimizationLevel";
+
+	private static final FixedSizeCache<String, ScriptTemplate> templateCache = new FixedSizeCache<>(10000);
+	private static final FixedSizeCache<String, Script> scriptCache           = new FixedSizeCache<>(1000);
+	private static volatile ScriptableObject sharedScope                      = null;
+
 	public static String replaceVariables(final ActionContext actionContext, final GraphObject entity, final Object rawValue) throws FrameworkException {
 
 		if (rawValue == null) {
@@ -37,36 +51,39 @@ public class Scripting {
 
 			if (!actionContext.returnRawValue()) {
 
-				final Map<String, String> replacements = new LinkedHashMap<>();
+				final ScriptTemplate template = getTemplate(value);
+				if (template.hasExpressions()) {
 
-				for (final String expression : extractScripts(value)) {
+					final StringBuilder buf = new StringBuilder(value.length());
 
-					final Object extractedValue = evaluate(actionContext, entity, expression);
-					String partValue            = extractedValue != null ? formatToDefaultDateOrString(extractedValue) : "";
+					for (final ScriptTemplate.Segment segment : template.getSegments()) {
 
-					if (partValue != null) {
+						final String text = segment.getText();
 
-						replacements.put(expression, partValue);
+						if (segment.isExpression()) {
 
-					} else {
+							final Object extractedValue = evaluate(actionContext, entity, text);
+							String partValue            = extractedValue != null ? formatToDefaultDateOrString(extractedValue) : "";
 
-						// If the whole expression should be replaced, and partValue is null
-						// replace it by null to make it possible for HTML attributes to not be rendered
-						// and avoid something like ... selected="" ... which is interpreted as selected==true by
-						// all browsers
-						if (!value.equals(expression)) {
-							replacements.put(expression, "");
-						}
-					}
-				}
+							if (partValue != null) {
+
+								buf.append(partValue);
+
+							} else if (value.equals(text)) {
+
+								// a template that consists of a single expression is
+								// left untouched if the expression has no string value,
+								// otherwise the expression is removed from the output
+								buf.append(text);
+							}
 
-				// apply replacements
-				for (final Map.Entry<String, String> entry : replacements.entrySet()) {
+						} else {
 
-					final String group = entry.getKey();
-					final String replacement = entry.getValue();
+							buf.append(text);
+						}
+					}
 
-					value = value.replace(group, replacement);
+					value = buf.toString();
 				}
 			}
 
@@ -120,17 +137,15 @@ public class Scripting {
 
 	private static Object evaluateJavascript(final ActionContext actionContext, final GraphObject entity, final String script) throws FrameworkException {
 
-		final Context scriptingContext = Context.enter();
+		final Context scriptingContext = enterContext();
 
 		try {
 
-			// Set version to JavaScript1.2 so that we get object-literal style
-			// printing instead of "[object Object]"
-			scriptingContext.setLanguageVersion(Context.VERSION_1_2);
-
-			// Initialize the standard objects (Object, Function, etc.)
-			// This must be done before scripts can be executed.
-			Scriptable scope = scriptingContext.initStandardObjects();
+			// create a lightweight scope for this call that uses the
+			// shared (sealed) standard objects as its prototype
+			final Scriptable scope = scriptingContext.newObject(getSharedScope());
+			scope.setPrototype(getSharedScope());
+			scope.setParentScope(null);
 
 			final StructrScriptable scriptable = new StructrScriptable(actionContext, entity);
 			scriptable.setParentScope(scope);
@@ -141,7 +156,7 @@ public class Scripting {
 			// clear output buffer
 			actionContext.clear();
 
-			Object extractedValue = scriptingContext.evaluateString(scope, embedInFunction(script), "script source [" + ( !((NodeInterface)entity).getName().equals("") ? "\""+((NodeInterface)entity).getName()+"\":" : "" ) + entity.getUuid() + "], line ", 1, null);
+			Object extractedValue = getCompiledScript(scriptingContext, script).exec(scriptingContext, scope);
 
 			if (scriptable.hasException()) {
 				throw scriptable.getException();
@@ -165,7 +180,10 @@ public class Scripting {
 
 		} catch (Throwable t) {
 
-			t.printStackTrace();
+			// compiled scripts are shared, so the source name does not identify the entity
+			final String name = ((NodeInterface)entity).getName();
+
+			logger.log(Level.WARNING, "Error in script source [" + (name != null && !name.equals("") ? "\"" + name + "\":" : "") + entity.getUuid() + "]: " + t.getMessage(), t);
 
 		} finally {
 
@@ -175,91 +193,132 @@ public class Scripting {
 		return null;
 	}
 
-	private static String embedInFunction(final String source) {
+	public static Map<String, Object> getScriptCacheStatistics() {
+		return scriptCache.getStatistics();
+	}
 
-		final StringBuilder buf = new StringBuilder();
+	private static Context enterContext() {
 
-		buf.append("function main() { ");
-		buf.append(source);
-		buf.append("\n}\n");
-		buf.append("var _structrMainResult = main();");
+		final Context scriptingContext = Context.enter();
 
-		return buf.toString();
+		// Set version to JavaScript1.2 so that we get object-literal style
+		// printing instead of "[object Object]"
+		scriptingContext.setLanguageVersion(Context.VERSION_1_2);
+		scriptingContext.setOptimizationLevel(getOptimizationLevel());
+
+		return scriptingContext;
 	}
 
-	// this is only public to be testable :(
-	public static List<String> extractScripts(final String source) {
+	/**
+	 * Returns the top-level scope with the standard objects (Object,
+	 * Function, etc.). It is initialized only once and sealed, so it can
+	 * be shared by all script evaluations.
+	 *
+	 * The Java package objects (Packages, java, javax, etc.) are not
+	 * sealed, since they add a property for every package and class that
+	 * is accessed for the first time.
+	 */
+	private static ScriptableObject getSharedScope() {
 
-		final List<String> expressions = new LinkedList<>();
-		final int length               = source.length();
-		boolean inSingleQuotes         = false;
-		boolean inDoubleQuotes         = false;
-		boolean inTemplate             = false;
-		boolean hasDollar              = false;
-		int level                      = 0;
-		int start                      = 0;
-		int end                        = 0;
+		if (sharedScope == null) {
 
-		for (int i=0; i<length; i++) {
+			synchronized (Scripting.class) {
 
-			final char c = source.charAt(i);
+				if (sharedScope == null) {
 
-			switch (c) {
+					final Context scriptingContext = enterContext();
+					try {
 
-				case '\'':
-					if (inTemplate) {
-						inSingleQuotes = !inSingleQuotes;
-					}
-					hasDollar = false;
-					break;
+						final ScriptableObject scope = scriptingContext.initStandardObjects(null, true);
 
-				case '\"':
-					if (inTemplate) {
-						inDoubleQuotes = !inDoubleQuotes;
-					}
-					hasDollar = false;
-					break;
+						// replace the lazily loaded, sealed Java package objects
+						// by unsealed ones (this also defines getClass)
+						NativeJavaTopPackage.init(scriptingContext, scope, false);
 
-				case '$':
-					hasDollar = true;
-					break;
+						// force the remaining lazily loaded standard objects
+						// to be initialized before the scope is sealed
+						scriptingContext.evaluateString(scope, "RegExp; JavaAdapter;", "lazyLoad", 0, null);
+						scope.sealObject();
 
-				case '{':
-					if (!inTemplate && hasDollar) {
+						sharedScope = scope;
 
-						inTemplate = true;
-						start = i-1;
+					} finally {
 
-					} else if (inTemplate && !inSingleQuotes && !inDoubleQuotes) {
-						level++;
+						Context.exit();
 					}
+				}
+			}
+		}
+
+		return sharedScope;
+	}
 
-					hasDollar = false;
-					break;
+	/**
+	 * Returns the compiled script for the given source. Compiled scripts
+	 * do not depend on the entity they are evaluated for, so they are
+	 * cached by source only and shared by all entities.
+	 */
+	private static Script getCompiledScript(final Context scriptingContext, final String source) {
 
-				case '}':
+		Script script = scriptCache.get(source);
 
-					if (!inSingleQuotes && !inDoubleQuotes && inTemplate && level-- == 0) {
+		if (script == null) {
 
-						inTemplate = false;
-						end = i+1;
+			script = scriptingContext.compileString(embedInFunction(source), "script source", 1, null);
+			scriptCache.put(source, script);
+		}
 
-						expressions.add(source.substring(start, end));
+		return script;
+	}
 
-						level = 0;
-					}
-					hasDollar = false;
-					break;
+	private static int getOptimizationLevel() {
 
-				default:
-					hasDollar = false;
-					break;
-			}
+		final int level = Services.parseInt(StructrApp.getConfigurationValue(SCRIPTING_OPTIMIZATION_LEVEL, "0"), 0);
+
+		// valid levels are -1 (interpreted) to 9
+		return Math.max(-1, Math.min(9, level));
+	}
+
+	private static String embedInFunction(final String source) {
+
+		final StringBuilder buf = new StringBuilder();
+
+		buf.append("function main() { ");
+		buf.append(source);
+		buf.append("\n}\n");
+		buf.append("var _structrMainResult = main();");
+
+		return buf.toString();
+	}
+
+	// this is only public to be testable :(
+	public static List<String> extractScripts(final String source) {
+		return getTemplate(source).getExpressions();
+	}
+
+	/**
+	 * Returns the compiled template for the given source, compiling and
+	 * caching it if necessary.
+	 *
+	 * @param source
+	 * @return the compiled template
+	 */
+	public static ScriptTemplate getTemplate(final String source) {
+
+		ScriptTemplate template = templateCache.get(source);
+		if (template == null) {
+
+			template = ScriptTemplate.compile(source);
+			templateCache.put(source, template);
 		}
 
-		return expressions;
+		return template;
 	}
-	
+
+	public static Map<String, Object> getTemplateCacheStatistics() {
+		return templateCache.getStatistics();
+	}
+
 	private static String formatToDefaultDateOrString(final Object value) {
 		
 		if (value instanceof Date) {
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Modifier;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.agent.Agent;
+import org.structr.core.Service;
+import org.structr.core.entity.AbstractRelationship;
+import org.structr.core.graph.NodeInterface;
+
+/**
+ * Build-time generator for the entity class index that is read by
+ * {@link JarConfigurationProvider} at startup.
+ *
+ * This class is run in the <code>process-classes</code> phase of a module
+ * build with the module's output directory as its only argument. It writes
+ * the names of all node entities, relationship entities, services and agents
+ * found in that directory to {@link #INDEX_RESOURCE}, so that the
+ * configuration provider does not have to load and inspect every class of
+ * the resulting JAR file.
+ *
+ * Classes are loaded without being initialized, so no static initializers
+ * are run during the build. If a class cannot be loaded, it is unknown
+ * whether it belongs in the index, so no index is written at all and the
+ * configuration provider falls back to scanning all classes at startup.
+ *
+ * @author Christian Morgner
+ */
+public class EntityIndexGenerator {
+
+	private static final Logger logger = Logger.getLogger(EntityIndexGenerator.class.getName());
+
+	public static final String INDEX_RESOURCE = "META-INF/structr/entities.index";
+
+	/**
+	 * Writes the entity index. This method runs inside the JVM of the build
+	 * (exec:java), so errors are reported with an exception instead of
+	 * terminating the JVM.
+	 *
+	 * @param args the classes directory
+	 * @throws IOException if the index cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 1) {
+			throw new IllegalArgumentException("Usage: EntityIndexGenerator <classes directory>");
+		}
+
+		final File classesDir = new File(args[0]);
+		final int count       = writeIndex(classesDir);
+
+		if (count >= 0) {
+
+			logger.log(Level.INFO, "Wrote {0} entries to entity index in {1}", new Object[] { count, classesDir.getAbsolutePath() });
+
+		} else {
+
+			logger.log(Level.WARNING, "Entity index for {0} is incomplete and was not written, classes will be scanned at startup", classesDir.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Scans the given classes directory and writes the entity index file
+	 * into it. If any class cannot be loaded, an existing index file is
+	 * removed and no index is written.
+	 *
+	 * @param classesDir the output directory of a module build
+	 * @return the number of classes written to the index, or -1 if the
+	 * index is incomplete and was not written
+	 * @throws IOException
+	 */
+	public static int writeIndex(final File classesDir) throws IOException {
+
+		final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		final Set<String> classNames  = new TreeSet<>();
+		final Set<String> indexed     = new TreeSet<>();
+		final File indexFile          = new File(classesDir, INDEX_RESOURCE);
+		boolean complete              = true;
+
+		collectClassNames(classesDir, "", classNames);
+
+		for (final String className : classNames) {
+
+			try {
+
+				final Class clazz = Class.forName(className, false, classLoader);
+				if (isIndexable(clazz)) {
+
+					indexed.add(className);
+				}
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Unable to load class {0}: {1}", new Object[] { className, t.toString() });
+				complete = false;
+			}
+		}
+
+		if (!complete) {
+
+			// an incomplete index would hide entities, so let the runtime scan all classes instead
+			if (indexFile.exists() && !indexFile.delete()) {
+				throw new IOException("Unable to delete outdated entity index " + indexFile.getAbsolutePath());
+			}
+
+			return -1;
+		}
+
+		indexFile.getParentFile().mkdirs();
+
+		try (final PrintWriter writer = new PrintWriter(indexFile, "UTF-8")) {
+
+			for (final String className : indexed) {
+				writer.println(className);
+			}
+		}
+
+		return indexed.size();
+	}
+
+	/**
+	 * Indicates whether the given class needs to be registered by the
+	 * configuration provider at startup.
+	 *
+	 * @param clazz
+	 * @return whether the class belongs in the entity index
+	 */
+	public static boolean isIndexable(final Class clazz) {
+
+		final boolean isAbstract = Modifier.isAbstract(clazz.getModifiers());
+
+		if (NodeInterface.class.isAssignableFrom(clazz)) {
+			return true;
+		}
+
+		if (isAbstract) {
+			return false;
+		}
+
+		return AbstractRelationship.class.isAssignableFrom(clazz) || Service.class.isAssignableFrom(clazz) || Agent.class.isAssignableFrom(clazz);
+	}
+
+	// ----- private methods -----
+	private static void collectClassNames(final File dir, final String packagePrefix, final Set<String> classNames) {
+
+		final File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (final File file : files) {
+
+			final String name = file.getName();
+
+			if (file.isDirectory()) {
+
+				collectClassNames(file, packagePrefix.concat(name).concat("."), classNames);
+
+			} else if (name.endsWith(".class")) {
+
+				classNames.add(packagePrefix.concat(name.substring(0, name.length() - 6)));
+			}
+		}
+	}
+}
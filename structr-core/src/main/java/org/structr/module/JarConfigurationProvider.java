@@ -25,7 +25,9 @@ import org.structr.core.entity.GenericNode;
 
 //~--- JDK imports ------------------------------------------------------------
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
@@ -52,6 +54,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.structr.common.DefaultFactoryDefinition;
 import org.structr.common.FactoryDefinition;
@@ -118,6 +121,41 @@ public class JarConfigurationProvider implements ConfigurationProvider {
 		scanResources();
 	}
 
+	@Override
+	public ConfigurationProvider copy() {
+
+		final JarConfigurationProvider copy = new JarConfigurationProvider();
+
+		copy.relationshipEntityClassCache.putAll(relationshipEntityClassCache);
+		copy.nodeEntityClassCache.putAll(nodeEntityClassCache);
+		copy.agentClassCache.putAll(agentClassCache);
+
+		copy.agentPackages.addAll(agentPackages);
+		copy.nodeEntityPackages.addAll(nodeEntityPackages);
+		copy.relationshipPackages.addAll(relationshipPackages);
+
+		copy.combinedTypeRelationClassCache.putAll(combinedTypeRelationClassCache);
+		copySets(interfaceCache, copy.interfaceCache);
+
+		copyMapsOfSets(globalPropertyViewMap, copy.globalPropertyViewMap);
+		copyMapsOfSets(globalValidatorMap, copy.globalValidatorMap);
+		copyMaps(globalClassDBNamePropertyMap, copy.globalClassDBNamePropertyMap);
+		copyMaps(globalClassJSNamePropertyMap, copy.globalClassJSNamePropertyMap);
+		copyMaps(globalAggregatedPropertyGroupMap, copy.globalAggregatedPropertyGroupMap);
+		copyMaps(globalPropertyGroupMap, copy.globalPropertyGroupMap);
+		copyMaps(viewTransformations, copy.viewTransformations);
+		copySets(globalTransformationMap, copy.globalTransformationMap);
+		copyMaps(exportedMethodMap, copy.exportedMethodMap);
+		copySets(interfaceMap, copy.interfaceMap);
+		copy.reverseInterfaceMap.putAll(reverseInterfaceMap);
+
+		copy.globalKnownPropertyKeys.addAll(globalKnownPropertyKeys);
+		copy.dynamicViews.addAll(dynamicViews);
+		copy.factoryDefinition = factoryDefinition;
+
+		return copy;
+	}
+
 	@Override
 	public void shutdown() {
 
@@ -1036,6 +1074,22 @@ public class JarConfigurationProvider implements ConfigurationProvider {
 
 			ZipFile zipFile = new ZipFile(new File(resource), ZipFile.OPEN_READ);
 
+			// use entity index written at build time if present
+			final ZipEntry indexEntry = zipFile.getEntry(EntityIndexGenerator.INDEX_RESOURCE);
+			if (indexEntry != null) {
+
+				try (final InputStream is = zipFile.getInputStream(indexEntry)) {
+
+					readEntityIndex(is, classes);
+				}
+
+				zipFile.close();
+
+				logger.log(Level.FINE, "Using entity index of {0}", resource);
+
+				return ret;
+			}
+
 			// conventions that might be useful here:
 			// ignore entries beginning with meta-inf/
 			// handle entries beginning with images/ as IMAGE
@@ -1065,15 +1119,74 @@ public class JarConfigurationProvider implements ConfigurationProvider {
 		} else if (resource.endsWith(classesDir)) {
 
 			addClassesRecursively(new File(resource), classesDir, classes);
+			useEntityIndexIfUpToDate(new File(resource), classes);
 
 		} else if (resource.endsWith(testClassesDir)) {
 
 			addClassesRecursively(new File(resource), testClassesDir, classes);
+			useEntityIndexIfUpToDate(new File(resource), classes);
 		}
 
 		return ret;
 	}
 
+	/**
+	 * Replaces the given set of class names with the contents of the entity
+	 * index in the given directory, but only if the index is newer than all
+	 * class files in that directory. (Classes compiled by an IDE after the
+	 * last build would otherwise be missing.)
+	 */
+	private void useEntityIndexIfUpToDate(final File dir, final Set<String> classes) throws IOException {
+
+		final File indexFile = new File(dir, EntityIndexGenerator.INDEX_RESOURCE);
+		if (indexFile.exists() && indexFile.lastModified() >= getNewestModificationTime(dir)) {
+
+			classes.clear();
+
+			try (final InputStream is = new FileInputStream(indexFile)) {
+
+				readEntityIndex(is, classes);
+			}
+
+			logger.log(Level.FINE, "Using entity index of {0}", dir.getAbsolutePath());
+		}
+	}
+
+	private void readEntityIndex(final InputStream is, final Set<String> classes) throws IOException {
+
+		for (final String line : IOUtils.readLines(is, "UTF-8")) {
+
+			final String className = line.trim();
+			if (!className.isEmpty()) {
+
+				classes.add(className);
+			}
+		}
+	}
+
+	private long getNewestModificationTime(final File dir) {
+
+		final File[] files = dir.listFiles();
+		long newest        = 0L;
+
+		if (files != null) {
+
+			for (final File file : files) {
+
+				if (file.isDirectory()) {
+
+					newest = Math.max(newest, getNewestModificationTime(file));
+
+				} else if (file.getName().endsWith(".class")) {
+
+					newest = Math.max(newest, file.lastModified());
+				}
+			}
+		}
+
+		return newest;
+	}
+
 	private void addClassesRecursively(File dir, String prefix, Set<String> classes) {
 
 		if (dir == null) {
@@ -1374,4 +1487,30 @@ public class JarConfigurationProvider implements ConfigurationProvider {
 
 		return viewTransformationMap;
 	}
+
+	// ----- private static methods -----
+	private static <K, V> void copySets(final Map<K, Set<V>> source, final Map<K, Set<V>> target) {
+
+		for (final Entry<K, Set<V>> entry : source.entrySet()) {
+			target.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+		}
+	}
+
+	private static <K, L, V> void copyMaps(final Map<K, Map<L, V>> source, final Map<K, Map<L, V>> target) {
+
+		for (final Entry<K, Map<L, V>> entry : source.entrySet()) {
+			target.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+		}
+	}
+
+	private static <K, L, V> void copyMapsOfSets(final Map<K, Map<L, Set<V>>> source, final Map<K, Map<L, Set<V>>> target) {
+
+		for (final Entry<K, Map<L, Set<V>>> entry : source.entrySet()) {
+
+			final Map<L, Set<V>> map = new LinkedHashMap<>();
+
+			copySets(entry.getValue(), map);
+			target.put(entry.getKey(), map);
+		}
+	}
 }
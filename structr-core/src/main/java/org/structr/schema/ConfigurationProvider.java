@@ -42,6 +42,14 @@ public interface ConfigurationProvider {
 	public void initialize();
 	public void shutdown();
 
+	/**
+	 * Returns a copy of this configuration provider that can be modified
+	 * without affecting this one.
+	 *
+	 * @return the copy
+	 */
+	public ConfigurationProvider copy();
+
 	public void unregisterEntityType(final String typeName);
 	public void registerEntityType(final Class newType);
 	public void registerEntityCreationTransformation(final Class type, final Transformation<GraphObject> transformation);
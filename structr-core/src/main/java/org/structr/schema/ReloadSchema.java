@@ -24,6 +24,10 @@ import org.structr.common.error.FrameworkException;
 import org.structr.core.graph.TransactionPostProcess;
 
 /**
+ * Compiles the schema before a schema change is committed, so that
+ * compiler errors fail the transaction. The new types are activated in
+ * the background after the commit, see
+ * {@link SchemaService#compileSchemaChange(ErrorBuffer)}.
  *
  * @author Christian Morgner
  */
@@ -31,6 +35,6 @@ public class ReloadSchema implements TransactionPostProcess {
 
 	@Override
 	public boolean execute(SecurityContext securityContext, ErrorBuffer errorBuffer) throws FrameworkException {
-		return SchemaHelper.reloadSchema(errorBuffer);
+		return SchemaHelper.compileSchemaChange(errorBuffer);
 	}
 }
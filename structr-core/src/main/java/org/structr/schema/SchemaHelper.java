@@ -47,6 +47,7 @@ import org.structr.core.entity.ResourceAccess;
 import org.structr.core.entity.SchemaNode;
 import org.structr.core.entity.relationship.SchemaRelationship;
 import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.script.Scripting;
 import org.structr.schema.action.ActionContext;
@@ -231,28 +232,56 @@ public class SchemaHelper {
 
 	public static boolean reloadSchema(final ErrorBuffer errorBuffer) {
 
-		try {
+		try (final Tx tx = StructrApp.getInstance().tx()) {
 
-			for (final SchemaNode schemaNode : StructrApp.getInstance().nodeQuery(SchemaNode.class).getAsList()) {
+			createDynamicGrants();
 
-				createDynamicGrants(schemaNode.getResourceSignature());
+			tx.success();
 
-			}
+		} catch (Throwable t) {
 
-			for (final SchemaRelationship schemaRelationship : StructrApp.getInstance().relationshipQuery(SchemaRelationship.class).getAsList()) {
+			t.printStackTrace();
+		}
 
-				createDynamicGrants(schemaRelationship.getResourceSignature());
-				createDynamicGrants(schemaRelationship.getInverseResourceSignature());
+		return SchemaService.reloadSchema(errorBuffer);
 
-			}
+	}
+
+	/**
+	 * Compiles a schema change in the transaction that made it, see
+	 * {@link SchemaService#compileSchemaChange(ErrorBuffer)}.
+	 *
+	 * @param errorBuffer the error buffer that receives the compiler errors
+	 * @return whether the schema was compiled without errors
+	 */
+	public static boolean compileSchemaChange(final ErrorBuffer errorBuffer) {
+
+		try {
+
+			createDynamicGrants();
 
 		} catch (Throwable t) {
 
 			t.printStackTrace();
 		}
 
-		return SchemaService.reloadSchema(errorBuffer);
+		return SchemaService.compileSchemaChange(errorBuffer);
+	}
+
+	private static void createDynamicGrants() throws FrameworkException {
+
+		for (final SchemaNode schemaNode : StructrApp.getInstance().nodeQuery(SchemaNode.class).getAsList()) {
 
+			createDynamicGrants(schemaNode.getResourceSignature());
+
+		}
+
+		for (final SchemaRelationship schemaRelationship : StructrApp.getInstance().relationshipQuery(SchemaRelationship.class).getAsList()) {
+
+			createDynamicGrants(schemaRelationship.getResourceSignature());
+			createDynamicGrants(schemaRelationship.getInverseResourceSignature());
+
+		}
 	}
 
 	public static List<DynamicResourceAccess> createDynamicGrants(final String signature) {
@@ -28,7 +28,13 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.StructrConf;
@@ -36,22 +42,62 @@ import org.structr.common.error.ErrorBuffer;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.Service;
+import org.structr.core.Services;
 import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.SchemaNode;
 import org.structr.core.entity.relationship.SchemaRelationship;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.TransactionCompletion;
 import org.structr.core.graph.Tx;
 import org.structr.schema.compiler.NodeExtender;
 
 /**
+ * Compiles the dynamic schema and registers the resulting types.
+ *
+ * A schema reload runs in three phases: the sources are generated, the
+ * classes are compiled, and a new configuration provider is built from a
+ * copy of the active one. The new provider is then activated with a single
+ * reference assignment, so other threads either see the complete old
+ * schema or the complete new one. Each successful swap increments the
+ * schema generation (see {@link #getGeneration()}).
+ *
+ * Schema changes are compiled in the transaction that changed the schema
+ * (see {@link ReloadSchema}), so compiler errors still fail that
+ * transaction. Only the activation of the new types runs in the
+ * background after the commit, transactions that are started while an
+ * activation is pending wait for it (see {@link #awaitActivation()}).
  *
  * @author Christian Morgner
  */
 public class SchemaService implements Service {
 
 	private static final Logger logger                            = Logger.getLogger(SchemaService.class.getName());
-	private static final AtomicBoolean compiling                  = new AtomicBoolean(false);
+	private static final ReentrantLock compileLock                = new ReentrantLock();
 	private static final Map<String, String> builtinTypeMap       = new LinkedHashMap<>();
+	private static final AtomicLong generation                    = new AtomicLong(0L);
+	private static final AtomicLong sequence                      = new AtomicLong(0L);
+	private static final AtomicLong reloadCount                   = new AtomicLong(0L);
+	private static final AtomicLong totalCompileTime              = new AtomicLong(0L);
+	private static final ExecutorService activationExecutor       = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+
+			final Thread thread = new Thread(runnable, "SchemaActivation");
+
+			thread.setDaemon(true);
+			activationThread = thread;
+
+			return thread;
+		}
+	});
+
+	private static volatile Thread activationThread               = null;
+	private static volatile Future<?> pendingActivation           = null;
+	private static volatile long activeSequence                   = 0L;
+	private static volatile long lastCompileTime                  = 0L;
+	private static volatile long lastSwapTime                     = 0L;
 
 	@Override
 	public void injectArguments(final Command command) {
@@ -68,84 +114,167 @@ public class SchemaService implements Service {
 
 	public static boolean reloadSchema(final ErrorBuffer errorBuffer) {
 
-		final ConfigurationProvider config = StructrApp.getConfiguration();
-		boolean success = true;
+		// a reload that is triggered by the reload itself (e.g. when the
+		// builtin types are created) is ignored, the running one will
+		// include it
+		if (compileLock.isHeldByCurrentThread()) {
+			return true;
+		}
 
-		// compiling must only be done once
-		if (compiling.compareAndSet(false, true)) {
+		// concurrent reloads wait for each other, so that the schema change
+		// of the second one is not lost
+		compileLock.lock();
+		try {
 
-			// this is a very critical section :)
-			synchronized (SchemaService.class) {
+			final Schema schema;
 
-				final Set<String> dynamicViews  = new LinkedHashSet<>();
-				final NodeExtender nodeExtender = new NodeExtender();
+			// 1. collect sources
+			try (final Tx tx = StructrApp.getInstance().tx()) {
 
-				try (final Tx tx = StructrApp.getInstance().tx()) {
+				SchemaService.ensureBuiltinTypesExist();
+				schema = collectSchema(errorBuffer);
 
-					SchemaService.ensureBuiltinTypesExist();
+				tx.success();
+			}
 
-					// collect node classes
-					for (final SchemaNode schemaNode : StructrApp.getInstance().nodeQuery(SchemaNode.class).getAsList()) {
+			// 2. compile all classes at once, outside of the transaction
+			if (!compile(schema, errorBuffer)) {
+				return false;
+			}
 
-						nodeExtender.addClass(schemaNode.getClassName(), schemaNode.getSource(errorBuffer));
+			// 3. + 4. build and activate the new configuration provider
+			activate(schema);
 
-						final String auxSource = schemaNode.getAuxiliarySource();
-						if (auxSource != null) {
+			return true;
 
-							nodeExtender.addClass("_" + schemaNode.getClassName() + "Helper", auxSource);
-						}
+		} catch (Throwable t) {
 
-						dynamicViews.addAll(schemaNode.getViews());
-					}
+			logger.log(Level.SEVERE, "Unable to compile dynamic schema.", t);
 
-					// collect relationship classes
-					for (final SchemaRelationship schemaRelationship : StructrApp.getInstance().relationshipQuery(SchemaRelationship.class).getAsList()) {
+			return false;
 
-						nodeExtender.addClass(schemaRelationship.getClassName(), schemaRelationship.getSource(errorBuffer));
+		} finally {
 
-						final String auxSource = schemaRelationship.getAuxiliarySource();
-						if (auxSource != null) {
-
-							nodeExtender.addClass("_" + schemaRelationship.getClassName() + "Helper", auxSource);
-						}
+			compileLock.unlock();
+		}
+	}
 
-						dynamicViews.addAll(schemaRelationship.getViews());
-					}
+	/**
+	 * Compiles the schema in the current transaction, before a schema
+	 * change is committed, and activates the new types in the background
+	 * after the commit. Schema changes are serialized from compilation
+	 * until commit, so every compilation includes all committed changes.
+	 *
+	 * @param errorBuffer the error buffer that receives the compiler errors
+	 * @return whether the schema was compiled without errors
+	 */
+	public static boolean compileSchemaChange(final ErrorBuffer errorBuffer) {
+
+		// see reloadSchema()
+		if (compileLock.isHeldByCurrentThread()) {
+			return true;
+		}
 
-					// compile all classes at once and register
-					Map<String, Class> newTypes = nodeExtender.compile(errorBuffer);
-					for (final Class newType : newTypes.values()) {
+		compileLock.lock();
 
-						config.registerEntityType(newType);
+		final Schema[] compiled = new Schema[1];
 
-						// instantiate classes to execute
-						// static initializer of helpers
-						try { newType.newInstance(); } catch (Throwable t) {}
-					}
+		// released when the transaction is complete, in either case
+		TransactionCommand.afterCompletion(new TransactionCompletion() {
 
-					success = !errorBuffer.hasError();
+			@Override
+			public void afterCompletion(final boolean committed) {
 
-					// inject views in configuration provider
-					if (success) {
+				try {
 
-						config.registerDynamicViews(dynamicViews);
-						tx.success();
+					if (committed && compiled[0] != null) {
+						submitActivation(compiled[0]);
 					}
 
-				} catch (Throwable t) {
-
-					logger.log(Level.SEVERE, "Unable to compile dynamic schema.", t);
-					t.printStackTrace();
+				} finally {
 
-					success = false;
+					compileLock.unlock();
 				}
 			}
+		});
+
+		try {
 
-			// compiling done
-			compiling.set(false);
+			final Schema schema = collectSchema(errorBuffer);
+			if (compile(schema, errorBuffer)) {
+
+				compiled[0] = schema;
+				return true;
+			}
+
+		} catch (FrameworkException | ClassNotFoundException ex) {
+
+			logger.log(Level.WARNING, "Unable to compile dynamic schema: {0}", ex.getMessage());
 		}
 
-		return success;
+		return false;
+	}
+
+	/**
+	 * Waits until the types of the last committed schema change are
+	 * active. Called when a transaction is started, so that transactions
+	 * never see an older schema than the last committed one.
+	 */
+	public static void awaitActivation() {
+
+		final Future<?> activation = pendingActivation;
+		if (activation != null && !activation.isDone() && Thread.currentThread() != activationThread && !compileLock.isHeldByCurrentThread()) {
+
+			try {
+
+				activation.get();
+
+			} catch (InterruptedException iex) {
+
+				Thread.currentThread().interrupt();
+
+			} catch (ExecutionException eex) {
+
+				logger.log(Level.SEVERE, "Unable to activate dynamic schema.", eex.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Returns the current schema generation. The generation is incremented
+	 * every time a new set of dynamic types has been activated, so callers
+	 * can use it to detect schema changes, e.g. to invalidate caches.
+	 *
+	 * @return the current schema generation
+	 */
+	public static long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * @return whether a schema reload is currently in progress
+	 */
+	public static boolean isCompiling() {
+		return compileLock.isLocked();
+	}
+
+	/**
+	 * Returns statistics about the schema reloads since startup.
+	 *
+	 * @return a map with reload statistics
+	 */
+	public static Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("generation", generation.get());
+		stats.put("compiling", isCompiling());
+		stats.put("reloads", reloadCount.get());
+		stats.put("lastCompileTime", lastCompileTime);
+		stats.put("lastSwapTime", lastSwapTime);
+		stats.put("totalCompileTime", totalCompileTime.get());
+
+		return stats;
 	}
 
 	@Override
@@ -167,6 +296,138 @@ public class SchemaService implements Service {
 	}
 
 	// ----- private methods -----
+	private static Schema collectSchema(final ErrorBuffer errorBuffer) throws FrameworkException, ClassNotFoundException {
+
+		final Schema schema = new Schema(sequence.incrementAndGet());
+
+		collectSources(schema.nodeExtender, schema.dynamicViews, errorBuffer);
+
+		return schema;
+	}
+
+	private static boolean compile(final Schema schema, final ErrorBuffer errorBuffer) throws ClassNotFoundException {
+
+		final long t0 = System.currentTimeMillis();
+
+		schema.types = schema.nodeExtender.compile(errorBuffer);
+
+		lastCompileTime = System.currentTimeMillis() - t0;
+		totalCompileTime.addAndGet(lastCompileTime);
+
+		return !errorBuffer.hasError();
+	}
+
+	private static void submitActivation(final Schema schema) {
+
+		pendingActivation = activationExecutor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+
+				compileLock.lock();
+				try {
+
+					activate(schema);
+
+				} catch (Throwable t) {
+
+					logger.log(Level.SEVERE, "Unable to activate dynamic schema.", t);
+
+				} finally {
+
+					compileLock.unlock();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Builds the new configuration provider and swaps it in, must be called
+	 * with the compile lock held.
+	 */
+	private static void activate(final Schema schema) {
+
+		// a newer schema was activated in the meantime
+		if (schema.sequence < activeSequence) {
+			return;
+		}
+
+		final long t0 = System.currentTimeMillis();
+
+		// the static initializers of the new types register their
+		// properties in the configuration provider of this thread
+		final ConfigurationProvider config = StructrApp.getConfiguration().copy();
+
+		Services.setLocalConfigurationProvider(config);
+		try {
+
+			for (final Class newType : schema.types.values()) {
+
+				// instantiate classes to execute
+				// static initializer of helpers
+				try { newType.newInstance(); } catch (Throwable t) {}
+			}
+
+			for (final Class newType : schema.types.values()) {
+
+				config.registerEntityType(newType);
+			}
+
+			// inject views in configuration provider
+			config.registerDynamicViews(schema.dynamicViews);
+
+		} finally {
+
+			Services.setLocalConfigurationProvider(null);
+		}
+
+		synchronized (SchemaService.class) {
+
+			Services.getInstance().setConfigurationProvider(config);
+
+			schema.nodeExtender.publish();
+			generation.incrementAndGet();
+		}
+
+		activeSequence = schema.sequence;
+		lastSwapTime   = System.currentTimeMillis() - t0;
+
+		reloadCount.incrementAndGet();
+
+		logger.log(Level.INFO, "Schema generation {0} active, compilation took {1} ms, activation took {2} ms", new Object[] { generation.get(), lastCompileTime, lastSwapTime });
+	}
+
+	private static void collectSources(final NodeExtender nodeExtender, final Set<String> dynamicViews, final ErrorBuffer errorBuffer) throws FrameworkException, ClassNotFoundException {
+
+		// collect node classes
+		for (final SchemaNode schemaNode : StructrApp.getInstance().nodeQuery(SchemaNode.class).getAsList()) {
+
+			nodeExtender.addClass(schemaNode.getClassName(), schemaNode.getSource(errorBuffer));
+
+			final String auxSource = schemaNode.getAuxiliarySource();
+			if (auxSource != null) {
+
+				nodeExtender.addClass("_" + schemaNode.getClassName() + "Helper", auxSource);
+			}
+
+			dynamicViews.addAll(schemaNode.getViews());
+		}
+
+		// collect relationship classes
+		for (final SchemaRelationship schemaRelationship : StructrApp.getInstance().relationshipQuery(SchemaRelationship.class).getAsList()) {
+
+			nodeExtender.addClass(schemaRelationship.getClassName(), schemaRelationship.getSource(errorBuffer));
+
+			final String auxSource = schemaRelationship.getAuxiliarySource();
+			if (auxSource != null) {
+
+				nodeExtender.addClass("_" + schemaRelationship.getClassName() + "Helper", auxSource);
+			}
+
+			dynamicViews.addAll(schemaRelationship.getViews());
+		}
+	}
+
 	public static void ensureBuiltinTypesExist() throws FrameworkException {
 
 		final App app = StructrApp.getInstance();
@@ -182,9 +443,16 @@ public class SchemaService implements Service {
 				schemaNode = app.create(SchemaNode.class, type);
 			}
 
-			schemaNode.setProperty(SchemaNode.extendsClass, fqcn);
-			schemaNode.unlockReadOnlyPropertiesOnce();
-			schemaNode.setProperty(SchemaNode.isBuiltinType, true);
+			// avoid write locks on the builtin types if nothing has changed
+			if (!fqcn.equals(schemaNode.getProperty(SchemaNode.extendsClass))) {
+				schemaNode.setProperty(SchemaNode.extendsClass, fqcn);
+			}
+
+			if (!Boolean.TRUE.equals(schemaNode.getProperty(SchemaNode.isBuiltinType))) {
+
+				schemaNode.unlockReadOnlyPropertiesOnce();
+				schemaNode.setProperty(SchemaNode.isBuiltinType, true);
+			}
 		}
 	}
 
@@ -192,4 +460,17 @@ public class SchemaService implements Service {
 	public boolean isVital() {
 		return true;
 	}
+
+	// ----- nested classes -----
+	private static class Schema {
+
+		private final Set<String> dynamicViews  = new LinkedHashSet<>();
+		private final NodeExtender nodeExtender = new NodeExtender();
+		private Map<String, Class> types        = null;
+		private long sequence                   = 0L;
+
+		public Schema(final long sequence) {
+			this.sequence = sequence;
+		}
+	}
 }
@@ -83,6 +83,41 @@ public class ActionContext {
 		init(data);
 	}
 
+	/**
+	 * Creates a copy of this context that can be used in another thread,
+	 * even after the current request has been completed. Unlike the copy
+	 * constructor, the copy does not share any mutable state with this
+	 * context: variables, constants, counters and headers are copied, the
+	 * copy has its own error buffer and a copy of the security context
+	 * that does not depend on the request.
+	 *
+	 * @return the copy
+	 */
+	public ActionContext detach() {
+
+		final ActionContext copy = new ActionContext(this);
+
+		copy.isolate(securityContext.copy(null));
+
+		return copy;
+	}
+
+	/**
+	 * Replaces all state that this context shares with the context it was
+	 * copied from by private copies and sets the given security context.
+	 *
+	 * @param securityContext the security context of this context
+	 */
+	protected void isolate(final SecurityContext securityContext) {
+
+		this.securityContext = securityContext;
+		this.tmpStore        = new HashMap<>(tmpStore);
+		this.constants       = new HashMap<>(constants);
+		this.counters        = new HashMap<>(counters);
+		this.headers         = new HashMap<>(headers);
+		this.errorBuffer     = new ErrorBuffer();
+	}
+
 	private void init(final Object data) {
 
 		constants.put("data", data);
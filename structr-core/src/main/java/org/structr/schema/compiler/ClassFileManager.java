@@ -20,25 +20,40 @@ package org.structr.schema.compiler;
 
 import java.io.IOException;
 import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.JavaFileObject.Kind;
 import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import org.structr.module.JarConfigurationProvider;
 
 /**
  *
  * @author Christian Morgner (christian@morgner.de)
  */
-public class ClassFileManager extends ForwardingJavaFileManager {
+public class ClassFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
 
 	/**
 	 * Instance of JavaClassObject that will store the compiled byte code of
 	 * our class
 	 */
-	private final Map<String, JavaClassObject> objects = new LinkedHashMap<>();
+	private final Map<String, JavaClassObject> objects = new ConcurrentHashMap<>();
+
+	/**
+	 * The binary names of all class objects that were created from a given
+	 * source, so that the compiled classes of a single type can be replaced
+	 * or removed without affecting the other types.
+	 */
+	private final Map<String, Set<String>> outputs = new ConcurrentHashMap<>();
 
 	/**
 	 * Will initialize the manager with the specified standard java file
@@ -94,7 +109,131 @@ public class ClassFileManager extends ForwardingJavaFileManager {
 		JavaClassObject obj = new JavaClassObject(className, kind);
 		
 		objects.put(className, obj);
+
+		if (sibling instanceof CharSequenceJavaFileObject) {
+			getOutputs(((CharSequenceJavaFileObject)sibling).getClassName()).add(className);
+		}
 		
 		return obj;
 	}
+
+	/**
+	 * Makes the already compiled dynamic classes visible to the compiler,
+	 * so that a compilation unit can be compiled against the classes of
+	 * types that were not recompiled.
+	 *
+	 * @param location
+	 * @param packageName
+	 * @param kinds
+	 * @param recurse
+	 * @return the file objects in the given package
+	 * @throws IOException
+	 */
+	@Override
+	public Iterable<JavaFileObject> list(final Location location, final String packageName, final Set<Kind> kinds, final boolean recurse) throws IOException {
+
+		final Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+
+		if (StandardLocation.CLASS_PATH.equals(location) && JarConfigurationProvider.DYNAMIC_TYPES_PACKAGE.equals(packageName) && kinds.contains(Kind.CLASS)) {
+
+			final List<JavaFileObject> combined = new ArrayList<>();
+
+			for (final JavaFileObject file : files) {
+				combined.add(file);
+			}
+
+			combined.addAll(objects.values());
+
+			return combined;
+		}
+
+		return files;
+	}
+
+	@Override
+	public String inferBinaryName(final Location location, final JavaFileObject file) {
+
+		if (file instanceof JavaClassObject) {
+			return ((JavaClassObject)file).getBinaryName();
+		}
+
+		return super.inferBinaryName(location, file);
+	}
+
+	/**
+	 * Registers a class object that was created from the source of the given
+	 * type outside of the compiler, e.g. when restoring it from a cache.
+	 *
+	 * @param sourceClassName
+	 * @param obj
+	 */
+	public void addClassObject(final String sourceClassName, final JavaClassObject obj) {
+
+		objects.put(obj.getBinaryName(), obj);
+		getOutputs(sourceClassName).add(obj.getBinaryName());
+	}
+
+	/**
+	 * Returns all class objects that were created from the source of the
+	 * given type, keyed by binary name.
+	 *
+	 * @param sourceClassName
+	 * @return the class objects of the given type
+	 */
+	public Map<String, JavaClassObject> getClassObjects(final String sourceClassName) {
+
+		final Map<String, JavaClassObject> result = new LinkedHashMap<>();
+		final Set<String> names                   = outputs.get(sourceClassName);
+
+		if (names != null) {
+
+			for (final String name : names) {
+
+				final JavaClassObject obj = objects.get(name);
+				if (obj != null) {
+
+					result.put(name, obj);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes all class objects that were created from the source of the
+	 * given type.
+	 *
+	 * @param sourceClassName
+	 */
+	public void removeClassObjects(final String sourceClassName) {
+
+		final Set<String> names = outputs.remove(sourceClassName);
+		if (names != null) {
+
+			for (final String name : names) {
+				objects.remove(name);
+			}
+		}
+	}
+
+	/**
+	 * @return the names of all types that have compiled class objects
+	 */
+	public Set<String> getSourceClassNames() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(outputs.keySet()));
+	}
+
+	// ----- private methods -----
+	private Set<String> getOutputs(final String sourceClassName) {
+
+		Set<String> names = outputs.get(sourceClassName);
+		if (names == null) {
+
+			names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			outputs.put(sourceClassName, names);
+		}
+
+		return names;
+	}
 }
\ No newline at end of file
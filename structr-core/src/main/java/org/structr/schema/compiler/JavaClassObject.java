@@ -18,8 +18,10 @@
  */
 package org.structr.schema.compiler;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import javax.tools.SimpleJavaFileObject;
@@ -38,6 +40,12 @@ public class JavaClassObject extends SimpleJavaFileObject {
 	protected final ByteArrayOutputStream bos =
 		new ByteArrayOutputStream();
 
+	/**
+	 * The binary name of the class, needed to make cached class objects
+	 * visible to the compiler as class path entries.
+	 */
+	private String binaryName = null;
+
 	/**
 	 * Registers the compiled class object under URI containing the class
 	 * full name
@@ -48,6 +56,26 @@ public class JavaClassObject extends SimpleJavaFileObject {
 	public JavaClassObject(String name, Kind kind) {
 		super(URI.create("string:///" + name.replace('.', '/')
 			+ kind.extension), kind);
+
+		this.binaryName = name;
+	}
+
+	/**
+	 * Creates a class object with the given byte code, e.g. when restoring
+	 * a class from the schema class cache.
+	 *
+	 * @param name Full name of the compiled class
+	 * @param bytes byte code of the class
+	 */
+	public JavaClassObject(String name, byte[] bytes) {
+
+		this(name, Kind.CLASS);
+
+		bos.write(bytes, 0, bytes.length);
+	}
+
+	public String getBinaryName() {
+		return binaryName;
 	}
 
 	/**
@@ -69,4 +97,13 @@ public class JavaClassObject extends SimpleJavaFileObject {
 	public OutputStream openOutputStream() throws IOException {
 		return bos;
 	}
+
+	/**
+	 * Will provide the compiler with the byte code of this class when it
+	 * is used as a dependency of another compilation unit.
+	 */
+	@Override
+	public InputStream openInputStream() throws IOException {
+		return new ByteArrayInputStream(getBytes());
+	}
 }
\ No newline at end of file
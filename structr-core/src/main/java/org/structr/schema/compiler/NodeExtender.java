@@ -18,30 +18,54 @@
  */
 package org.structr.schema.compiler;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
-import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.ToolProvider;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.structr.common.error.DiagnosticErrorToken;
 import org.structr.common.error.ErrorBuffer;
 import org.structr.core.Services;
 import org.structr.module.JarConfigurationProvider;
 
 /**
+ * Compiles the generated sources of the dynamic schema types.
+ *
+ * Only types whose source has changed since the last compilation, and the
+ * types that reference them, are recompiled; the class files of all other
+ * types are reused. The compiled classes are also stored in an on-disk
+ * cache (see {@link #CACHE_PATH}), so that a restart with an unchanged
+ * schema does not need to run the compiler at all. The cache is bound to
+ * the Java version and to the jar files on the class path the classes
+ * were compiled against; it is not used when the class path contains
+ * class directories, since their contents cannot be fingerprinted cheaply.
  *
  * @author Christian Morgner (christian@morgner.de)
  */
@@ -49,18 +73,30 @@ public class NodeExtender {
 
 	private static final Logger logger   = Logger.getLogger(NodeExtender.class.getName());
 
-	private static final JavaCompiler compiler       = ToolProvider.getSystemJavaCompiler();
-	private static final JavaFileManager fileManager = new ClassFileManager(compiler.getStandardFileManager(null, null, null));
-	private static final ClassLoader classLoader     = fileManager.getClassLoader(null);
-	private static final Map<String, Class> classes  = new TreeMap<>();
+	public static final String CACHE_ENABLED = "NodeExtender.cache";
+	public static final String CACHE_PATH    = "NodeExtender.cache.path";
+
+	private static final String CACHE_INDEX_FILE  = "schema.properties";
+	private static final String CACHE_ENVIRONMENT = "_environment";
+
+	private static final JavaCompiler compiler            = ToolProvider.getSystemJavaCompiler();
+	private static final ClassFileManager fileManager     = new ClassFileManager(compiler.getStandardFileManager(null, null, null));
+	private static final ClassLoader classLoader          = fileManager.getClassLoader(null);
+	private static volatile Map<String, Class> classes    = new TreeMap<>();
+	private static final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+	private static boolean cacheLoaded                    = false;
+	private static String environment                     = null;
+	private static boolean environmentResolved            = false;
 
-	private List<JavaFileObject> jfiles  = null;
-	private Set<String> fqcns            = null;
+	private Map<String, CharSequenceJavaFileObject> jfiles = null;
+	private Map<String, Class> compiledClasses             = null;
+	private Set<String> fqcns                              = null;
 
 	public NodeExtender() {
 
-		jfiles      = new ArrayList<>();
-		fqcns       = new LinkedHashSet<>();
+		jfiles          = new LinkedHashMap<>();
+		compiledClasses = new TreeMap<>();
+		fqcns           = new LinkedHashSet<>();
 	}
 
 	public static ClassLoader getClassLoader() {
@@ -77,7 +113,7 @@ public class NodeExtender {
 
 			final String packageName = JarConfigurationProvider.DYNAMIC_TYPES_PACKAGE;
 
-			jfiles.add(new CharSequenceJavaFileObject(className, content));
+			jfiles.put(className, new CharSequenceJavaFileObject(className, content));
 			fqcns.add(packageName.concat(".".concat(className)));
 
 			if ("true".equals(Services.getInstance().getConfigurationValue("NodeExtender.log"))) {
@@ -94,18 +130,81 @@ public class NodeExtender {
 
 		if (!jfiles.isEmpty()) {
 
-			logger.log(Level.INFO, "Compiling {0} dynamic entities", jfiles.size());
+			final boolean useDiskCache = isDiskCacheEnabled();
+			final long t0              = System.currentTimeMillis();
+
+			if (useDiskCache && !cacheLoaded) {
+
+				loadDiskCache();
+				cacheLoaded = true;
+			}
+
+			final Map<String, String> hashes = new LinkedHashMap<>();
+			for (final CharSequenceJavaFileObject jfile : jfiles.values()) {
+
+				hashes.put(jfile.getClassName(), DigestUtils.sha1Hex(jfile.getCharContent(true).toString()));
+			}
+
+			final Set<String> removed = new LinkedHashSet<>(fileManager.getSourceClassNames());
+			removed.removeAll(hashes.keySet());
+
+			final Set<String> changed = getChangedTypes(hashes, removed);
+
+			// discard outdated class files
+			for (final String className : removed) {
+
+				fileManager.removeClassObjects(className);
+				sourceHashes.remove(className);
+			}
+
+			for (final String className : changed) {
+
+				fileManager.removeClassObjects(className);
+				sourceHashes.remove(className);
+			}
+
+			if (!changed.isEmpty()) {
 
-			// clear classes map
-			classes.clear();
+				logger.log(Level.INFO, "Compiling {0} of {1} dynamic entities", new Object[] { changed.size(), jfiles.size() });
 
-			compiler.getTask(errorWriter, fileManager, new Listener(errorBuffer), null, null, jfiles).call();
+				final List<JavaFileObject> units = new ArrayList<>();
+				for (final String className : changed) {
+
+					units.add(jfiles.get(className));
+				}
+
+				final Boolean success = compiler.getTask(errorWriter, fileManager, new Listener(errorBuffer), null, null, units).call();
+				if (Boolean.TRUE.equals(success)) {
+
+					for (final String className : changed) {
+						sourceHashes.put(className, hashes.get(className));
+					}
+
+				} else {
+
+					// make sure failed types are compiled again next time
+					for (final String className : changed) {
+						fileManager.removeClassObjects(className);
+					}
+				}
+
+				logger.log(Level.INFO, "Compilation of {0} dynamic entities took {1} ms", new Object[] { changed.size(), System.currentTimeMillis() - t0 });
+
+			} else {
+
+				logger.log(Level.INFO, "Dynamic schema unchanged, re-using {0} compiled dynamic entities", jfiles.size());
+			}
+
+			if (useDiskCache && (!changed.isEmpty() || !removed.isEmpty())) {
+
+				storeDiskCache(changed, removed);
+			}
 
 			final ClassLoader loader = fileManager.getClassLoader(null);
 			for (final String fqcn : fqcns) {
 
 				try {
-					classes.put(fqcn, loader.loadClass(fqcn));
+					compiledClasses.put(fqcn, loader.loadClass(fqcn));
 
 				} catch (Throwable t) {
 
@@ -115,7 +214,245 @@ public class NodeExtender {
 			}
 		}
 
-		return classes;
+		return compiledClasses;
+	}
+
+	/**
+	 * Makes the classes of the last compilation available through
+	 * {@link #getClass(java.lang.String)}. The classes map is replaced as
+	 * a whole, so callers never see a partially updated set of classes.
+	 */
+	public void publish() {
+		classes = compiledClasses;
+	}
+
+	// ----- private methods -----
+	/**
+	 * Returns the types that need to be recompiled: all types with a new or
+	 * modified source, types without compiled classes, and (transitively)
+	 * all types that reference one of these or one of the removed types.
+	 */
+	private Set<String> getChangedTypes(final Map<String, String> hashes, final Set<String> removed) {
+
+		final Set<String> changed  = new LinkedHashSet<>();
+		final Set<String> modified = new LinkedHashSet<>(removed);
+
+		for (final Entry<String, String> entry : hashes.entrySet()) {
+
+			final String className = entry.getKey();
+
+			if (!entry.getValue().equals(sourceHashes.get(className)) || fileManager.getClassObjects(className).isEmpty()) {
+
+				changed.add(className);
+			}
+		}
+
+		modified.addAll(changed);
+
+		// add dependent types until no more types are found
+		boolean found = !modified.isEmpty();
+		while (found) {
+
+			final Pattern references = getReferencePattern(modified);
+			found = false;
+
+			for (final String className : hashes.keySet()) {
+
+				if (!changed.contains(className) && references.matcher(jfiles.get(className).getCharContent(true)).find()) {
+
+					changed.add(className);
+					modified.add(className);
+					found = true;
+				}
+			}
+		}
+
+		return changed;
+	}
+
+	private Pattern getReferencePattern(final Set<String> classNames) {
+
+		final List<String> quoted = new ArrayList<>();
+		for (final String className : classNames) {
+
+			quoted.add(Pattern.quote(className));
+		}
+
+		return Pattern.compile("\\b(" + StringUtils.join(quoted, "|") + ")\\b");
+	}
+
+	private static boolean isDiskCacheEnabled() {
+		return Services.parseBoolean(Services.getInstance().getConfigurationValue(CACHE_ENABLED, "true"), true) && getCacheDirectory() != null && getEnvironment() != null;
+	}
+
+	private static File getCacheDirectory() {
+
+		final String cachePath = Services.getInstance().getConfigurationValue(CACHE_PATH);
+		if (StringUtils.isNotBlank(cachePath)) {
+
+			return new File(cachePath);
+		}
+
+		final String basePath = Services.getInstance().getConfigurationValue(Services.BASE_PATH);
+		if (StringUtils.isNotBlank(basePath)) {
+
+			return new File(basePath, "schema-cache");
+		}
+
+		return null;
+	}
+
+	/**
+	 * Identifies the environment the cached classes were compiled in, i.e.
+	 * the Java version and the path, size and modification time of every
+	 * class path entry, so that they are not re-used with different
+	 * libraries. Returns null if the environment cannot be identified,
+	 * e.g. because the class path contains class directories.
+	 */
+	private static synchronized String getEnvironment() {
+
+		if (!environmentResolved) {
+
+			environmentResolved = true;
+
+			final Set<String> entries = new LinkedHashSet<>();
+
+			for (final String entry : StringUtils.split(System.getProperty("java.class.path", ""), File.pathSeparator)) {
+				entries.add(entry);
+			}
+
+			try {
+
+				entries.add(new File(NodeExtender.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+
+			} catch (Throwable t) {
+
+				logger.log(Level.INFO, "Unable to determine code source of NodeExtender, schema class cache is disabled: {0}", t.getMessage());
+				return null;
+			}
+
+			final StringBuilder buf = new StringBuilder();
+
+			for (final String entry : entries) {
+
+				final File file = new File(entry).getAbsoluteFile();
+				if (file.isDirectory()) {
+
+					logger.log(Level.INFO, "Class path contains class directory {0}, schema class cache is disabled", file.getPath());
+					return null;
+				}
+
+				buf.append(file.getPath()).append(";").append(file.length()).append(";").append(file.lastModified()).append("\n");
+			}
+
+			environment = System.getProperty("java.version") + ";" + DigestUtils.sha1Hex(buf.toString());
+		}
+
+		return environment;
+	}
+
+	private static void loadDiskCache() {
+
+		final File cacheDir  = getCacheDirectory();
+		final File indexFile = new File(cacheDir, CACHE_INDEX_FILE);
+
+		if (!indexFile.exists()) {
+			return;
+		}
+
+		final Properties index = new Properties();
+
+		try (final InputStream is = new FileInputStream(indexFile)) {
+
+			index.load(is);
+
+			if (!getEnvironment().equals(index.getProperty(CACHE_ENVIRONMENT))) {
+
+				logger.log(Level.INFO, "Discarding schema class cache in {0}, environment has changed", cacheDir.getAbsolutePath());
+				FileUtils.deleteQuietly(cacheDir);
+
+				return;
+			}
+
+			for (final String className : index.stringPropertyNames()) {
+
+				if (CACHE_ENVIRONMENT.equals(className)) {
+					continue;
+				}
+
+				final File[] classFiles = new File(cacheDir, className).listFiles();
+				if (classFiles != null && classFiles.length > 0) {
+
+					for (final File classFile : classFiles) {
+
+						final String fileName   = classFile.getName();
+						final String binaryName = fileName.substring(0, fileName.length() - JavaFileObject.Kind.CLASS.extension.length());
+
+						try (final InputStream classStream = new FileInputStream(classFile)) {
+
+							fileManager.addClassObject(className, new JavaClassObject(binaryName, IOUtils.toByteArray(classStream)));
+						}
+					}
+
+					sourceHashes.put(className, index.getProperty(className));
+				}
+			}
+
+			logger.log(Level.INFO, "Loaded {0} dynamic entities from schema class cache", sourceHashes.size());
+
+		} catch (IOException ioex) {
+
+			logger.log(Level.WARNING, "Unable to read schema class cache: {0}", ioex.getMessage());
+
+			// start over with an empty cache
+			for (final String className : fileManager.getSourceClassNames()) {
+				fileManager.removeClassObjects(className);
+			}
+
+			sourceHashes.clear();
+		}
+	}
+
+	private static void storeDiskCache(final Set<String> changed, final Set<String> removed) {
+
+		final File cacheDir   = getCacheDirectory();
+		final Properties index = new Properties();
+
+		try {
+
+			for (final String className : removed) {
+				FileUtils.deleteQuietly(new File(cacheDir, className));
+			}
+
+			for (final String className : changed) {
+
+				final File typeDir = new File(cacheDir, className);
+
+				FileUtils.deleteQuietly(typeDir);
+
+				if (sourceHashes.containsKey(className)) {
+
+					typeDir.mkdirs();
+
+					for (final Entry<String, JavaClassObject> entry : fileManager.getClassObjects(className).entrySet()) {
+
+						FileUtils.writeByteArrayToFile(new File(typeDir, entry.getKey().concat(JavaFileObject.Kind.CLASS.extension)), entry.getValue().getBytes());
+					}
+				}
+			}
+
+			index.putAll(sourceHashes);
+			index.setProperty(CACHE_ENVIRONMENT, getEnvironment());
+
+			try (final OutputStream os = new FileOutputStream(new File(cacheDir, CACHE_INDEX_FILE))) {
+
+				index.store(os, "Structr schema class cache");
+			}
+
+		} catch (IOException ioex) {
+
+			logger.log(Level.WARNING, "Unable to write schema class cache: {0}", ioex.getMessage());
+		}
 	}
 
 	private static class Listener implements DiagnosticListener<JavaFileObject> {
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class FixedSizeCacheTest extends TestCase {
+
+	public void testEviction() {
+
+		final FixedSizeCache<String, Integer> cache = new FixedSizeCache<>(3);
+
+		cache.put("one", 1);
+		cache.put("two", 2);
+		cache.put("three", 3);
+
+		// access "one" so that "two" is the least recently used entry
+		assertEquals(Integer.valueOf(1), cache.get("one"));
+
+		cache.put("four", 4);
+
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get("two"));
+		assertEquals(Integer.valueOf(1), cache.get("one"));
+		assertEquals(Integer.valueOf(4), cache.get("four"));
+	}
+
+	public void testEvictionCallback() {
+
+		final Map<String, Integer> evicted          = new LinkedHashMap<>();
+		final FixedSizeCache<String, Integer> cache = new FixedSizeCache<String, Integer>(2) {
+
+			@Override
+			protected void onEviction(final String key, final Integer value) {
+				evicted.put(key, value);
+			}
+		};
+
+		cache.put("one", 1);
+		cache.put("two", 2);
+
+		// explicit removal is not an eviction
+		cache.remove("two");
+		cache.put("three", 3);
+
+		assertTrue(evicted.isEmpty());
+
+		cache.put("four", 4);
+
+		assertEquals(1, evicted.size());
+		assertEquals(Integer.valueOf(1), evicted.get("one"));
+	}
+
+	public void testStatistics() {
+
+		final FixedSizeCache<String, String> cache = new FixedSizeCache<>(10);
+
+		cache.put("key", "value");
+
+		cache.get("key");
+		cache.get("key");
+		cache.get("key");
+		cache.get("other");
+
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.75, cache.getHitRate(), 0.0001);
+		assertEquals(1, cache.getStatistics().get("size"));
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.neo4j.graphdb.RelationshipType;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.property.PropertyMap;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class EntityVersionsTest extends TestCase {
+
+	public void testTracking() {
+
+		assertFalse(EntityVersions.isTracking());
+
+		final Set<String> outer = EntityVersions.startTracking();
+		assertNull(outer);
+
+		EntityVersions.recordRead("one");
+
+		final Set<String> previous = EntityVersions.startTracking();
+		EntityVersions.recordRead("two");
+
+		final Set<String> inner = EntityVersions.stopTracking(previous);
+		assertEquals(Collections.singleton("two"), inner);
+
+		final Set<String> all = EntityVersions.stopTracking(outer);
+		assertEquals(2, all.size());
+		assertTrue(all.contains("one"));
+		assertTrue(all.contains("two"));
+
+		assertFalse(EntityVersions.isTracking());
+	}
+
+	public void testFingerprintChangesOnCommit() {
+
+		final EntityVersions versions = new EntityVersions(100, 100, 100);
+		final List<String> keys       = Arrays.asList("a", "b");
+		final String before           = versions.getFingerprint("variant", keys);
+
+		assertEquals(before, versions.getFingerprint("variant", Arrays.asList("b", "a")));
+		assertFalse(before.equals(versions.getFingerprint("other", keys)));
+
+		versions.increment(events("c"));
+		assertEquals(before, versions.getFingerprint("variant", keys));
+
+		versions.increment(events("a"));
+		assertFalse(before.equals(versions.getFingerprint("variant", keys)));
+
+		// every commit changes the result of untyped queries
+		assertEquals(versions.getSequence(), versions.getVersion(EntityVersions.ANY_TYPE));
+	}
+
+	public void testEvictedVersionsDoNotGoBackwards() {
+
+		final EntityVersions versions = new EntityVersions(2, 100, 100);
+
+		versions.increment(events("a"));
+
+		final long version = versions.getVersion("a");
+
+		versions.increment(events("b", "c"));
+
+		// "a" was evicted but must not report an older version
+		assertTrue(versions.getVersion("a") >= version);
+		assertTrue(versions.getVersion("unknown") >= version);
+	}
+
+	public void testNotModified() {
+
+		final EntityVersions versions = new EntityVersions(100, 2, 100);
+		final String etag             = versions.remember("key", Collections.singleton("a"));
+
+		assertNotNull(etag);
+		assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+
+		assertEquals(etag, versions.notModified("key", etag));
+		assertEquals(etag, versions.notModified("key", "\"other\", W/" + etag));
+		assertNull(versions.notModified("key", "\"other\""));
+		assertNull(versions.notModified("unknown", etag));
+
+		versions.increment(events("a"));
+		assertNull(versions.notModified("key", etag));
+
+		// too many dependencies
+		assertNull(versions.remember("key", new HashSet<>(Arrays.asList("a", "b", "c"))));
+		assertNull(versions.getCurrentETag("key"));
+	}
+
+	// ----- private methods -----
+	private List<ModificationEvent> events(final String... uuids) {
+
+		final ModificationEvent[] events = new ModificationEvent[uuids.length];
+
+		for (int i=0; i<uuids.length; i++) {
+			events[i] = new UuidEvent(uuids[i]);
+		}
+
+		return Arrays.asList(events);
+	}
+
+	private static class UuidEvent implements ModificationEvent {
+
+		private String uuid = null;
+
+		public UuidEvent(final String uuid) {
+			this.uuid = uuid;
+		}
+
+		@Override
+		public boolean isNode() {
+			return true;
+		}
+
+		@Override
+		public int getStatus() {
+			return 0;
+		}
+
+		@Override
+		public boolean isDeleted() {
+			return false;
+		}
+
+		@Override
+		public boolean isModified() {
+			return true;
+		}
+
+		@Override
+		public boolean isCreated() {
+			return false;
+		}
+
+		@Override
+		public GraphObject getGraphObject() {
+			return null;
+		}
+
+		@Override
+		public RelationshipType getRelationshipType() {
+			return null;
+		}
+
+		@Override
+		public String getUuid() {
+			return uuid;
+		}
+
+		@Override
+		public PropertyMap getNewProperties() {
+			return null;
+		}
+
+		@Override
+		public PropertyMap getModifiedProperties() {
+			return null;
+		}
+
+		@Override
+		public PropertyMap getRemovedProperties() {
+			return null;
+		}
+
+		@Override
+		public Map<String, Object> getData(final SecurityContext securityContext) throws FrameworkException {
+			return null;
+		}
+	}
+}
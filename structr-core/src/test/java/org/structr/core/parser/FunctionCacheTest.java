@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.structr.common.error.FrameworkException;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class FunctionCacheTest extends TestCase {
+
+	public void testValueIsComputedOnce() throws FrameworkException {
+
+		final FunctionCache cache    = new FunctionCache(10, false, 1);
+		final CountingSource source  = new CountingSource(0);
+
+		assertEquals(1, cache.get("key", 3600, source));
+		assertEquals(1, cache.get("key", 3600, source));
+		assertEquals(1, cache.get("key", 3600, source));
+
+		assertEquals(1, source.count.get());
+		assertEquals(2L, cache.getStatistics().get("hits"));
+		assertEquals(1L, cache.getStatistics().get("misses"));
+	}
+
+	public void testEviction() throws FrameworkException {
+
+		final FunctionCache cache = new FunctionCache(2, false, 1);
+
+		cache.get("one", 3600, new CountingSource(0));
+		cache.get("two", 3600, new CountingSource(0));
+		cache.get("three", 3600, new CountingSource(0));
+
+		assertEquals(2, cache.size());
+		assertEquals(1L, cache.getStatistics().get("evictions"));
+	}
+
+	public void testSingleFlightRefresh() throws Exception {
+
+		final FunctionCache cache     = new FunctionCache(10, false, 1);
+		final CountingSource source   = new CountingSource(500);
+		final CountDownLatch start    = new CountDownLatch(1);
+		final List<Thread> threads    = new ArrayList<>();
+		final List<Object> results    = new ArrayList<>();
+
+		// negative timeout: the value is expired immediately after it has been computed
+		cache.get("key", -60, new CountingSource(0));
+
+		for (int i=0; i<10; i++) {
+
+			final Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+						start.await();
+
+						final Object value = cache.get("key", -60, source);
+						synchronized (results) {
+							results.add(value);
+						}
+
+					} catch (Exception ex) {
+						ex.printStackTrace();
+					}
+				}
+			});
+
+			threads.add(thread);
+			thread.start();
+		}
+
+		start.countDown();
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		// only one thread may have re-evaluated the value, all others get the stale value
+		assertEquals(1, source.count.get());
+		assertEquals(10, results.size());
+		assertEquals(9L, cache.getStatistics().get("staleHits"));
+	}
+
+	public void testStaleWhileRevalidate() throws Exception {
+
+		final FunctionCache cache   = new FunctionCache(10, true, 1);
+		final CountingSource source = new CountingSource(0);
+
+		assertEquals(1, cache.get("key", -60, source));
+
+		// expired value is returned immediately and refreshed in the background
+		assertEquals(1, cache.get("key", -60, source));
+
+		for (int i=0; i<100 && source.background.get() == 0; i++) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, source.background.get());
+	}
+
+	// ----- nested classes -----
+	private static class CountingSource implements FunctionCache.ValueSource {
+
+		private final AtomicInteger background = new AtomicInteger(0);
+		private final AtomicInteger count      = new AtomicInteger(0);
+		private long delay                     = 0L;
+
+		public CountingSource(final long delay) {
+			this.delay = delay;
+		}
+
+		@Override
+		public Object getValue() throws FrameworkException {
+
+			try { Thread.sleep(delay); } catch (InterruptedException iex) {}
+
+			return count.incrementAndGet();
+		}
+
+		@Override
+		public FunctionCache.ValueSource detach() {
+
+			return new FunctionCache.ValueSource() {
+
+				@Override
+				public Object getValue() throws FrameworkException {
+
+					background.incrementAndGet();
+
+					return CountingSource.this.getValue();
+				}
+
+				@Override
+				public FunctionCache.ValueSource detach() {
+					return this;
+				}
+			};
+		}
+	}
+}
@@ -37,6 +37,36 @@ public class ScriptingTest extends StructrTest {
 
 	}
 
+	public void testTemplateSegments() {
+
+		final ScriptTemplate template = ScriptTemplate.compile("<p>${this.name}</p>${upper('}')}${{ return 1; }} end");
+		final List<ScriptTemplate.Segment> segments = template.getSegments();
+
+		assertEquals("Invalid number of template segments", 6, segments.size());
+
+		assertEquals("<p>", segments.get(0).getText());
+		assertEquals("${this.name}", segments.get(1).getText());
+		assertEquals("</p>", segments.get(2).getText());
+		assertEquals("${upper('}')}", segments.get(3).getText());
+		assertEquals("${{ return 1; }}", segments.get(4).getText());
+		assertEquals(" end", segments.get(5).getText());
+
+		assertFalse(segments.get(0).isExpression());
+		assertTrue(segments.get(1).isExpression());
+		assertFalse(segments.get(2).isExpression());
+		assertTrue(segments.get(3).isExpression());
+		assertTrue(segments.get(4).isExpression());
+		assertFalse(segments.get(5).isExpression());
+
+		assertEquals(3, template.getExpressions().size());
+
+		// templates without expressions consist of a single literal segment
+		final ScriptTemplate literal = ScriptTemplate.compile("no expressions { here }");
+		assertFalse(literal.hasExpressions());
+		assertEquals(1, literal.getSegments().size());
+		assertEquals("no expressions { here }", literal.getSegments().get(0).getText());
+	}
+
 	public void testJavascript() {
 
 		try (final Tx tx = app.tx()) {
@@ -59,6 +89,60 @@ public class ScriptingTest extends StructrTest {
 			assertEquals("Invalid JavaScript evaluation result", "2",    Scripting.replaceVariables(actionContext, test, "${{ return Structr.get('this').aLong; }}"));
 			assertEquals("Invalid JavaScript evaluation result", "3.0",  Scripting.replaceVariables(actionContext, test, "${{ return Structr.get('this').aDouble; }}"));
 
+			// global variables must not leak from one evaluation into the next
+			assertEquals("Invalid JavaScript evaluation result", "a",         Scripting.replaceVariables(actionContext, test, "${{ leaked = 'a'; return leaked; }}"));
+			assertEquals("Invalid JavaScript evaluation result", "undefined", Scripting.replaceVariables(actionContext, test, "${{ return typeof leaked; }}"));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+	}
+
+	public void testJavascriptJavaAccess() {
+
+		try (final Tx tx = app.tx()) {
+
+			final ActionContext actionContext = new ActionContext(securityContext);
+			final TestOne test                = createTestNode(TestOne.class);
+
+			// packages are loaded lazily when they are accessed for the first time
+			assertEquals("Invalid JavaScript evaluation result", "ab", Scripting.replaceVariables(actionContext, test, "${{ return new java.lang.StringBuilder('a').append('b').toString(); }}"));
+			assertEquals("Invalid JavaScript evaluation result", "6",  Scripting.replaceVariables(actionContext, test, "${{ return '' + new java.util.concurrent.atomic.AtomicInteger(5).incrementAndGet(); }}"));
+			assertEquals("Invalid JavaScript evaluation result", "x",  Scripting.replaceVariables(actionContext, test, "${{ return '' + Packages.java.util.Collections.singletonList('x').get(0); }}"));
+			assertEquals("Invalid JavaScript evaluation result", "y",  Scripting.replaceVariables(actionContext, test, "${{ var map = new java.util.TreeMap(); map.put('k', 'y'); return '' + map.get('k'); }}"));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+	}
+
+	public void testCompiledScriptsAreShared() {
+
+		try (final Tx tx = app.tx()) {
+
+			final ActionContext actionContext = new ActionContext(securityContext);
+			final TestOne test1               = createTestNode(TestOne.class);
+			final TestOne test2               = createTestNode(TestOne.class);
+			final String script               = "${{ return 'shared' + Structr.get('this').anInt; }}";
+
+			test1.setProperty(TestOne.anInt, 1);
+			test2.setProperty(TestOne.anInt, 2);
+
+			final long size = ((Number)Scripting.getScriptCacheStatistics().get("size")).longValue();
+
+			// the same script is compiled once and evaluated for each entity
+			assertEquals("Invalid JavaScript evaluation result", "shared1", Scripting.replaceVariables(actionContext, test1, script));
+			assertEquals("Invalid JavaScript evaluation result", "shared2", Scripting.replaceVariables(actionContext, test2, script));
+			assertEquals(size + 1, ((Number)Scripting.getScriptCacheStatistics().get("size")).longValue());
+
 			tx.success();
 
 		} catch (FrameworkException fex) {
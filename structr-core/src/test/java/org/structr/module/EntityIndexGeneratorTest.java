@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class EntityIndexGeneratorTest extends TestCase {
+
+	private File classesDir = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		classesDir = Files.createTempDirectory("structr-entity-index").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteQuietly(classesDir);
+	}
+
+	public void testIndexIsWritten() throws IOException {
+
+		// the generator loads classes by name, so any file name of a class on the class path will do
+		createClassFile("org.structr.core.entity.GenericNode");
+		createClassFile("org.structr.module.EntityIndexGenerator");
+
+		assertEquals(1, EntityIndexGenerator.writeIndex(classesDir));
+		assertEquals(Arrays.asList("org.structr.core.entity.GenericNode"), Files.readAllLines(getIndexFile().toPath(), Charset.forName("UTF-8")));
+	}
+
+	public void testIncompleteIndexIsNotWritten() throws IOException {
+
+		createClassFile("org.structr.core.entity.GenericNode");
+
+		assertEquals(1, EntityIndexGenerator.writeIndex(classesDir));
+		assertTrue(getIndexFile().exists());
+
+		// a class that cannot be loaded removes the index
+		createClassFile("org.structr.module.test.DoesNotExist");
+
+		assertEquals(-1, EntityIndexGenerator.writeIndex(classesDir));
+		assertFalse(getIndexFile().exists());
+	}
+
+	// ----- private methods -----
+	private File getIndexFile() {
+		return new File(classesDir, EntityIndexGenerator.INDEX_RESOURCE);
+	}
+
+	private void createClassFile(final String className) throws IOException {
+
+		final File file = new File(classesDir, className.replace('.', File.separatorChar).concat(".class"));
+
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+	}
+}
@@ -26,15 +26,21 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObjectMap;
 import org.structr.core.Result;
+import org.structr.core.graph.EntityVersions;
+import org.structr.core.parser.FunctionCache;
+import org.structr.core.parser.Functions;
 import org.structr.core.property.ArrayProperty;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.StringProperty;
+import org.structr.core.script.Scripting;
 import org.structr.rest.RestMethodResult;
 import org.structr.rest.exception.IllegalMethodException;
 import org.structr.rest.exception.IllegalPathException;
+import org.structr.schema.SchemaService;
 
 /**
  *
@@ -97,6 +103,22 @@ public class EnvResource extends Resource {
 		
 		info.setProperty(new StringProperty("classPath"), classPath);
 
+		info.setProperty(new StringProperty("schema"), SchemaService.getStatistics());
+
+		info.setProperty(new StringProperty("expressionCache"), Functions.getExpressionCacheStatistics());
+
+		info.setProperty(new StringProperty("templateCache"), Scripting.getTemplateCacheStatistics());
+
+		info.setProperty(new StringProperty("scriptCache"), Scripting.getScriptCacheStatistics());
+
+		info.setProperty(new StringProperty("functionCache"), FunctionCache.getInstance().getStatistics());
+
+		info.setProperty(new StringProperty("entityVersions"), EntityVersions.getInstance().getStatistics());
+
+		for (final Map.Entry<String, Object> entry : StatisticsRegistry.getStatistics().entrySet()) {
+			info.setProperty(new StringProperty(entry.getKey()), entry.getValue());
+		}
+
 		resultList.add(info);
 
 		return new Result(resultList, resultList.size(), false, false);
@@ -23,6 +23,7 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -50,6 +51,8 @@ import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
 import org.structr.core.auth.Authenticator;
 import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.EntityVersions;
 import org.structr.core.graph.NodeFactory;
 import org.structr.core.graph.Tx;
 import org.structr.core.graph.search.SearchCommand;
@@ -83,6 +86,7 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 	public static final String REQUEST_PARAMETER_OFFSET_ID              = "pageStartId";
 	public static final String REQUEST_PARAMETER_SORT_KEY               = "sort";
 	public static final String REQUEST_PARAMETER_SORT_ORDER             = "order";
+	public static final String ETAGS                                    = "JsonRestServlet.etags";
 	public static final Set<String> commonRequestParameters             = new LinkedHashSet<>();
 	private static final Logger logger                                  = Logger.getLogger(JsonRestServlet.class.getName());
 
@@ -114,6 +118,7 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 	private Value<String> propertyView       = null;
 	private ThreadLocalGson gson             = null;
 	private boolean indentJson               = true;
+	private boolean etags                    = false;
 
 	//~--- methods --------------------------------------------------------
 
@@ -134,6 +139,8 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 		}
 
 
+		etags = Services.parseBoolean(StructrApp.getConfigurationValue(ETAGS, "false"), false);
+
 		// inject resources
 		final ResourceProvider provider = config.getResourceProvider();
 		if (provider != null) {
@@ -739,6 +746,8 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 		Authenticator authenticator     = null;
 		Result result                   = null;
 		Resource resource               = null;
+		Set<String> previousReads       = null;
+		String etagKey                  = null;
 
 		try {
 
@@ -756,6 +765,15 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 
 			final App app = StructrApp.getInstance(securityContext);
 
+			if (etags) {
+
+				// record everything that is read from here on
+				etagKey       = getETagKey(request, securityContext);
+				previousReads = EntityVersions.startTracking();
+
+				EntityVersions.recordRead(securityContext.getUser(false));
+			}
+
 			// set default value for property view
 			propertyView.set(securityContext, config.getDefaultPropertyView());
 
@@ -770,6 +788,19 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 				tx.success();
 			}
 
+			// answer conditional requests from the dependencies of the last response
+			if (etagKey != null) {
+
+				final String etag = EntityVersions.getInstance().notModified(etagKey, request.getHeader("If-None-Match"));
+				if (etag != null) {
+
+					response.setHeader("ETag", etag);
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+					return;
+				}
+			}
+
 			// add sorting & paging
 			String pageSizeParameter = request.getParameter(REQUEST_PARAMETER_PAGE_SIZE);
 			String pageParameter     = request.getParameter(REQUEST_PARAMETER_PAGE_NUMBER);
@@ -831,6 +862,9 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 
 				String accept = request.getHeader("Accept");
 
+				// output must be buffered to send the ETag header, which is known only after serialization
+				final StringWriter buffer = etagKey != null ? new StringWriter() : null;
+
 				if (accept != null && accept.contains("text/html")) {
 
 					final StreamingHtmlWriter htmlStreamer = new StreamingHtmlWriter(this.propertyView, indentJson, config.getOutputNestingDepth());
@@ -840,7 +874,7 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 
 						response.setContentType("text/html; charset=utf-8");
 
-						try (final Writer writer = response.getWriter()) {
+						try (final Writer writer = buffer != null ? buffer : response.getWriter()) {
 
 							htmlStreamer.stream(securityContext, writer, result, baseUrl);
 							writer.append("\n");    // useful newline
@@ -857,7 +891,7 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 					try (final Tx tx = app.tx()) {
 
 						response.setContentType("application/json; charset=utf-8");
-						try (final Writer writer = response.getWriter()) {
+						try (final Writer writer = buffer != null ? buffer : response.getWriter()) {
 
 							jsonStreamer.stream(securityContext, writer, result, baseUrl);
 							writer.append("\n");    // useful newline
@@ -867,6 +901,19 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 					}
 
 				}
+
+				if (buffer != null) {
+
+					final String etag = EntityVersions.getInstance().remember(etagKey, EntityVersions.stopTracking(previousReads));
+					if (etag != null) {
+
+						response.setHeader("ETag", etag);
+					}
+
+					etagKey = null;
+
+					response.getWriter().append(buffer.toString());
+				}
 			}
 
 			response.setStatus(HttpServletResponse.SC_OK);
@@ -907,6 +954,10 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 
 		} finally {
 
+			if (etagKey != null) {
+				EntityVersions.stopTracking(previousReads);
+			}
+
 			try {
 				//response.getWriter().flush();
 				response.getWriter().close();
@@ -919,6 +970,30 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 		}
 	}
 
+	/**
+	 * Returns the key under which the dependencies of a GET response are
+	 * stored. The key contains the principal, so responses are never shared
+	 * between users.
+	 */
+	private String getETagKey(final HttpServletRequest request, final SecurityContext securityContext) {
+
+		final Principal user     = securityContext.getUser(false);
+		final String accept      = request.getHeader("Accept");
+		final String queryString = request.getQueryString();
+		final StringBuilder buf  = new StringBuilder("rest|");
+
+		buf.append(request.getRequestURI());
+
+		if (queryString != null) {
+			buf.append("?").append(queryString);
+		}
+
+		buf.append("|").append(accept != null && accept.contains("text/html") ? "html" : "json");
+		buf.append("|").append(user != null ? user.getUuid() : "anonymous");
+
+		return buf.toString();
+	}
+
 	// </editor-fold>
 
 	// <editor-fold defaultstate="collapsed" desc="nested classes">
@@ -20,6 +20,7 @@ package org.structr.files.ftp;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
@@ -50,6 +51,9 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 	protected StructrFtpUser owner;
 	protected String newPath = "/";
 
+	protected FtpListingCache listingCache = null;
+	private Metadata metadata              = null;
+
 	public AbstractStructrFtpFile(final AbstractFile file) {
 		structrFile = file;
 	}
@@ -65,8 +69,14 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 		if (structrFile == null) {
 			return newPath;
 		}
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.path;
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
-			String path = FileHelper.getFolderPath(structrFile);
+			String path = structrFile.getPath();
 			return path;
 		} catch (FrameworkException fex) {
 			logger.log(Level.SEVERE, "Error in getName() of abstract ftp file", fex);
@@ -76,6 +86,12 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 
 	@Override
 	public String getName() {
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.name;
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
 
 			String name = null;
@@ -97,6 +113,12 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 
 	@Override
 	public boolean isHidden() {
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.hidden;
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
 			return structrFile.getProperty(File.hidden);
 		} catch (FrameworkException fex) {
@@ -127,6 +149,12 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 
 	@Override
 	public String getOwnerName() {
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.ownerName;
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
 			Principal owner = getOwner();
 			return owner != null ? owner.getProperty(AbstractUser.name) : "";
@@ -139,18 +167,14 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 	@Override
 	public String getGroupName() {
 
-		try (Tx tx = StructrApp.getInstance().tx()) {
-
-			Principal owner = getOwner();
-
-			if (owner != null) {
-				List<Principal> parents = owner.getParents();
-				if (!parents.isEmpty()) {
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.groupName;
+		}
 
-					return parents.get(0).getProperty(AbstractNode.name);
+		try (Tx tx = StructrApp.getInstance().tx()) {
 
-				}
-			}
+			return getGroupName(getOwner());
 
 		} catch (FrameworkException fex) {
 			logger.log(Level.SEVERE, "Error while getting group name of " + this, fex);
@@ -166,6 +190,12 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 
 	@Override
 	public long getLastModified() {
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.lastModified;
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
 			return structrFile.getProperty(AbstractFile.lastModifiedDate).getTime();
 		} catch (FrameworkException fex) {
@@ -179,6 +209,7 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 		try (Tx tx = StructrApp.getInstance().tx()) {
 			structrFile.setProperty(AbstractFile.lastModifiedDate, new Date(l));
 			tx.success();
+			invalidate();
 		} catch (FrameworkException ex) {
 			logger.log(Level.SEVERE, null, ex);
 		}
@@ -194,6 +225,7 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 		try (Tx tx = StructrApp.getInstance().tx()) {
 			app.delete(structrFile);
 			tx.success();
+			invalidate();
 		} catch (FrameworkException ex) {
 			logger.log(Level.SEVERE, null, ex);
 		}
@@ -243,6 +275,7 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 			}
 
 			tx.success();
+			invalidate();
 
 			return true;
 		} catch (FrameworkException ex) {
@@ -266,4 +299,126 @@ public abstract class AbstractStructrFtpFile implements FtpFile {
 		return structrFile;
 	}
 
+	/**
+	 * Returns the size of this file, must be called in a transaction.
+	 *
+	 * @return the size
+	 */
+	protected long fetchSize() {
+		return 0L;
+	}
+
+	/**
+	 * Reads all metadata that is needed for a directory listing, so that
+	 * the entries of a listing do not open a transaction for every single
+	 * property. Must be called in a transaction.
+	 *
+	 * @param owners owner and group names of the owners that were already
+	 * fetched for the same listing, by owner id
+	 * @param version the version of the file tree that was obtained before
+	 * the listing was read, see {@link FtpListingCache#getVersion()}
+	 */
+	void prefetch(final Map<String, String[]> owners, final long version) {
+
+		final Metadata data     = new Metadata();
+		final Principal owner   = structrFile.getProperty(File.owner);
+		final Date lastModified = structrFile.getProperty(AbstractFile.lastModifiedDate);
+		final String name       = structrFile.getProperty(File.name);
+
+		data.path         = structrFile.getPath();
+		data.name         = name != null ? name : structrFile.getUuid();
+		data.hidden       = Boolean.TRUE.equals(structrFile.getProperty(File.hidden));
+		data.lastModified = lastModified != null ? lastModified.getTime() : 0L;
+		data.size         = fetchSize();
+		data.version      = version;
+
+		if (owner != null) {
+
+			final String ownerId = owner.getUuid();
+			String[] names       = owners.get(ownerId);
+
+			if (names == null) {
+
+				names = new String[] { owner.getProperty(AbstractUser.name), getGroupName(owner) };
+				owners.put(ownerId, names);
+			}
+
+			data.ownerName = names[0];
+			data.groupName = names[1];
+		}
+
+		metadata = data;
+	}
+
+	void setListingCache(final FtpListingCache listingCache) {
+		this.listingCache = listingCache;
+	}
+
+	/**
+	 * Returns the prefetched metadata, or null if there is none or if the
+	 * file tree was modified since it was read, e.g. by a move or rename in
+	 * another session.
+	 *
+	 * @return the metadata or null
+	 */
+	protected Metadata getMetadata() {
+
+		final Metadata data = metadata;
+		if (data != null && listingCache != null && data.version != listingCache.getVersion()) {
+
+			metadata = null;
+			return null;
+		}
+
+		return data;
+	}
+
+	/**
+	 * Discards the prefetched metadata of this file and the cached listings
+	 * of this session after a modification.
+	 */
+	protected void invalidate() {
+
+		metadata = null;
+
+		if (listingCache != null) {
+			listingCache.clear();
+		}
+	}
+
+	private String getGroupName(final Principal owner) {
+
+		if (owner != null) {
+
+			List<Principal> parents = owner.getParents();
+			if (!parents.isEmpty()) {
+
+				return parents.get(0).getProperty(AbstractNode.name);
+			}
+		}
+
+		return "";
+	}
+
+	// ----- nested classes -----
+	protected static class Metadata {
+
+		private String path       = null;
+		private String name       = null;
+		private String ownerName  = "";
+		private String groupName  = "";
+		private long lastModified = 0L;
+		private long size         = 0L;
+		private long version      = 0L;
+		private boolean hidden    = false;
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
 }
@@ -106,6 +106,7 @@ public class FileOrFolder extends AbstractStructrFtpFile {
 			}
 
 			tx.success();
+			invalidate();
 
 			return true;
 
@@ -146,6 +147,7 @@ public class FileOrFolder extends AbstractStructrFtpFile {
 			}
 
 			tx.success();
+			invalidate();
 
 			return ((File) structrFile).getOutputStream();
 
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.files.ftp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.structr.core.GraphObject;
+import org.structr.core.graph.CommitListener;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.web.entity.AbstractFile;
+import org.structr.web.entity.dom.Page;
+
+/**
+ * Short-lived cache for the directory listings of an FTP session.
+ *
+ * Listings expire after application.ftp.listingCacheTtl milliseconds, and
+ * all listings become invalid as soon as a transaction that creates,
+ * modifies or deletes a file, folder or page is committed. The version is
+ * also used to discard the metadata that was prefetched for a listing.
+ *
+ * @author Christian Morgner
+ */
+public class FtpListingCache {
+
+	private static final AtomicLong version          = new AtomicLong(0L);
+	private static boolean registered                = false;
+
+	private final Map<String, Listing> listings      = new HashMap<>();
+	private long ttl                                 = 0L;
+
+	public FtpListingCache(final long ttl) {
+
+		this.ttl = ttl;
+
+		register();
+	}
+
+	/**
+	 * Returns the version of the file tree, which must be obtained before
+	 * a listing is read from the database and passed to {@link #put}.
+	 *
+	 * @return the current version
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	public synchronized List<FtpFile> get(final String path) {
+
+		final Listing listing = listings.get(path);
+		if (listing != null) {
+
+			if (listing.version == version.get() && System.currentTimeMillis() - listing.timestamp < ttl) {
+				return new ArrayList<>(listing.files);
+			}
+
+			listings.remove(path);
+		}
+
+		return null;
+	}
+
+	public synchronized void put(final String path, final List<FtpFile> files, final long listingVersion) {
+
+		if (ttl > 0) {
+			listings.put(path, new Listing(new ArrayList<>(files), listingVersion, System.currentTimeMillis()));
+		}
+	}
+
+	public synchronized void clear() {
+		listings.clear();
+	}
+
+	// ----- private methods -----
+	private static synchronized void register() {
+
+		if (!registered) {
+
+			TransactionCommand.registerCommitListener(new CommitListener() {
+
+				@Override
+				public void afterCommit(final List<ModificationEvent> modificationEvents) {
+
+					for (final ModificationEvent event : modificationEvents) {
+
+						final GraphObject obj = event.getGraphObject();
+						if (event.isNode() && (obj instanceof AbstractFile || obj instanceof Page)) {
+
+							version.incrementAndGet();
+							return;
+						}
+					}
+				}
+			});
+
+			registered = true;
+		}
+	}
+
+	// ----- nested classes -----
+	private static class Listing {
+
+		private List<FtpFile> files = null;
+		private long version        = 0L;
+		private long timestamp      = 0L;
+
+		public Listing(final List<FtpFile> files, final long version, final long timestamp) {
+
+			this.files     = files;
+			this.version   = version;
+			this.timestamp = timestamp;
+		}
+	}
+}
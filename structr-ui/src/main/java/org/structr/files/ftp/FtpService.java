@@ -39,9 +39,11 @@ public class FtpService implements RunnableService {
 	private boolean isRunning          = false;
 
 	private static int port;
+	private static long listingCacheTtl                      = 2000L;
 	private FtpServer server;
 
 	public static final String APPLICATION_FTP_PORT          = "application.ftp.port";
+	public static final String APPLICATION_FTP_LISTING_TTL   = "application.ftp.listingCacheTtl";
 
 	@Override
 	public void startService() {
@@ -100,6 +102,7 @@ public class FtpService implements RunnableService {
 
 		// Default config
 		finalConfig.setProperty(APPLICATION_FTP_PORT,      "8022");
+		finalConfig.setProperty(APPLICATION_FTP_LISTING_TTL, "2000");
 
 		Services.mergeConfiguration(finalConfig, config);
 
@@ -118,6 +121,8 @@ public class FtpService implements RunnableService {
 		if (port == -1) {
 			logger.log(Level.SEVERE, "Unable to start FTP service.");
 		}
+
+		listingCacheTtl = Services.parseInt(finalConfig.getProperty(APPLICATION_FTP_LISTING_TTL), 2000);
 	}
 
 	@Override
@@ -131,6 +136,16 @@ public class FtpService implements RunnableService {
 		}
 	}
 
+	/**
+	 * Returns the time in milliseconds for which directory listings are
+	 * cached in an FTP session.
+	 *
+	 * @return the time to live of cached listings
+	 */
+	public static long getListingCacheTtl() {
+		return listingCacheTtl;
+	}
+
 	@Override
 	public String getName() {
 		return FtpServer.class.getSimpleName();
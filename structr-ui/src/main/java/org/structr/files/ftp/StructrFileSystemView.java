@@ -47,6 +47,8 @@ public class StructrFileSystemView implements FileSystemView {
 	private static final Logger logger = Logger.getLogger(StructrFileSystemView.class.getName());
 	private StructrFtpUser user = null;
 
+	private final FtpListingCache listingCache = new FtpListingCache(FtpService.getListingCacheTtl());
+
 	private String workingDir = "/";
 
 	public StructrFileSystemView(final User user) {
@@ -62,7 +64,7 @@ public class StructrFileSystemView implements FileSystemView {
 	public FtpFile getHomeDirectory() throws FtpException {
 		try (Tx tx = StructrApp.getInstance().tx()) {
 			org.structr.web.entity.User structrUser = (org.structr.web.entity.User) AuthHelper.getPrincipalForCredential(AbstractUser.name, user.getName());
-			return new StructrFtpFolder(structrUser.getProperty(org.structr.web.entity.User.homeDirectory));
+			return withCache(new StructrFtpFolder(structrUser.getProperty(org.structr.web.entity.User.homeDirectory)));
 		} catch (FrameworkException fex) {
 			logger.log(Level.SEVERE, "Error while getting home directory", fex);
 		}
@@ -81,10 +83,10 @@ public class StructrFileSystemView implements FileSystemView {
 //		}
 			AbstractFile structrWorkingDir = FileHelper.getFileByAbsolutePath(SecurityContext.getSuperUserInstance(), workingDir);
 			if (structrWorkingDir == null || structrWorkingDir instanceof File) {
-				return new StructrFtpFolder(null);
+				return withCache(new StructrFtpFolder(null));
 			}
 
-			return new StructrFtpFolder((Folder) structrWorkingDir);
+			return withCache(new StructrFtpFolder((Folder) structrWorkingDir));
 		} catch (FrameworkException fex) {
 			logger.log(Level.SEVERE, "Error in changeWorkingDirectory()", fex);
 		}
@@ -142,7 +144,7 @@ public class StructrFileSystemView implements FileSystemView {
 			}
 
 			if ("..".equals(requestedPath) || "../".equals(requestedPath)) {
-				return new StructrFtpFolder(cur.getStructrFile().getProperty(AbstractFile.parent));
+				return withCache(new StructrFtpFolder(cur.getStructrFile().getProperty(AbstractFile.parent)));
 			}
 
 			// If relative path requested, prepend base path
@@ -168,9 +170,9 @@ public class StructrFileSystemView implements FileSystemView {
 			if (file != null) {
 
 				if (file instanceof Folder) {
-					return new StructrFtpFolder((Folder) file);
+					return withCache(new StructrFtpFolder((Folder) file));
 				} else {
-					return new StructrFtpFile((File) file);
+					return withCache(new StructrFtpFile((File) file));
 				}
 			}
 
@@ -196,7 +198,7 @@ public class StructrFileSystemView implements FileSystemView {
 //		}
 			logger.log(Level.WARNING, "No existing file found: {0}", requestedPath);
 
-			return new FileOrFolder(requestedPath, user);
+			return withCache(new FileOrFolder(requestedPath, user));
 
 		} catch (FrameworkException fex) {
 			logger.log(Level.SEVERE, "Error in getFile()", fex);
@@ -214,7 +216,15 @@ public class StructrFileSystemView implements FileSystemView {
 
 	@Override
 	public void dispose() {
-		logger.log(Level.INFO, "dispose() does nothing");
+		listingCache.clear();
+	}
+
+	// ----- private methods -----
+	private AbstractStructrFtpFile withCache(final AbstractStructrFtpFile file) {
+
+		file.setListingCache(listingCache);
+
+		return file;
 	}
 
 }
@@ -57,13 +57,24 @@ public class StructrFtpFile extends AbstractStructrFtpFile {
 
 	@Override
 	public long getSize() {
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.getSize();
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
-			Long size = ((File) structrFile).getSize();
-			return size == null ? 0L : size;
+			return fetchSize();
 		} catch (FrameworkException fex) {}
 		return 0L;
 	}
 
+	@Override
+	protected long fetchSize() {
+		Long size = ((File) structrFile).getSize();
+		return size == null ? 0L : size;
+	}
+
 	@Override
 	public boolean mkdir() {
 		logger.log(Level.INFO, "mkdir()");
@@ -73,6 +84,7 @@ public class StructrFtpFile extends AbstractStructrFtpFile {
 	@Override
 	public OutputStream createOutputStream(final long l) throws IOException {
 		try (Tx tx = StructrApp.getInstance().tx()) {
+			invalidate();
 			return ((File) structrFile).getOutputStream();
 		} catch (FrameworkException fex) {
 			logger.log(Level.SEVERE, null, fex);
@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.ftpserver.ftplet.FtpFile;
@@ -74,6 +76,12 @@ public class StructrFtpFolder extends AbstractStructrFtpFile implements FtpFile
 
 	@Override
 	public long getLastModified() {
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.getLastModified();
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
 			return structrFile.getProperty(Folder.lastModifiedDate).getTime();
 		} catch (Exception ex) {
@@ -83,107 +91,114 @@ public class StructrFtpFolder extends AbstractStructrFtpFile implements FtpFile
 
 	@Override
 	public long getSize() {
+
+		final Metadata data = getMetadata();
+		if (data != null) {
+			return data.getSize();
+		}
+
 		try (Tx tx = StructrApp.getInstance().tx()) {
-			return listFiles().size();
+			return structrFile != null ? fetchSize() : listFiles().size();
 		} catch (Exception ex) {
 		}
 		return 0L;
 	}
 
 	@Override
-	public List<FtpFile> listFiles() {
+	protected long fetchSize() {
 
-		List<FtpFile> ftpFiles = new ArrayList();
+		// number of children, counted by relationship without reading their properties
+		return structrFile.getProperty(Folder.folders).size() + structrFile.getProperty(Folder.files).size();
+	}
 
-		final App app = StructrApp.getInstance();
+	@Override
+	public List<FtpFile> listFiles() {
 
-		try (Tx tx = app.tx()) {
+		final String requestedPath = getAbsolutePath();
 
-			String requestedPath = getAbsolutePath();
-			logger.log(Level.INFO, "Children of {0} requested", requestedPath);
+		if (listingCache != null) {
 
-			if ("/".equals(requestedPath)) {
-				try {
-					Result<Folder> folders = app.nodeQuery(Folder.class).getResult();
-					logger.log(Level.INFO, "{0} folders found", folders.size());
+			final List<FtpFile> cached = listingCache.get(requestedPath);
+			if (cached != null) {
 
-					for (Folder f : folders.getResults()) {
+				logger.log(Level.FINE, "Children of {0} served from listing cache", requestedPath);
+				return cached;
+			}
+		}
 
-						if (f.getProperty(AbstractFile.parent) != null) {
-							continue;
-						}
+		final List<FtpFile> ftpFiles = new ArrayList();
+		final App app                = StructrApp.getInstance();
 
-						FtpFile ftpFile = new StructrFtpFolder(f);
-						logger.log(Level.INFO, "Folder found: {0}", ftpFile.getAbsolutePath());
+		// obtain the version before reading, so that concurrent changes invalidate the listing
+		final long version           = listingCache != null ? listingCache.getVersion() : 0L;
 
-						ftpFiles.add(ftpFile);
+		// all metadata of the listing is read in this transaction
+		try (Tx tx = app.tx()) {
 
-					}
+			final Map<String, String[]> owners = new HashMap<>();
 
-					Result<File> files = app.nodeQuery(File.class).getResult();
-					logger.log(Level.INFO, "{0} files found", files.size());
+			logger.log(Level.INFO, "Children of {0} requested", requestedPath);
 
-					for (File f : files.getResults()) {
+			if ("/".equals(requestedPath)) {
 
-						if (f.getProperty(AbstractFile.parent) != null) {
-							continue;
-						}
+				// root entries are found via the hasParent index instead of filtering all files and folders
+				for (final Folder f : app.nodeQuery(Folder.class).and(AbstractFile.hasParent, false).getAsList()) {
 
-						logger.log(Level.FINEST, "Structr file found: {0}", f);
+					ftpFiles.add(prefetch(new StructrFtpFolder(f), owners, version));
+				}
 
-						FtpFile ftpFile = new StructrFtpFile(f);
-						logger.log(Level.FINE, "File found: {0}", ftpFile.getAbsolutePath());
+				for (final File f : app.nodeQuery(File.class).and(AbstractFile.hasParent, false).getAsList()) {
 
-						ftpFiles.add(ftpFile);
+					ftpFiles.add(prefetch(new StructrFtpFile(f), owners, version));
+				}
 
-					}
+				Result<Page> pages = app.nodeQuery(Page.class).getResult();
+				logger.log(Level.FINE, "{0} pages found", pages.size());
 
-					Result<Page> pages = app.nodeQuery(Page.class).getResult();
-					logger.log(Level.INFO, "{0} pages found", pages.size());
+				for (Page p : pages.getResults()) {
 
-					for (Page p : pages.getResults()) {
+					logger.log(Level.FINEST, "Structr page found: {0}", p);
 
-						logger.log(Level.FINEST, "Structr page found: {0}", p);
+					ftpFiles.add(p);
 
-						ftpFiles.add(p);
+				}
 
-					}
+			} else {
 
-					return ftpFiles;
+				for (final Folder f : ((Folder) structrFile).getProperty(Folder.folders)) {
 
-				} catch (FrameworkException ex) {
-					logger.log(Level.SEVERE, null, ex);
+					ftpFiles.add(prefetch(new StructrFtpFolder(f), owners, version));
 				}
 
-			}
-
-			List<Folder> folders = ((Folder) structrFile).getProperty(Folder.folders);
+				for (final File f : ((Folder) structrFile).getProperty(Folder.files)) {
 
-			for (Folder f : folders) {
+					ftpFiles.add(prefetch(new StructrFtpFile(f), owners, version));
+				}
+			}
 
-				FtpFile ftpFile = new StructrFtpFolder(f);
-				logger.log(Level.INFO, "Subfolder found: {0}", ftpFile.getAbsolutePath());
+			logger.log(Level.FINE, "{0} children of {1} found", new Object[] { ftpFiles.size(), requestedPath });
 
-				ftpFiles.add(ftpFile);
-			}
+		} catch (FrameworkException fex) {
 
-			List<File> files = ((Folder) structrFile).getProperty(Folder.files);
+			logger.log(Level.SEVERE, "Error in listFiles()", fex);
+			return null;
+		}
 
-			for (File f : files) {
+		if (listingCache != null) {
+			listingCache.put(requestedPath, ftpFiles, version);
+		}
 
-				FtpFile ftpFile = new StructrFtpFile(f);
-				logger.log(Level.INFO, "File found: {0}", ftpFile.getAbsolutePath());
+		return ftpFiles;
 
-				ftpFiles.add(ftpFile);
-			}
+	}
 
-			return ftpFiles;
-		} catch (FrameworkException fex) {
-			logger.log(Level.SEVERE, "Error in listFiles()", fex);
-		}
+	// ----- private methods -----
+	private AbstractStructrFtpFile prefetch(final AbstractStructrFtpFile ftpFile, final Map<String, String[]> owners, final long version) {
 
-		return null;
+		ftpFile.setListingCache(listingCache);
+		ftpFile.prefetch(owners, version);
 
+		return ftpFile;
 	}
 
 	@Override
@@ -1,11 +1,16 @@
 package org.structr.media;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import org.structr.common.AccessMode;
 import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Services;
+import org.structr.core.app.App;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.Tx;
 import org.structr.web.entity.VideoFile;
 
 /**
@@ -20,6 +25,52 @@ public class AVConv implements VideoHelper {
 	private String outputFileName           = null;
 	private int exitCode                    = -1;
 	private String outputSize               = null;
+	private int priority                    = 0;
+
+	/**
+	 * Submits conversions again that were persisted by a previous instance
+	 * of the media job service, with the user that requested them.
+	 */
+	static final MediaJobService.JobFactory CONVERSION_FACTORY = new MediaJobService.JobFactory() {
+
+		@Override
+		public void resume(final Map<String, String> record) throws FrameworkException {
+
+			final App app = StructrApp.getInstance();
+
+			try (final Tx tx = app.tx()) {
+
+				final VideoFile video = app.get(VideoFile.class, record.get("video"));
+				final String userId   = record.get("user");
+				SecurityContext ctx   = null;
+
+				if (userId != null) {
+
+					final Principal user = app.get(Principal.class, userId);
+					if (user != null) {
+
+						ctx = SecurityContext.getInstance(user, AccessMode.valueOf(record.get("accessMode")));
+					}
+
+				} else if ("true".equals(record.get("superUser"))) {
+
+					ctx = SecurityContext.getSuperUserInstance();
+				}
+
+				if (video != null && ctx != null) {
+
+					final AVConv converter = new AVConv(ctx, video, record.get("outputFileName"));
+
+					converter.outputSize = record.get("outputSize");
+					converter.priority   = Services.parseInt(record.get("priority"), 0);
+
+					converter.doConversion();
+				}
+
+				tx.success();
+			}
+		}
+	};
 
 	private AVConv(final SecurityContext securityContext, final VideoFile inputVideo, final String outputFileName) {
 		this.securityContext = securityContext;
@@ -59,13 +110,31 @@ public class AVConv implements VideoHelper {
 	}
 
 	@Override
-	public Future<VideoFile> doConversion() {
+	public VideoHelper priority(final int priority) {
+
+		this.priority = priority;
+		return this;
+	}
+
+	@Override
+	public MediaJob<VideoFile> doConversion() {
 
-		final ExecutorService service  = Executors.newSingleThreadExecutor();
-		final Future<VideoFile> future = service.submit(new ConverterProcess(securityContext, inputVideo, outputFileName, outputSize));
-		service.shutdown();
+		final MediaJobService.Type type = MediaJobService.Type.Conversion;
+		final ConverterProcess process  = new ConverterProcess(securityContext, inputVideo, outputFileName, outputSize);
 
-		return future;
+		return MediaJobService.getInstance().submit(type, process, priority, new MediaJob.Callback<VideoFile>() {
+
+			@Override
+			public void jobFinished(final MediaJob<VideoFile> job, final VideoFile result) {
+				inputVideo.onConversionFinished(result);
+			}
+
+			@Override
+			public void jobFailed(final MediaJob<VideoFile> job) {
+				inputVideo.onConversionFailed(job.getState());
+			}
+
+		}, getRecord());
 	}
 
 	@Override
@@ -73,11 +142,7 @@ public class AVConv implements VideoHelper {
 
 		try {
 
-			final ExecutorService service    = Executors.newSingleThreadExecutor();
-			final Map<String, String> result = service.submit(new GetMetadataProcess(securityContext, inputVideo)).get();
-			service.shutdown();
-
-			return result;
+			return execute(new GetMetadataProcess(securityContext, inputVideo));
 
 		} catch (InterruptedException | ExecutionException ex) {
 			ex.printStackTrace();
@@ -91,9 +156,7 @@ public class AVConv implements VideoHelper {
 
 		try {
 
-			final ExecutorService service = Executors.newSingleThreadExecutor();
-			service.submit(new SetMetadataProcess(securityContext, inputVideo, key, value)).get();
-			service.shutdown();
+			execute(new SetMetadataProcess(securityContext, inputVideo, key, value));
 
 		} catch (InterruptedException | ExecutionException ex) {
 			ex.printStackTrace();
@@ -105,9 +168,7 @@ public class AVConv implements VideoHelper {
 
 		try {
 
-			final ExecutorService service = Executors.newSingleThreadExecutor();
-			service.submit(new SetMetadataProcess(securityContext, inputVideo, metadata)).get();
-			service.shutdown();
+			execute(new SetMetadataProcess(securityContext, inputVideo, metadata));
 
 		} catch (InterruptedException | ExecutionException ex) {
 			ex.printStackTrace();
@@ -119,11 +180,7 @@ public class AVConv implements VideoHelper {
 
 		try {
 
-			final ExecutorService service  = Executors.newSingleThreadExecutor();
-			final Map<String, Object> info = service.submit(new GetVideoInfoProcess(securityContext, inputVideo)).get();
-			service.shutdown();
-
-			return info;
+			return execute(new GetVideoInfoProcess(securityContext, inputVideo));
 
 		} catch (InterruptedException | ExecutionException ex) {
 			ex.printStackTrace();
@@ -131,4 +188,42 @@ public class AVConv implements VideoHelper {
 
 		return null;
 	}
+
+	// ----- private methods -----
+	/**
+	 * Returns the record that allows {@link #CONVERSION_FACTORY} to submit
+	 * the conversion again after a restart.
+	 */
+	private Map<String, String> getRecord() {
+
+		final Map<String, String> record = new LinkedHashMap<>();
+		final Principal user             = securityContext.getUser(false);
+
+		record.put("video", inputVideo.getUuid());
+		record.put("priority", Integer.toString(priority));
+
+		if (outputFileName != null) {
+			record.put("outputFileName", outputFileName);
+		}
+
+		if (outputSize != null) {
+			record.put("outputSize", outputSize);
+		}
+
+		if (securityContext.isSuperUser()) {
+
+			record.put("superUser", "true");
+
+		} else if (user != null) {
+
+			record.put("user", user.getUuid());
+			record.put("accessMode", securityContext.getAccessMode().name());
+		}
+
+		return record;
+	}
+
+	private <T> T execute(final AbstractProcess<T> process) throws InterruptedException, ExecutionException {
+		return MediaJobService.getInstance().execute(MediaJobService.Type.Metadata, process, priority);
+	}
 }
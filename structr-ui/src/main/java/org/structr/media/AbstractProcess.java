@@ -5,6 +5,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.structr.common.SecurityContext;
 
 /**
@@ -13,10 +15,17 @@ import org.structr.common.SecurityContext;
  */
 public abstract class AbstractProcess<T> implements Callable<T> {
 
-	private static final Logger logger = Logger.getLogger(AbstractProcess.class.getName());
+	private static final Logger logger        = Logger.getLogger(AbstractProcess.class.getName());
+
+	private static final Pattern DURATION     = Pattern.compile("Duration: (\\d+):(\\d+):(\\d+(?:\\.\\d+)?)");
+	private static final Pattern TIME         = Pattern.compile("time=\\s*(?:(\\d+):(\\d+):)?(\\d+(?:\\.\\d+)?)");
 
 	protected SecurityContext securityContext = null;
 	private final AtomicBoolean running       = new AtomicBoolean(true);
+	private final AtomicBoolean cancelled     = new AtomicBoolean(false);
+	private volatile Process process          = null;
+	private volatile double duration          = 0.0;
+	private volatile double progress          = 0.0;
 	private StreamReader stdOut               = null;
 	private StreamReader stdErr               = null;
 	private String cmd                        = null;
@@ -38,7 +47,7 @@ public abstract class AbstractProcess<T> implements Callable<T> {
 			preprocess();
 
 			final StringBuilder commandLine = getCommandLine();
-			if (commandLine != null) {
+			if (commandLine != null && !cancelled.get()) {
 
 				cmd = commandLine.toString();
 
@@ -46,11 +55,23 @@ public abstract class AbstractProcess<T> implements Callable<T> {
 
 				logger.log(Level.INFO, "Executing {0}", cmd);
 
-				Process proc = Runtime.getRuntime().exec(args);
+				final Process proc = Runtime.getRuntime().exec(args);
+				process            = proc;
+
+				// a cancellation that arrived while the process was started
+				if (cancelled.get()) {
+					proc.destroy();
+				}
 
 				// consume streams
-				stdOut = new StreamReader(proc.getInputStream(), running);
-				stdErr = new StreamReader(proc.getErrorStream(), running);
+				stdOut = new StreamReader(proc.getInputStream(), running, null);
+				stdErr = new StreamReader(proc.getErrorStream(), running, new StreamReader.Listener() {
+
+					@Override
+					public void onLine(final String line) {
+						onErrorLine(line);
+					}
+				});
 
 				stdOut.start();
 				stdErr.start();
@@ -58,21 +79,95 @@ public abstract class AbstractProcess<T> implements Callable<T> {
 				exitCode = proc.waitFor();
 			}
 
-		} catch (IOException | InterruptedException ex) {
+		} catch (InterruptedException iex) {
+
+			// job was cancelled, don't leave the process behind
+			final Process proc = process;
+			if (proc != null) {
+				proc.destroy();
+			}
+
+		} catch (IOException ex) {
 
 			ex.printStackTrace();
 		}
 
 		running.set(false);
 
-		// debugging output
-		if (exitCode != 0) {
+		if (exitCode == 0) {
+
+			progress = 1.0;
+
+		} else if (cancelled.get()) {
+
+			logger.log(Level.INFO, "Process {0} was cancelled", cmd);
+
+		} else if (stdErr != null) {
+
+			// debugging output
 			logger.log(Level.WARNING, "Process {0} exited with exit code {1}, error stream:{2}\n", new Object[] { cmd, exitCode, stdErr.getBuffer() } );
 		}
 
 		return processExited(exitCode);
 	}
 
+	/**
+	 * Cancels this process. A running process is destroyed, a process
+	 * that was not started yet will not be started.
+	 */
+	public void cancel() {
+
+		cancelled.set(true);
+
+		final Process proc = process;
+		if (proc != null) {
+			proc.destroy();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled.get();
+	}
+
+	/**
+	 * Returns the progress of this process between 0.0 and 1.0, as far
+	 * as it can be derived from the duration and time information in the
+	 * output of the process.
+	 *
+	 * @return the progress
+	 */
+	public double getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Called for every line the process writes to its error stream, which
+	 * is where avconv reports the input duration and the encoding progress.
+	 * Note that progress lines are terminated by a carriage return.
+	 *
+	 * @param line
+	 */
+	protected void onErrorLine(final String line) {
+
+		if (duration <= 0.0) {
+
+			final Matcher matcher = DURATION.matcher(line);
+			if (matcher.find()) {
+
+				duration = toSeconds(matcher.group(1), matcher.group(2), matcher.group(3));
+			}
+		}
+
+		if (duration > 0.0) {
+
+			final Matcher matcher = TIME.matcher(line);
+			if (matcher.find()) {
+
+				progress = Math.max(0.0, Math.min(1.0, toSeconds(matcher.group(1), matcher.group(2), matcher.group(3)) / duration));
+			}
+		}
+	}
+
 	protected String outputStream() {
 		return stdOut.getBuffer();
 	}
@@ -84,4 +179,20 @@ public abstract class AbstractProcess<T> implements Callable<T> {
 	protected int exitCode() {
 		return exitCode;
 	}
+
+	// ----- private methods -----
+	private static double toSeconds(final String hours, final String minutes, final String seconds) {
+
+		double value = Double.parseDouble(seconds);
+
+		if (hours != null) {
+			value += Integer.parseInt(hours) * 3600;
+		}
+
+		if (minutes != null) {
+			value += Integer.parseInt(minutes) * 60;
+		}
+
+		return value;
+	}
 }
@@ -1,13 +1,12 @@
 package org.structr.media;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import org.apache.commons.lang3.StringUtils;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.app.StructrApp;
 import org.structr.core.graph.Tx;
+import org.structr.web.common.BlobStore;
 import org.structr.web.common.FileHelper;
 import org.structr.web.entity.VideoFile;
 
@@ -44,8 +43,12 @@ public class ConverterProcess extends AbstractProcess<VideoFile> {
 			// extract file extension
 			fileExtension = StringUtils.substringAfterLast(outputFileName, ".");
 
-			// obtain destination path of new file
-			outputFileName = newFile.getFileOnDisk().getAbsolutePath();
+			// the converted video is written to the private path of the new file
+			// and moved into the blob store when the conversion has finished
+			final java.io.File outputFile = new java.io.File(FileHelper.getFilePath(BlobStore.getPrivatePath(newFile)));
+
+			outputFile.getParentFile().mkdirs();
+			outputFileName = outputFile.getAbsolutePath();
 
 			tx.success();
 
@@ -57,7 +60,7 @@ public class ConverterProcess extends AbstractProcess<VideoFile> {
 	@Override
 	public StringBuilder getCommandLine() {
 
-		final StringBuilder commandLine = new StringBuilder("avconv -y -i ");
+		final StringBuilder commandLine = new StringBuilder(MediaJobService.getAvconv()).append(" -y -i ");
 
 		// build command line from builder options
 		commandLine.append(inputFile.getDiskFilePath(securityContext));
@@ -91,12 +94,11 @@ public class ConverterProcess extends AbstractProcess<VideoFile> {
 			try (final Tx tx = StructrApp.getInstance(securityContext).tx()) {
 
 				// move converted file into place
-				final java.io.File diskFile = new java.io.File(outputFileName + "." + fileExtension);
-				final java.io.File dstFile  = new java.io.File(outputFileName);
+				final java.io.File diskFile = new java.io.File(fileExtension.isEmpty() ? outputFileName : outputFileName + "." + fileExtension);
 				if (diskFile.exists()) {
 
-					Files.move(diskFile.toPath(), dstFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-					FileHelper.updateMetadata(newFile);
+					BlobStore.getInstance().adopt(newFile, diskFile);
+					newFile.setProperty(VideoFile.contentType, FileHelper.getContentMimeType(newFile));
 				}
 
 				tx.success();
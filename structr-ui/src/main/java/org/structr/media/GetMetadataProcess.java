@@ -32,7 +32,7 @@ public class GetMetadataProcess extends AbstractProcess<Map<String, String>> {
 	@Override
 	public StringBuilder getCommandLine() {
 
-		StringBuilder commandLine = new StringBuilder("avconv -y -loglevel quiet -i ");
+		StringBuilder commandLine = new StringBuilder(MediaJobService.getAvconv()).append(" -y -loglevel quiet -i ");
 
 		// build command line from builder options
 		commandLine.append(inputVideo.getDiskFilePath(securityContext));
@@ -30,7 +30,7 @@ public class GetVideoInfoProcess extends AbstractProcess<Map<String, Object>> {
 	@Override
 	public StringBuilder getCommandLine() {
 
-		StringBuilder commandLine = new StringBuilder("avprobe -v verbose -show_format -show_streams -of json ");
+		StringBuilder commandLine = new StringBuilder(MediaJobService.getAvprobe()).append(" -v verbose -show_format -show_streams -of json ");
 
 		// build command line from builder options
 		commandLine.append(inputVideo.getDiskFilePath(securityContext));
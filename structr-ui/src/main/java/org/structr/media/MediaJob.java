@@ -0,0 +1,166 @@
+package org.structr.media;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A job of the {@link MediaJobService}. Jobs with a higher priority are
+ * executed first, jobs with the same priority in the order in which they
+ * were submitted.
+ *
+ * @author Christian Morgner
+ */
+public class MediaJob<T> extends FutureTask<T> implements Comparable<MediaJob<?>> {
+
+	private static final Logger logger = Logger.getLogger(MediaJob.class.getName());
+
+	public enum State {
+		Queued, Running, Finished, Failed, Cancelled
+	}
+
+	/**
+	 * Receives the result of a job. The methods are called in the thread
+	 * that executed the job, or in the thread that cancelled it.
+	 */
+	public interface Callback<T> {
+
+		public void jobFinished(final MediaJob<T> job, final T result);
+		public void jobFailed(final MediaJob<T> job);
+	}
+
+	private volatile State state              = State.Queued;
+	private MediaJobService service           = null;
+	private MediaJobService.Type type         = null;
+	private AbstractProcess<T> process        = null;
+	private Callback<T> callback              = null;
+	private File recordFile                   = null;
+	private int priority                      = 0;
+	private long sequence                     = 0L;
+
+	MediaJob(final MediaJobService service, final MediaJobService.Type type, final AbstractProcess<T> process, final int priority, final long sequence, final Callback<T> callback) {
+
+		super(process);
+
+		this.service  = service;
+		this.type     = type;
+		this.process  = process;
+		this.priority = priority;
+		this.sequence = sequence;
+		this.callback = callback;
+	}
+
+	@Override
+	public void run() {
+
+		if (!isDone()) {
+			state = State.Running;
+		}
+
+		super.run();
+	}
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+
+		process.cancel();
+
+		final boolean result = super.cancel(mayInterruptIfRunning);
+		if (result) {
+
+			service.remove(this);
+		}
+
+		return result;
+	}
+
+	public MediaJobService.Type getType() {
+		return type;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	File getRecordFile() {
+		return recordFile;
+	}
+
+	void setRecordFile(final File recordFile) {
+		this.recordFile = recordFile;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the progress of this job between 0.0 and 1.0.
+	 *
+	 * @return the progress
+	 */
+	public double getProgress() {
+		return state == State.Finished ? 1.0 : process.getProgress();
+	}
+
+	@Override
+	public int compareTo(final MediaJob<?> other) {
+
+		if (priority != other.priority) {
+			return priority > other.priority ? -1 : 1;
+		}
+
+		return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+	}
+
+	@Override
+	protected void done() {
+
+		T result = null;
+
+		if (isCancelled()) {
+
+			state = State.Cancelled;
+
+		} else {
+
+			try {
+
+				result = get();
+				state  = process.exitCode() == 0 ? State.Finished : State.Failed;
+
+			} catch (InterruptedException | ExecutionException ex) {
+
+				logger.log(Level.WARNING, "Media job failed", ex);
+				state = State.Failed;
+			}
+		}
+
+		service.jobDone(this);
+
+		if (callback != null) {
+
+			try {
+
+				if (state == State.Finished) {
+
+					callback.jobFinished(this, result);
+
+				} else {
+
+					callback.jobFailed(this);
+				}
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Exception in media job callback", t);
+			}
+		}
+	}
+}
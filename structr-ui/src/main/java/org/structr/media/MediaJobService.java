@@ -0,0 +1,489 @@
+package org.structr.media;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.StatisticsRegistry;
+import org.structr.common.StructrConf;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Command;
+import org.structr.core.Services;
+import org.structr.core.SingletonService;
+import org.structr.core.app.StructrApp;
+
+/**
+ * Executes media processes (conversions, metadata reads and writes) in
+ * long-lived worker pools with a fixed number of threads per job type, so
+ * that a batch of uploads cannot start an unbounded number of encoders.
+ * Waiting jobs are ordered by priority, see {@link MediaJob}.
+ *
+ * Jobs that are submitted with a record (i.e. conversions, which run in
+ * the background) are persisted in the queue directory (see
+ * {@link #QUEUE_PATH}) until they are done. Records of jobs that were
+ * still queued or running when the service was shut down are handed to a
+ * {@link JobFactory} when the service is initialized again, which submits
+ * them again. Metadata jobs are not persisted since their callers wait for
+ * them.
+ *
+ * Jobs are only persisted if the service is started by the service layer,
+ * i.e. listed in configured.services (after the SchemaService). Otherwise
+ * an instance without persistence is created on first use.
+ *
+ * @author Christian Morgner
+ */
+public class MediaJobService implements SingletonService, StatisticsRegistry.Source {
+
+	public static final String CONVERSION_THREADS     = "MediaJobService.conversion.threads";
+	public static final String METADATA_THREADS       = "MediaJobService.metadata.threads";
+	public static final String AVCONV_EXECUTABLE      = "MediaJobService.avconv";
+	public static final String AVPROBE_EXECUTABLE     = "MediaJobService.avprobe";
+	public static final String QUEUE_PATH             = "MediaJobService.queue.path";
+
+	private static final Logger logger                = Logger.getLogger(MediaJobService.class.getName());
+	private static final String RECORD_EXTENSION      = ".job";
+
+	/**
+	 * Job types, each type has its own worker pool.
+	 */
+	public enum Type {
+		Conversion, Metadata
+	}
+
+	/**
+	 * Submits a persistent job again after a restart.
+	 */
+	public interface JobFactory {
+
+		/**
+		 * Submits the job described by the given record.
+		 *
+		 * @param record the record the job was submitted with
+		 * @throws FrameworkException
+		 */
+		public void resume(final Map<String, String> record) throws FrameworkException;
+	}
+
+	private static MediaJobService instance           = null;
+
+	private final Map<Type, ThreadPoolExecutor> pools = new EnumMap<>(Type.class);
+	private final AtomicLong sequence                 = new AtomicLong(0L);
+	private final AtomicLong submitted                = new AtomicLong(0L);
+	private final AtomicLong finished                 = new AtomicLong(0L);
+	private final AtomicLong failed                   = new AtomicLong(0L);
+	private final AtomicLong cancelled                = new AtomicLong(0L);
+	private File queueDirectory                       = null;
+	private volatile boolean shuttingDown             = false;
+
+	public MediaJobService() {
+	}
+
+	MediaJobService(final int conversionThreads, final int metadataThreads) {
+		this(conversionThreads, metadataThreads, null);
+	}
+
+	MediaJobService(final int conversionThreads, final int metadataThreads, final File queueDirectory) {
+		setup(conversionThreads, metadataThreads, queueDirectory);
+	}
+
+	public static synchronized MediaJobService getInstance() {
+
+		if (instance == null) {
+
+			logger.log(Level.WARNING, "MediaJobService is not in {0}, media jobs will not be persisted", Services.CONFIGURED_SERVICES);
+
+			instance = new MediaJobService(getThreads(StructrApp.getConfigurationValue(CONVERSION_THREADS), 1), getThreads(StructrApp.getConfigurationValue(METADATA_THREADS), 2));
+
+			StatisticsRegistry.register("mediaJobService", instance);
+		}
+
+		return instance;
+	}
+
+	// ----- interface Service -----
+	@Override
+	public void injectArguments(final Command command) {
+	}
+
+	@Override
+	public void initialize(final StructrConf config) {
+
+		final String queuePath = config.getProperty(QUEUE_PATH);
+		final String basePath  = config.getProperty(Services.BASE_PATH);
+		File queueDirectory    = null;
+
+		if (queuePath != null) {
+
+			queueDirectory = new File(queuePath);
+
+		} else if (basePath != null) {
+
+			queueDirectory = new File(basePath, "media-jobs");
+		}
+
+		setup(getThreads(config.getProperty(CONVERSION_THREADS), 1), getThreads(config.getProperty(METADATA_THREADS), 2), queueDirectory);
+
+		synchronized (MediaJobService.class) {
+			instance = this;
+		}
+
+		StatisticsRegistry.register("mediaJobService", this);
+	}
+
+	/**
+	 * Resumes the persisted jobs. The schema is available at this point
+	 * if the SchemaService is listed before this service.
+	 */
+	@Override
+	public void initialized() {
+
+		final int count = resume(AVConv.CONVERSION_FACTORY);
+		if (count > 0) {
+
+			logger.log(Level.INFO, "Resumed {0} media job(s)", count);
+		}
+	}
+
+	/**
+	 * Stops all workers. Records of jobs that are queued or running are
+	 * kept, so that the jobs are resumed after the next start.
+	 */
+	@Override
+	public void shutdown() {
+
+		shuttingDown = true;
+
+		for (final ThreadPoolExecutor pool : pools.values()) {
+			pool.shutdownNow();
+		}
+
+		synchronized (MediaJobService.class) {
+
+			if (instance == this) {
+				instance = null;
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return MediaJobService.class.getSimpleName();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return !shuttingDown;
+	}
+
+	@Override
+	public boolean isVital() {
+		return false;
+	}
+
+	// ----- public methods -----
+	/**
+	 * Returns the avconv executable, the command name by default.
+	 *
+	 * @return the executable
+	 */
+	public static String getAvconv() {
+		return StructrApp.getConfigurationValue(AVCONV_EXECUTABLE, "avconv");
+	}
+
+	/**
+	 * Returns the avprobe executable, the command name by default.
+	 *
+	 * @return the executable
+	 */
+	public static String getAvprobe() {
+		return StructrApp.getConfigurationValue(AVPROBE_EXECUTABLE, "avprobe");
+	}
+
+	/**
+	 * Queues the given process.
+	 *
+	 * @param <T>
+	 * @param type the job type, which determines the worker pool
+	 * @param process the process to execute
+	 * @param priority jobs with higher priority are executed first
+	 * @param callback the callback to notify, or null
+	 * @return the job, which can be used to wait for the result, to track
+	 * the progress or to cancel the process
+	 */
+	public <T> MediaJob<T> submit(final Type type, final AbstractProcess<T> process, final int priority, final MediaJob.Callback<T> callback) {
+		return submit(type, process, priority, callback, null);
+	}
+
+	/**
+	 * Queues the given process and persists the given record until the
+	 * job is done, so that the job can be submitted again by a
+	 * {@link JobFactory} if the service is shut down before.
+	 *
+	 * @param <T>
+	 * @param type the job type, which determines the worker pool
+	 * @param process the process to execute
+	 * @param priority jobs with higher priority are executed first
+	 * @param callback the callback to notify, or null
+	 * @param record the record that describes the job, or null
+	 * @return the job
+	 */
+	public <T> MediaJob<T> submit(final Type type, final AbstractProcess<T> process, final int priority, final MediaJob.Callback<T> callback, final Map<String, String> record) {
+
+		final MediaJob<T> job = new MediaJob<>(this, type, process, priority, sequence.incrementAndGet(), callback);
+
+		if (record != null && queueDirectory != null) {
+			job.setRecordFile(writeRecord(job, record));
+		}
+
+		submitted.incrementAndGet();
+		pools.get(type).execute(job);
+
+		return job;
+	}
+
+	/**
+	 * Executes the given process and waits for its result. A process that
+	 * is started from within a media job (e.g. the video info update that
+	 * follows a metadata write) is executed in the calling thread, so that
+	 * jobs never wait for a worker of their own pool.
+	 *
+	 * @param <T>
+	 * @param type the job type, which determines the worker pool
+	 * @param process the process to execute
+	 * @param priority jobs with higher priority are executed first
+	 * @return the result of the process
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public <T> T execute(final Type type, final AbstractProcess<T> process, final int priority) throws InterruptedException, ExecutionException {
+
+		if (Thread.currentThread() instanceof WorkerThread) {
+			return process.call();
+		}
+
+		return submit(type, process, priority, null).get();
+	}
+
+	public int getQueueDepth(final Type type) {
+		return pools.get(type).getQueue().size();
+	}
+
+	public int getActiveJobs(final Type type) {
+		return pools.get(type).getActiveCount();
+	}
+
+	// ----- interface StatisticsRegistry.Source -----
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		for (final Entry<Type, ThreadPoolExecutor> entry : pools.entrySet()) {
+
+			final Map<String, Object> poolStats = new LinkedHashMap<>();
+			final ThreadPoolExecutor pool       = entry.getValue();
+
+			poolStats.put("threads", pool.getMaximumPoolSize());
+			poolStats.put("queueDepth", pool.getQueue().size());
+			poolStats.put("activeJobs", pool.getActiveCount());
+
+			stats.put(entry.getKey().name().toLowerCase(), poolStats);
+		}
+
+		stats.put("submitted", submitted.get());
+		stats.put("finished", finished.get());
+		stats.put("failed", failed.get());
+		stats.put("cancelled", cancelled.get());
+
+		return stats;
+	}
+
+	// ----- package-private methods -----
+	/**
+	 * Hands the records of all persistent jobs that were not done when the
+	 * service was shut down to the given factory, which submits them again.
+	 *
+	 * @param factory the factory
+	 * @return the number of resumed jobs
+	 */
+	int resume(final JobFactory factory) {
+
+		int count = 0;
+
+		if (queueDirectory != null) {
+
+			final File[] files = queueDirectory.listFiles();
+			if (files != null) {
+
+				// file names start with the submission time
+				Arrays.sort(files);
+
+				for (final File file : files) {
+
+					if (!file.getName().endsWith(RECORD_EXTENSION)) {
+						continue;
+					}
+
+					final Map<String, String> record = readRecord(file);
+
+					// the resumed job is persisted with a new record
+					file.delete();
+
+					if (record != null) {
+
+						try {
+
+							factory.resume(record);
+							count++;
+
+						} catch (Throwable t) {
+
+							logger.log(Level.WARNING, "Unable to resume media job {0}: {1}", new Object[] { record, t.getMessage() });
+						}
+					}
+				}
+			}
+		}
+
+		return count;
+	}
+
+	void remove(final MediaJob<?> job) {
+		pools.get(job.getType()).remove(job);
+	}
+
+	void jobDone(final MediaJob<?> job) {
+
+		final File recordFile = job.getRecordFile();
+		if (recordFile != null && !shuttingDown) {
+			recordFile.delete();
+		}
+
+		switch (job.getState()) {
+
+			case Finished:
+				finished.incrementAndGet();
+				break;
+
+			case Cancelled:
+				cancelled.incrementAndGet();
+				break;
+
+			default:
+				failed.incrementAndGet();
+				break;
+		}
+	}
+
+	// ----- private methods -----
+	private static int getThreads(final String value, final int defaultValue) {
+		return Math.max(1, Services.parseInt(value, defaultValue));
+	}
+
+	private void setup(final int conversionThreads, final int metadataThreads, final File queueDirectory) {
+
+		pools.put(Type.Conversion, createPool(Type.Conversion, conversionThreads));
+		pools.put(Type.Metadata,   createPool(Type.Metadata,   metadataThreads));
+
+		if (queueDirectory != null && (queueDirectory.isDirectory() || queueDirectory.mkdirs())) {
+
+			this.queueDirectory = queueDirectory;
+
+		} else if (queueDirectory != null) {
+
+			logger.log(Level.WARNING, "Unable to create media job queue directory {0}, jobs will not be persisted", queueDirectory);
+		}
+	}
+
+	private File writeRecord(final MediaJob<?> job, final Map<String, String> record) {
+
+		final File file             = new File(queueDirectory, System.currentTimeMillis() + "-" + job.getSequence() + RECORD_EXTENSION);
+		final Properties properties = new Properties();
+
+		properties.putAll(record);
+
+		try (final OutputStream os = new FileOutputStream(file)) {
+
+			properties.store(os, null);
+
+			return file;
+
+		} catch (IOException ioex) {
+
+			logger.log(Level.WARNING, "Unable to persist media job: {0}", ioex.getMessage());
+		}
+
+		return null;
+	}
+
+	private Map<String, String> readRecord(final File file) {
+
+		final Properties properties = new Properties();
+
+		try (final InputStream is = new FileInputStream(file)) {
+
+			properties.load(is);
+
+			final Map<String, String> record = new LinkedHashMap<>();
+
+			for (final String name : properties.stringPropertyNames()) {
+				record.put(name, properties.getProperty(name));
+			}
+
+			return record;
+
+		} catch (IOException ioex) {
+
+			logger.log(Level.WARNING, "Unable to read media job record {0}: {1}", new Object[] { file, ioex.getMessage() });
+		}
+
+		return null;
+	}
+
+	private ThreadPoolExecutor createPool(final Type type, final int threads) {
+
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+
+				final Thread thread = new WorkerThread(r, "MediaJobThread-" + type.name() + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		pool.allowCoreThreadTimeOut(true);
+
+		return pool;
+	}
+
+	// ----- nested classes -----
+	private static class WorkerThread extends Thread {
+
+		public WorkerThread(final Runnable runnable, final String name) {
+			super(runnable, name);
+		}
+	}
+}
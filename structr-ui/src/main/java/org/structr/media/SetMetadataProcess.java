@@ -1,8 +1,6 @@
 package org.structr.media;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,6 +9,7 @@ import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.app.StructrApp;
 import org.structr.core.graph.Tx;
+import org.structr.web.common.BlobStore;
 import org.structr.web.common.FileHelper;
 import org.structr.web.entity.VideoFile;
 
@@ -34,9 +33,8 @@ public class SetMetadataProcess extends AbstractProcess<Void> {
 
 		super(securityContext);
 
-		this.outputFileName = inputVideo.getDiskFilePath(securityContext);
-		this.inputVideo     = inputVideo;
-		
+		this.inputVideo = inputVideo;
+
 		this.metadata.putAll(values);
 	}
 
@@ -47,6 +45,15 @@ public class SetMetadataProcess extends AbstractProcess<Void> {
 
 			// extract file extension
 			fileExtension = StringUtils.substringAfterLast(inputVideo.getName(), ".");
+
+			// the content of the video may be shared with other files, so the
+			// result is written to the private path of the video and moved into
+			// the blob store afterwards
+			final java.io.File outputFile = new java.io.File(FileHelper.getFilePath(BlobStore.getPrivatePath(inputVideo)));
+
+			outputFile.getParentFile().mkdirs();
+			outputFileName = outputFile.getAbsolutePath();
+
 			tx.success();
 
 		} catch (FrameworkException fex) {}
@@ -59,7 +66,7 @@ public class SetMetadataProcess extends AbstractProcess<Void> {
 			return null;
 		}
 
-		final StringBuilder commandLine = new StringBuilder("avconv -y -i ");
+		final StringBuilder commandLine = new StringBuilder(MediaJobService.getAvconv()).append(" -y -i ");
 		final String diskFilePath       = inputVideo.getDiskFilePath(securityContext);
 
 		// build command line from builder options
@@ -75,7 +82,7 @@ public class SetMetadataProcess extends AbstractProcess<Void> {
 		}
 
 		commandLine.append(" -codec copy ");
-		commandLine.append(diskFilePath);
+		commandLine.append(outputFileName);
 
 		if (!fileExtension.isEmpty()) {
 			commandLine.append(".");
@@ -94,11 +101,10 @@ public class SetMetadataProcess extends AbstractProcess<Void> {
 
 				// move converted file into place
 				final java.io.File diskFile = new java.io.File(outputFileName + "." + fileExtension);
-				final java.io.File dstFile  = new java.io.File(outputFileName);
 				if (diskFile.exists()) {
 
-					Files.move(diskFile.toPath(), dstFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-					FileHelper.updateMetadata(inputVideo);
+					BlobStore.getInstance().adopt(inputVideo, diskFile);
+					inputVideo.setProperty(VideoFile.contentType, FileHelper.getContentMimeType(inputVideo));
 				}
 
 				tx.success();
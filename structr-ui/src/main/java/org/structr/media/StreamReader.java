@@ -16,13 +16,26 @@ public class StreamReader extends Thread {
 	private final Queue<String> queue = new ConcurrentLinkedQueue<>();
 	private BufferedReader reader     = null;
 	private AtomicBoolean running     = null;
+	private Listener listener         = null;
+
+	/**
+	 * Receives the lines of the stream as they are read.
+	 */
+	public interface Listener {
+		public void onLine(final String line);
+	}
 
 	public StreamReader(final InputStream is, final AtomicBoolean running) {
+		this(is, running, null);
+	}
+
+	public StreamReader(final InputStream is, final AtomicBoolean running, final Listener listener) {
 
 		super("StreamReader");
 
-		this.reader  = new BufferedReader(new InputStreamReader(is));
-		this.running = running;
+		this.reader   = new BufferedReader(new InputStreamReader(is));
+		this.running  = running;
+		this.listener = listener;
 
 		this.setDaemon(true);
 	}
@@ -53,6 +66,10 @@ public class StreamReader extends Thread {
 					if (line != null) {
 
 						queue.add(line);
+
+						if (listener != null) {
+							listener.onLine(line);
+						}
 					}
 
 				} while (line != null);
@@ -1,7 +1,6 @@
 package org.structr.media;
 
 import java.util.Map;
-import java.util.concurrent.Future;
 import org.structr.web.entity.VideoFile;
 
 /**
@@ -13,8 +12,9 @@ public interface VideoHelper {
 	public VideoHelper scale(final VideoFormat format);
 	public VideoHelper scale(final int width, final int height);
 	public VideoHelper scale(final String customFormat);
+	public VideoHelper priority(final int priority);
 
-	public Future<VideoFile> doConversion();
+	public MediaJob<VideoFile> doConversion();
 
 	public Map<String, String> getMetadata();
 	public void setMetadata(final String key, final String value);
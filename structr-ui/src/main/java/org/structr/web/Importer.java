@@ -74,6 +74,7 @@ import org.structr.core.property.BooleanProperty;
 import org.structr.core.property.StringProperty;
 import org.structr.dynamic.File;
 import org.structr.schema.importer.GraphGistImporter;
+import org.structr.web.common.BlobStore;
 import org.structr.web.common.FileHelper;
 import org.structr.web.common.ImageHelper;
 import org.structr.web.diff.CreateOperation;
@@ -744,6 +745,7 @@ public class Importer {
 
 		fileOnDisk.getParentFile().mkdirs();
 
+		final BlobStore.Content content;
 		long size;
 		long checksum;
 		URL downloadUrl;
@@ -799,8 +801,9 @@ public class Importer {
 		try {
 
 			contentType = FileHelper.getContentMimeType(fileOnDisk, fileName);
-			size        = fileOnDisk.length();
-			checksum    = FileUtils.checksumCRC32(fileOnDisk);
+			content     = BlobStore.digest(fileOnDisk);
+			size        = content.getSize();
+			checksum    = content.getChecksum();
 
 		} catch (IOException ioe) {
 
@@ -847,6 +850,9 @@ public class Importer {
 
 				if (fileNode != null) {
 
+					// move the downloaded file into the blob store
+					BlobStore.getInstance().adopt(fileNode, fileOnDisk, content);
+
 					Folder parent = FileHelper.createFolderPath(securityContext, path);
 
 					if (parent != null) {
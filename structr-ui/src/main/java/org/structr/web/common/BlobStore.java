@@ -0,0 +1,763 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.structr.common.StatisticsRegistry;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.TransactionCompletion;
+import org.structr.core.graph.Tx;
+import org.structr.web.entity.FileBase;
+
+/**
+ * Content-addressed storage for the binary content of files.
+ *
+ * The SHA-256 digest, the CRC32 checksum and the size of the content are
+ * computed while the content is written, so they never need to be read
+ * back from disk. Content is stored once per digest below the "blobs"
+ * directory of the files path, and all files with the same content point
+ * to the same blob with their relativeFilePath and contentHash properties.
+ * A blob is deleted when the last file referencing it is deleted or gets
+ * new content; the references are counted with an index query on
+ * contentHash.
+ *
+ * Content is only deleted after the transaction that released it was
+ * committed, so a rollback never leaves a file pointing to missing
+ * content. Blobs that are referenced by transactions that have not been
+ * committed yet are pinned in memory, since the index query can not see
+ * those references, and blobs stored by transactions that were rolled
+ * back are released again.
+ *
+ * Blobs are never modified: new content is always written to a new blob
+ * (or to the private path of the file if the blob store is disabled with
+ * FileHelper.blobStore = false), and the previous content is released.
+ *
+ * @author Christian Morgner
+ */
+public class BlobStore implements StatisticsRegistry.Source {
+
+	private static final Logger logger          = Logger.getLogger(BlobStore.class.getName());
+
+	public static final String BLOB_STORE       = "FileHelper.blobStore";
+	public static final String BLOB_DIRECTORY   = "blobs";
+
+	private static final String DIGEST          = "SHA-256";
+	private static final int BUFFER_SIZE        = 65536;
+	private static BlobStore instance           = null;
+
+	private final AtomicLong stored             = new AtomicLong(0L);
+	private final AtomicLong duplicates         = new AtomicLong(0L);
+	private final AtomicLong duplicateBytes     = new AtomicLong(0L);
+	private final AtomicLong released           = new AtomicLong(0L);
+	private final Map<String, Integer> pinned   = new HashMap<>();
+	private boolean enabled                     = false;
+
+	BlobStore(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public static synchronized BlobStore getInstance() {
+
+		if (instance == null) {
+
+			instance = new BlobStore(Services.parseBoolean(StructrApp.getConfigurationValue(BLOB_STORE, "true"), true));
+
+			StatisticsRegistry.register("blobStore", instance);
+		}
+
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Stores the given data as the new content of the given file.
+	 *
+	 * The digest is computed before anything is written, so storing
+	 * content that already exists does not write to disk at all.
+	 *
+	 * @param file
+	 * @param data
+	 * @return the stored content
+	 *
+	 * @throws FrameworkException
+	 * @throws IOException
+	 */
+	public Content write(final FileBase file, final byte[] data) throws FrameworkException, IOException {
+
+		final Content content = digest(new ByteArrayInputStream(data));
+
+		if (enabled) {
+
+			content.path = getBlobPath(content.hash);
+
+			if (!exists(content)) {
+
+				final java.io.File tmp = createTemporaryFile();
+
+				try (final OutputStream out = new FileOutputStream(tmp)) {
+					out.write(data);
+				}
+
+				store(tmp, content);
+			}
+
+		} else {
+
+			content.path = getPrivatePath(file);
+
+			final java.io.File fileOnDisk = getFile(content.path);
+
+			fileOnDisk.getParentFile().mkdirs();
+
+			try (final OutputStream out = new FileOutputStream(fileOnDisk)) {
+				out.write(data);
+			}
+		}
+
+		setContent(file, content);
+
+		return content;
+	}
+
+	/**
+	 * Streams the given input into the store and sets it as the new
+	 * content of the given file.
+	 *
+	 * @param file
+	 * @param in
+	 * @return the stored content
+	 *
+	 * @throws FrameworkException
+	 * @throws IOException
+	 */
+	public Content write(final FileBase file, final InputStream in) throws FrameworkException, IOException {
+
+		final ContentOutputStream out = openOutputStream(file);
+
+		try {
+
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int count           = 0;
+
+			while ((count = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, count);
+			}
+
+		} finally {
+
+			out.close();
+		}
+
+		final Content content = out.getContent();
+
+		setContent(file, content);
+
+		return content;
+	}
+
+	/**
+	 * Takes over the content of a file that was written to disk by other
+	 * means (e.g. chunked uploads or downloads) and sets it as the new
+	 * content of the given file. The content is read once to compute its
+	 * digest; if a blob with the same digest exists, the given file on
+	 * disk is deleted, otherwise it is moved into the store.
+	 *
+	 * @param file
+	 * @param fileOnDisk
+	 * @return the stored content
+	 *
+	 * @throws FrameworkException
+	 * @throws IOException
+	 */
+	public Content adopt(final FileBase file, final java.io.File fileOnDisk) throws FrameworkException, IOException {
+
+		return adopt(file, fileOnDisk, digest(fileOnDisk));
+	}
+
+	/**
+	 * Takes over the content of a file on disk whose digest is already
+	 * known, see {@link #adopt(FileBase, java.io.File)}.
+	 *
+	 * @param file
+	 * @param fileOnDisk
+	 * @param content the result of {@link #digest(java.io.File)} for the file on disk
+	 * @return the stored content
+	 *
+	 * @throws FrameworkException
+	 * @throws IOException
+	 */
+	public Content adopt(final FileBase file, final java.io.File fileOnDisk, final Content content) throws FrameworkException, IOException {
+
+		if (enabled) {
+
+			content.path = getBlobPath(content.hash);
+
+			if (exists(content)) {
+
+				fileOnDisk.delete();
+
+			} else {
+
+				store(fileOnDisk, content);
+			}
+
+		} else {
+
+			content.path = getPrivatePath(file);
+
+			final java.io.File target = getFile(content.path);
+			if (!target.getAbsoluteFile().equals(fileOnDisk.getAbsoluteFile())) {
+
+				target.getParentFile().mkdirs();
+				Files.move(fileOnDisk.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		setContent(file, content);
+
+		return content;
+	}
+
+	/**
+	 * Returns an output stream that computes digest, checksum and size of
+	 * the content while it is written. The content is moved into the store
+	 * when the stream is closed, but it is not set on the file: callers
+	 * must pass the result of {@link ContentOutputStream#getContent()} to
+	 * {@link #setContent(FileBase, Content)} in a transaction.
+	 *
+	 * @param file
+	 * @return the output stream
+	 *
+	 * @throws IOException
+	 */
+	public ContentOutputStream openOutputStream(final FileBase file) throws IOException {
+
+		if (enabled) {
+
+			return new ContentOutputStream(createTemporaryFile(), null);
+		}
+
+		final String path             = getPrivatePath(file);
+		final java.io.File fileOnDisk = getFile(path);
+
+		fileOnDisk.getParentFile().mkdirs();
+
+		return new ContentOutputStream(fileOnDisk, path);
+	}
+
+	/**
+	 * Points the given file to the given content. The previous content is
+	 * released when the transaction is committed; if it is rolled back,
+	 * the new content is released instead.
+	 *
+	 * @param file
+	 * @param content
+	 *
+	 * @throws FrameworkException
+	 */
+	public void setContent(final FileBase file, final Content content) throws FrameworkException {
+
+		final String previousPath = file.getRelativeFilePath();
+		final String uuid         = file.getUuid();
+
+		file.unlockReadOnlyPropertiesOnce();
+		file.setProperty(FileBase.relativeFilePath, content.path);
+
+		file.unlockReadOnlyPropertiesOnce();
+		file.setProperty(FileBase.contentHash, content.hash);
+
+		file.unlockReadOnlyPropertiesOnce();
+		file.setProperty(FileBase.checksum, content.checksum);
+
+		file.unlockReadOnlyPropertiesOnce();
+		file.setProperty(FileBase.size, content.size);
+
+		TransactionCommand.afterCompletion(new TransactionCompletion() {
+
+			@Override
+			public void afterCompletion(final boolean committed) {
+
+				// the reference is visible to the index query (or gone) now
+				if (isBlobPath(content.path)) {
+					unpin(content.hash);
+				}
+
+				if (committed) {
+
+					if (previousPath != null && !previousPath.equals(content.path)) {
+						release(uuid, previousPath);
+					}
+
+				} else if (isBlobPath(content.path) && !content.path.equals(previousPath)) {
+
+					// content stored by a transaction that was rolled back
+					release(null, content.path);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Releases the content of the given file when the current transaction
+	 * is committed, e.g. when the file is deleted. Blobs are deleted if no
+	 * other file references them, the private content of a file is always
+	 * deleted.
+	 *
+	 * @param file
+	 */
+	public void release(final FileBase file) {
+
+		final String path = file.getRelativeFilePath();
+		final String uuid = file.getUuid();
+
+		if (path != null) {
+
+			TransactionCommand.afterCompletion(new TransactionCompletion() {
+
+				@Override
+				public void afterCompletion(final boolean committed) {
+
+					if (committed) {
+						release(uuid, path);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the path (relative to the files path) of the content that is
+	 * not shared with other files, which is used for content that is
+	 * modified in place (e.g. by chunked uploads) before it is stored.
+	 *
+	 * @param file
+	 * @return the private path
+	 */
+	public static String getPrivatePath(final FileBase file) {
+
+		final String uuid = file.getUuid();
+
+		return FileBase.getDirectoryPath(uuid) + "/" + uuid;
+	}
+
+	/**
+	 * Computes digest, checksum and size of the given file on disk.
+	 *
+	 * @param fileOnDisk
+	 * @return the content, without a storage path
+	 *
+	 * @throws IOException
+	 */
+	public static Content digest(final java.io.File fileOnDisk) throws IOException {
+
+		try (final InputStream in = new FileInputStream(fileOnDisk)) {
+			return digest(in);
+		}
+	}
+
+	public static boolean isBlobPath(final String path) {
+		return path != null && path.startsWith(BLOB_DIRECTORY + "/");
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("enabled", enabled);
+		stats.put("stored", stored.get());
+		stats.put("duplicates", duplicates.get());
+		stats.put("duplicateBytes", duplicateBytes.get());
+		stats.put("released", released.get());
+		stats.put("pinned", getPinnedCount());
+
+		return stats;
+	}
+
+	// ----- private methods -----
+	private synchronized int getPinnedCount() {
+		return pinned.size();
+	}
+
+	/**
+	 * Deletes the content at the given path unless it is still referenced
+	 * by a file other than the one with the given UUID. Must be called
+	 * outside of a transaction, i.e. after the releasing transaction was
+	 * committed, so that the index query sees the committed references.
+	 */
+	private void release(final String uuid, final String path) {
+
+		if (path.contains("..")) {
+
+			logger.log(Level.WARNING, "Not releasing content of file {0}, path {1} contains ..", new Object[] { uuid, path });
+			return;
+		}
+
+		if (!isBlobPath(path)) {
+
+			delete(path);
+			return;
+		}
+
+		final String hash = path.substring(path.lastIndexOf("/") + 1);
+
+		// blobs are pinned and stored while holding the lock, so no
+		// transaction can start to reference the blob while it is deleted
+		synchronized (this) {
+
+			if (pinned.containsKey(hash)) {
+
+				// referenced by a transaction that is not committed yet
+				return;
+			}
+
+			try (final Tx tx = StructrApp.getInstance().tx()) {
+
+				for (final FileBase other : StructrApp.getInstance().nodeQuery(FileBase.class).and(FileBase.contentHash, hash).includeDeletedAndHidden().getAsList()) {
+
+					if (!other.getUuid().equals(uuid) && path.equals(other.getRelativeFilePath())) {
+
+						// blob is still referenced
+						return;
+					}
+				}
+
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				logger.log(Level.WARNING, "Unable to count references to {0}: {1}", new Object[] { path, fex.getMessage() });
+				return;
+			}
+
+			delete(path);
+		}
+	}
+
+	private synchronized void pin(final String hash) {
+
+		final Integer count = pinned.get(hash);
+
+		pinned.put(hash, count != null ? count + 1 : 1);
+	}
+
+	private synchronized void unpin(final String hash) {
+
+		final Integer count = pinned.get(hash);
+
+		if (count == null || count <= 1) {
+
+			pinned.remove(hash);
+
+		} else {
+
+			pinned.put(hash, count - 1);
+		}
+	}
+
+	private void delete(final String path) {
+
+		final java.io.File toDelete = getFile(path);
+
+		if (toDelete.exists() && toDelete.isFile() && toDelete.delete()) {
+
+			released.incrementAndGet();
+		}
+	}
+
+	private synchronized void store(final java.io.File source, final Content content) throws IOException {
+
+		final java.io.File blob = getFile(content.path);
+
+		// pinned until the transaction that sets the content has finished
+		pin(content.hash);
+
+		if (blob.exists()) {
+
+			// stored concurrently
+			duplicate(content);
+			source.delete();
+
+		} else {
+
+			blob.getParentFile().mkdirs();
+
+			try {
+				Files.move(source.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+			} catch (AtomicMoveNotSupportedException amnsex) {
+
+				Files.move(source.toPath(), blob.toPath());
+			}
+
+			stored.incrementAndGet();
+		}
+	}
+
+	private synchronized boolean exists(final Content content) {
+
+		if (getFile(content.path).exists()) {
+
+			// pinned until the transaction that sets the content has finished
+			pin(content.hash);
+
+			duplicate(content);
+			return true;
+		}
+
+		return false;
+	}
+
+	private void duplicate(final Content content) {
+
+		duplicates.incrementAndGet();
+		duplicateBytes.addAndGet(content.size);
+
+		logger.log(Level.FINE, "Content {0} already stored", content.hash);
+	}
+
+	private static Content digest(final InputStream in) throws IOException {
+
+		final MessageDigest digest = newDigest();
+		final CRC32 crc            = new CRC32();
+		final byte[] buffer        = new byte[BUFFER_SIZE];
+		long size                  = 0L;
+		int count                  = 0;
+
+		while ((count = in.read(buffer)) >= 0) {
+
+			digest.update(buffer, 0, count);
+			crc.update(buffer, 0, count);
+
+			size += count;
+		}
+
+		return new Content(toHex(digest.digest()), crc.getValue(), size);
+	}
+
+	private static java.io.File createTemporaryFile() throws IOException {
+
+		final java.io.File directory = getFile(BLOB_DIRECTORY + "/tmp");
+
+		directory.mkdirs();
+
+		return java.io.File.createTempFile("content", ".tmp", directory);
+	}
+
+	private static java.io.File getFile(final String path) {
+		return new java.io.File(FileHelper.getFilePath(path));
+	}
+
+	private static String getBlobPath(final String hash) {
+		return BLOB_DIRECTORY + "/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+	}
+
+	private static MessageDigest newDigest() {
+
+		try {
+			return MessageDigest.getInstance(DIGEST);
+
+		} catch (NoSuchAlgorithmException nsaex) {
+
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(nsaex);
+		}
+	}
+
+	private static String toHex(final byte[] bytes) {
+
+		final StringBuilder buf = new StringBuilder(bytes.length * 2);
+
+		for (final byte b : bytes) {
+
+			buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+			buf.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return buf.toString();
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Digest, checksum, size and storage path of the content of a file.
+	 */
+	public static class Content {
+
+		private String hash    = null;
+		private String path    = null;
+		private long checksum  = 0L;
+		private long size      = 0L;
+
+		Content(final String hash, final long checksum, final long size) {
+
+			this.checksum = checksum;
+			this.hash     = hash;
+			this.size     = size;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getChecksum() {
+			return checksum;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * Computes digest, checksum and size of content that is written
+	 * elsewhere, e.g. chunk by chunk into a file channel. The result can
+	 * be passed to {@link #adopt(FileBase, java.io.File, Content)}.
+	 */
+	public static class ContentDigest {
+
+		private final MessageDigest digest = newDigest();
+		private final CRC32 crc            = new CRC32();
+		private long size                  = 0L;
+
+		public void update(final byte[] b, final int off, final int len) {
+
+			digest.update(b, off, len);
+			crc.update(b, off, len);
+			size += len;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the content for the data passed to this digest so far.
+		 * The digest must not be updated after this method was called.
+		 *
+		 * @return the content
+		 */
+		public Content getContent() {
+			return new Content(toHex(digest.digest()), crc.getValue(), size);
+		}
+	}
+
+	/**
+	 * Output stream that computes digest, checksum and size of the data
+	 * written to it, and moves the data into the store when it is closed.
+	 */
+	public class ContentOutputStream extends FilterOutputStream {
+
+		private final MessageDigest digest = newDigest();
+		private final CRC32 crc            = new CRC32();
+		private java.io.File fileOnDisk    = null;
+		private Content content            = null;
+		private String path                = null;
+		private long size                  = 0L;
+
+		/**
+		 * @param fileOnDisk the file to write to
+		 * @param path the final path of the content, or null if the file
+		 * is a temporary file that is moved into the store when closed
+		 */
+		ContentOutputStream(final java.io.File fileOnDisk, final String path) throws IOException {
+
+			super(new FileOutputStream(fileOnDisk));
+
+			this.fileOnDisk = fileOnDisk;
+			this.path       = path;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+
+			out.write(b);
+			digest.update((byte)b);
+			crc.update(b);
+			size++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+
+			out.write(b, off, len);
+			digest.update(b, off, len);
+			crc.update(b, off, len);
+			size += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (content != null) {
+				return;
+			}
+
+			super.close();
+
+			content = new Content(toHex(digest.digest()), crc.getValue(), size);
+
+			if (path == null) {
+
+				content.path = getBlobPath(content.hash);
+				store(fileOnDisk, content);
+
+			} else {
+
+				content.path = path;
+			}
+		}
+
+		/**
+		 * Returns the stored content after the stream was closed.
+		 *
+		 * @return the content, or null if the stream is still open
+		 */
+		public Content getContent() {
+			return content;
+		}
+	}
+}
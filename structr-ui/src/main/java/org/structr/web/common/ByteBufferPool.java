@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of fixed-size byte buffers that are shared between render
+ * requests, so that streaming output does not allocate new buffers for
+ * every request.
+ *
+ * @author Christian Morgner
+ */
+public class ByteBufferPool {
+
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled      = new AtomicInteger(0);
+	private final AtomicLong allocations    = new AtomicLong(0L);
+	private final AtomicLong reuses         = new AtomicLong(0L);
+	private int bufferSize                  = 0;
+	private int maxPooled                   = 0;
+
+	public ByteBufferPool(final int bufferSize, final int maxPooled) {
+
+		this.bufferSize = bufferSize;
+		this.maxPooled  = maxPooled;
+	}
+
+	/**
+	 * Returns an empty buffer from the pool, or a new buffer if the pool
+	 * is empty.
+	 *
+	 * @return an empty buffer
+	 */
+	public ByteBuffer acquire() {
+
+		final ByteBuffer buffer = buffers.poll();
+		if (buffer != null) {
+
+			pooled.decrementAndGet();
+			reuses.incrementAndGet();
+
+			return buffer;
+		}
+
+		allocations.incrementAndGet();
+
+		return ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * Returns the given buffer to the pool. Buffers are dropped if the
+	 * pool is full.
+	 *
+	 * @param buffer the buffer
+	 */
+	public void release(final ByteBuffer buffer) {
+
+		if (buffer != null && buffer.capacity() == bufferSize) {
+
+			if (pooled.incrementAndGet() <= maxPooled) {
+
+				buffer.clear();
+				buffers.offer(buffer);
+
+			} else {
+
+				pooled.decrementAndGet();
+			}
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("bufferSize", bufferSize);
+		stats.put("pooled", pooled.get());
+		stats.put("maxPooled", maxPooled);
+		stats.put("allocations", allocations.get());
+		stats.put("reuses", reuses.get());
+
+		return stats;
+	}
+}
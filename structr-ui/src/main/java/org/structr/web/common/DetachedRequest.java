@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * A copy of a request that can be used in another thread than the one that
+ * handles the request, even after the request has been completed.
+ *
+ * Request parameters are parsed lazily, request attributes are not
+ * synchronized and the container recycles request objects once a request
+ * is completed, so a request must not be accessed outside of the thread
+ * that handles it. This wrapper copies parameters, attributes, headers,
+ * cookies, the session and the path and server information when it is
+ * created, in the thread that handles the request. All other methods are
+ * delegated to the original request and must not be used by other threads.
+ *
+ * @author Christian Morgner
+ */
+public class DetachedRequest extends HttpServletRequestWrapper {
+
+	private final Map<String, String[]> parameterMap = new LinkedHashMap<>();
+	private final Map<String, Object> attributes     = new LinkedHashMap<>();
+	private final Map<String, List<String>> headers  = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private final List<String> headerNames           = new ArrayList<>();
+	private Cookie[] cookies                         = null;
+	private HttpSession session                      = null;
+	private StringBuffer requestURL                  = null;
+	private String requestURI                        = null;
+	private String queryString                       = null;
+	private String contextPath                       = null;
+	private String servletPath                       = null;
+	private String pathInfo                          = null;
+	private String method                            = null;
+	private String scheme                            = null;
+	private String serverName                        = null;
+	private String remoteAddr                        = null;
+	private Locale locale                            = null;
+	private int serverPort                           = 0;
+
+	public DetachedRequest(final HttpServletRequest request) {
+
+		super(request);
+
+		this.cookies     = request.getCookies();
+		this.session     = request.getSession(false);
+		this.requestURL  = request.getRequestURL();
+		this.requestURI  = request.getRequestURI();
+		this.queryString = request.getQueryString();
+		this.contextPath = request.getContextPath();
+		this.servletPath = request.getServletPath();
+		this.pathInfo    = request.getPathInfo();
+		this.method      = request.getMethod();
+		this.scheme      = request.getScheme();
+		this.serverName  = request.getServerName();
+		this.serverPort  = request.getServerPort();
+		this.remoteAddr  = request.getRemoteAddr();
+		this.locale      = request.getLocale();
+
+		final Map<String, String[]> parameters = request.getParameterMap();
+		if (parameters != null) {
+
+			for (final Entry<String, String[]> entry : parameters.entrySet()) {
+				parameterMap.put(entry.getKey(), entry.getValue() != null ? entry.getValue().clone() : null);
+			}
+		}
+
+		final Enumeration<String> names = request.getAttributeNames();
+		if (names != null) {
+
+			while (names.hasMoreElements()) {
+
+				final String name = names.nextElement();
+				attributes.put(name, request.getAttribute(name));
+			}
+		}
+
+		final Enumeration<String> headerNameEnumeration = request.getHeaderNames();
+		if (headerNameEnumeration != null) {
+
+			while (headerNameEnumeration.hasMoreElements()) {
+
+				final String name                = headerNameEnumeration.nextElement();
+				final Enumeration<String> values = request.getHeaders(name);
+
+				headerNames.add(name);
+				headers.put(name, values != null ? Collections.list(values) : new ArrayList<String>());
+			}
+		}
+	}
+
+	@Override
+	public String getHeader(final String name) {
+
+		final List<String> values = headers.get(name);
+
+		return values != null && !values.isEmpty() ? values.get(0) : null;
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(final String name) {
+
+		final List<String> values = headers.get(name);
+
+		return Collections.enumeration(values != null ? values : Collections.<String>emptyList());
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(headerNames);
+	}
+
+	@Override
+	public Cookie[] getCookies() {
+		return cookies;
+	}
+
+	@Override
+	public HttpSession getSession() {
+		return session;
+	}
+
+	@Override
+	public HttpSession getSession(final boolean create) {
+		return session;
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		return requestURL != null ? new StringBuffer(requestURL) : null;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return requestURI;
+	}
+
+	@Override
+	public String getQueryString() {
+		return queryString;
+	}
+
+	@Override
+	public String getContextPath() {
+		return contextPath;
+	}
+
+	@Override
+	public String getServletPath() {
+		return servletPath;
+	}
+
+	@Override
+	public String getPathInfo() {
+		return pathInfo;
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public String getScheme() {
+		return scheme;
+	}
+
+	@Override
+	public String getServerName() {
+		return serverName;
+	}
+
+	@Override
+	public int getServerPort() {
+		return serverPort;
+	}
+
+	@Override
+	public String getRemoteAddr() {
+		return remoteAddr;
+	}
+
+	@Override
+	public Locale getLocale() {
+		return locale;
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(parameterMap.keySet());
+	}
+
+	@Override
+	public String getParameter(final String key) {
+
+		final String[] values = parameterMap.get(key);
+
+		return values != null && values.length > 0 ? values[0] : null;
+	}
+
+	@Override
+	public String[] getParameterValues(final String key) {
+		return parameterMap.get(key);
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return Collections.unmodifiableMap(parameterMap);
+	}
+
+	@Override
+	public Object getAttribute(final String name) {
+		return attributes.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	@Override
+	public void setAttribute(final String name, final Object value) {
+		attributes.put(name, value);
+	}
+
+	@Override
+	public void removeAttribute(final String name) {
+		attributes.remove(name);
+	}
+
+	/**
+	 * Returns a detached copy of the given request, or null if the given
+	 * request is null.
+	 *
+	 * @param request the request
+	 * @return the detached copy, or null
+	 */
+	public static HttpServletRequest detach(final HttpServletRequest request) {
+
+		if (request == null) {
+			return null;
+		}
+
+		return new DetachedRequest(request);
+	}
+}
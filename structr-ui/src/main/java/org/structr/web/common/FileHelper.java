@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,8 +36,11 @@ import net.sf.jmimemagic.MagicParseException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.NotFoundException;
+import org.structr.common.FixedSizeCache;
 import org.structr.common.PathHelper;
 import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.Services;
@@ -44,6 +48,9 @@ import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.LinkedTreeNode;
+import org.structr.core.graph.NodeFactory;
+import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.TransactionCommand;
 import org.structr.core.property.PropertyMap;
 import org.structr.util.Base64;
 import org.structr.web.entity.AbstractFile;
@@ -61,6 +68,9 @@ public class FileHelper {
 	private static final String UNKNOWN_MIME_TYPE = "application/octet-stream";
 	private static final Logger logger = Logger.getLogger(FileHelper.class.getName());
 	private static final MimetypesFileTypeMap mimeTypeMap = new MimetypesFileTypeMap(FileHelper.class.getResourceAsStream("/mime.types"));
+	private static FixedSizeCache<String, Long> pathCache = null;
+
+	public static final String PATH_CACHE_SIZE = "FileHelper.pathCache.maxSize";
 
 	//~--- methods --------------------------------------------------------
 	/**
@@ -129,8 +139,15 @@ public class FileHelper {
 	public static <T extends org.structr.dynamic.File> T createFile(final SecurityContext securityContext, final InputStream fileStream, final String contentType, final Class<T> fileType, final String name)
 		throws FrameworkException, IOException {
 
-		final byte[] data = IOUtils.toByteArray(fileStream);
-		return createFile(securityContext, data, contentType, fileType, name);
+		final PropertyMap props = new PropertyMap();
+
+		props.put(AbstractNode.name, name);
+
+		final T newFile = (T) StructrApp.getInstance(securityContext).create(fileType, props);
+
+		setFileData(newFile, fileStream, contentType);
+
+		return newFile;
 
 	}
 
@@ -208,12 +225,29 @@ public class FileHelper {
 	public static void setFileData(final org.structr.dynamic.File file, final byte[] fileData, final String contentType)
 		throws FrameworkException, IOException {
 
+		// checksum and size are set while the data is written
 		FileHelper.writeToFile(file, fileData);
 		file.setProperty(org.structr.dynamic.File.contentType, contentType != null ? contentType : getContentMimeType(file));
 		file.unlockReadOnlyPropertiesOnce();
-		file.setProperty(org.structr.dynamic.File.checksum, FileHelper.getChecksum(file));
-		file.unlockReadOnlyPropertiesOnce();
-		file.setProperty(org.structr.dynamic.File.size, FileHelper.getSize(file));
+		file.setProperty(org.structr.dynamic.File.version, 1);
+
+	}
+
+	/**
+	 * Stream data to the given file node and set checksum and size.
+	 *
+	 * @param file
+	 * @param fileStream
+	 * @param contentType if null, try to auto-detect content type
+	 * @throws FrameworkException
+	 * @throws IOException
+	 */
+	public static void setFileData(final org.structr.dynamic.File file, final InputStream fileStream, final String contentType)
+		throws FrameworkException, IOException {
+
+		// stream the data into the blob store, checksum and size are set while writing
+		FileHelper.writeToFile(file, fileStream);
+		file.setProperty(org.structr.dynamic.File.contentType, contentType != null ? contentType : getContentMimeType(file));
 		file.unlockReadOnlyPropertiesOnce();
 		file.setProperty(org.structr.dynamic.File.version, 1);
 
@@ -296,8 +330,9 @@ public class FileHelper {
 	}
 
 	/**
-	 * Write binary data to a file and reference the file on disk at the
-	 * given file node
+	 * Write binary data to the blob store and reference it at the given
+	 * file node. Checksum and size of the file are set while the data is
+	 * written.
 	 *
 	 * @param fileNode
 	 * @param inStream
@@ -306,13 +341,16 @@ public class FileHelper {
 	 */
 	public static void writeToFile(final org.structr.dynamic.File fileNode, final InputStream inStream) throws FrameworkException, IOException {
 
-		writeToFile(fileNode, IOUtils.toByteArray(inStream));
+		ensureId(fileNode);
+
+		BlobStore.getInstance().write(fileNode, inStream);
 
 	}
 
 	/**
-	 * Write binary data to a file and reference the file on disk at the
-	 * given file node
+	 * Write binary data to the blob store and reference it at the given
+	 * file node. Checksum and size of the file are set while the data is
+	 * written.
 	 *
 	 * @param fileNode
 	 * @param data
@@ -322,28 +360,23 @@ public class FileHelper {
 	 */
 	public static File writeToFile(final org.structr.dynamic.File fileNode, final byte[] data) throws FrameworkException, IOException {
 
-		String id = fileNode.getProperty(GraphObject.id);
-		if (id == null) {
+		ensureId(fileNode);
 
-			final String newUuid = UUID.randomUUID().toString().replaceAll("[\\-]+", "");
-			id = newUuid;
+		BlobStore.getInstance().write(fileNode, data);
 
-			fileNode.unlockReadOnlyPropertiesOnce();
-			fileNode.setProperty(GraphObject.id, newUuid);
-		}
+		return fileNode.getFileOnDisk();
 
-		fileNode.unlockReadOnlyPropertiesOnce();
-		fileNode.setProperty(org.structr.dynamic.File.relativeFilePath, org.structr.dynamic.File.getDirectoryPath(id) + "/" + id);
-
-		final String filesPath = Services.getInstance().getConfigurationValue(Services.FILES_PATH);
+	}
 
-		java.io.File fileOnDisk = new java.io.File(filesPath + "/" + fileNode.getRelativeFilePath());
+	private static void ensureId(final org.structr.dynamic.File fileNode) throws FrameworkException {
 
-		fileOnDisk.getParentFile().mkdirs();
-		FileUtils.writeByteArrayToFile(fileOnDisk, data);
+		if (fileNode.getProperty(GraphObject.id) == null) {
 
-		return fileOnDisk;
+			final String newUuid = UUID.randomUUID().toString().replaceAll("[\\-]+", "");
 
+			fileNode.unlockReadOnlyPropertiesOnce();
+			fileNode.setProperty(GraphObject.id, newUuid);
+		}
 	}
 
 	//~--- get methods ----------------------------------------------------
@@ -477,6 +510,10 @@ public class FileHelper {
 	 *
 	 * File may not be hidden or deleted.
 	 *
+	 * Files are looked up by their node id in the path cache first, then
+	 * by their stored path, and finally among the children of their parent
+	 * folder, which is resolved the same way.
+	 *
 	 * @param securityContext
 	 * @param absolutePath
 	 * @return file
@@ -494,38 +531,80 @@ public class FileHelper {
 			return null;
 		}
 
-		AbstractFile currentFile = getFirstRootFileByName(securityContext, parts[0]);
-		if (currentFile == null) {
-			return null;
+		final String path                        = PathHelper.PATH_SEP.concat(StringUtils.join(parts, PathHelper.PATH_SEP));
+		final FixedSizeCache<String, Long> cache = getPathCache();
+
+		final Long cachedId = cache.get(path);
+		if (cachedId != null) {
+
+			final AbstractFile cachedFile = getFileByNodeId(securityContext, cachedId);
+			if (cachedFile != null && hasPath(cachedFile, path)) {
+
+				return cachedFile;
+			}
+
+			cache.remove(path);
 		}
 
-		for (int i = 1; i < parts.length; i++) {
+		AbstractFile currentFile = null;
+
+		try {
+
+			currentFile = StructrApp.getInstance(securityContext).nodeQuery(AbstractFile.class).and(AbstractFile.path, path).getFirst();
+
+		} catch (FrameworkException fex) {
+
+			logger.log(Level.WARNING, "Unable to find a file by path {0}: {1}", new Object[]{path, fex.getMessage()});
+		}
 
-			List<AbstractFile> children = currentFile.getProperty(AbstractFile.children);
+		// uncommitted or legacy files without a stored path
+		if (currentFile == null || !hasPath(currentFile, path)) {
 
 			currentFile = null;
 
-			for (AbstractFile child : children) {
+			if (parts.length == 1) {
 
-				if (child.getProperty(AbstractFile.name).equals(parts[i])) {
+				currentFile = getFirstRootFileByName(securityContext, parts[0]);
 
-					// Child with matching name found
-					currentFile = child;
-					break;
-				}
+			} else {
 
-			}
+				final AbstractFile parentFile = getFileByAbsolutePath(securityContext, StringUtils.substringBeforeLast(path, PathHelper.PATH_SEP));
+				if (parentFile != null) {
+
+					final String name = parts[parts.length - 1];
+
+					for (AbstractFile child : parentFile.getProperty(AbstractFile.children)) {
 
-			if (currentFile == null) {
-				return null;
+						if (name.equals(child.getProperty(AbstractFile.name))) {
+
+							// Child with matching name found
+							currentFile = child;
+							break;
+						}
+					}
+				}
 			}
+		}
 
+		if (currentFile != null) {
+			cache.put(path, currentFile.getNode().getId());
 		}
 
 		return currentFile;
 
 	}
 
+	/**
+	 * Updates the stored path of the given file or folder and, if it has
+	 * changed, the stored paths of all files and folders below it.
+	 *
+	 * @param file
+	 * @throws FrameworkException
+	 */
+	public static void updatePath(final AbstractFile file) throws FrameworkException {
+		updatePath(file, getFolderPath(file));
+	}
+
 	public static AbstractFile getFileByUuid(final SecurityContext securityContext, final String uuid) {
 
 		logger.log(Level.FINE, "Search for file with uuid: {0}", uuid);
@@ -612,6 +691,75 @@ public class FileHelper {
 		return "/".concat(folderPath);
 	}
 
+	// ----- private methods -----
+	private static void updatePath(final AbstractFile file, final String newPath) throws FrameworkException {
+
+		if (!newPath.equals(file.getProperty(AbstractFile.path))) {
+
+			file.unlockReadOnlyPropertiesOnce();
+			file.setProperty(AbstractFile.path, newPath);
+
+			if (file instanceof Folder) {
+
+				for (final AbstractFile child : file.getProperty(AbstractFile.children)) {
+
+					String name = child.getProperty(AbstractFile.name);
+					if (name == null) {
+						name = child.getUuid();
+					}
+
+					updatePath(child, newPath.concat(PathHelper.PATH_SEP).concat(name));
+				}
+			}
+		}
+	}
+
+	private static boolean hasPath(final AbstractFile file, final String path) {
+
+		// the stored path of a file can be outdated until the transaction is committed
+		if (TransactionCommand.hasModifications()) {
+
+			return path.equals(getFolderPath(file));
+		}
+
+		return path.equals(file.getPath());
+	}
+
+	private static AbstractFile getFileByNodeId(final SecurityContext securityContext, final long nodeId) {
+
+		try {
+
+			final NodeInterface node = new NodeFactory<NodeInterface>(securityContext).instantiate(StructrApp.getInstance().getGraphDatabaseService().getNodeById(nodeId), false, false);
+			if (node instanceof AbstractFile) {
+
+				return (AbstractFile)node;
+			}
+
+		} catch (NotFoundException | FrameworkException ex) {
+			// node was deleted
+		}
+
+		return null;
+	}
+
+	private static synchronized FixedSizeCache<String, Long> getPathCache() {
+
+		if (pathCache == null) {
+
+			pathCache = new FixedSizeCache<>(Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(PATH_CACHE_SIZE, "10000"), 10000)));
+
+			StatisticsRegistry.register("filePathCache", new StatisticsRegistry.Source() {
+
+				@Override
+				public Map<String, Object> getStatistics() {
+					return pathCache.getStatistics();
+				}
+			});
+		}
+
+		return pathCache;
+	}
+
 	public static String getFilePath(final String... pathParts) {
 
 		String filePath = Services.getInstance().getConfigurationValue(Services.FILES_PATH);
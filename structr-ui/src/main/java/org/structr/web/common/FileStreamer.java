@@ -0,0 +1,685 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.util.Callback;
+import org.structr.common.StatisticsRegistry;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+
+/**
+ * Streams the content of files on disk to HTTP clients.
+ *
+ * Supports single and multiple byte ranges (RFC 7233), including
+ * If-Range with the Last-Modified date of the file. Content is read
+ * through a file channel: if the response is a Jetty response and the
+ * request may be handled asynchronously, the container writes the file
+ * from its pooled direct buffers and the request thread is returned
+ * immediately, otherwise the file is transferred to the response in
+ * the request thread.
+ *
+ * @author Christian Morgner
+ */
+public class FileStreamer implements StatisticsRegistry.Source {
+
+	private static final Logger logger         = Logger.getLogger(FileStreamer.class.getName());
+	private static final Charset ISO_8859_1    = Charset.forName("ISO-8859-1");
+
+	public static final String MAX_RANGES      = "HtmlServlet.ranges.max";
+
+	private static FileStreamer instance       = null;
+
+	private final AtomicLong asyncTransfers    = new AtomicLong(0L);
+	private final AtomicLong blockingTransfers = new AtomicLong(0L);
+	private final AtomicLong rangeRequests     = new AtomicLong(0L);
+	private final AtomicLong multipartRequests = new AtomicLong(0L);
+	private final AtomicLong unsatisfiable     = new AtomicLong(0L);
+	private final AtomicLong aborted           = new AtomicLong(0L);
+	private final AtomicLong bytesSent         = new AtomicLong(0L);
+	private int maxRanges                      = 0;
+
+	FileStreamer(final int maxRanges) {
+		this.maxRanges = maxRanges;
+	}
+
+	public static synchronized FileStreamer getInstance() {
+
+		if (instance == null) {
+
+			final int maxRanges = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(MAX_RANGES, "16"), 16));
+
+			instance = new FileStreamer(maxRanges);
+
+			StatisticsRegistry.register("fileStreamer", instance);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Sends the status line and headers for the given file and, unless
+	 * headOnly is set, its content (or the requested ranges of it).
+	 *
+	 * Caching headers (Last-Modified etc.) and the content type of the
+	 * response must be set by the caller.
+	 *
+	 * @param request
+	 * @param response
+	 * @param file the file on disk
+	 * @param lastModified the last modification date sent as Last-Modified, or null
+	 * @param headOnly true for HEAD requests
+	 * @param async whether the content may be written asynchronously
+	 *
+	 * @throws IOException
+	 */
+	public void stream(final HttpServletRequest request, final HttpServletResponse response, final java.io.File file, final Date lastModified, final boolean headOnly, final boolean async) throws IOException {
+
+		final long length       = file.length();
+		final String rangeValue = request.getHeader("Range");
+		final List<Chunk> body  = new ArrayList<>();
+		List<ByteRange> ranges  = null;
+
+		response.setHeader("Accept-Ranges", "bytes");
+
+		if (rangeValue != null && ifRangeMatches(request.getHeader("If-Range"), lastModified)) {
+			ranges = parseRanges(rangeValue, length, maxRanges);
+		}
+
+		if (ranges == null) {
+
+			// no (valid) range requested: send the whole file
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setContentLengthLong(length);
+
+			body.add(new Chunk(0L, length));
+
+		} else if (ranges.isEmpty()) {
+
+			unsatisfiable.incrementAndGet();
+
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setContentLength(0);
+
+			return;
+
+		} else if (ranges.size() == 1) {
+
+			final ByteRange range = ranges.get(0);
+
+			rangeRequests.incrementAndGet();
+
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", range.toContentRange(length));
+			response.setContentLengthLong(range.length());
+
+			body.add(new Chunk(range.start, range.length()));
+
+		} else {
+
+			final String boundary    = UUID.randomUUID().toString().replace("-", "");
+			final String contentType = StringUtils.defaultIfBlank(response.getContentType(), "application/octet-stream");
+			long contentLength       = 0L;
+
+			rangeRequests.incrementAndGet();
+			multipartRequests.incrementAndGet();
+
+			for (final ByteRange range : ranges) {
+
+				final byte[] header = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: " + range.toContentRange(length) + "\r\n\r\n").getBytes(ISO_8859_1);
+
+				body.add(new Chunk(header));
+				body.add(new Chunk(range.start, range.length()));
+
+				contentLength += header.length + range.length();
+			}
+
+			final byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(ISO_8859_1);
+
+			body.add(new Chunk(trailer));
+
+			contentLength += trailer.length;
+
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType("multipart/byteranges; boundary=" + boundary);
+			response.setContentLengthLong(contentLength);
+		}
+
+		if (headOnly) {
+			return;
+		}
+
+		final ServletOutputStream out = response.getOutputStream();
+		final FileChannel channel     = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		if (async && request.isAsyncSupported() && out instanceof HttpOutput) {
+
+			asyncTransfers.incrementAndGet();
+
+			final AsyncContext context = request.startAsync();
+
+			// large files may take longer than the default async timeout,
+			// idle clients are disconnected by the connector's idle timeout
+			context.setTimeout(0);
+
+			new AsyncTransfer(context, (HttpOutput)out, channel, body).start();
+
+		} else {
+
+			blockingTransfers.incrementAndGet();
+
+			try {
+
+				transfer(channel, body, out);
+
+			} catch (IOException ioex) {
+
+				aborted.incrementAndGet();
+				logger.log(Level.FINE, "Client aborted download of {0}: {1}", new Object[] { file.getName(), ioex.getMessage() });
+
+			} finally {
+
+				channel.close();
+			}
+		}
+	}
+
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("asyncTransfers", asyncTransfers.get());
+		stats.put("blockingTransfers", blockingTransfers.get());
+		stats.put("rangeRequests", rangeRequests.get());
+		stats.put("multipartRequests", multipartRequests.get());
+		stats.put("unsatisfiable", unsatisfiable.get());
+		stats.put("aborted", aborted.get());
+		stats.put("bytesSent", bytesSent.get());
+
+		return stats;
+	}
+
+	/**
+	 * Parses the value of a Range header.
+	 *
+	 * Returns null if the header is malformed or requests more than
+	 * maxRanges ranges (the whole file should be sent in this case), and
+	 * an empty list if none of the requested ranges can be satisfied.
+	 * Overlapping and adjacent ranges are coalesced.
+	 *
+	 * @param value
+	 * @param length
+	 * @param maxRanges
+	 * @return the satisfiable ranges, in ascending order
+	 */
+	static List<ByteRange> parseRanges(final String value, final long length, final int maxRanges) {
+
+		final String trimmed = value.trim();
+		if (!trimmed.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+
+		final List<ByteRange> ranges = new ArrayList<>();
+
+		for (final String part : trimmed.substring(6).split(",")) {
+
+			final String spec = part.trim();
+			final int dash    = spec.indexOf('-');
+
+			if (spec.isEmpty()) {
+				continue;
+			}
+
+			if (dash < 0) {
+				return null;
+			}
+
+			try {
+
+				final String first = spec.substring(0, dash).trim();
+				final String last  = spec.substring(dash + 1).trim();
+
+				if (first.isEmpty()) {
+
+					// suffix range: the last n bytes
+					final long suffix = Long.parseLong(last);
+					if (suffix < 0) {
+						return null;
+					}
+
+					if (suffix > 0 && length > 0) {
+						ranges.add(new ByteRange(Math.max(0L, length - suffix), length - 1));
+					}
+
+				} else {
+
+					final long start = Long.parseLong(first);
+					final long end   = last.isEmpty() ? length - 1 : Long.parseLong(last);
+
+					if (start < 0 || (!last.isEmpty() && end < start)) {
+						return null;
+					}
+
+					if (start < length) {
+						ranges.add(new ByteRange(start, Math.min(end, length - 1)));
+					}
+				}
+
+			} catch (NumberFormatException nfex) {
+				return null;
+			}
+		}
+
+		// coalesce overlapping and adjacent ranges
+		Collections.sort(ranges, new Comparator<ByteRange>() {
+
+			@Override
+			public int compare(final ByteRange o1, final ByteRange o2) {
+				return Long.compare(o1.start, o2.start);
+			}
+		});
+
+		final List<ByteRange> coalesced = new ArrayList<>();
+		for (final ByteRange range : ranges) {
+
+			final ByteRange previous = coalesced.isEmpty() ? null : coalesced.get(coalesced.size() - 1);
+
+			if (previous != null && range.start <= previous.end + 1) {
+
+				previous.end = Math.max(previous.end, range.end);
+
+			} else {
+
+				coalesced.add(range);
+			}
+		}
+
+		if (coalesced.size() > maxRanges) {
+			return null;
+		}
+
+		return coalesced;
+	}
+
+	/**
+	 * Returns whether the ranges of a request may be served. This is the
+	 * case if there is no If-Range header, or if it contains the (rounded)
+	 * last modification date of the file. Files are not sent with an
+	 * entity tag, so any entity tag in If-Range does not match.
+	 *
+	 * @param ifRange
+	 * @param lastModified
+	 * @return whether the Range header should be evaluated
+	 */
+	static boolean ifRangeMatches(final String ifRange, final Date lastModified) {
+
+		if (StringUtils.isBlank(ifRange)) {
+			return true;
+		}
+
+		if (lastModified == null || ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return false;
+		}
+
+		final DateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+		httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		try {
+
+			return DateUtils.round(lastModified, Calendar.SECOND).equals(httpDateFormat.parse(ifRange.trim()));
+
+		} catch (ParseException pex) {
+
+			logger.log(Level.FINE, "Could not parse If-Range header {0}", ifRange);
+		}
+
+		return false;
+	}
+
+	// ----- private methods -----
+	private void transfer(final FileChannel channel, final List<Chunk> body, final OutputStream out) throws IOException {
+
+		final WritableByteChannel target = Channels.newChannel(out);
+
+		for (final Chunk chunk : body) {
+
+			if (chunk.buffer != null) {
+
+				out.write(chunk.buffer.array());
+
+			} else {
+
+				long position  = chunk.start;
+				long remaining = chunk.count;
+
+				while (remaining > 0) {
+
+					final long count = channel.transferTo(position, remaining, target);
+					if (count <= 0) {
+
+						// file was truncated while being sent
+						throw new IOException("Unexpected end of file");
+					}
+
+					position  += count;
+					remaining -= count;
+
+					bytesSent.addAndGet(count);
+				}
+			}
+		}
+
+		out.flush();
+	}
+
+	// ----- nested classes -----
+	static class ByteRange {
+
+		long start = 0L;
+		long end   = 0L;
+
+		ByteRange(final long start, final long end) {
+
+			this.start = start;
+			this.end   = end;
+		}
+
+		long length() {
+			return end - start + 1;
+		}
+
+		String toContentRange(final long total) {
+			return "bytes " + start + "-" + end + "/" + total;
+		}
+	}
+
+	/**
+	 * A part of the response body, either a multipart header or a region
+	 * of the file.
+	 */
+	private static class Chunk {
+
+		private ByteBuffer buffer = null;
+		private long start        = 0L;
+		private long count        = 0L;
+
+		public Chunk(final byte[] data) {
+			this.buffer = ByteBuffer.wrap(data);
+		}
+
+		public Chunk(final long start, final long count) {
+
+			this.start = start;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Passes the response body to the container as a single channel that
+	 * reads all chunks one after the other. The file regions are read by
+	 * the container into its own (direct) buffers as the client consumes
+	 * the content. The body must be sent with a single call, since
+	 * sendContent() completes and closes the output.
+	 */
+	private class AsyncTransfer implements Callback {
+
+		private AsyncContext context = null;
+		private FileChannel channel  = null;
+		private BodyChannel content  = null;
+		private HttpOutput out       = null;
+
+		public AsyncTransfer(final AsyncContext context, final HttpOutput out, final FileChannel channel, final List<Chunk> body) {
+
+			this.context = context;
+			this.channel = channel;
+			this.content = new BodyChannel(channel, body);
+			this.out     = out;
+		}
+
+		public void start() {
+			out.sendContent(content, this);
+		}
+
+		@Override
+		public void succeeded() {
+
+			bytesSent.addAndGet(content.getFileBytes());
+
+			finish();
+		}
+
+		@Override
+		public void failed(final Throwable t) {
+
+			aborted.incrementAndGet();
+
+			if (t instanceof IOException) {
+
+				logger.log(Level.FINE, "Client aborted download: {0}", t.getMessage());
+
+			} else {
+
+				logger.log(Level.WARNING, "Unable to send file content", t);
+			}
+
+			finish();
+		}
+
+		private void finish() {
+
+			try {
+				channel.close();
+
+			} catch (IOException ioex) {
+				logger.log(Level.FINE, "Unable to close file channel", ioex);
+			}
+
+			context.complete();
+		}
+	}
+
+	/**
+	 * Reads the chunks of a response body (multipart headers and file
+	 * regions) one after the other, as a single channel.
+	 */
+	private static class BodyChannel implements ReadableByteChannel {
+
+		private FileChannel channel  = null;
+		private List<Chunk> body     = null;
+		private ByteBuffer header    = null;
+		private RegionChannel region = null;
+		private long fileBytes       = 0L;
+		private int index            = 0;
+		private boolean open         = true;
+
+		public BodyChannel(final FileChannel channel, final List<Chunk> body) {
+
+			this.channel = channel;
+			this.body    = body;
+		}
+
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+
+			while (index < body.size()) {
+
+				final Chunk chunk = body.get(index);
+				int count         = 0;
+
+				if (chunk.buffer != null) {
+
+					if (header == null) {
+						header = chunk.buffer.duplicate();
+					}
+
+					count = Math.min(header.remaining(), dst.remaining());
+
+					final ByteBuffer part = header.duplicate();
+					part.limit(part.position() + count);
+
+					dst.put(part);
+					header.position(header.position() + count);
+
+					if (!header.hasRemaining()) {
+
+						header = null;
+						index++;
+					}
+
+				} else {
+
+					if (region == null) {
+						region = new RegionChannel(channel, chunk.start, chunk.count);
+					}
+
+					count = region.read(dst);
+
+					if (count < 0) {
+
+						// region is complete, continue with the next chunk
+						region = null;
+						count  = 0;
+						index++;
+
+					} else {
+
+						fileBytes += count;
+					}
+				}
+
+				if (count > 0 || !dst.hasRemaining()) {
+					return count;
+				}
+			}
+
+			return -1;
+		}
+
+		public long getFileBytes() {
+			return fileBytes;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+
+	/**
+	 * Read-only view of a region of a file channel. Uses positional
+	 * reads, so several regions of the same channel can be read one after
+	 * the other, and leaves the underlying channel open when closed.
+	 */
+	private static class RegionChannel implements ReadableByteChannel {
+
+		private FileChannel channel = null;
+		private long position       = 0L;
+		private long remaining      = 0L;
+		private boolean open        = true;
+
+		public RegionChannel(final FileChannel channel, final long start, final long count) {
+
+			this.channel   = channel;
+			this.position  = start;
+			this.remaining = count;
+		}
+
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			final int limit = dst.limit();
+
+			if (dst.remaining() > remaining) {
+				dst.limit(dst.position() + (int)remaining);
+			}
+
+			try {
+
+				final int count = channel.read(dst, position);
+				if (count < 0) {
+
+					// file was truncated while being sent
+					throw new IOException("Unexpected end of file");
+				}
+
+				position  += count;
+				remaining -= count;
+
+				return count;
+
+			} finally {
+
+				dst.limit(limit);
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+}
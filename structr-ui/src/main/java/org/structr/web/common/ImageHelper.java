@@ -28,9 +28,13 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import org.apache.commons.io.IOUtils;
 import org.structr.common.SecurityContext;
 import org.structr.core.app.StructrApp;
@@ -68,7 +72,18 @@ public abstract class ImageHelper extends FileHelper {
 	public static Image createImage(final SecurityContext securityContext, final InputStream imageStream, final String contentType, final Class<? extends Image> imageType, final String name, final boolean markAsThumbnail)
 		throws FrameworkException, IOException {
 
-		return createImage(securityContext, IOUtils.toByteArray(imageStream), contentType, imageType, name, markAsThumbnail);
+		PropertyMap props                          = new PropertyMap();
+
+		props.put(AbstractNode.type, imageType == null ? Image.class.getSimpleName() : imageType.getSimpleName());
+		props.put(Image.isThumbnail, markAsThumbnail);
+		props.put(AbstractNode.name, name);
+
+		Image newImage = StructrApp.getInstance(securityContext).create(imageType, props);
+
+		// stream the image data to disk instead of reading it into memory
+		setFileData(newImage, imageStream, contentType);
+
+		return newImage;
 
 	}
 
@@ -137,103 +152,122 @@ public abstract class ImageHelper extends FileHelper {
 
 		try {
 
-			// read image
-			long start           = System.nanoTime();
-			InputStream in       = originalImage.getInputStream();
+			// read image directly from disk if possible, so that the original never needs to be held in memory
+			long start                    = System.nanoTime();
+			final java.io.File fileOnDisk = originalImage.getFileOnDisk();
+			final InputStream in          = fileOnDisk != null && fileOnDisk.isFile() ? null : originalImage.getInputStream();
 
-			if (in == null) {
+			if (in == null && (fileOnDisk == null || !fileOnDisk.isFile())) {
 				logger.log(Level.FINE, "InputStream of original image {0} ({1}) is null", new Object[] { originalImage.getName(), originalImage.getId() });
 				return null;
 			}
 
-			BufferedImage source = null;
-
-			try {
+			try (final ImageInputStream imageIn = ImageIO.createImageInputStream(in != null ? in : fileOnDisk)) {
 
-				source = ImageIO.read(in);
+				final Iterator<ImageReader> readers = imageIn != null ? ImageIO.getImageReaders(imageIn) : null;
+				if (readers == null || !readers.hasNext()) {
 
-			} catch (IOException t) {
+					logger.log(Level.FINE, "Thumbnail could not be created");
+					return null;
+				}
 
-				logger.log(Level.WARNING, "Could not read original image {0} ({1})", new Object[] { originalImage.getName(), originalImage.getId() });
-				return null;
+				final ImageReader reader = readers.next();
 
-			} finally {
-				if (in != null) {
-					in.close();
-				}
-			}
+				try {
 
-			if (source != null) {
+					reader.setInput(imageIn, true, true);
 
-				int sourceWidth  = source.getWidth();
-				int sourceHeight = source.getHeight();
+					// dimensions are read from the image header
+					int sourceWidth  = reader.getWidth(0);
+					int sourceHeight = reader.getHeight(0);
 
-				// Update image dimensions
-				originalImage.setProperty(Image.width, sourceWidth);
-				originalImage.setProperty(Image.height, sourceHeight);
+					// Update image dimensions
+					originalImage.setProperty(Image.width, sourceWidth);
+					originalImage.setProperty(Image.height, sourceHeight);
 
-				// float aspectRatio = sourceWidth/sourceHeight;
-				float scaleX = 1.0f * sourceWidth / maxWidth;
-				float scaleY = 1.0f * sourceHeight / maxHeight;
-				float scale;
+					// float aspectRatio = sourceWidth/sourceHeight;
+					float scaleX = 1.0f * sourceWidth / maxWidth;
+					float scaleY = 1.0f * sourceHeight / maxHeight;
+					float scale;
 
-				if (crop) {
+					if (crop) {
 
-					scale = Math.min(scaleX, scaleY);
-				} else {
+						scale = Math.min(scaleX, scaleY);
+					} else {
 
-					scale = Math.max(scaleX, scaleY);
-				}
+						scale = Math.max(scaleX, scaleY);
+					}
 
 //                              System.out.println("Source (w,h): " + sourceWidth + ", " + sourceHeight + ", Scale (x,y,res): " + scaleX + ", " + scaleY + ", " + scale);
-				// Don't scale up
-				if (scale > 1.0000f) {
+					// Don't scale up
+					if (scale > 1.0000f) {
+
+						int destWidth  = Math.max(3, Math.round(sourceWidth / scale));
+						int destHeight = Math.max(3, Math.round(sourceHeight / scale));
+
+						// decode only every n-th pixel of large images
+						final ImageReadParam param = reader.getDefaultReadParam();
+						final int subsampling      = getSubsampling(sourceWidth, sourceHeight, destWidth, destHeight);
 
-					int destWidth  = Math.max(3, Math.round(sourceWidth / scale));
-					int destHeight = Math.max(3, Math.round(sourceHeight / scale));
+						if (subsampling > 1) {
+							param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+						}
+
+						final BufferedImage source = reader.read(0, param);
 
 //                                      System.out.println("Dest (w,h): " + destWidth + ", " + destHeight);
-					ResampleOp resampleOp = new ResampleOp(destWidth, destHeight);
+						ResampleOp resampleOp = new ResampleOp(destWidth, destHeight);
 
-					// resampleOp.setUnsharpenMask(AdvancedResizeOp.UnsharpenMask.Soft);
-					BufferedImage resampled = resampleOp.filter(source, null);
-					BufferedImage result    = null;
+						// resampleOp.setUnsharpenMask(AdvancedResizeOp.UnsharpenMask.Soft);
+						BufferedImage resampled = resampleOp.filter(source, null);
+						BufferedImage result    = null;
 
-					if (crop) {
+						if (crop) {
 
-						int offsetX = Math.abs(maxWidth - destWidth) / 2;
-						int offsetY = Math.abs(maxHeight - destHeight) / 2;
+							int offsetX = Math.abs(maxWidth - destWidth) / 2;
+							int offsetY = Math.abs(maxHeight - destHeight) / 2;
 
-						logger.log(Level.FINE, "Offset and Size (x,y,w,h): {0},{1},{2},{3}", new Object[] { offsetX, offsetY, maxWidth, maxHeight });
+							logger.log(Level.FINE, "Offset and Size (x,y,w,h): {0},{1},{2},{3}", new Object[] { offsetX, offsetY, maxWidth, maxHeight });
 
-						result = resampled.getSubimage(offsetX, offsetY, maxWidth, maxHeight);
+							result = resampled.getSubimage(offsetX, offsetY, maxWidth, maxHeight);
 
-						tn.setWidth(maxWidth);
-						tn.setHeight(maxHeight);
+							tn.setWidth(maxWidth);
+							tn.setHeight(maxHeight);
 
-					} else {
+						} else {
 
-						result = resampled;
+							result = resampled;
 
-						tn.setWidth(destWidth);
-						tn.setHeight(destHeight);
+							tn.setWidth(destWidth);
+							tn.setHeight(destHeight);
 
+						}
+
+						ImageIO.write(result, Thumbnail.FORMAT, baos);
+
+					} else {
+
+						// Thumbnail is source image
+						ImageIO.write(reader.read(0), Thumbnail.FORMAT, baos);
+						tn.setWidth(sourceWidth);
+						tn.setHeight(sourceHeight);
 					}
 
-					ImageIO.write(result, Thumbnail.FORMAT, baos);
+				} catch (IOException t) {
+
+					logger.log(Level.WARNING, "Could not read original image {0} ({1})", new Object[] { originalImage.getName(), originalImage.getId() });
+					return null;
 
-				} else {
+				} finally {
 
-					// Thumbnail is source image
-					ImageIO.write(source, Thumbnail.FORMAT, baos);
-					tn.setWidth(sourceWidth);
-					tn.setHeight(sourceHeight);
+					reader.dispose();
 				}
 
-			} else {
+			} finally {
 
-				logger.log(Level.FINE, "Thumbnail could not be created");
-				return null;
+				if (in != null) {
+					in.close();
+				}
 			}
 
 			long end  = System.nanoTime();
@@ -263,6 +297,23 @@ public abstract class ImageHelper extends FileHelper {
 		return null;
 	}
 
+	/**
+	 * Returns the source subsampling factor for decoding an image of the
+	 * given size that is scaled down to the given size. The image is
+	 * decoded at no less than twice the destination size, so the
+	 * resampling filter still has enough input to produce a smooth result.
+	 *
+	 * @param sourceWidth
+	 * @param sourceHeight
+	 * @param destWidth
+	 * @param destHeight
+	 * @return the subsampling factor, 1 for no subsampling
+	 */
+	static int getSubsampling(final int sourceWidth, final int sourceHeight, final int destWidth, final int destHeight) {
+
+		return Math.max(1, Math.min(sourceWidth / (destWidth * 2), sourceHeight / (destHeight * 2)));
+	}
+
 	/**
 	 * Let ImageIO read and write a JPEG image. This should normalize all types of weird
 	 * image sub formats, e.g. when extracting images from a flash file.
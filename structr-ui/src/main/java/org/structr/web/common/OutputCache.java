@@ -0,0 +1,598 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.RelationshipType;
+import org.structr.common.FixedSizeCache;
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.CommitListener;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.RelationshipInterface;
+import org.structr.core.graph.TransactionCommand;
+
+/**
+ * Server-side cache for rendered pages and page fragments.
+ *
+ * Entries are keyed by the request path, the configured cacheable query
+ * parameters, the locale and the effective principal set of the request.
+ * Each entry records the nodes and data types that were touched while it
+ * was rendered (see {@link RenderContext#addDependency(GraphObject)}) and is
+ * dropped as soon as a committed transaction modifies one of them (see
+ * {@link CommitListener}). Page entries also store the content type and
+ * the response headers that were set while rendering, so that they can be
+ * replayed when the entry is served. Output whose rendering set a cookie or
+ * created or modified the HTTP session is not cached at all. Since
+ * data that is fetched by scripting functions cannot be tracked, entries
+ * additionally expire after a configurable maximum age.
+ *
+ * The cache is disabled by default and must be enabled with the
+ * HtmlServlet.outputCache setting.
+ *
+ * @author Christian Morgner
+ */
+public class OutputCache implements CommitListener {
+
+	private static final Logger logger                                 = Logger.getLogger(OutputCache.class.getName());
+	private static final Charset UTF8                                  = Charset.forName("utf-8");
+
+	public static final String OUTPUT_CACHE_ENABLED                    = "HtmlServlet.outputCache";
+	public static final String OUTPUT_CACHE_MAX_SIZE                   = "HtmlServlet.outputCache.maxSize";
+	public static final String OUTPUT_CACHE_MAX_AGE                    = "HtmlServlet.outputCache.maxAge";
+	public static final String OUTPUT_CACHE_PARAMETERS                 = "HtmlServlet.outputCache.parameters";
+	public static final String OUTPUT_CACHE_GZIP                       = "HtmlServlet.outputCache.gzip";
+
+	private static final OutputCache instance                          = new OutputCache();
+	private static final ConcurrentMap<String, Set<String>> dependents = new ConcurrentHashMap<>();
+	private static final Set<String> cacheableParameters               = new HashSet<>();
+	private static final AtomicLong generation                         = new AtomicLong(0L);
+	private static volatile FixedSizeCache<String, Entry> cache        = null;
+	private static int maxAge                                          = 60;
+	private static boolean gzip                                        = true;
+
+	private OutputCache() {}
+
+	/**
+	 * Activates the output cache if it is enabled in the configuration.
+	 */
+	public static synchronized void register() {
+
+		if (cache == null && Services.parseBoolean(StructrApp.getConfigurationValue(OUTPUT_CACHE_ENABLED, "false"), false)) {
+
+			final int maxSize = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(OUTPUT_CACHE_MAX_SIZE, "1000"), 1000));
+			maxAge            = Math.max(0, Services.parseInt(StructrApp.getConfigurationValue(OUTPUT_CACHE_MAX_AGE, "60"), 60));
+			gzip              = Services.parseBoolean(StructrApp.getConfigurationValue(OUTPUT_CACHE_GZIP, "true"), true);
+
+			for (final String parameter : StringUtils.split(StructrApp.getConfigurationValue(OUTPUT_CACHE_PARAMETERS, ""), ", ")) {
+				cacheableParameters.add(parameter);
+			}
+
+			TransactionCommand.registerCommitListener(instance);
+
+			cache = new FixedSizeCache<String, Entry>(maxSize) {
+
+				@Override
+				protected void onEviction(final String key, final Entry entry) {
+					removeDependent(key, entry);
+				}
+			};
+		}
+	}
+
+	public static boolean isEnabled() {
+		return cache != null;
+	}
+
+	public static long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Returns the part of the cache key that is common to pages and
+	 * fragments, or null if the request cannot be served from the cache,
+	 * i.e. when it has query parameters that are not configured to be
+	 * cacheable.
+	 *
+	 * @param renderContext
+	 * @return the request key or null
+	 */
+	public static String getRequestKey(final RenderContext renderContext) {
+
+		final HttpServletRequest request = renderContext.getRequest();
+		final StringBuilder buf          = new StringBuilder();
+
+		buf.append(renderContext.getLocale());
+		buf.append("|");
+		buf.append(getPrincipalKey(renderContext.getSecurityContext()));
+
+		if (request != null) {
+
+			final List<String> names = new ArrayList<>();
+
+			for (final Enumeration<String> e = request.getParameterNames(); e.hasMoreElements();) {
+
+				final String name = e.nextElement();
+				if (!cacheableParameters.contains(name)) {
+
+					// output may depend on arbitrary request parameters
+					return null;
+				}
+
+				names.add(name);
+			}
+
+			Collections.sort(names);
+
+			for (final String name : names) {
+
+				buf.append("|").append(name).append("=");
+				buf.append(StringUtils.join(request.getParameterValues(name), ","));
+			}
+		}
+
+		return buf.toString();
+	}
+
+	public static Entry get(final String key) {
+
+		final FixedSizeCache<String, Entry> _cache = cache;
+		if (_cache != null && key != null && !TransactionCommand.hasModifications()) {
+
+			final Entry entry = _cache.get(key);
+			if (entry != null) {
+
+				if (!entry.isExpired()) {
+					return entry;
+				}
+
+				remove(_cache, key);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stores the given output, unless a transaction was committed since the
+	 * given generation, i.e. while the output was being rendered.
+	 *
+	 * @param key the cache key, or null for an entry that is not cached
+	 * @param output the rendered output
+	 * @param contentType the content type, or null for fragments
+	 * @param headers the response headers set while rendering, or null for fragments
+	 * @param dependencies the UUIDs and types the output depends on
+	 * @param timeoutSeconds the time to live of the entry, or zero for the default
+	 * @param renderGeneration the generation obtained before rendering
+	 *
+	 * @return the new entry
+	 */
+	public static Entry put(final String key, final String output, final String contentType, final Map<String, List<String>> headers, final Set<String> dependencies, final int timeoutSeconds, final long renderGeneration) {
+
+		final int timeout = timeoutSeconds > 0 ? Math.min(timeoutSeconds, maxAge) : maxAge;
+		final Entry entry = new Entry(output, contentType, headers, dependencies, contentType != null && gzip, timeout);
+
+		final FixedSizeCache<String, Entry> _cache = cache;
+		if (_cache != null && key != null && !TransactionCommand.hasModifications()) {
+
+			// evictions happen in put() and prune the index under the same lock
+			synchronized (dependents) {
+
+				remove(_cache, key);
+
+				for (final String dependency : entry.getDependencies()) {
+
+					Set<String> set = dependents.get(dependency);
+					if (set == null) {
+
+						set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+						dependents.put(dependency, set);
+					}
+
+					set.add(key);
+				}
+
+				_cache.put(key, entry);
+
+				// discard output if data was modified while rendering
+				if (generation.get() != renderGeneration) {
+					remove(_cache, key);
+				}
+			}
+		}
+
+		return entry;
+	}
+
+	public static void clear() {
+
+		final FixedSizeCache<String, Entry> _cache = cache;
+		if (_cache != null) {
+
+			generation.incrementAndGet();
+
+			_cache.clear();
+			dependents.clear();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the headers of the given response.
+	 *
+	 * @param response the response
+	 * @return the headers of the response
+	 */
+	public static Map<String, List<String>> getHeaders(final HttpServletResponse response) {
+
+		final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+		for (final String name : response.getHeaderNames()) {
+			headers.put(name, new ArrayList<>(response.getHeaders(name)));
+		}
+
+		return headers;
+	}
+
+	/**
+	 * Returns the headers of the given response that were added or changed
+	 * since the given snapshot was taken. Cookies are never returned, since
+	 * they must not be replayed to other clients.
+	 *
+	 * @param response the response
+	 * @param previousHeaders the snapshot taken before rendering
+	 * @return the headers that were set while rendering
+	 */
+	public static Map<String, List<String>> getModifiedHeaders(final HttpServletResponse response, final Map<String, List<String>> previousHeaders) {
+
+		final Map<String, List<String>> headers = getHeaders(response);
+
+		for (final Iterator<Map.Entry<String, List<String>>> it = headers.entrySet().iterator(); it.hasNext();) {
+
+			final Map.Entry<String, List<String>> header = it.next();
+
+			if (isCookieHeader(header.getKey()) || header.getValue().equals(previousHeaders.get(header.getKey()))) {
+				it.remove();
+			}
+		}
+
+		return headers;
+	}
+
+	/**
+	 * Returns a snapshot of the HTTP session of the given request, i.e. its
+	 * id and attributes, or null if the request has no session.
+	 *
+	 * @param request the request
+	 * @return the session snapshot
+	 */
+	public static Object getSessionState(final HttpServletRequest request) {
+
+		final HttpSession session = request.getSession(false);
+		if (session != null) {
+
+			try {
+
+				final Map<String, Object> attributes = new LinkedHashMap<>();
+
+				for (final Enumeration<String> e = session.getAttributeNames(); e.hasMoreElements();) {
+
+					final String name = e.nextElement();
+					attributes.put(name, session.getAttribute(name));
+				}
+
+				return Arrays.asList(session.getId(), attributes);
+
+			} catch (IllegalStateException isex) {
+
+				// session was invalidated
+				return Collections.emptyList();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns whether output that was rendered for the given request can be
+	 * served to other clients, i.e. whether rendering neither set a cookie
+	 * nor created, replaced or modified the HTTP session.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param previousHeaders the header snapshot taken before rendering
+	 * @param previousSessionState the session snapshot taken before rendering
+	 * @return whether the output can be cached
+	 */
+	public static boolean isShareable(final HttpServletRequest request, final HttpServletResponse response, final Map<String, List<String>> previousHeaders, final Object previousSessionState) {
+
+		final Map<String, List<String>> headers = getHeaders(response);
+
+		for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+
+			if (isCookieHeader(header.getKey()) && !header.getValue().equals(previousHeaders.get(header.getKey()))) {
+				return false;
+			}
+		}
+
+		final Object sessionState = getSessionState(request);
+
+		return sessionState == null ? previousSessionState == null : sessionState.equals(previousSessionState);
+	}
+
+	// ----- private methods -----
+	private static boolean isCookieHeader(final String name) {
+		return "Set-Cookie".equalsIgnoreCase(name) || "Set-Cookie2".equalsIgnoreCase(name);
+	}
+
+	private static void remove(final FixedSizeCache<String, Entry> _cache, final String key) {
+
+		synchronized (dependents) {
+
+			final Entry entry = _cache.remove(key);
+			if (entry != null) {
+
+				removeDependent(key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given key from the index entries of the dependencies of
+	 * its entry, and entries that are left empty from the index.
+	 */
+	private static void removeDependent(final String key, final Entry entry) {
+
+		synchronized (dependents) {
+
+			for (final String dependency : entry.getDependencies()) {
+
+				final Set<String> set = dependents.get(dependency);
+				if (set != null) {
+
+					set.remove(key);
+
+					if (set.isEmpty()) {
+						dependents.remove(dependency);
+					}
+				}
+			}
+		}
+	}
+
+	private static void invalidate(final String dependency) {
+
+		final FixedSizeCache<String, Entry> _cache = cache;
+		if (_cache != null && dependency != null) {
+
+			final Set<String> keys = dependents.remove(dependency);
+			if (keys != null) {
+
+				for (final String key : keys) {
+					remove(_cache, key);
+				}
+			}
+		}
+	}
+
+	private static String getPrincipalKey(final SecurityContext securityContext) {
+
+		final Principal user = securityContext != null ? securityContext.getUser(false) : null;
+		if (user != null) {
+
+			final List<String> ids = new ArrayList<>();
+
+			for (final Principal parent : user.getParents()) {
+				ids.add(parent.getUuid());
+			}
+
+			Collections.sort(ids);
+			ids.add(0, user.getUuid());
+
+			return StringUtils.join(ids, ",");
+		}
+
+		return "anonymous";
+	}
+
+	/**
+	 * Returns the type of the modified object without accessing the
+	 * database, i.e. the class name of nodes and the relationship type
+	 * of relationships.
+	 */
+	private static String getType(final ModificationEvent event, final GraphObject obj) {
+
+		if (event.isNode()) {
+			return obj.getClass().getSimpleName();
+		}
+
+		final RelationshipType relType = event.getRelationshipType();
+		if (relType != null) {
+
+			return relType.name();
+		}
+
+		return null;
+	}
+
+	// ----- interface CommitListener -----
+	@Override
+	public void afterCommit(final List<ModificationEvent> modificationEvents) {
+
+		if (modificationEvents.isEmpty()) {
+			return;
+		}
+
+		generation.incrementAndGet();
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			final GraphObject obj = event.getGraphObject();
+
+			invalidate(event.getUuid());
+
+			if (obj != null) {
+
+				final String type = getType(event, obj);
+				if (type != null) {
+					invalidate(RenderContext.getTypeDependency(type));
+				}
+
+				if (obj instanceof RelationshipInterface) {
+
+					final RelationshipInterface rel = (RelationshipInterface)obj;
+
+					invalidate(rel.getSourceNodeId());
+					invalidate(rel.getTargetNodeId());
+				}
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * A cached page or fragment. Page output is stored UTF-8 encoded and
+	 * optionally gzipped, so that it can be written to the response as is.
+	 */
+	public static class Entry {
+
+		private Map<String, List<String>> headers = null;
+		private Set<String> dependencies          = null;
+		private String contentType                = null;
+		private String output                     = null;
+		private byte[] bytes                      = null;
+		private byte[] gzippedBytes               = null;
+		private long expires                      = 0L;
+
+		private Entry(final String output, final String contentType, final Map<String, List<String>> headers, final Set<String> dependencies, final boolean gzip, final int timeoutSeconds) {
+
+			// pages are only kept in encoded form
+			this.output       = contentType == null ? output : null;
+			this.contentType  = contentType;
+			this.headers      = headers != null ? Collections.unmodifiableMap(new LinkedHashMap<>(headers)) : Collections.<String, List<String>>emptyMap();
+			this.dependencies = Collections.unmodifiableSet(new HashSet<>(dependencies));
+			this.expires      = System.currentTimeMillis() + (timeoutSeconds * 1000L);
+
+			if (contentType != null) {
+
+				this.bytes = output.getBytes(UTF8);
+
+				if (gzip) {
+
+					try {
+						final ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length / 4 + 64);
+
+						try (final GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+							gz.write(bytes);
+						}
+
+						this.gzippedBytes = bos.toByteArray();
+
+					} catch (IOException ioex) {
+						logger.log(Level.WARNING, "Unable to compress cached output: {0}", ioex.getMessage());
+					}
+				}
+			}
+		}
+
+		public String getOutput() {
+			return output;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public Map<String, List<String>> getHeaders() {
+			return headers;
+		}
+
+		public Set<String> getDependencies() {
+			return dependencies;
+		}
+
+		/**
+		 * Sets the content type and the headers that were set while
+		 * this entry was rendered on the given response.
+		 *
+		 * @param response the response
+		 */
+		public void applyHeaders(final HttpServletResponse response) {
+
+			if (contentType != null) {
+				response.setContentType(contentType);
+			}
+
+			for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+
+				final String name = header.getKey();
+				boolean first     = true;
+
+				for (final String value : header.getValue()) {
+
+					if (first) {
+
+						response.setHeader(name, value);
+						first = false;
+
+					} else {
+
+						response.addHeader(name, value);
+					}
+				}
+			}
+		}
+
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		public byte[] getGzippedBytes() {
+			return gzippedBytes;
+		}
+
+		public boolean isExpired() {
+			return System.currentTimeMillis() > expires;
+		}
+	}
+}
@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.EntityVersions;
+import org.structr.core.graph.NodeFactory;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.Tx;
+import org.structr.web.common.RenderContext.EditMode;
+import org.structr.web.entity.dom.DOMNode;
+
+/**
+ * Renders independent sibling subtrees of a DOM element concurrently.
+ *
+ * A child node is rendered in parallel if it is flagged with
+ * renderIndependently, or, if HtmlServlet.render.parallel.detect is set,
+ * if it has its own data source (REST, Cypher, XPath or function query).
+ * Each parallel subtree is rendered into its own buffer, in its own read
+ * transaction and with its own copy of the render context that shares no
+ * mutable state with the calling thread (see
+ * {@link RenderContext#copyForSubtree()}), so changes it makes to the
+ * render context are not visible to its siblings. The other
+ * children are rendered in the calling thread, and the output of all
+ * children is stitched together in document order.
+ *
+ * Parallel rendering is disabled by default and must be enabled with the
+ * HtmlServlet.render.parallel setting.
+ *
+ * @author Christian Morgner
+ */
+public class ParallelRenderer implements StatisticsRegistry.Source {
+
+	private static final Logger logger               = Logger.getLogger(ParallelRenderer.class.getName());
+
+	public static final String RENDER_PARALLEL         = "HtmlServlet.render.parallel";
+	public static final String RENDER_PARALLEL_DETECT  = "HtmlServlet.render.parallel.detect";
+	public static final String RENDER_PARALLEL_THREADS = "HtmlServlet.render.parallel.threads";
+
+	private static ParallelRenderer instance         = null;
+
+	private final AtomicLong parallelSubtrees        = new AtomicLong(0L);
+	private final AtomicLong callerRuns              = new AtomicLong(0L);
+	private ThreadPoolExecutor executor              = null;
+	private boolean enabled                          = false;
+	private boolean detect                           = false;
+
+	ParallelRenderer(final boolean enabled, final boolean detect, final int threads) {
+
+		this.enabled  = enabled;
+		this.detect   = detect;
+
+		if (enabled) {
+
+			this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger(0);
+
+				@Override
+				public Thread newThread(final Runnable r) {
+
+					final Thread thread = new Thread(r, "SubtreeRenderThread-" + count.incrementAndGet());
+					thread.setDaemon(true);
+
+					return thread;
+				}
+
+			}, new ThreadPoolExecutor.CallerRunsPolicy() {
+
+				@Override
+				public void rejectedExecution(final Runnable r, final ThreadPoolExecutor e) {
+
+					// render in the calling thread if all subtree threads are busy
+					callerRuns.incrementAndGet();
+					super.rejectedExecution(r, e);
+				}
+			});
+
+			executor.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	public static synchronized ParallelRenderer getInstance() {
+
+		if (instance == null) {
+
+			final boolean enabled = Services.parseBoolean(StructrApp.getConfigurationValue(RENDER_PARALLEL, "false"), false);
+			final boolean detect  = Services.parseBoolean(StructrApp.getConfigurationValue(RENDER_PARALLEL_DETECT, "false"), false);
+			final int threads     = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(RENDER_PARALLEL_THREADS, "20"), 20));
+
+			instance = new ParallelRenderer(enabled, detect, threads);
+
+			StatisticsRegistry.register("parallelRenderer", instance);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns whether the children of a node can be rendered in parallel
+	 * in the given render context. Subtrees are not split any further once
+	 * they are rendered in parallel, and nothing is rendered in parallel
+	 * while the current transaction has uncommitted changes, because the
+	 * render threads would not see them.
+	 *
+	 * @param renderContext the render context
+	 * @param editMode the edit mode
+	 * @return whether parallel rendering is possible
+	 */
+	public boolean canRenderInParallel(final RenderContext renderContext, final EditMode editMode) {
+		return enabled && EditMode.NONE.equals(editMode) && !renderContext.isParallelSubtree() && !TransactionCommand.hasModifications();
+	}
+
+	/**
+	 * Returns whether the given node should be rendered independently of
+	 * its siblings.
+	 *
+	 * @param node the node
+	 * @return whether the node is independent
+	 * @throws FrameworkException
+	 */
+	public boolean isIndependent(final DOMNode node) throws FrameworkException {
+
+		final RenderPlan plan = node.getRenderPlan();
+
+		return plan.isIndependent() || (detect && plan.hasDataSource());
+	}
+
+	/**
+	 * Creates a new stitcher that collects the output of the children of a
+	 * node in document order.
+	 *
+	 * @param renderContext the render context of the parent node
+	 * @return a new stitcher
+	 */
+	public Stitcher newStitcher(final RenderContext renderContext) {
+		return new Stitcher(renderContext);
+	}
+
+	// ----- interface StatisticsRegistry.Source -----
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("enabled", enabled);
+		stats.put("detect", detect);
+		stats.put("parallelSubtrees", parallelSubtrees.get());
+		stats.put("callerRuns", callerRuns.get());
+
+		if (executor != null) {
+
+			stats.put("activeThreads", executor.getActiveCount());
+			stats.put("queueDepth", executor.getQueue().size());
+		}
+
+		return stats;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Collects the output of the children of a node. Children that are
+	 * rendered in the calling thread write into buffers that are swapped
+	 * into the render context, parallel children are represented by their
+	 * futures until {@link #finish()} is called. The buffer at index i
+	 * precedes the future at index i in document order, so there is always
+	 * one buffer more than there are futures.
+	 */
+	public class Stitcher {
+
+		private final List<StringRenderBuffer> buffers       = new ArrayList<>();
+		private final List<Future<Subtree>> futures          = new ArrayList<>();
+		private final List<RenderContext> subtreeContexts    = new ArrayList<>();
+		private RenderContext renderContext                  = null;
+		private AsyncBuffer out                              = null;
+
+		private Stitcher(final RenderContext renderContext) {
+
+			this.renderContext = renderContext;
+			this.out           = renderContext.getBuffer();
+
+			buffers.add(new StringRenderBuffer());
+		}
+
+		/**
+		 * Renders the given node in the calling thread.
+		 *
+		 * @param node the node
+		 * @param depth the depth of the node
+		 * @throws FrameworkException
+		 */
+		public void render(final DOMNode node, final int depth) throws FrameworkException {
+
+			// consecutive sequential children share one buffer
+			renderContext.setBuffer(buffers.get(buffers.size() - 1));
+
+			try {
+
+				node.render(renderContext, depth);
+
+			} finally {
+
+				renderContext.setBuffer(out);
+			}
+		}
+
+		/**
+		 * Renders the given node in a separate thread and transaction.
+		 *
+		 * @param node the node
+		 * @param depth the depth of the node
+		 */
+		public void submit(final DOMNode node, final int depth) {
+
+			final RenderContext subtreeContext    = renderContext.copyForSubtree();
+			final SecurityContext securityContext = subtreeContext.getSecurityContext();
+			final boolean trackReads              = EntityVersions.isTracking();
+			final boolean trackDependencies       = renderContext.isTrackingDependencies();
+			final long nodeId                     = node.getNode().getId();
+
+			parallelSubtrees.incrementAndGet();
+
+			final Future<Subtree> future = executor.submit(new Callable<Subtree>() {
+
+				@Override
+				public Subtree call() throws Exception {
+
+					final StringRenderBuffer buffer  = new StringRenderBuffer();
+					final Set<String> previousReads  = trackReads ? EntityVersions.startTracking() : null;
+					Set<String> dependencies         = null;
+					Set<String> reads                = null;
+
+					subtreeContext.setBuffer(buffer);
+
+					if (trackDependencies) {
+						subtreeContext.startDependencyTracking();
+					}
+
+					try (final Tx tx = StructrApp.getInstance(securityContext).tx()) {
+
+						final DOMNode subtreeRoot = new NodeFactory<DOMNode>(securityContext).instantiate(StructrApp.getInstance(securityContext).getGraphDatabaseService().getNodeById(nodeId));
+						if (subtreeRoot != null) {
+
+							subtreeRoot.render(subtreeContext, depth);
+						}
+
+						tx.success();
+
+					} finally {
+
+						if (trackDependencies) {
+							dependencies = subtreeContext.endDependencyTracking(null);
+						}
+
+						if (trackReads) {
+							reads = EntityVersions.stopTracking(previousReads);
+						}
+					}
+
+					return new Subtree(subtreeContext, buffer.getBuffer().toString(), dependencies, reads);
+				}
+			});
+
+			futures.add(future);
+			subtreeContexts.add(subtreeContext);
+			buffers.add(new StringRenderBuffer());
+		}
+
+		/**
+		 * Waits for all parallel children and writes the output of all
+		 * children to the original buffer in document order. If a child
+		 * fails, the remaining parallel children are cancelled.
+		 *
+		 * @throws FrameworkException
+		 */
+		public void finish() throws FrameworkException {
+
+			try {
+
+				for (int i = 0; i < buffers.size(); i++) {
+
+					out.append(buffers.get(i).getBuffer().toString());
+
+					if (i < futures.size()) {
+
+						final Subtree subtree = waitFor(futures.get(i), subtreeContexts.get(i));
+
+						out.append(subtree.output);
+
+						if (subtree.dependencies != null) {
+							renderContext.addDependencies(subtree.dependencies);
+						}
+
+						renderContext.merge(subtree.renderContext);
+
+						EntityVersions.recordReads(subtree.reads);
+					}
+				}
+
+			} finally {
+
+				cancel();
+			}
+		}
+
+		/**
+		 * Cancels all parallel children that are not finished yet and
+		 * discards the collected output. Must be called if rendering the
+		 * children fails before {@link #finish()} is called. Running
+		 * children are not interrupted, they stop at their next deadline
+		 * check (see {@link RenderContext#cancel()}).
+		 */
+		public void cancel() {
+
+			for (final RenderContext subtreeContext : subtreeContexts) {
+				subtreeContext.cancel();
+			}
+
+			for (final Future<Subtree> future : futures) {
+				future.cancel(false);
+			}
+
+			buffers.clear();
+			futures.clear();
+			subtreeContexts.clear();
+
+			buffers.add(new StringRenderBuffer());
+		}
+
+		private Subtree waitFor(final Future<Subtree> future, final RenderContext subtreeContext) throws FrameworkException {
+
+			try {
+
+				final long deadline = renderContext.getDeadline();
+				if (deadline > 0) {
+
+					return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				}
+
+				return future.get();
+
+			} catch (TimeoutException tex) {
+
+				subtreeContext.cancel();
+				future.cancel(false);
+
+				throw new FrameworkException(503, "Render deadline exceeded");
+
+			} catch (InterruptedException iex) {
+
+				Thread.currentThread().interrupt();
+
+				subtreeContext.cancel();
+				future.cancel(false);
+
+				throw new FrameworkException(500, iex);
+
+			} catch (ExecutionException eex) {
+
+				final Throwable cause = eex.getCause();
+
+				logger.log(Level.SEVERE, "Error while rendering subtree in parallel", cause);
+
+				if (cause instanceof FrameworkException) {
+					throw (FrameworkException)cause;
+				}
+
+				throw new FrameworkException(500, cause != null ? cause : eex);
+			}
+		}
+	}
+
+	private static class Subtree {
+
+		private RenderContext renderContext = null;
+		private Set<String> dependencies    = null;
+		private Set<String> reads           = null;
+		private String output               = null;
+
+		public Subtree(final RenderContext renderContext, final String output, final Set<String> dependencies, final Set<String> reads) {
+
+			this.renderContext = renderContext;
+			this.output        = output;
+			this.dependencies  = dependencies;
+			this.reads         = reads != null ? reads : Collections.<String>emptySet();
+		}
+	}
+}
@@ -18,14 +18,21 @@
  */
 package org.structr.web.common;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.structr.common.SecurityContext;
+import org.structr.common.error.ErrorToken;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.Result;
@@ -70,6 +77,11 @@ public class RenderContext extends ActionContext {
 	private ResourceProvider resourceProvider          = null;
 	private Result result                              = null;
 	private boolean anyChildNodeCreatesNewLine         = false;
+	private Set<String> dependencies                   = null;
+	private long deadline                              = 0L;
+	private volatile boolean cancelled                 = false;
+	private boolean parallelSubtree                    = false;
+	private Map<String, Object> sharedData             = new ConcurrentHashMap<>();
 
 	public enum EditMode {
 
@@ -105,9 +117,75 @@ public class RenderContext extends ActionContext {
 		this.resourceProvider = other.resourceProvider;
 		this.result = other.result;
 		this.anyChildNodeCreatesNewLine = other.anyChildNodeCreatesNewLine;
+		this.dependencies = other.dependencies;
+		this.deadline = other.deadline;
+		this.parallelSubtree = other.parallelSubtree;
+		this.sharedData = other.sharedData;
 
 	}
 
+	/**
+	 * Creates a copy of this render context that can be used in another
+	 * thread, even after the current request has been completed. In
+	 * addition to the state copied by {@link ActionContext#detach()}, the
+	 * request is replaced by a {@link DetachedRequest} so that request
+	 * keywords and the data objects of this context stay available, and
+	 * the copy has no response.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public RenderContext detach() {
+
+		final RenderContext copy = new RenderContext(this);
+
+		copy.request      = DetachedRequest.detach(request);
+		copy.response     = null;
+		copy.dependencies = null;
+		copy.locale       = locale;
+
+		copy.isolate(securityContext.copy(copy.request));
+
+		return copy;
+	}
+
+	/**
+	 * Creates a detached copy of this render context for a subtree that is
+	 * rendered in another thread. Use {@link #merge(RenderContext)} to take
+	 * over the headers and errors of the subtree when it is finished.
+	 *
+	 * @return the copy
+	 */
+	public RenderContext copyForSubtree() {
+
+		final RenderContext copy = detach();
+
+		copy.parallelSubtree = true;
+
+		return copy;
+	}
+
+	/**
+	 * Takes over the headers and errors that were added while rendering a
+	 * subtree with a copy created by {@link #copyForSubtree()}.
+	 *
+	 * @param subtree the render context of the subtree
+	 */
+	public void merge(final RenderContext subtree) {
+
+		headers.putAll(subtree.headers);
+
+		for (final Entry<String, Map<String, Set<ErrorToken>>> type : subtree.errorBuffer.getErrorTokens().entrySet()) {
+
+			for (final Set<ErrorToken> tokens : type.getValue().values()) {
+
+				for (final ErrorToken token : tokens) {
+					errorBuffer.add(type.getKey(), token);
+				}
+			}
+		}
+	}
+
 	public RenderContext(final SecurityContext securityContext, final HttpServletRequest request, HttpServletResponse response, final EditMode editMode, final Locale locale) {
 
 		super(securityContext);
@@ -130,6 +208,7 @@ public class RenderContext extends ActionContext {
 
 	public void setDetailsDataObject(GraphObject detailsDataObject) {
 		this.detailsDataObject = detailsDataObject;
+		addDependency(detailsDataObject);
 	}
 
 	public GraphObject getDetailsDataObject() {
@@ -138,6 +217,7 @@ public class RenderContext extends ActionContext {
 
 	public void setDataObject(GraphObject currentDataObject) {
 		this.currentDataObject = currentDataObject;
+		addDependency(currentDataObject);
 	}
 
 	public GraphObject getDataObject() {
@@ -153,7 +233,16 @@ public class RenderContext extends ActionContext {
 	}
 
 	public void setListSource(Iterable<GraphObject> listSource) {
+
 		this.listSource = listSource;
+
+		// lazy iterables must not be consumed here
+		if (dependencies != null && listSource instanceof Collection) {
+
+			for (final GraphObject obj : listSource) {
+				addDependency(obj);
+			}
+		}
 	}
 
 	public void setResult(Result result) {
@@ -264,6 +353,152 @@ public class RenderContext extends ActionContext {
 		return depth;
 	}
 
+	/**
+	 * Starts recording the nodes and types that are used while rendering,
+	 * and returns the set of dependencies that was recorded before.
+	 *
+	 * @return the previous set of dependencies, or null
+	 */
+	public Set<String> startDependencyTracking() {
+
+		final Set<String> previous = dependencies;
+
+		dependencies = new LinkedHashSet<>();
+
+		return previous;
+	}
+
+	/**
+	 * Stops recording dependencies and returns the recorded set. The given
+	 * set of a surrounding recording, if any, is reactivated and receives
+	 * all dependencies recorded since.
+	 *
+	 * @param previous the return value of {@link #startDependencyTracking()}
+	 * @return the recorded dependencies
+	 */
+	public Set<String> endDependencyTracking(final Set<String> previous) {
+
+		final Set<String> recorded = dependencies;
+
+		if (previous != null && recorded != null) {
+			previous.addAll(recorded);
+		}
+
+		dependencies = previous;
+
+		return recorded != null ? recorded : Collections.<String>emptySet();
+	}
+
+	public boolean isTrackingDependencies() {
+		return dependencies != null;
+	}
+
+	public void addDependency(final String uuid) {
+
+		if (dependencies != null && uuid != null) {
+			dependencies.add(uuid);
+		}
+	}
+
+	public void addDependency(final GraphObject obj) {
+
+		if (dependencies != null && obj != null) {
+
+			final String uuid = obj.getUuid();
+			final String type = obj.getType();
+
+			if (uuid != null) {
+				dependencies.add(uuid);
+			}
+
+			if (type != null) {
+				dependencies.add(getTypeDependency(type));
+			}
+		}
+	}
+
+	public void addDependencies(final Set<String> uuidsAndTypes) {
+
+		if (dependencies != null) {
+			dependencies.addAll(uuidsAndTypes);
+		}
+	}
+
+	public static String getTypeDependency(final String type) {
+		return "type:".concat(type);
+	}
+
+	/**
+	 * Sets the time in milliseconds after which rendering is aborted, or 0
+	 * for no deadline.
+	 *
+	 * @param deadline the deadline
+	 */
+	public void setDeadline(final long deadline) {
+		this.deadline = deadline;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Makes the next call to {@link #checkDeadline()} abort rendering, e.g.
+	 * when the output of a parallel subtree is no longer needed. Rendering
+	 * threads are not interrupted, since an interrupt can close the store
+	 * files of the database.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Aborts rendering with a 503 error if the deadline has passed or if
+	 * rendering was cancelled.
+	 *
+	 * @throws FrameworkException
+	 */
+	public void checkDeadline() throws FrameworkException {
+
+		if (cancelled || (deadline > 0 && System.currentTimeMillis() > deadline)) {
+			throw new FrameworkException(503, "Render deadline exceeded");
+		}
+	}
+
+	/**
+	 * Marks this context as belonging to a subtree that is rendered by
+	 * the {@link ParallelRenderer}, in which no further subtrees are
+	 * rendered in parallel.
+	 *
+	 * @param parallelSubtree whether this context renders a parallel subtree
+	 */
+	public void setParallelSubtree(final boolean parallelSubtree) {
+		this.parallelSubtree = parallelSubtree;
+	}
+
+	public boolean isParallelSubtree() {
+		return parallelSubtree;
+	}
+
+	/**
+	 * Returns a value that is shared between this context and all of its
+	 * copies for the duration of a render, e.g. the results of data source
+	 * queries.
+	 *
+	 * @param key the key
+	 * @return the value, or null
+	 */
+	public Object getSharedData(final String key) {
+		return sharedData.get(key);
+	}
+
+	public void putSharedData(final String key, final Object value) {
+
+		if (key != null && value != null) {
+			sharedData.put(key, value);
+		}
+	}
+
 	public void setBuffer(final AsyncBuffer buffer) {
 		this.buffer = buffer;
 	}
@@ -311,6 +546,28 @@ public class RenderContext extends ActionContext {
 		this.page = page;
 	}
 
+	/**
+	 * Returns a string that identifies the current data object and all
+	 * keyed data objects of this context, e.g. for use in a cache key.
+	 *
+	 * @return the data object key
+	 */
+	public String getDataObjectKey() {
+
+		final StringBuilder buf = new StringBuilder();
+
+		for (final Map.Entry<String, GraphObject> entry : dataObjects.entrySet()) {
+
+			final GraphObject obj = entry.getValue();
+			buf.append(entry.getKey()).append("=").append(obj != null ? obj.getUuid() : null).append(",");
+		}
+
+		buf.append(currentDataObject != null ? currentDataObject.getUuid() : null);
+		buf.append(",").append(detailsDataObject != null ? detailsDataObject.getUuid() : null);
+
+		return buf.toString();
+	}
+
 	public Page getPage() {
 		return page;
 	}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.StatisticsRegistry;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+
+/**
+ * Bounded executor for asynchronous page rendering.
+ *
+ * At most HtmlServlet.render.maxThreads pages are rendered concurrently,
+ * and at most HtmlServlet.render.queueSize requests wait for a render
+ * thread. Requests that do not fit into the queue are rejected, requests
+ * that waited longer than the render deadline are expired without being
+ * rendered. The servlet answers both with 503 and a Retry-After header.
+ *
+ * @author Christian Morgner
+ */
+public class RenderExecutor implements StatisticsRegistry.Source {
+
+	private static final Logger logger               = Logger.getLogger(RenderExecutor.class.getName());
+
+	public static final String RENDER_MAX_THREADS    = "HtmlServlet.render.maxThreads";
+	public static final String RENDER_QUEUE_SIZE     = "HtmlServlet.render.queueSize";
+	public static final String RENDER_DEADLINE       = "HtmlServlet.render.deadline";
+	public static final String RENDER_RETRY_AFTER    = "HtmlServlet.render.retryAfter";
+
+	private static RenderExecutor instance           = null;
+
+	private final AtomicInteger activeRenders        = new AtomicInteger(0);
+	private final AtomicLong completed               = new AtomicLong(0L);
+	private final AtomicLong failed                  = new AtomicLong(0L);
+	private final AtomicLong rejected                = new AtomicLong(0L);
+	private final AtomicLong expired                 = new AtomicLong(0L);
+	private final LatencySamples latencies           = new LatencySamples(1024);
+	private final LatencySamples waitTimes           = new LatencySamples(1024);
+	private ThreadPoolExecutor executor              = null;
+	private long deadline                            = 0L;
+	private int retryAfter                           = 0;
+	private int maxThreads                           = 0;
+	private int queueSize                            = 0;
+
+	/**
+	 * A render request.
+	 */
+	public interface RenderTask {
+
+		/**
+		 * Renders the request in a render thread.
+		 *
+		 * @param deadline the time in milliseconds after which rendering should be aborted
+		 * @throws Exception
+		 */
+		public void render(final long deadline) throws Exception;
+
+		/**
+		 * Called instead of {@link #render(long)} if the request waited in
+		 * the queue until its deadline passed.
+		 */
+		public void expire();
+	}
+
+	RenderExecutor(final int maxThreads, final int queueSize, final long deadline, final int retryAfter) {
+
+		this.maxThreads = maxThreads;
+		this.queueSize  = queueSize;
+		this.deadline   = deadline;
+		this.retryAfter = retryAfter;
+		this.executor   = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+
+				final Thread thread = new Thread(r, "RenderThread-" + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	public static synchronized RenderExecutor getInstance() {
+
+		if (instance == null) {
+
+			final int maxThreads = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(RENDER_MAX_THREADS, "50"), 50));
+			final int queueSize  = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(RENDER_QUEUE_SIZE, "500"), 500));
+			final int deadline   = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(RENDER_DEADLINE, "30"), 30));
+			final int retryAfter = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(RENDER_RETRY_AFTER, "5"), 5));
+
+			instance = new RenderExecutor(maxThreads, queueSize, deadline * 1000L, retryAfter);
+
+			StatisticsRegistry.register("renderExecutor", instance);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Submits the given render request.
+	 *
+	 * @param task the render request
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public void submit(final RenderTask task) throws RejectedExecutionException {
+
+		final long submitted    = System.currentTimeMillis();
+		final long taskDeadline = submitted + deadline;
+
+		try {
+
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+
+					final long start = System.currentTimeMillis();
+
+					waitTimes.add(start - submitted);
+
+					if (start > taskDeadline) {
+
+						expired.incrementAndGet();
+						task.expire();
+
+						return;
+					}
+
+					activeRenders.incrementAndGet();
+
+					try {
+
+						task.render(taskDeadline);
+						completed.incrementAndGet();
+
+					} catch (Throwable t) {
+
+						failed.incrementAndGet();
+						logger.log(Level.WARNING, "Exception while rendering", t);
+
+					} finally {
+
+						activeRenders.decrementAndGet();
+						latencies.add(System.currentTimeMillis() - submitted);
+					}
+				}
+			});
+
+		} catch (RejectedExecutionException rex) {
+
+			rejected.incrementAndGet();
+			throw rex;
+		}
+	}
+
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveRenders() {
+		return activeRenders.get();
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	// ----- interface StatisticsRegistry.Source -----
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("maxThreads", maxThreads);
+		stats.put("queueSize", queueSize);
+		stats.put("queueDepth", getQueueDepth());
+		stats.put("activeRenders", getActiveRenders());
+		stats.put("threads", executor.getPoolSize());
+		stats.put("completed", completed.get());
+		stats.put("failed", failed.get());
+		stats.put("rejected", rejected.get());
+		stats.put("expired", expired.get());
+		stats.put("latency", latencies.getPercentiles());
+		stats.put("queueWait", waitTimes.getPercentiles());
+
+		return stats;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Keeps the most recent latency samples in a ring and computes
+	 * percentiles from them.
+	 */
+	static class LatencySamples {
+
+		private long[] samples = null;
+		private int count      = 0;
+		private int index      = 0;
+
+		public LatencySamples(final int size) {
+			this.samples = new long[size];
+		}
+
+		public synchronized void add(final long value) {
+
+			samples[index] = value;
+			index          = (index + 1) % samples.length;
+
+			if (count < samples.length) {
+				count++;
+			}
+		}
+
+		public Map<String, Object> getPercentiles() {
+
+			final Map<String, Object> percentiles = new LinkedHashMap<>();
+			final long[] sorted;
+
+			synchronized (this) {
+				sorted = Arrays.copyOf(samples, count);
+			}
+
+			Arrays.sort(sorted);
+
+			percentiles.put("samples", sorted.length);
+			percentiles.put("p50", percentile(sorted, 0.5));
+			percentiles.put("p90", percentile(sorted, 0.9));
+			percentiles.put("p99", percentile(sorted, 0.99));
+			percentiles.put("max", sorted.length > 0 ? sorted[sorted.length - 1] : 0L);
+
+			return percentiles;
+		}
+
+		private long percentile(final long[] sorted, final double percentile) {
+
+			if (sorted.length == 0) {
+				return 0L;
+			}
+
+			final int pos = (int)Math.ceil(percentile * sorted.length) - 1;
+
+			return sorted[Math.max(0, Math.min(sorted.length - 1, pos))];
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable, pre-computed render information for a single DOM node.
+ *
+ * A render plan contains everything that {@link org.structr.web.entity.dom.DOMNode}
+ * and {@link org.structr.web.entity.dom.DOMElement} would otherwise read from
+ * the graph on every request: the tag name, the rendering flags, the ordered
+ * list of child nodes and the HTML attributes, with static attributes already
+ * rendered into markup. Only attributes that contain script expressions are
+ * evaluated at render time.
+ *
+ * @author Christian Morgner
+ */
+public class RenderPlan {
+
+	private final List<Attribute> attributes;
+	private final Set<String> dependencies;
+	private final long[] childIds;
+	private final String dataKey;
+	private final String tag;
+	private final boolean hideOnIndex;
+	private final boolean hideOnDetail;
+	private final boolean renderDetails;
+	private final boolean independent;
+	private final boolean dataSource;
+	private final int fragmentCacheSeconds;
+
+	public RenderPlan(final String dataKey, final boolean hideOnIndex, final boolean hideOnDetail, final boolean renderDetails, final Integer fragmentCacheSeconds, final boolean independent, final boolean dataSource) {
+		this(dataKey, hideOnIndex, hideOnDetail, renderDetails, fragmentCacheSeconds, independent, dataSource, null, null, null, null);
+	}
+
+	public RenderPlan(final String dataKey, final boolean hideOnIndex, final boolean hideOnDetail, final boolean renderDetails, final Integer fragmentCacheSeconds, final boolean independent, final boolean dataSource, final String tag, final List<Attribute> attributes, final long[] childIds, final Set<String> dependencies) {
+
+		this.dataKey              = dataKey;
+		this.hideOnIndex          = hideOnIndex;
+		this.hideOnDetail         = hideOnDetail;
+		this.renderDetails        = renderDetails;
+		this.fragmentCacheSeconds = fragmentCacheSeconds != null ? fragmentCacheSeconds : 0;
+		this.independent          = independent;
+		this.dataSource           = dataSource;
+		this.tag                  = tag;
+		this.childIds             = childIds != null ? childIds.clone() : null;
+		this.attributes           = attributes != null ? Collections.unmodifiableList(new ArrayList<>(attributes)) : Collections.<Attribute>emptyList();
+		this.dependencies         = dependencies != null ? Collections.unmodifiableSet(new LinkedHashSet<>(dependencies)) : Collections.<String>emptySet();
+	}
+
+	public String getDataKey() {
+		return dataKey;
+	}
+
+	public boolean hideOnIndex() {
+		return hideOnIndex;
+	}
+
+	public boolean hideOnDetail() {
+		return hideOnDetail;
+	}
+
+	public boolean renderDetails() {
+		return renderDetails;
+	}
+
+	/**
+	 * Returns the number of seconds the rendered output of this node may
+	 * be kept in the {@link OutputCache}, or zero if it is not cached.
+	 *
+	 * @return the fragment cache timeout in seconds
+	 */
+	public int getFragmentCacheSeconds() {
+		return fragmentCacheSeconds;
+	}
+
+	/**
+	 * Returns whether the node is flagged to be rendered independently of
+	 * its siblings, see {@link ParallelRenderer}.
+	 *
+	 * @return whether the node is flagged as independent
+	 */
+	public boolean isIndependent() {
+		return independent;
+	}
+
+	/**
+	 * Returns whether the node has its own data source (REST, Cypher,
+	 * XPath or function query).
+	 *
+	 * @return whether the node has a data source
+	 */
+	public boolean hasDataSource() {
+		return dataSource;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Returns the database ids of the child nodes in rendering order. The
+	 * array is shared by all requests and must not be modified.
+	 *
+	 * @return the child node ids
+	 */
+	public long[] getChildIds() {
+		return childIds;
+	}
+
+	/**
+	 * Returns the UUIDs of other nodes this plan was built from, e.g. the
+	 * shared component whose children are rendered in place of this node's
+	 * children. The plan must be invalidated when one of them is modified.
+	 *
+	 * @return the UUIDs of the nodes this plan depends on
+	 */
+	public Set<String> getDependencies() {
+		return dependencies;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * An HTML attribute of a render plan. Static attributes carry their
+	 * pre-rendered markup, dynamic attributes carry the raw value that
+	 * needs to be evaluated for every request.
+	 */
+	public static class Attribute {
+
+		private final String name;
+		private final Object value;
+		private final String escapedMarkup;
+		private final String rawMarkup;
+		private final boolean custom;
+
+		private Attribute(final String name, final Object value, final boolean custom, final String escapedMarkup, final String rawMarkup) {
+
+			this.name          = name;
+			this.value         = value;
+			this.custom        = custom;
+			this.escapedMarkup = escapedMarkup;
+			this.rawMarkup     = rawMarkup;
+		}
+
+		public static Attribute staticAttribute(final String name, final boolean custom, final String escapedValue, final String rawValue) {
+			return new Attribute(name, rawValue, custom, markup(name, escapedValue), markup(name, rawValue));
+		}
+
+		public static Attribute dynamicAttribute(final String name, final boolean custom, final Object value) {
+			return new Attribute(name, value, custom, null, null);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		/**
+		 * Custom attributes are the arbitrary data-* attributes of a node.
+		 *
+		 * @return whether this is a data-* attribute
+		 */
+		public boolean isCustom() {
+			return custom;
+		}
+
+		public boolean isDynamic() {
+			return escapedMarkup == null;
+		}
+
+		public String getMarkup(final boolean escaped) {
+			return escaped ? escapedMarkup : rawMarkup;
+		}
+
+		private static String markup(final String name, final String value) {
+			return " ".concat(name).concat("=\"").concat(value).concat("\"");
+		}
+	}
+}
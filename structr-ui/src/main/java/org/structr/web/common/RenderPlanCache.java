@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.structr.common.FixedSizeCache;
+import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.CommitListener;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.RelationshipInterface;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.web.entity.dom.DOMNode;
+import org.structr.web.entity.dom.relationship.DOMChildren;
+import org.structr.web.entity.relation.Sync;
+
+/**
+ * Cache for the {@link RenderPlan}s of DOM nodes, keyed by UUID.
+ *
+ * Plans are invalidated by the modification events of all committed
+ * transactions (including the ones that do not send notifications, see
+ * {@link CommitListener}): a modified DOM node drops its own plan and the plans of
+ * all nodes that depend on it (e.g. synced copies of a shared component),
+ * a modified child or sync relationship drops the plans of both end nodes.
+ *
+ * The reverse index of dependencies is pruned when a plan is evicted or
+ * removed, so it never refers to more plans than the cache holds.
+ *
+ * The cache is inactive until {@link #register()} has been called, and it
+ * is bypassed in transactions that contain uncommitted modifications.
+ *
+ * @author Christian Morgner
+ */
+public class RenderPlanCache implements CommitListener {
+
+	public static final String RENDER_PLAN_CACHE_MAX_SIZE              = "RenderPlanCache.maxSize";
+
+	private static final RenderPlanCache instance                      = new RenderPlanCache();
+	private static final ConcurrentMap<String, Set<String>> dependents = new ConcurrentHashMap<>();
+	private static final AtomicLong generation                         = new AtomicLong(0L);
+	private static volatile FixedSizeCache<String, RenderPlan> cache   = null;
+
+	private RenderPlanCache() {}
+
+	/**
+	 * Activates the render plan cache and registers it as a commit
+	 * listener so that it is notified of DOM modifications.
+	 */
+	public static synchronized void register() {
+
+		if (cache == null) {
+
+			final int maxSize = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(RENDER_PLAN_CACHE_MAX_SIZE, "10000"), 10000));
+
+			TransactionCommand.registerCommitListener(instance);
+
+			cache = new FixedSizeCache<String, RenderPlan>(maxSize) {
+
+				@Override
+				protected void onEviction(final String uuid, final RenderPlan plan) {
+					removeDependent(uuid, plan);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Returns the current generation of this cache, which must be passed to
+	 * {@link #put(String, RenderPlan, long)} when a newly created plan is stored.
+	 *
+	 * @return the current generation
+	 */
+	public static long getGeneration() {
+		return generation.get();
+	}
+
+	public static RenderPlan get(final String uuid) {
+
+		final FixedSizeCache<String, RenderPlan> _cache = cache;
+		if (_cache != null && !TransactionCommand.hasModifications()) {
+
+			return _cache.get(uuid);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stores the given plan, unless a DOM modification was committed since
+	 * the given generation, i.e. while the plan was being created.
+	 *
+	 * @param uuid
+	 * @param plan
+	 * @param planGeneration the generation obtained before the plan was created
+	 */
+	public static void put(final String uuid, final RenderPlan plan, final long planGeneration) {
+
+		final FixedSizeCache<String, RenderPlan> _cache = cache;
+		if (_cache != null && !TransactionCommand.hasModifications()) {
+
+			// evictions happen in put() and prune the index under the same lock
+			synchronized (dependents) {
+
+				remove(_cache, uuid);
+
+				for (final String dependency : plan.getDependencies()) {
+
+					Set<String> set = dependents.get(dependency);
+					if (set == null) {
+
+						set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+						dependents.put(dependency, set);
+					}
+
+					set.add(uuid);
+				}
+
+				_cache.put(uuid, plan);
+
+				// discard plan if the DOM was modified in the meantime
+				if (generation.get() != planGeneration) {
+					remove(_cache, uuid);
+				}
+			}
+		}
+	}
+
+	public static void invalidate(final String uuid) {
+
+		final FixedSizeCache<String, RenderPlan> _cache = cache;
+		if (_cache != null && uuid != null) {
+
+			remove(_cache, uuid);
+
+			final Set<String> set = dependents.remove(uuid);
+			if (set != null) {
+
+				for (final String dependent : set) {
+					invalidate(dependent);
+				}
+			}
+		}
+	}
+
+	public static void clear() {
+
+		final FixedSizeCache<String, RenderPlan> _cache = cache;
+		if (_cache != null) {
+
+			generation.incrementAndGet();
+
+			_cache.clear();
+			dependents.clear();
+		}
+	}
+
+	public static Map<String, Object> getStatistics() {
+
+		final FixedSizeCache<String, RenderPlan> _cache = cache;
+		if (_cache != null) {
+
+			final Map<String, Object> stats = _cache.getStatistics();
+			stats.put("generation", generation.get());
+
+			return stats;
+		}
+
+		return null;
+	}
+
+	// ----- private methods -----
+	private static void remove(final FixedSizeCache<String, RenderPlan> _cache, final String uuid) {
+
+		synchronized (dependents) {
+
+			final RenderPlan plan = _cache.remove(uuid);
+			if (plan != null) {
+
+				removeDependent(uuid, plan);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given node from the index entries of the dependencies of
+	 * its plan, and entries that are left empty from the index.
+	 */
+	private static void removeDependent(final String uuid, final RenderPlan plan) {
+
+		synchronized (dependents) {
+
+			for (final String dependency : plan.getDependencies()) {
+
+				final Set<String> set = dependents.get(dependency);
+				if (set != null) {
+
+					set.remove(uuid);
+
+					if (set.isEmpty()) {
+						dependents.remove(dependency);
+					}
+				}
+			}
+		}
+	}
+
+	// ----- interface CommitListener -----
+	@Override
+	public void afterCommit(final List<ModificationEvent> modificationEvents) {
+
+		boolean incremented = false;
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			final GraphObject obj = event.getGraphObject();
+
+			if (event.isNode()) {
+
+				if (obj instanceof DOMNode) {
+
+					if (!incremented) {
+						generation.incrementAndGet();
+						incremented = true;
+					}
+
+					invalidate(event.getUuid());
+				}
+
+			} else if (obj instanceof DOMChildren || obj instanceof Sync) {
+
+				if (!incremented) {
+					generation.incrementAndGet();
+					incremented = true;
+				}
+
+				final RelationshipInterface rel = (RelationshipInterface)obj;
+
+				invalidate(rel.getSourceNodeId());
+				invalidate(rel.getTargetNodeId());
+			}
+		}
+	}
+}
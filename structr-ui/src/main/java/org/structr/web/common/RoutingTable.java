@@ -0,0 +1,635 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.app.App;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.CommitListener;
+import org.structr.core.graph.EntityVersions;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.NodeFactory;
+import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.RelationshipInterface;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.dynamic.File;
+import org.structr.web.entity.Folder;
+import org.structr.web.entity.Linkable;
+import org.structr.web.entity.dom.Page;
+import org.structr.web.entity.relation.FileChildren;
+import org.structr.web.entity.relation.Files;
+import org.structr.web.entity.relation.Folders;
+import org.structr.web.entity.relation.Images;
+
+/**
+ * In-memory routing table that maps request paths, names and UUIDs to the
+ * pages and files that can be served for them.
+ *
+ * The table is built on first use and kept current by the modification
+ * events of all committed transactions. Entries contain the internal node
+ * id, so a lookup does not need any index queries. Every node that is found
+ * is instantiated in the security context of the request and checked
+ * against the requested path, name or UUID, stale entries are repaired on
+ * the fly.
+ *
+ * No transaction is open when the modification events arrive, so modified
+ * pages and files are only marked there and read again by the next lookup.
+ * The table is (re)built by a single thread without blocking commits, other
+ * lookups return no result in the meantime and callers fall back to an
+ * index query. Callers report the result of that query with
+ * {@link #add(Linkable)}.
+ *
+ * @author Christian Morgner
+ */
+public class RoutingTable implements CommitListener, StatisticsRegistry.Source {
+
+	private static final Logger logger                         = Logger.getLogger(RoutingTable.class.getName());
+
+	public static final String ROUTING_TABLE                   = "HtmlServlet.routingTable";
+
+	private static RoutingTable instance                       = null;
+
+	private final Set<String> pending                          = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ReentrantLock buildLock                      = new ReentrantLock();
+	private final AtomicLong generation                        = new AtomicLong(0L);
+	private final AtomicLong rebuilds                          = new AtomicLong(0L);
+	private final AtomicLong repairs                           = new AtomicLong(0L);
+	private final AtomicLong misses                            = new AtomicLong(0L);
+	private final AtomicLong hits                              = new AtomicLong(0L);
+	private volatile Table table                               = new Table();
+	private volatile boolean built                             = false;
+	private boolean enabled                                    = true;
+
+	RoutingTable(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public static synchronized RoutingTable getInstance() {
+
+		if (instance == null) {
+
+			instance = new RoutingTable(Services.parseBoolean(StructrApp.getConfigurationValue(ROUTING_TABLE, "true"), true));
+
+			if (instance.enabled) {
+
+				TransactionCommand.registerCommitListener(instance);
+				StatisticsRegistry.register("routingTable", instance);
+			}
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns whether the routing table can be used in the current
+	 * transaction. The table is bypassed in transactions that contain
+	 * uncommitted modifications.
+	 *
+	 * @return whether the routing table can be used
+	 */
+	public boolean isEnabled() {
+		return enabled && !TransactionCommand.hasModifications();
+	}
+
+	/**
+	 * Returns the pages and files whose path equals the given path and
+	 * which are visible in the given security context.
+	 *
+	 * @param securityContext
+	 * @param path
+	 * @return the pages and files
+	 * @throws FrameworkException
+	 */
+	public List<Linkable> getEntryPointsByPath(final SecurityContext securityContext, final String path) throws FrameworkException {
+		return lookup(securityContext, path, Route.PATH);
+	}
+
+	/**
+	 * Returns the pages and files whose name equals the given name and
+	 * which are visible in the given security context.
+	 *
+	 * @param securityContext
+	 * @param name
+	 * @return the pages and files
+	 * @throws FrameworkException
+	 */
+	public List<Linkable> getEntryPointsByName(final SecurityContext securityContext, final String name) throws FrameworkException {
+		return lookup(securityContext, name, Route.NAME);
+	}
+
+	/**
+	 * Returns the page or file with the given UUID if it is visible in the
+	 * given security context.
+	 *
+	 * @param securityContext
+	 * @param uuid
+	 * @return the page or file, or an empty list
+	 * @throws FrameworkException
+	 */
+	public List<Linkable> getEntryPointsByUuid(final SecurityContext securityContext, final String uuid) throws FrameworkException {
+
+		final List<Linkable> result = new ArrayList<>(1);
+		final Table current         = getTable();
+
+		recordTypeReads();
+
+		if (current != null) {
+
+			final Route route = current.routes.get(uuid);
+			if (route != null) {
+
+				final Linkable node = instantiate(securityContext, route);
+				if (node != null) {
+
+					result.add(node);
+				}
+			}
+		}
+
+		count(result);
+
+		return result;
+	}
+
+	/**
+	 * Returns all pages visible in the given security context, sorted by
+	 * position in ascending order.
+	 *
+	 * @param securityContext
+	 * @return the pages
+	 * @throws FrameworkException
+	 */
+	public List<Page> getPages(final SecurityContext securityContext) throws FrameworkException {
+
+		final List<Route> pageRoutes = new ArrayList<>();
+		final List<Page> pages       = new ArrayList<>();
+		final Table current          = getTable();
+
+		recordTypeReads();
+
+		if (current != null) {
+
+			for (final Route route : current.routes.values()) {
+
+				if (route.page) {
+					pageRoutes.add(route);
+				}
+			}
+		}
+
+		Collections.sort(pageRoutes, new Comparator<Route>() {
+
+			@Override
+			public int compare(final Route o1, final Route o2) {
+
+				// pages without position come last
+				final int p1 = o1.position != null ? o1.position : Integer.MAX_VALUE;
+				final int p2 = o2.position != null ? o2.position : Integer.MAX_VALUE;
+
+				return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
+			}
+		});
+
+		for (final Route route : pageRoutes) {
+
+			final Linkable node = instantiate(securityContext, route);
+			if (node instanceof Page) {
+
+				pages.add((Page)node);
+			}
+		}
+
+		count(pages);
+
+		return pages;
+	}
+
+	/**
+	 * Adds or updates the entry for the given page or file, e.g. after it
+	 * was found with an index query.
+	 *
+	 * @param node the page or file
+	 */
+	public void add(final Linkable node) {
+
+		if (enabled && (node instanceof Page || node instanceof File)) {
+
+			update(node);
+		}
+	}
+
+	/**
+	 * Discards all entries, the table is rebuilt on next use.
+	 */
+	public synchronized void clear() {
+
+		generation.incrementAndGet();
+		built = false;
+		table = new Table();
+
+		// the rebuild reads all pages and files again
+		pending.clear();
+	}
+
+	// ----- interface StatisticsRegistry.Source -----
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("enabled", enabled);
+		stats.put("built", built);
+		stats.put("routes", table.routes.size());
+		stats.put("pending", pending.size());
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		stats.put("repairs", repairs.get());
+		stats.put("rebuilds", rebuilds.get());
+
+		return stats;
+	}
+
+	// ----- interface CommitListener -----
+	@Override
+	public void afterCommit(final List<ModificationEvent> modificationEvents) {
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			final GraphObject obj = event.getGraphObject();
+
+			if (event.isNode()) {
+
+				if (obj instanceof Page || obj instanceof File) {
+
+					// read again on next lookup
+					pending.add(event.getUuid());
+
+				} else if (obj instanceof Folder && !event.isCreated()) {
+
+					// renaming, moving or deleting a folder changes the paths of all files below it
+					clear();
+					return;
+				}
+
+			} else if (obj instanceof Files || obj instanceof Images) {
+
+				// moved file, its path has changed
+				pending.add(((RelationshipInterface)obj).getTargetNodeId());
+
+			} else if (obj instanceof Folders || obj instanceof FileChildren) {
+
+				final String targetId = ((RelationshipInterface)obj).getTargetNodeId();
+				if (obj instanceof FileChildren && table.routes.containsKey(targetId)) {
+
+					// moved file, its path has changed
+					pending.add(targetId);
+
+				} else {
+
+					// moved folder
+					clear();
+					return;
+				}
+			}
+		}
+	}
+
+	// ----- private methods -----
+	private List<Linkable> lookup(final SecurityContext securityContext, final String key, final int keyType) throws FrameworkException {
+
+		final List<Linkable> result = new ArrayList<>();
+		final Table current         = getTable();
+
+		recordTypeReads();
+
+		if (current != null && key != null) {
+
+			final Set<Route> candidates = (keyType == Route.PATH ? current.byPath : current.byName).get(key);
+			if (candidates != null) {
+
+				for (final Route route : candidates.toArray(new Route[0])) {
+
+					final Linkable node = instantiate(securityContext, route);
+					if (node != null) {
+
+						// stale entry? => update route, skip node
+						if (!key.equals(keyType == Route.PATH ? getPath(node) : node.getName())) {
+
+							repairs.incrementAndGet();
+							update(node);
+
+						} else {
+
+							result.add(node);
+						}
+					}
+				}
+			}
+		}
+
+		count(result);
+
+		return result;
+	}
+
+	/**
+	 * Returns the current table, or null if the table is being built by
+	 * another thread.
+	 */
+	private Table getTable() throws FrameworkException {
+
+		if (!built) {
+
+			// only one thread loads all pages and files, lookups in other threads fall back to an index query meanwhile
+			if (!buildLock.tryLock()) {
+				return null;
+			}
+
+			try {
+
+				if (!built) {
+
+					final Table newTable = build();
+					if (!built) {
+
+						// modified while building, use the new table for this lookup only
+						return newTable;
+					}
+				}
+
+			} finally {
+
+				buildLock.unlock();
+			}
+		}
+
+		applyPendingChanges();
+
+		return table;
+	}
+
+	private Table build() throws FrameworkException {
+
+		final long buildGeneration = generation.get();
+		final Table newTable       = new Table();
+		final App app              = StructrApp.getInstance();
+
+		for (final Page page : app.nodeQuery(Page.class).getResult().getResults()) {
+			newTable.put(createRoute(page));
+		}
+
+		for (final File file : app.nodeQuery(File.class).getResult().getResults()) {
+			newTable.put(createRoute(file));
+		}
+
+		rebuilds.incrementAndGet();
+
+		synchronized (this) {
+
+			// a folder may have been modified in the meantime
+			if (generation.get() == buildGeneration) {
+
+				table = newTable;
+				built = true;
+			}
+		}
+
+		return newTable;
+	}
+
+	private void applyPendingChanges() throws FrameworkException {
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		final App app = StructrApp.getInstance();
+
+		for (final String uuid : pending.toArray(new String[0])) {
+
+			if (pending.remove(uuid)) {
+
+				try {
+
+					final GraphObject obj = app.get(uuid);
+					if (obj instanceof Page || obj instanceof File) {
+
+						update((Linkable)obj);
+
+					} else {
+
+						remove(uuid);
+					}
+
+				} catch (FrameworkException fex) {
+
+					pending.add(uuid);
+					throw fex;
+				}
+			}
+		}
+	}
+
+	private Linkable instantiate(final SecurityContext securityContext, final Route route) throws FrameworkException {
+
+		final GraphDatabaseService graphDb = StructrApp.getInstance().getGraphDatabaseService();
+
+		try {
+
+			final NodeInterface node = new NodeFactory<NodeInterface>(securityContext).instantiate(graphDb.getNodeById(route.nodeId), false, false);
+			if (node == null) {
+
+				// not visible in this security context
+				return null;
+			}
+
+			if (route.uuid.equals(node.getUuid()) && node instanceof Linkable) {
+
+				return (Linkable)node;
+			}
+
+		} catch (NotFoundException nfex) {
+			// node was deleted
+		}
+
+		// node was deleted or its id was reused
+		repairs.incrementAndGet();
+		remove(route.uuid);
+
+		return null;
+	}
+
+	private void update(final Linkable node) {
+
+		// read the node outside of the lock
+		final Route route = createRoute(node);
+
+		synchronized (this) {
+			table.put(route);
+		}
+	}
+
+	private synchronized void remove(final String uuid) {
+		table.remove(uuid);
+	}
+
+	private Route createRoute(final Linkable node) {
+		return new Route(node.getNode().getId(), node.getUuid(), node instanceof Page, getPath(node), node.getName(), node instanceof Page ? node.getProperty(Page.position) : null);
+	}
+
+	private String getPath(final Linkable node) {
+
+		try {
+
+			return node.getPath();
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Unable to determine path of {0}: {1}", new Object[] { node.getUuid(), t.getMessage() });
+		}
+
+		return null;
+	}
+
+	private void recordTypeReads() {
+
+		// a new or modified page or file can change the result of a lookup
+		if (EntityVersions.isTracking()) {
+
+			EntityVersions.recordRead(EntityVersions.getTypeKey(Page.class.getSimpleName()));
+			EntityVersions.recordRead(EntityVersions.getTypeKey(File.class.getSimpleName()));
+		}
+	}
+
+	private void count(final List result) {
+
+		if (result.isEmpty()) {
+
+			misses.incrementAndGet();
+
+		} else {
+
+			hits.incrementAndGet();
+		}
+	}
+
+	// ----- nested classes -----
+	private static class Table {
+
+		private final ConcurrentMap<String, Route> routes      = new ConcurrentHashMap<>();
+		private final ConcurrentMap<String, Set<Route>> byPath = new ConcurrentHashMap<>();
+		private final ConcurrentMap<String, Set<Route>> byName = new ConcurrentHashMap<>();
+
+		private void put(final Route route) {
+
+			remove(route.uuid);
+
+			routes.put(route.uuid, route);
+
+			put(byPath, route.path, route);
+			put(byName, route.name, route);
+		}
+
+		private void remove(final String uuid) {
+
+			if (uuid != null) {
+
+				final Route route = routes.remove(uuid);
+				if (route != null) {
+
+					remove(byPath, route.path, route);
+					remove(byName, route.name, route);
+				}
+			}
+		}
+
+		private void put(final Map<String, Set<Route>> index, final String key, final Route route) {
+
+			if (key != null) {
+
+				Set<Route> set = index.get(key);
+				if (set == null) {
+
+					set = Collections.newSetFromMap(new ConcurrentHashMap<Route, Boolean>());
+					index.put(key, set);
+				}
+
+				set.add(route);
+			}
+		}
+
+		private void remove(final Map<String, Set<Route>> index, final String key, final Route route) {
+
+			if (key != null) {
+
+				final Set<Route> set = index.get(key);
+				if (set != null) {
+
+					set.remove(route);
+
+					if (set.isEmpty()) {
+						index.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	private static class Route {
+
+		private static final int PATH = 0;
+		private static final int NAME = 1;
+
+		private Integer position = null;
+		private boolean page     = false;
+		private String path      = null;
+		private String name      = null;
+		private String uuid      = null;
+		private long nodeId      = -1L;
+
+		public Route(final long nodeId, final String uuid, final boolean page, final String path, final String name, final Integer position) {
+
+			this.nodeId   = nodeId;
+			this.uuid     = uuid;
+			this.page     = page;
+			this.path     = path;
+			this.name     = name;
+			this.position = position;
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+
+/**
+ * Render buffer for asynchronous, non-blocking output.
+ *
+ * The render thread encodes its output to UTF-8 into pooled byte buffers.
+ * Full buffers are passed to the servlet container thread through a
+ * bounded ring. If the client reads slower than the page is rendered and
+ * the ring is full, the render thread waits until the client has caught
+ * up (or the write timeout has elapsed). The write listener drains the
+ * ring whenever the output stream is ready, and the render thread resumes
+ * draining when new buffers arrive, so nobody needs to poll.
+ *
+ * @author Christian Morgner
+ */
+public class StreamingRenderBuffer extends AsyncBuffer implements WriteListener {
+
+	private static final Logger logger                  = Logger.getLogger(StreamingRenderBuffer.class.getName());
+	private static final Charset UTF8                   = Charset.forName("utf-8");
+
+	public static final String ASYNC_BUFFER_SIZE        = "HtmlServlet.async.bufferSize";
+	public static final String ASYNC_MAX_BUFFERS        = "HtmlServlet.async.maxBuffers";
+	public static final String ASYNC_POOL_SIZE          = "HtmlServlet.async.poolSize";
+	public static final String ASYNC_WRITE_TIMEOUT      = "HtmlServlet.async.writeTimeout";
+
+	private static final AtomicLong pauses              = new AtomicLong(0L);
+	private static final AtomicLong timeouts            = new AtomicLong(0L);
+	private static ByteBufferPool defaultPool           = null;
+	private static int defaultMaxBuffers                = 0;
+	private static long defaultWriteTimeout             = 0L;
+
+	private final AtomicBoolean draining                = new AtomicBoolean(false);
+	private final AtomicBoolean completed               = new AtomicBoolean(false);
+	private final CharsetEncoder encoder                = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private BlockingQueue<ByteBuffer> ring              = null;
+	private ServletOutputStream out                     = null;
+	private AsyncContext async                          = null;
+	private ByteBufferPool pool                         = null;
+	private ByteBuffer current                          = null;
+	private ByteBuffer written                          = null;
+	private String pending                              = null;
+	private long writeTimeout                           = 0L;
+	private volatile Throwable error                    = null;
+	private volatile boolean finished                   = false;
+	private volatile boolean started                    = false;
+
+	public StreamingRenderBuffer(final AsyncContext async, final ServletOutputStream out) {
+
+		this(async, out, getDefaultPool(), defaultMaxBuffers, defaultWriteTimeout);
+	}
+
+	StreamingRenderBuffer(final AsyncContext async, final ServletOutputStream out, final ByteBufferPool pool, final int maxBuffers, final long writeTimeout) {
+
+		this.ring         = new ArrayBlockingQueue<>(maxBuffers);
+		this.writeTimeout = writeTimeout;
+		this.async        = async;
+		this.pool         = pool;
+		this.out          = out;
+	}
+
+	@Override
+	public AsyncBuffer append(final String s) {
+
+		checkState();
+
+		// a trailing high surrogate of the previous call must be encoded together with its low surrogate
+		final CharBuffer input = CharBuffer.wrap(pending != null ? pending + s : String.valueOf(s));
+		pending = null;
+
+		encode(input, false);
+
+		if (input.hasRemaining()) {
+			pending = input.toString();
+		}
+
+		return this;
+	}
+
+	/**
+	 * Called by the render thread when rendering has finished (or failed).
+	 * Passes the remaining output to the client and completes the request
+	 * once everything is written.
+	 */
+	public void finish() {
+
+		try {
+
+			if (error == null) {
+
+				encode(CharBuffer.wrap(pending != null ? pending : ""), true);
+				pending = null;
+
+				if (current == null) {
+					current = pool.acquire();
+				}
+
+				while (encoder.flush(current).isOverflow()) {
+					push();
+				}
+
+				if (current.position() > 0) {
+
+					push();
+
+				} else {
+
+					pool.release(current);
+					current = null;
+				}
+			}
+
+		} catch (IllegalStateException isex) {
+
+			// client is gone, nothing to do
+			logger.log(Level.FINE, "Unable to finish async output: {0}", isex.getMessage());
+
+		} finally {
+
+			finished = true;
+
+			if (error != null) {
+
+				discard();
+				complete();
+
+			} else {
+
+				drain();
+			}
+		}
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public boolean isCompleted() {
+		return completed.get();
+	}
+
+	// ----- interface WriteListener -----
+	@Override
+	public void onWritePossible() throws IOException {
+
+		started = true;
+		drain();
+	}
+
+	@Override
+	public void onError(final Throwable t) {
+
+		logger.log(Level.FINE, "Error while writing async output: {0}", t.getMessage());
+
+		error = t;
+
+		discard();
+		complete();
+	}
+
+	// ----- public static methods -----
+	public static Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = getDefaultPool().getStatistics();
+
+		stats.put("maxBuffers", defaultMaxBuffers);
+		stats.put("pauses", pauses.get());
+		stats.put("timeouts", timeouts.get());
+
+		return stats;
+	}
+
+	// ----- private methods -----
+	private static synchronized ByteBufferPool getDefaultPool() {
+
+		if (defaultPool == null) {
+
+			final int bufferSize = Math.max(256, Services.parseInt(StructrApp.getConfigurationValue(ASYNC_BUFFER_SIZE, "8192"), 8192));
+			final int poolSize   = Math.max(0, Services.parseInt(StructrApp.getConfigurationValue(ASYNC_POOL_SIZE, "256"), 256));
+
+			defaultMaxBuffers    = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(ASYNC_MAX_BUFFERS, "16"), 16));
+			defaultWriteTimeout  = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(ASYNC_WRITE_TIMEOUT, "60"), 60)) * 1000L;
+			defaultPool          = new ByteBufferPool(bufferSize, poolSize);
+		}
+
+		return defaultPool;
+	}
+
+	private void encode(final CharBuffer input, final boolean endOfInput) {
+
+		while (true) {
+
+			if (current == null) {
+				current = pool.acquire();
+			}
+
+			final CoderResult result = encoder.encode(input, current, endOfInput);
+			if (result.isOverflow()) {
+
+				push();
+
+			} else {
+
+				break;
+			}
+		}
+
+		if (current != null && !current.hasRemaining()) {
+			push();
+		}
+	}
+
+	/**
+	 * Passes the current buffer to the ring, waiting while the ring is full.
+	 */
+	private void push() {
+
+		final ByteBuffer buffer = current;
+		current = null;
+
+		buffer.flip();
+
+		try {
+
+			if (!ring.offer(buffer)) {
+
+				// client is slower than the renderer, pause until buffers were written
+				final long deadline = System.currentTimeMillis() + writeTimeout;
+
+				pauses.incrementAndGet();
+
+				while (!ring.offer(buffer, 100, TimeUnit.MILLISECONDS)) {
+
+					checkState();
+
+					if (System.currentTimeMillis() > deadline) {
+
+						timeouts.incrementAndGet();
+						error = new IOException("Client did not read output within " + writeTimeout + " ms");
+
+						checkState();
+					}
+				}
+			}
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+			error = iex;
+
+			pool.release(buffer);
+			checkState();
+		}
+
+		drain();
+	}
+
+	/**
+	 * Writes buffers from the ring as long as the output stream is ready.
+	 * Called from the container thread (onWritePossible) and from the
+	 * render thread (after new buffers were added); only one thread drains
+	 * at a time.
+	 */
+	private void drain() {
+
+		if (!started) {
+			return;
+		}
+
+		do {
+
+			if (!draining.compareAndSet(false, true)) {
+
+				// the draining thread will see the new buffers
+				return;
+			}
+
+			try {
+
+				while (true) {
+
+					if (error != null || !out.isReady()) {
+
+						// the container will call onWritePossible when the client is ready again
+						return;
+					}
+
+					// the container may write asynchronously from our array, so a buffer
+					// can only be reused once the stream is ready again
+					if (written != null) {
+
+						pool.release(written);
+						written = null;
+					}
+
+					final ByteBuffer buffer = ring.poll();
+					if (buffer == null) {
+
+						if (finished) {
+							complete();
+						}
+
+						break;
+					}
+
+					out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+					written = buffer;
+				}
+
+			} catch (IOException ioex) {
+
+				onError(ioex);
+				return;
+
+			} finally {
+
+				draining.set(false);
+			}
+
+			// check for buffers or a finish that arrived while this thread was draining
+
+		} while (!ring.isEmpty() || (finished && !completed.get()));
+	}
+
+	private void complete() {
+
+		if (completed.compareAndSet(false, true) && async != null) {
+
+			try {
+
+				async.complete();
+
+			} catch (Throwable t) {
+
+				logger.log(Level.FINE, "Unable to complete async request: {0}", t.getMessage());
+			}
+		}
+	}
+
+	private void discard() {
+
+		ByteBuffer buffer = ring.poll();
+		while (buffer != null) {
+
+			pool.release(buffer);
+			buffer = ring.poll();
+		}
+	}
+
+	private void checkState() {
+
+		if (error != null) {
+			throw new IllegalStateException("Unable to write async output", error);
+		}
+	}
+}
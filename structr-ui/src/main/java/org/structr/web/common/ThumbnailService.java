@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
+import org.structr.common.ThumbnailParameters;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.TransactionSource;
+import org.structr.core.app.App;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.Tx;
+import org.structr.web.entity.FileBase;
+import org.structr.web.entity.Image;
+import org.structr.web.property.ThumbnailProperty;
+
+/**
+ * Generates thumbnails of images in the background.
+ *
+ * Thumbnails are generated by a bounded pool of worker threads, each
+ * thumbnail in its own transaction. Concurrent requests for the same
+ * thumbnail (image and parameters) are merged while generation is queued
+ * or running. Thumbnail properties that are read before their thumbnail
+ * exists return the original image until the thumbnail has been stored.
+ *
+ * The thumbnails of the thumbnail properties of {@link Image} are
+ * requested as soon as the content of an image is committed, so they
+ * usually exist when an image is displayed for the first time.
+ *
+ * @author Christian Morgner
+ */
+public class ThumbnailService implements StructrTransactionListener, StatisticsRegistry.Source {
+
+	private static final Logger logger                  = Logger.getLogger(ThumbnailService.class.getName());
+
+	public static final String THUMBNAILS_ASYNC         = "ThumbnailService.async";
+	public static final String THUMBNAILS_THREADS       = "ThumbnailService.threads";
+	public static final String THUMBNAILS_QUEUE_SIZE    = "ThumbnailService.queueSize";
+
+	private static ThumbnailService instance            = null;
+
+	private final Map<String, Boolean> inFlight         = new ConcurrentHashMap<>();
+	private final AtomicLong requested                  = new AtomicLong(0L);
+	private final AtomicLong merged                     = new AtomicLong(0L);
+	private final AtomicLong generated                  = new AtomicLong(0L);
+	private final AtomicLong rejected                   = new AtomicLong(0L);
+	private final AtomicLong failed                     = new AtomicLong(0L);
+	private ThreadPoolExecutor executor                 = null;
+	private boolean enabled                             = false;
+
+	ThumbnailService(final boolean enabled, final int threads, final int queueSize) {
+
+		this.enabled = enabled;
+
+		if (enabled) {
+
+			this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger(0);
+
+				@Override
+				public Thread newThread(final Runnable r) {
+
+					final Thread thread = new Thread(r, "ThumbnailThread-" + count.incrementAndGet());
+					thread.setPriority(Thread.MIN_PRIORITY);
+					thread.setDaemon(true);
+
+					return thread;
+				}
+
+			}, new ThreadPoolExecutor.DiscardPolicy() {
+
+				@Override
+				public void rejectedExecution(final Runnable r, final ThreadPoolExecutor e) {
+
+					// queue is full, the thumbnail will be requested again when it is read
+					rejected.incrementAndGet();
+
+					if (r instanceof Job) {
+						inFlight.remove(((Job)r).key);
+					}
+				}
+			});
+
+			executor.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	public static synchronized ThumbnailService getInstance() {
+
+		if (instance == null) {
+
+			final boolean enabled = Services.parseBoolean(StructrApp.getConfigurationValue(THUMBNAILS_ASYNC, "true"), true);
+			final int threads     = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(THUMBNAILS_THREADS, "2"), 2));
+			final int queueSize   = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(THUMBNAILS_QUEUE_SIZE, "1000"), 1000));
+
+			instance = new ThumbnailService(enabled, threads, queueSize);
+
+			if (enabled) {
+
+				TransactionCommand.registerTransactionListener(instance);
+				StatisticsRegistry.register("thumbnailService", instance);
+			}
+		}
+
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the thumbnail of the given image with the given parameters.
+	 *
+	 * If the thumbnail does not exist yet (or is outdated), its generation
+	 * is requested and the original image is returned. Thumbnails are
+	 * generated synchronously if the service is disabled or if the current
+	 * transaction has uncommitted changes, because the worker threads
+	 * would not see them.
+	 *
+	 * @param image
+	 * @param parameters
+	 * @return the thumbnail, or the original image
+	 */
+	public Image getThumbnail(final Image image, final ThumbnailParameters parameters) {
+
+		if (!enabled || TransactionCommand.hasModifications()) {
+			return image.getScaledImage(parameters.getMaxWidth(), parameters.getMaxHeight(), parameters.getCropToFit());
+		}
+
+		final Image thumbnail = image.getExistingScaledImage(parameters.getMaxWidth(), parameters.getMaxHeight(), parameters.getCropToFit());
+		if (thumbnail != null) {
+
+			return thumbnail;
+		}
+
+		request(image.getUuid(), parameters);
+
+		return image;
+	}
+
+	/**
+	 * Requests the generation of all thumbnails of the thumbnail properties
+	 * of {@link Image} for the images with the given UUIDs. Must be called
+	 * after the images have been committed.
+	 *
+	 * @param uuids
+	 */
+	public void generate(final Collection<String> uuids) {
+
+		if (enabled) {
+
+			for (final String uuid : uuids) {
+
+				for (final ThumbnailParameters parameters : getDefaultParameters()) {
+
+					request(uuid, parameters);
+				}
+			}
+		}
+	}
+
+	// ----- interface StructrTransactionListener -----
+	@Override
+	public void beforeCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) throws FrameworkException {
+	}
+
+	@Override
+	public void afterCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) {
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			final GraphObject obj = event.getGraphObject();
+
+			if (event.isNode() && !event.isDeleted() && obj instanceof Image && !Boolean.TRUE.equals(obj.getProperty(Image.isThumbnail))) {
+
+				// new content was stored
+				if (event.getModifiedProperties().containsKey(FileBase.contentHash) || event.getNewProperties().containsKey(FileBase.contentHash)) {
+
+					generate(Arrays.asList(event.getUuid()));
+				}
+			}
+		}
+	}
+
+	// ----- interface StatisticsRegistry.Source -----
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("enabled", enabled);
+		stats.put("requested", requested.get());
+		stats.put("merged", merged.get());
+		stats.put("generated", generated.get());
+		stats.put("rejected", rejected.get());
+		stats.put("failed", failed.get());
+		stats.put("inFlight", inFlight.size());
+
+		if (executor != null) {
+
+			stats.put("activeThreads", executor.getActiveCount());
+			stats.put("queueDepth", executor.getQueue().size());
+		}
+
+		return stats;
+	}
+
+	// ----- private methods -----
+	private void request(final String uuid, final ThumbnailParameters parameters) {
+
+		final String key = uuid + ":" + parameters.getMaxWidth() + "x" + parameters.getMaxHeight() + (parameters.getCropToFit() ? ":crop" : "");
+
+		requested.incrementAndGet();
+
+		if (inFlight.put(key, Boolean.TRUE) == null) {
+
+			executor.execute(new Job(key, uuid, parameters));
+
+		} else {
+
+			merged.incrementAndGet();
+		}
+	}
+
+	private static List<ThumbnailParameters> getDefaultParameters() {
+
+		return Arrays.asList(
+			((ThumbnailProperty)Image.tnSmall).getThumbnailParameters(),
+			((ThumbnailProperty)Image.tnMid).getThumbnailParameters()
+		);
+	}
+
+	// ----- nested classes -----
+	private class Job implements Runnable {
+
+		private ThumbnailParameters parameters = null;
+		private String uuid                    = null;
+		private String key                     = null;
+
+		public Job(final String key, final String uuid, final ThumbnailParameters parameters) {
+
+			this.parameters = parameters;
+			this.uuid       = uuid;
+			this.key        = key;
+		}
+
+		@Override
+		public void run() {
+
+			final App app = StructrApp.getInstance();
+
+			try (final Tx tx = app.tx()) {
+
+				final GraphObject obj = app.get(uuid);
+				if (obj instanceof Image) {
+
+					final Image image = (Image)obj;
+
+					if (image.getExistingScaledImage(parameters.getMaxWidth(), parameters.getMaxHeight(), parameters.getCropToFit()) == null) {
+
+						if (image.getScaledImage(parameters.getMaxWidth(), parameters.getMaxHeight(), parameters.getCropToFit()) != null) {
+							generated.incrementAndGet();
+						}
+					}
+				}
+
+				tx.success();
+
+			} catch (Throwable t) {
+
+				failed.incrementAndGet();
+				logger.log(Level.WARNING, "Unable to create thumbnail for image {0}: {1}", new Object[] { uuid, t.getMessage() });
+
+			} finally {
+
+				inFlight.remove(key);
+			}
+		}
+	}
+}
@@ -19,6 +19,7 @@
 package org.structr.web.converter;
 
 import org.structr.common.ThumbnailParameters;
+import org.structr.web.common.ThumbnailService;
 import org.structr.web.entity.Image;
 
 //~--- JDK imports ------------------------------------------------------------
@@ -63,6 +64,7 @@ public class ThumbnailConverter extends PropertyConverter {
 			return null;
 		}
 		
-		return ((Image) currentObject).getScaledImage(parameters.getMaxWidth(), parameters.getMaxHeight(), parameters.getCropToFit());
+		// returns the original image while the thumbnail is being generated
+		return ThumbnailService.getInstance().getThumbnail((Image) currentObject, parameters);
 	}
 }
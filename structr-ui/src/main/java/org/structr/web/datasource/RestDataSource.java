@@ -19,33 +19,33 @@
 package org.structr.web.datasource;
 
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletRequestWrapper;
-import org.apache.commons.collections.iterators.IteratorEnumeration;
 import org.apache.commons.lang3.StringUtils;
+import org.structr.common.FixedSizeCache;
 import org.structr.common.PagingHelper;
 import org.structr.common.PropertyView;
 import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.Result;
 import org.structr.core.Value;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.EntityVersions;
 import org.structr.core.graph.NodeFactory;
+import org.structr.core.graph.TransactionCommand;
 import org.structr.core.property.PropertyKey;
 import org.structr.rest.ResourceProvider;
 import org.structr.rest.exception.IllegalPathException;
 import org.structr.rest.exception.NotFoundException;
 import org.structr.rest.resource.Resource;
+import org.structr.rest.resource.TypeResource;
 import org.structr.rest.servlet.JsonRestServlet;
 import org.structr.rest.servlet.ResourceHelper;
 import org.structr.web.common.GraphDataSource;
@@ -56,30 +56,56 @@ import org.structr.web.entity.dom.DOMNode;
 /**
  * List data source equivalent to a rest resource.
  *
- * TODO: This method uses code from the {@link JsonRestServlet} which should be
- * encapsulated and re-used here
+ * REST queries are compiled once per query template (see {@link RestQuery})
+ * and executed directly on a {@link TypeResource} if their path consists of
+ * a single type name. Other queries are resolved with the resource chain of
+ * the {@link JsonRestServlet}. Results are shared between all elements that
+ * use the same query in a single render.
  *
  */
 public class RestDataSource implements GraphDataSource<List<GraphObject>> {
 
-	private static final Logger logger = Logger.getLogger(RestDataSource.class.getName());
+	private static final Logger logger                              = Logger.getLogger(RestDataSource.class.getName());
+	private static final FixedSizeCache<String, RestQuery> queryCache = new FixedSizeCache<>(1000);
+
+	static {
+
+		StatisticsRegistry.register("restQueryCache", new StatisticsRegistry.Source() {
+
+			@Override
+			public Map<String, Object> getStatistics() {
+				return queryCache.getStatistics();
+			}
+		});
+	}
 
 	@Override
 	public List<GraphObject> getData(final RenderContext renderContext, AbstractNode referenceNode) throws FrameworkException {
 
-		final String restQuery = ((DOMNode) referenceNode).getPropertyWithVariableReplacement(renderContext, DOMNode.restQuery);
+		final String restQuery = referenceNode.getProperty(DOMNode.restQuery);
 		if (restQuery == null || restQuery.isEmpty()) {
 			return Collections.EMPTY_LIST;
 		}
 
-		return getData(renderContext, restQuery);
+		RestQuery query = queryCache.get(restQuery);
+		if (query == null) {
+
+			query = RestQuery.compile(restQuery, true);
+			queryCache.put(restQuery, query);
+		}
+
+		return getData(renderContext, referenceNode, query);
 	}
 
 	// FIXME: this method is needed by the websocket search command because there is no reference node for the above method
 	public List<GraphObject> getData(final RenderContext renderContext, final String restQuery) throws FrameworkException {
+		return getData(renderContext, null, RestQuery.compile(restQuery, false));
+	}
+
+	// ----- private methods -----
+	private List<GraphObject> getData(final RenderContext renderContext, final GraphObject entity, final RestQuery query) throws FrameworkException {
 
-		final Map<Pattern, Class<? extends Resource>> resourceMap = new LinkedHashMap<>();
-		final SecurityContext securityContext                     = renderContext.getSecurityContext();
+		final SecurityContext securityContext = renderContext.getSecurityContext();
 
 		ResourceProvider resourceProvider = renderContext.getResourceProvider();
 		if (resourceProvider == null) {
@@ -91,60 +117,56 @@ public class RestDataSource implements GraphDataSource<List<GraphObject>> {
 			}
 		}
 
-		// inject resources
-		resourceMap.putAll(resourceProvider.getResources());
-
-		Value<String> propertyView = new ThreadLocalPropertyView();
-		propertyView.set(securityContext, PropertyView.Ui);
-
 		HttpServletRequest request = securityContext.getRequest();
 		if (request == null) {
 			request = renderContext.getRequest();
 		}
-		
-		// initialize variables
-		// mimic HTTP request
-		final HttpServletRequest wrappedRequest = new HttpServletRequestWrapper(request) {
 
-			@Override
-			public Enumeration<String> getParameterNames() {
-				return new IteratorEnumeration(getParameterMap().keySet().iterator());
-			}
+		// evaluate expressions in the query
+		final RestQuery.BoundRequest wrappedRequest = query.bind(renderContext, entity, request);
+		final String sharedResultKey                = RestDataSource.class.getSimpleName().concat(":").concat(wrappedRequest.getQuery());
 
-			@Override
-			public String getParameter(String key) {
-				String[] p = getParameterMap().get(key);
-				return p != null ? p[0] : null;
-			}
+		// share results between elements that use the same query, unless
+		// the current transaction has changed data since the query was run
+		final boolean share = !TransactionCommand.hasModifications();
+		if (share) {
 
-			@Override
-			public Map<String, String[]> getParameterMap() {
-				String[] parts = StringUtils.split(getQueryString(), "&");
-				Map<String, String[]> parameterMap = new HashMap();
-				for (String p : parts) {
-					String[] kv = StringUtils.split(p, "=");
-					if (kv.length > 1) {
-						parameterMap.put(kv[0], new String[]{kv[1]});
-					}
-				}
-				return parameterMap;
-			}
+			final SharedResult sharedResult = (SharedResult)renderContext.getSharedData(sharedResultKey);
+			if (sharedResult != null) {
 
-			@Override
-			public String getQueryString() {
-				return StringUtils.substringAfter(restQuery, "?");
-			}
+				EntityVersions.recordReads(sharedResult.reads);
 
-			@Override
-			public String getPathInfo() {
-				return StringUtils.substringBefore(restQuery, "?");
+				return setResult(renderContext, sharedResult.result);
 			}
+		}
 
-			@Override
-			public StringBuffer getRequestURL() {
-				return new StringBuffer(restQuery);
+		final Set<String> previousReads = EntityVersions.isTracking() ? EntityVersions.startTracking() : null;
+		final Result result             = doGet(securityContext, resourceProvider, wrappedRequest, query);
+
+		if (previousReads != null) {
+
+			final Set<String> reads = EntityVersions.stopTracking(previousReads);
+
+			if (share && result != null) {
+				renderContext.putSharedData(sharedResultKey, new SharedResult(result, reads));
 			}
-		};
+
+		} else if (share && result != null) {
+
+			renderContext.putSharedData(sharedResultKey, new SharedResult(result, null));
+		}
+
+		if (result == null) {
+			return Collections.EMPTY_LIST;
+		}
+
+		return setResult(renderContext, result);
+	}
+
+	private Result doGet(final SecurityContext securityContext, final ResourceProvider resourceProvider, final RestQuery.BoundRequest wrappedRequest, final RestQuery query) throws FrameworkException {
+
+		Value<String> propertyView = new ThreadLocalPropertyView();
+		propertyView.set(securityContext, PropertyView.Ui);
 
 		// store original request
 		final HttpServletRequest origRequest = securityContext.getRequest();
@@ -152,24 +174,24 @@ public class RestDataSource implements GraphDataSource<List<GraphObject>> {
 		// update request in security context
 		securityContext.setRequest(wrappedRequest);
 
-		//HttpServletResponse response = renderContext.getResponse();
 		Resource resource = null;
 		try {
 
-			resource = ResourceHelper.applyViewTransformation(wrappedRequest, securityContext, ResourceHelper.optimizeNestedResourceChain(ResourceHelper.parsePath(securityContext, wrappedRequest, resourceMap, propertyView)), propertyView);
+			resource = ResourceHelper.applyViewTransformation(wrappedRequest, securityContext, getResource(securityContext, resourceProvider, wrappedRequest, query, propertyView), propertyView);
 
 		} catch (IllegalPathException | NotFoundException e) {
 
-			logger.log(Level.WARNING, "Illegal path for REST query: {0}", restQuery);
+			logger.log(Level.WARNING, "Illegal path for REST query: {0}", query.getSource());
 
-		}
+		} finally {
 
-		// reset request to old context
-		securityContext.setRequest(origRequest);
+			// reset request to old context
+			securityContext.setRequest(origRequest);
+		}
 
 		if (resource == null) {
 
-			return Collections.EMPTY_LIST;
+			return null;
 
 		}
 
@@ -207,7 +229,7 @@ public class RestDataSource implements GraphDataSource<List<GraphObject>> {
 			result = resource.doGet(sortKey, sortDescending, pageSize, page, offsetId);
 
 		} catch (NotFoundException nfe) {
-			logger.log(Level.WARNING, "No result from internal REST query: {0}", restQuery);
+			logger.log(Level.WARNING, "No result from internal REST query: {0}", query.getSource());
 		}
 
 
@@ -217,6 +239,42 @@ public class RestDataSource implements GraphDataSource<List<GraphObject>> {
 		//Integer rawResultCount = (Integer) Services.getAttribute(NodeFactory.RAW_RESULT_COUNT + Thread.currentThread().getId());
 		PagingHelper.addPagingParameter(result, pageSize, page);
 
+		return result;
+
+	}
+
+	/**
+	 * Returns the resource for the given request. Queries whose path is a
+	 * single type name are configured on a {@link TypeResource} directly,
+	 * all other queries are parsed like a REST request. Whether a query can
+	 * be executed directly is determined once per query by parsing it.
+	 */
+	private Resource getResource(final SecurityContext securityContext, final ResourceProvider resourceProvider, final RestQuery.BoundRequest wrappedRequest, final RestQuery query, final Value<String> propertyView) throws FrameworkException {
+
+		final Class providerType = resourceProvider.getClass();
+		final Boolean direct     = query.isDirect(providerType);
+
+		if (Boolean.TRUE.equals(direct)) {
+
+			final TypeResource typeResource = new TypeResource();
+			typeResource.setSecurityContext(securityContext);
+			typeResource.checkAndConfigure(StringUtils.strip(wrappedRequest.getPathInfo(), "/"), securityContext, wrappedRequest);
+			typeResource.configurePropertyView(propertyView);
+
+			return typeResource;
+		}
+
+		final List<Resource> resourceChain = ResourceHelper.parsePath(securityContext, wrappedRequest, resourceProvider.getResources(), propertyView);
+
+		if (direct == null) {
+			query.setDirect(providerType, resourceChain.size() == 1 && TypeResource.class.equals(resourceChain.get(0).getClass()));
+		}
+
+		return ResourceHelper.optimizeNestedResourceChain(resourceChain);
+	}
+
+	private List<GraphObject> setResult(final RenderContext renderContext, final Result result) {
+
 		List<GraphObject> res = result.getResults();
 
 		if (renderContext != null) {
@@ -224,7 +282,6 @@ public class RestDataSource implements GraphDataSource<List<GraphObject>> {
 		}
 
 		return res != null ? res : Collections.EMPTY_LIST;
-
 	}
 
 	/**
@@ -250,6 +307,18 @@ public class RestDataSource implements GraphDataSource<List<GraphObject>> {
 		return defaultValue;
 	}
 
+	private static class SharedResult {
+
+		private Set<String> reads = null;
+		private Result result     = null;
+
+		public SharedResult(final Result result, final Set<String> reads) {
+
+			this.result = result;
+			this.reads  = reads;
+		}
+	}
+
 	private static class ThreadLocalPropertyView extends ThreadLocal<String> implements Value<String> {
 
 		@Override
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.datasource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import org.apache.commons.collections.iterators.IteratorEnumeration;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.script.Scripting;
+import org.structr.core.script.ScriptTemplate;
+import org.structr.schema.action.ActionContext;
+
+/**
+ * A REST query string like <code>/Folder?name=${name}&amp;sort=name</code>,
+ * split into its path and its request parameters once.
+ *
+ * The path and the parameter values of a compiled query are slots that
+ * may contain script expressions. Binding a query to a render context
+ * evaluates only the slots that contain expressions and returns a request
+ * with the resulting path, query string and parameter map, so the query
+ * string does not need to be parsed again for every render.
+ *
+ * Since the query is split before expressions are evaluated, the results
+ * of expressions are never split into several parameters: a value like
+ * <code>a=${value}</code> yields a single parameter even if the value
+ * contains <code>&amp;</code> or <code>=</code>. Only the first
+ * <code>=</code> of a parameter separates its name from its value, so
+ * <code>a=b=c</code> yields the value <code>b=c</code>. (Before queries
+ * were compiled, the query string was split after evaluation, so the
+ * value was truncated to <code>b</code>.) Parameters with an empty name
+ * or value are ignored.
+ *
+ * @author Christian Morgner
+ */
+public class RestQuery {
+
+	private final List<Parameter> parameters = new ArrayList<>();
+	private String source                    = null;
+	private Slot path                        = null;
+	private Boolean direct                   = null;
+	private Class providerType               = null;
+
+	private RestQuery(final String source) {
+		this.source = source;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns whether this query can be executed directly on a type
+	 * resource with the given resource provider, or null if that is not
+	 * known yet.
+	 *
+	 * @param providerType the type of the resource provider
+	 * @return whether this query can be executed directly, or null
+	 */
+	public synchronized Boolean isDirect(final Class providerType) {
+
+		if (providerType.equals(this.providerType)) {
+			return direct;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Remembers whether this query can be executed directly on a type
+	 * resource with the given resource provider. Only queries with a static
+	 * path can be executed directly.
+	 *
+	 * @param providerType the type of the resource provider
+	 * @param direct whether this query can be executed directly
+	 */
+	public synchronized void setDirect(final Class providerType, final boolean direct) {
+
+		this.providerType = providerType;
+		this.direct       = direct && !path.hasExpressions();
+	}
+
+	/**
+	 * Evaluates the slots of this query and returns a request that
+	 * represents the result.
+	 *
+	 * @param actionContext the action context to evaluate expressions in
+	 * @param entity the entity to evaluate expressions with
+	 * @param request the request to wrap
+	 * @return the bound request
+	 * @throws FrameworkException
+	 */
+	public BoundRequest bind(final ActionContext actionContext, final GraphObject entity, final HttpServletRequest request) throws FrameworkException {
+
+		final Map<String, String[]> parameterMap = new LinkedHashMap<>();
+		final StringBuilder queryString          = new StringBuilder();
+
+		for (final Parameter parameter : parameters) {
+
+			final String name  = parameter.name.resolve(actionContext, entity);
+			final String value = parameter.value.resolve(actionContext, entity);
+
+			// parameters without a name or value are ignored
+			if (!name.isEmpty() && !value.isEmpty()) {
+
+				parameterMap.put(name, new String[] { value });
+
+				if (queryString.length() > 0) {
+					queryString.append("&");
+				}
+
+				queryString.append(name).append("=").append(value);
+			}
+		}
+
+		return new BoundRequest(request, path.resolve(actionContext, entity), queryString.toString(), Collections.unmodifiableMap(parameterMap));
+	}
+
+	/**
+	 * Compiles the given query. If withExpressions is false, the query is
+	 * treated as literal text, even if it contains script expressions.
+	 *
+	 * @param source the query
+	 * @param withExpressions whether script expressions are evaluated
+	 * @return the compiled query
+	 */
+	public static RestQuery compile(final String source, final boolean withExpressions) {
+
+		final List<ScriptTemplate.Segment> segments = withExpressions ? ScriptTemplate.compile(source).getSegments() : Collections.singletonList(new ScriptTemplate.Segment(source, false));
+		final RestQuery query                       = new RestQuery(source);
+		StringBuilder current                       = new StringBuilder();
+		Slot name                                   = null;
+		boolean hasExpressions                      = false;
+		boolean inPath                              = true;
+
+		for (final ScriptTemplate.Segment segment : segments) {
+
+			final String text = segment.getText();
+
+			if (segment.isExpression()) {
+
+				current.append(text);
+				hasExpressions = true;
+
+				continue;
+			}
+
+			for (int i=0; i<text.length(); i++) {
+
+				final char c = text.charAt(i);
+
+				if (inPath && c == '?') {
+
+					query.path     = new Slot(current.toString(), hasExpressions);
+					inPath         = false;
+					current        = new StringBuilder();
+					hasExpressions = false;
+
+				} else if (!inPath && c == '&') {
+
+					query.addParameter(name, new Slot(current.toString(), hasExpressions));
+
+					name           = null;
+					current        = new StringBuilder();
+					hasExpressions = false;
+
+				} else if (!inPath && c == '=' && name == null) {
+
+					name           = new Slot(current.toString(), hasExpressions);
+					current        = new StringBuilder();
+					hasExpressions = false;
+
+				} else {
+
+					current.append(c);
+				}
+			}
+		}
+
+		if (inPath) {
+
+			query.path = new Slot(current.toString(), hasExpressions);
+
+		} else {
+
+			query.addParameter(name, new Slot(current.toString(), hasExpressions));
+		}
+
+		return query;
+	}
+
+	// ----- private methods -----
+	private void addParameter(final Slot name, final Slot value) {
+
+		// parameters without a value are ignored
+		if (name != null) {
+			parameters.add(new Parameter(name, value));
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * A part of a query that may contain script expressions.
+	 */
+	private static class Slot {
+
+		private boolean hasExpressions = false;
+		private String source          = null;
+
+		public Slot(final String source, final boolean hasExpressions) {
+
+			this.source         = source;
+			this.hasExpressions = hasExpressions;
+		}
+
+		public boolean hasExpressions() {
+			return hasExpressions;
+		}
+
+		public String resolve(final ActionContext actionContext, final GraphObject entity) throws FrameworkException {
+
+			if (hasExpressions) {
+
+				final String value = Scripting.replaceVariables(actionContext, entity, source);
+
+				return value != null ? value : "";
+			}
+
+			return source;
+		}
+	}
+
+	private static class Parameter {
+
+		private Slot value = null;
+		private Slot name  = null;
+
+		public Parameter(final Slot name, final Slot value) {
+
+			this.name  = name;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A request that represents a bound query, with the path, query string
+	 * and parameters of the query instead of the ones of the wrapped request.
+	 */
+	public static class BoundRequest extends HttpServletRequestWrapper {
+
+		private Map<String, String[]> parameterMap = null;
+		private String queryString                 = null;
+		private String path                        = null;
+
+		public BoundRequest(final HttpServletRequest request, final String path, final String queryString, final Map<String, String[]> parameterMap) {
+
+			super(request);
+
+			this.path         = path;
+			this.queryString  = queryString;
+			this.parameterMap = parameterMap;
+		}
+
+		/**
+		 * Returns the path and query string of this request, which identify
+		 * the result of the query for a given user.
+		 *
+		 * @return the path and query string
+		 */
+		public String getQuery() {
+			return queryString.isEmpty() ? path : path.concat("?").concat(queryString);
+		}
+
+		@Override
+		public Enumeration<String> getParameterNames() {
+			return new IteratorEnumeration(parameterMap.keySet().iterator());
+		}
+
+		@Override
+		public String getParameter(final String key) {
+
+			final String[] values = parameterMap.get(key);
+
+			return values != null ? values[0] : null;
+		}
+
+		@Override
+		public String[] getParameterValues(final String key) {
+			return parameterMap.get(key);
+		}
+
+		@Override
+		public Map<String, String[]> getParameterMap() {
+			return parameterMap;
+		}
+
+		@Override
+		public String getQueryString() {
+			return queryString;
+		}
+
+		@Override
+		public String getPathInfo() {
+			return path;
+		}
+
+		@Override
+		public StringBuffer getRequestURL() {
+			return new StringBuffer(getQuery());
+		}
+	}
+}
@@ -32,6 +32,8 @@ import org.structr.core.property.EndNodes;
 import org.structr.core.property.EntityIdProperty;
 import org.structr.core.property.Property;
 import org.structr.core.property.StartNode;
+import org.structr.core.property.StringProperty;
+import org.structr.web.common.FileHelper;
 import org.structr.web.entity.relation.FileChildren;
 import org.structr.web.entity.relation.FileSiblings;
 import org.structr.web.entity.relation.Folders;
@@ -54,6 +56,7 @@ public class AbstractFile extends LinkedTreeNode<FileChildren, FileSiblings, Abs
 	public static final Property<String> parentId              = new EntityIdProperty("parentId", parent);
 
 	public static final Property<Boolean> hasParent            = new BooleanProperty("hasParent").indexed();
+	public static final Property<String> path                  = new StringProperty("path").indexed().readOnly();
 
 	@Override
 	public boolean isValid(ErrorBuffer errorBuffer) {
@@ -65,6 +68,8 @@ public class AbstractFile extends LinkedTreeNode<FileChildren, FileSiblings, Abs
 
 		setProperty(hasParent, getProperty(parentId) != null);
 
+		FileHelper.updatePath(this);
+
 		return super.onCreation(securityContext, errorBuffer);
 	}
 
@@ -73,9 +78,30 @@ public class AbstractFile extends LinkedTreeNode<FileChildren, FileSiblings, Abs
 
 		setProperty(hasParent, getProperty(parentId) != null);
 
+		FileHelper.updatePath(this);
+
 		return super.onCreation(securityContext, errorBuffer);
 	}
 
+	/**
+	 * Returns the absolute path of this file or folder. The path is stored
+	 * when the file is created, renamed or moved, files without a stored
+	 * path (e.g. in an uncommitted transaction) compute it from their
+	 * ancestors.
+	 *
+	 * @return the absolute path
+	 */
+	public String getPath() {
+
+		final String storedPath = getProperty(path);
+		if (storedPath != null) {
+
+			return storedPath;
+		}
+
+		return FileHelper.getFolderPath(this);
+	}
+
 	@Override
 	public Class<FileChildren> getChildLinkType() {
 		return FileChildren.class;
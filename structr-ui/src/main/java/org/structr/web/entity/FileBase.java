@@ -20,7 +20,7 @@ package org.structr.web.entity;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -46,11 +46,11 @@ import org.structr.core.property.IntProperty;
 import org.structr.core.property.LongProperty;
 import org.structr.core.property.Property;
 import org.structr.core.property.StringProperty;
+import org.structr.web.common.BlobStore;
 import org.structr.web.common.FileHelper;
 import org.structr.web.common.ImageHelper;
 import static org.structr.web.entity.AbstractFile.parent;
 import org.structr.web.entity.relation.Folders;
-import org.structr.web.property.PathProperty;
 
 /**
  *
@@ -65,13 +65,13 @@ public class FileBase extends AbstractFile implements Linkable {
 	public static final Property<Long> size = new LongProperty("size").indexed().readOnly();
 	public static final Property<String> url = new StringProperty("url");
 	public static final Property<Long> checksum = new LongProperty("checksum").unvalidated().readOnly();
+	public static final Property<String> contentHash = new StringProperty("contentHash").indexed().readOnly();
 	public static final Property<Integer> cacheForSeconds = new IntProperty("cacheForSeconds");
 	public static final Property<Integer> version = new IntProperty("version").indexed().readOnly();
-	public static final Property<String> path = new PathProperty("path").indexed().readOnly();
 	public static final Property<Boolean> isFile = new BooleanProperty("isFile").defaultValue(true).readOnly();
 
 	public static final View publicView = new View(FileBase.class, PropertyView.Public, type, name, contentType, size, url, owner, path, isFile);
-	public static final View uiView = new View(FileBase.class, PropertyView.Ui, type, contentType, relativeFilePath, size, url, parent, checksum, version, cacheForSeconds, owner, path, isFile);
+	public static final View uiView = new View(FileBase.class, PropertyView.Ui, type, contentType, relativeFilePath, size, url, parent, checksum, contentHash, version, cacheForSeconds, owner, path, isFile);
 
 	@Override
 	public void onNodeCreation() {
@@ -92,25 +92,13 @@ public class FileBase extends AbstractFile implements Linkable {
 	@Override
 	public void onNodeDeletion() {
 
-		String filePath = null;
 		try {
-			final String path = getRelativeFilePath();
 
-			if (path != null) {
-
-				filePath = FileHelper.getFilePath(path);
-
-				java.io.File toDelete = new java.io.File(filePath);
-
-				if (toDelete.exists() && toDelete.isFile()) {
-
-					toDelete.delete();
-				}
-			}
+			BlobStore.getInstance().release(this);
 
 		} catch (Throwable t) {
 
-			logger.log(Level.WARNING, "Exception while trying to delete file {0}: {1}", new Object[]{filePath, t});
+			logger.log(Level.WARNING, "Exception while trying to delete file {0}: {1}", new Object[]{getRelativeFilePath(), t});
 
 		}
 
@@ -160,11 +148,6 @@ public class FileBase extends AbstractFile implements Linkable {
 
 	}
 
-	@Override
-	public String getPath() {
-		return FileHelper.getFolderPath(this);
-	}
-
 	public String getRelativeFilePath() {
 
 		return getProperty(FileBase.relativeFilePath);
@@ -267,17 +250,20 @@ public class FileBase extends AbstractFile implements Linkable {
 
 		if (path != null) {
 
-			final String filePath = FileHelper.getFilePath(path);
-
 			try {
 
-				final java.io.File fileOnDisk = new java.io.File(filePath);
+				final BlobStore.ContentOutputStream contentStream = BlobStore.getInstance().openOutputStream(this);
 
-				// Return file output stream and save checksum and size after closing
-				FileOutputStream fos = new FileOutputStream(fileOnDisk) {
+				// Return file output stream and save content, checksum and size after closing
+				FilterOutputStream fos = new FilterOutputStream(contentStream) {
 
 					private boolean closed = false;
 
+					@Override
+					public void write(final byte[] b, final int off, final int len) throws IOException {
+						out.write(b, off, len);
+					}
+
 					@Override
 					public void close() throws IOException {
 
@@ -289,13 +275,11 @@ public class FileBase extends AbstractFile implements Linkable {
 
 							super.close();
 
-							final String _contentType = FileHelper.getContentMimeType(FileBase.this);
+							// checksum and size were computed while writing
+							BlobStore.getInstance().setContent(FileBase.this, contentStream.getContent());
 
-							unlockReadOnlyPropertiesOnce();
-							setProperty(checksum, FileHelper.getChecksum(FileBase.this));
+							final String _contentType = FileHelper.getContentMimeType(FileBase.this);
 
-							unlockReadOnlyPropertiesOnce();
-							setProperty(size, FileHelper.getSize(FileBase.this));
 							setProperty(contentType, _contentType);
 
 							if (StringUtils.startsWith(_contentType, "image") || ImageHelper.isImageType(getProperty(name))) {
@@ -319,8 +303,8 @@ public class FileBase extends AbstractFile implements Linkable {
 
 				return fos;
 
-			} catch (FileNotFoundException e) {
-				logger.log(Level.SEVERE, "File not found: {0}", new Object[]{path});
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Unable to write to file: {0}", new Object[]{path});
 			}
 
 		}
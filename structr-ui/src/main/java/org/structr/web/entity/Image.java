@@ -177,56 +177,20 @@ public class Image extends File {
 	 */
 	public Image getScaledImage(final int maxWidth, final int maxHeight, final boolean cropToFit) {
 
-		Iterable<Thumbnails> thumbnailRelationships = getThumbnailRelationships();
 		final List<Image> oldThumbnails             = new LinkedList();
-		Image thumbnail                             = null;
 		final Image originalImage                   = this;
-		Integer origWidth                           = originalImage.getWidth();
-		Integer origHeight                          = originalImage.getHeight();
-		Long currentChecksum                        = originalImage.getProperty(Image.checksum);
-		final Long newChecksum;
+		final Long newChecksum                      = getCurrentChecksum();
+		Image thumbnail                             = findScaledImage(maxWidth, maxHeight, newChecksum, oldThumbnails);
 
-		if (currentChecksum == null || currentChecksum == 0) {
-
-			newChecksum = FileHelper.getChecksum(originalImage);
-		} else {
+		if (thumbnail != null) {
 
-			newChecksum = currentChecksum;
+			return thumbnail;
 		}
 
-		if ((origWidth != null) && (origHeight != null) && thumbnailRelationships != null) {
-
-			for (final Thumbnails r : thumbnailRelationships) {
-
-				Integer w = r.getProperty(Image.width);
-				Integer h = r.getProperty(Image.height);
-
-				if ((w != null) && (h != null)) {
-
-					if (((w == maxWidth) && (h <= maxHeight)) || ((w <= maxWidth) && (h == maxHeight))
-					|| ((origWidth <= w) && (origHeight <= h)))    // orginal image is equal or smaller than requested size
-					{
-
-						thumbnail = (Image) r.getTargetNode();
-
-						// Use thumbnail only if checksum of original image matches with stored checksum
-						Long storedChecksum = r.getProperty(Image.checksum);
-
-						if (storedChecksum != null && storedChecksum.equals(newChecksum)) {
-
-							return thumbnail;
-
-						} else {
-
-							oldThumbnails.add(thumbnail);
-						}
-					}
-
-				}
-
-			}
-
+		if (!oldThumbnails.isEmpty()) {
 
+			// return outdated thumbnail if a new one can not be created
+			thumbnail = oldThumbnails.get(oldThumbnails.size() - 1);
 		}
 
 		// No thumbnail exists, or thumbnail was too old, so let's create a new one
@@ -307,6 +271,22 @@ public class Image extends File {
 
 	}
 
+	/**
+	 * Get an existing, up-to-date (down-)scaled image of this image
+	 * without creating one.
+	 *
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param cropToFit
+	 *
+	 * @return scaled image, or null if none exists
+	 */
+	public Image getExistingScaledImage(final int maxWidth, final int maxHeight, final boolean cropToFit) {
+
+		return findScaledImage(maxWidth, maxHeight, getCurrentChecksum(), null);
+
+	}
+
 	public boolean isNotThumbnail() {
 
 		return !isThumbnail();
@@ -326,4 +306,59 @@ public class Image extends File {
 
 	}
 
+	// ----- private methods -----
+	private Long getCurrentChecksum() {
+
+		final Long currentChecksum = getProperty(Image.checksum);
+
+		if (currentChecksum == null || currentChecksum == 0) {
+
+			return FileHelper.getChecksum(this);
+		}
+
+		return currentChecksum;
+	}
+
+	private Image findScaledImage(final int maxWidth, final int maxHeight, final Long checksum, final List<Image> oldThumbnails) {
+
+		final Iterable<Thumbnails> thumbnailRelationships = getThumbnailRelationships();
+		final Integer origWidth                           = getWidth();
+		final Integer origHeight                          = getHeight();
+
+		if ((origWidth != null) && (origHeight != null) && thumbnailRelationships != null) {
+
+			for (final Thumbnails r : thumbnailRelationships) {
+
+				Integer w = r.getProperty(Image.width);
+				Integer h = r.getProperty(Image.height);
+
+				if ((w != null) && (h != null)) {
+
+					if (((w == maxWidth) && (h <= maxHeight)) || ((w <= maxWidth) && (h == maxHeight))
+					|| ((origWidth <= w) && (origHeight <= h)))    // orginal image is equal or smaller than requested size
+					{
+
+						final Image thumbnail = (Image) r.getTargetNode();
+
+						// Use thumbnail only if checksum of original image matches with stored checksum
+						Long storedChecksum = r.getProperty(Image.checksum);
+
+						if (storedChecksum != null && storedChecksum.equals(checksum)) {
+
+							return thumbnail;
+
+						} else if (oldThumbnails != null) {
+
+							oldThumbnails.add(thumbnail);
+						}
+					}
+
+				}
+
+			}
+
+		}
+
+		return null;
+	}
 }
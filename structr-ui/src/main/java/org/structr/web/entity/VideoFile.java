@@ -22,6 +22,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.PropertyView;
 import org.structr.common.SecurityContext;
@@ -42,6 +43,7 @@ import org.structr.core.property.Property;
 import org.structr.core.property.StringProperty;
 import org.structr.dynamic.File;
 import org.structr.media.AVConv;
+import org.structr.media.MediaJob;
 import org.structr.rest.RestMethodResult;
 import org.structr.web.common.FileHelper;
 import static org.structr.web.entity.FileBase.relativeFilePath;
@@ -199,6 +201,32 @@ public class VideoFile extends File {
 		}
 	}
 
+	/**
+	 * Called by the media job service when a conversion of this video has
+	 * finished successfully.
+	 *
+	 * @param convertedVideo the new video file
+	 */
+	public void onConversionFinished(final VideoFile convertedVideo) {
+
+		if (convertedVideo != null) {
+
+			// the converted file was empty when it was created, so the video
+			// info can only be read now
+			convertedVideo.updateVideoInfo();
+		}
+	}
+
+	/**
+	 * Called by the media job service when a conversion of this video has
+	 * failed or was cancelled.
+	 *
+	 * @param state the final state of the conversion job
+	 */
+	public void onConversionFailed(final MediaJob.State state) {
+		logger.log(Level.WARNING, "Conversion of video {0} ended with state {1}", new Object[] { getUuid(), state });
+	}
+
 	private void setIfNotNull(final Property key, final Object value) throws FrameworkException {
 
 		if (value != null) {
@@ -83,7 +83,7 @@ public class Content extends DOMNode implements Text {
 
 	public static final org.structr.common.View uiView                                   = new org.structr.common.View(Content.class, PropertyView.Ui,
 		content, contentType, parent, pageId, syncedNodes, sharedComponent, dataKey, restQuery, cypherQuery, xpathQuery, functionQuery,
-		hideOnDetail, hideOnIndex, showForLocales, hideForLocales, showConditions, hideConditions, isContent
+		hideOnDetail, hideOnIndex, showForLocales, hideForLocales, showConditions, hideConditions, cacheFragmentForSeconds, renderIndependently, isContent
 	);
 
 	public static final org.structr.common.View publicView                               = new org.structr.common.View(Content.class, PropertyView.Public,
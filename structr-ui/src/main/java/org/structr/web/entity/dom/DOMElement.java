@@ -21,14 +21,17 @@ package org.structr.web.entity.dom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.helpers.collection.Iterables;
 import org.structr.common.CaseHelper;
 import org.structr.common.PropertyView;
@@ -40,15 +43,20 @@ import org.structr.core.Result;
 import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractRelationship;
+import org.structr.core.graph.NodeFactory;
+import org.structr.core.parser.Functions;
 import org.structr.core.property.BooleanProperty;
 import org.structr.core.property.GenericProperty;
 import org.structr.core.property.Property;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.StringProperty;
+import org.structr.core.script.Scripting;
 import org.structr.web.common.AsyncBuffer;
 import org.structr.web.common.HtmlProperty;
+import org.structr.web.common.ParallelRenderer;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.RenderContext.EditMode;
+import org.structr.web.common.RenderPlan;
 import org.structr.web.entity.dom.relationship.DOMChildren;
 import org.structr.web.entity.html.Body;
 import org.structr.web.entity.relation.PageLink;
@@ -176,7 +184,7 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 
 	public static final org.structr.common.View uiView = new org.structr.common.View(DOMElement.class, PropertyView.Ui, name, tag, pageId, path, parent, children, childrenIds, owner,
 		restQuery, cypherQuery, xpathQuery, functionQuery, partialUpdateKey, dataKey, syncedNodes, sharedComponent,
-		renderDetails, hideOnIndex, hideOnDetail, showForLocales, hideForLocales, showConditions, hideConditions,
+		renderDetails, hideOnIndex, hideOnDetail, showForLocales, hideForLocales, showConditions, hideConditions, cacheFragmentForSeconds, renderIndependently,
 		_accesskey, _class, _contenteditable, _contextmenu, _dir, _draggable, _dropzone, _hidden, _id, _lang, _spellcheck, _style,
 		_tabindex, _title, _translate, _onabort, _onblur, _oncanplay, _oncanplaythrough, _onchange, _onclick, _oncontextmenu, _ondblclick,
 		_ondrag, _ondragend, _ondragenter, _ondragleave, _ondragover, _ondragstart, _ondrop, _ondurationchange, _onemptied,
@@ -268,27 +276,35 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 
 		out.append("<").append(tag);
 
-		for (PropertyKey attribute : StructrApp.getConfiguration().getPropertySet(entityType, PropertyView.Html)) {
+		final boolean escape = !(EditMode.RAW.equals(editMode) || EditMode.WIDGET.equals(editMode));
 
-			String value = getPropertyWithVariableReplacement(renderContext, attribute);
+		// html attributes and arbitrary data-* attributes, static ones are pre-rendered in the render plan
+		for (final RenderPlan.Attribute attribute : getRenderPlan().getAttributes()) {
 
-			if (!(EditMode.RAW.equals(editMode) || EditMode.WIDGET.equals(editMode))) {
+			if (attribute.isDynamic()) {
 
-				value = escapeForHtmlAttributes(value);
+				String value = Scripting.replaceVariables(renderContext, this, attribute.getValue());
 
-			}
+				if (attribute.isCustom() && value != null) {
+					value = value.trim();
+				}
 
-			if (value != null) {
+				if (escape) {
+					value = escapeForHtmlAttributes(value);
+				}
 
-				String key = attribute.jsonName().substring(PropertyView.Html.length());
+				if (attribute.isCustom() ? StringUtils.isNotBlank(value) : value != null) {
 
-				out.append(" ").append(key).append("=\"").append(value).append("\"");
+					out.append(" ").append(attribute.getName()).append("=\"").append(value).append("\"");
+				}
 
-			}
+			} else {
 
+				out.append(attribute.getMarkup(escape));
+			}
 		}
 
-		// include arbitrary data-* attributes
+		// include meta data attributes
 		renderCustomAttributes(out, securityContext, renderContext);
 
 		// include special mode attributes
@@ -340,7 +356,8 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 		final AsyncBuffer out    = renderContext.getBuffer();
 		final EditMode editMode  = renderContext.getEditMode(securityContext.getUser(false));
 		final boolean isVoid     = isVoidElement();
-		final String _tag        = getProperty(DOMElement.tag);
+		final RenderPlan plan    = getRenderPlan();
+		final String _tag        = plan.getTag();
 
 		// non-final variables
 		Result localResult                 = renderContext.getResult();
@@ -361,34 +378,59 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 			try {
 
 				// in body?
-				if (lowercaseBodyName.equals(this.getTagName())) {
+				if (lowercaseBodyName.equals(_tag)) {
 					renderContext.setInBody(true);
 				}
 
-				// fetch children
-				List<DOMChildren> rels = getChildRelationships();
-				if (rels.isEmpty()) {
-
-					migrateSyncRels();
+				// children are fetched in the order determined by the render plan
+				final GraphDatabaseService graphDb     = getNode().getGraphDatabase();
+				final NodeFactory<DOMNode> nodeFactory = new NodeFactory<>(securityContext);
+				final ParallelRenderer parallelRenderer = ParallelRenderer.getInstance();
+				ParallelRenderer.Stitcher stitcher      = null;
 
-					// No child relationships, maybe this node is in sync with another node
-					//Sync syncRel = getIncomingRelationship(Sync.class);
-					DOMElement _syncedNode = (DOMElement) getProperty(sharedComponent);
-					if (_syncedNode != null) {
-						rels.addAll(_syncedNode.getChildRelationships());
-					}
+				// independent children are rendered concurrently and stitched together in document order
+				if (plan.getChildIds().length > 1 && parallelRenderer.canRenderInParallel(renderContext, editMode)) {
+					stitcher = parallelRenderer.newStitcher(renderContext);
 				}
 
-				for (final AbstractRelationship rel : rels) {
+				try {
+
+					for (final long childId : plan.getChildIds()) {
+
+						final DOMNode subNode = nodeFactory.instantiate(graphDb.getNodeById(childId));
+						if (subNode == null) {
+							continue;
+						}
+
+						if (subNode instanceof DOMElement) {
+							anyChildNodeCreatesNewLine = (anyChildNodeCreatesNewLine || !(subNode.avoidWhitespace()));
+						}
+
+						if (stitcher == null) {
 
-					final DOMNode subNode = (DOMNode) rel.getTargetNode();
+							subNode.render(renderContext, depth + 1);
+
+						} else if (parallelRenderer.isIndependent(subNode)) {
+
+							stitcher.submit(subNode, depth + 1);
+
+						} else {
+
+							stitcher.render(subNode, depth + 1);
+						}
 
-					if (subNode instanceof DOMElement) {
-						anyChildNodeCreatesNewLine = (anyChildNodeCreatesNewLine || !(subNode.avoidWhitespace()));
 					}
 
-					subNode.render(renderContext, depth + 1);
+					if (stitcher != null) {
+						stitcher.finish();
+					}
 
+				} finally {
+
+					// do not leave parallel children running if a child failed
+					if (stitcher != null) {
+						stitcher.cancel();
+					}
 				}
 
 			} catch (Throwable t) {
@@ -427,6 +469,51 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 		return false;
 	}
 
+	@Override
+	protected RenderPlan createRenderPlan() throws FrameworkException {
+
+		final List<RenderPlan.Attribute> attributes = new LinkedList<>();
+		final Set<String> dependencies              = new LinkedHashSet<>();
+
+		for (PropertyKey attribute : StructrApp.getConfiguration().getPropertySet(entityType, PropertyView.Html)) {
+
+			addPlanAttribute(attributes, attribute.jsonName().substring(PropertyView.Html.length()), getProperty(attribute), false);
+		}
+
+		// include arbitrary data-* attributes
+		for (final String key : getNode().getPropertyKeys()) {
+
+			if (key.startsWith("data-")) {
+
+				addPlanAttribute(attributes, key, getProperty(new GenericProperty(key)), true);
+			}
+		}
+
+		// fetch children
+		List<DOMChildren> rels = getChildRelationships();
+		if (rels.isEmpty()) {
+
+			migrateSyncRels();
+
+			// No child relationships, maybe this node is in sync with another node
+			DOMElement _syncedNode = (DOMElement) getProperty(sharedComponent);
+			if (_syncedNode != null) {
+
+				rels = _syncedNode.getChildRelationships();
+				dependencies.add(_syncedNode.getUuid());
+			}
+		}
+
+		final long[] childIds = new long[rels.size()];
+		int i = 0;
+
+		for (final AbstractRelationship rel : rels) {
+			childIds[i++] = rel.getRelationship().getEndNode().getId();
+		}
+
+		return new RenderPlan(getProperty(dataKey), getProperty(hideOnIndex), getProperty(hideOnDetail), getProperty(renderDetails), getProperty(cacheFragmentForSeconds), getProperty(renderIndependently), hasDataSource(), getProperty(tag), attributes, childIds, dependencies);
+	}
+
 	public String getOffsetAttributeName(String name, int offset) {
 
 		int namePosition = -1;
@@ -519,6 +606,33 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 	}
 
 	// ----- private methods -----
+	private void addPlanAttribute(final List<RenderPlan.Attribute> attributes, final String name, final Object value, final boolean custom) {
+
+		if (value instanceof String && !Scripting.getTemplate((String)value).hasExpressions()) {
+
+			String _value = (String)value;
+
+			// literal null is not rendered
+			if (Functions.NULL_STRING.equals(_value)) {
+				return;
+			}
+
+			if (custom) {
+
+				_value = _value.trim();
+
+				if (StringUtils.isBlank(_value)) {
+					return;
+				}
+			}
+
+			attributes.add(RenderPlan.Attribute.staticAttribute(name, custom, escapeForHtmlAttributes(_value), _value));
+
+		} else if (value != null) {
+
+			attributes.add(RenderPlan.Attribute.dynamicAttribute(name, custom, value));
+		}
+	}
 
 	// ----- interface org.w3c.dom.Element -----
 	@Override
@@ -873,32 +987,8 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 	 */
 	private void renderCustomAttributes(final AsyncBuffer out, final SecurityContext securityContext, final RenderContext renderContext) throws FrameworkException {
 
-		dbNode = this.getNode();
 		EditMode editMode = renderContext.getEditMode(securityContext.getUser(false));
 
-		Iterable<String> props = dbNode.getPropertyKeys();
-		for (String key : props) {
-
-			if (key.startsWith("data-")) {
-
-				String value = getPropertyWithVariableReplacement(renderContext, new GenericProperty(key)).trim();
-
-				if (!(EditMode.RAW.equals(editMode) || EditMode.WIDGET.equals(editMode))) {
-
-					value = escapeForHtmlAttributes(value);
-
-				}
-
-				if (StringUtils.isNotBlank(value)) {
-
-					out.append(" ").append(key).append("=\"").append(value).append("\"");
-
-				}
-
-			}
-
-		}
-
 		if (EditMode.RAW.equals(editMode) || EditMode.WIDGET.equals(editMode)) {
 
 			Property[] rawProps = new Property[]{
@@ -81,9 +81,14 @@ import org.structr.core.property.StringProperty;
 import org.structr.rest.serialization.StreamingJsonWriter;
 import org.structr.schema.action.ActionContext;
 import org.structr.schema.action.Function;
+import org.structr.web.common.AsyncBuffer;
 import org.structr.web.common.GraphDataSource;
+import org.structr.web.common.OutputCache;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.RenderContext.EditMode;
+import org.structr.web.common.RenderPlan;
+import org.structr.web.common.RenderPlanCache;
+import org.structr.web.common.StringRenderBuffer;
 import org.structr.web.common.microformat.MicroformatParser;
 import org.structr.web.datasource.CypherGraphDataSource;
 import org.structr.web.datasource.FunctionDataSource;
@@ -172,6 +177,8 @@ public abstract class DOMNode extends LinkedTreeNode<DOMChildren, DOMSiblings, D
 	public static final Property<String> restQuery        = new StringProperty("restQuery");
 	public static final Property<String> functionQuery    = new StringProperty("functionQuery");
 	public static final Property<Boolean> renderDetails   = new BooleanProperty("renderDetails");
+	public static final Property<Integer> cacheFragmentForSeconds = new IntProperty("cacheFragmentForSeconds");
+	public static final Property<Boolean> renderIndependently     = new BooleanProperty("renderIndependently");
 
 
 	public static final Property<List<DOMNode>> syncedNodes = new EndNodes("syncedNodes", Sync.class, new PropertyNotion(id));
@@ -773,117 +780,217 @@ public abstract class DOMNode extends LinkedTreeNode<DOMChildren, DOMSiblings, D
 			return;
 		}
 
+		renderContext.checkDeadline();
+
 		final GraphObject details = renderContext.getDetailsDataObject();
 		final boolean detailMode = details != null;
+		final RenderPlan plan    = getRenderPlan();
 
-		if (detailMode && getProperty(hideOnDetail)) {
+		if (detailMode && plan.hideOnDetail()) {
 			return;
 		}
 
-		if (!detailMode && getProperty(hideOnIndex)) {
+		if (!detailMode && plan.hideOnIndex()) {
 			return;
 		}
 
+		// cached output depends on this node
+		renderContext.addDependency(getUuid());
+
 		final EditMode editMode  = renderContext.getEditMode(securityContext.getUser(false));
 
 		if (EditMode.RAW.equals(editMode) || EditMode.WIDGET.equals(editMode)) {
 
 			renderContent(renderContext, depth);
 
+		} else if (EditMode.NONE.equals(editMode) && plan.getFragmentCacheSeconds() > 0 && OutputCache.isEnabled()) {
+
+			renderCachedFragment(renderContext, depth, plan);
+
 		} else {
 
-			final String subKey = getProperty(dataKey);
+			renderWithData(renderContext, depth, plan);
+		}
+	}
 
-			if (StringUtils.isNotBlank(subKey)) {
+	/**
+	 * Render this node from the output cache, or render it and store the
+	 * output in the cache.
+	 *
+	 * @param renderContext
+	 * @param depth
+	 * @param plan
+	 * @throws FrameworkException
+	 */
+	private void renderCachedFragment(final RenderContext renderContext, final int depth, final RenderPlan plan) throws FrameworkException {
 
-				setDataRoot(renderContext, this, subKey);
+		final String requestKey = OutputCache.getRequestKey(renderContext);
+		if (requestKey == null) {
 
-				final GraphObject currentDataNode = renderContext.getDataObject();
+			renderWithData(renderContext, depth, plan);
+			return;
+		}
 
-				// fetch (optional) list of external data elements
-				final List<GraphObject> listData = checkListSources(securityContext, renderContext);
+		final String key           = "fragment|" + getUuid() + "|" + depth + "|" + renderContext.getDataObjectKey() + "|" + requestKey;
+		OutputCache.Entry fragment = OutputCache.get(key);
 
-				final PropertyKey propertyKey;
+		if (fragment == null) {
 
-				if (getProperty(renderDetails) && detailMode) {
+			final long generation           = OutputCache.getGeneration();
+			final AsyncBuffer parentBuffer  = renderContext.getBuffer();
+			final StringRenderBuffer buffer = new StringRenderBuffer();
+			final Set<String> previous      = renderContext.startDependencyTracking();
+			Set<String> dependencies        = null;
 
-					renderContext.setDataObject(details);
-					renderContext.putDataObject(subKey, details);
-					renderContent(renderContext, depth);
+			renderContext.setBuffer(buffer);
 
-				} else {
+			try {
 
-					if (listData.isEmpty() && currentDataNode != null) {
+				renderWithData(renderContext, depth, plan);
 
-					// There are two alternative ways of retrieving sub elements:
-						// First try to get generic properties,
-						// if that fails, try to create a propertyKey for the subKey
-						final Object elements = currentDataNode.getProperty(new GenericProperty(subKey));
-						renderContext.setRelatedProperty(new GenericProperty(subKey));
-						renderContext.setSourceDataObject(currentDataNode);
+			} finally {
 
-						if (elements != null) {
+				renderContext.setBuffer(parentBuffer);
+				dependencies = renderContext.endDependencyTracking(previous);
+			}
 
-							if (elements instanceof Iterable) {
+			fragment = OutputCache.put(key, buffer.getBuffer().toString(), null, null, dependencies, plan.getFragmentCacheSeconds(), generation);
 
-								for (Object o : (Iterable) elements) {
+		} else {
 
-									if (o instanceof GraphObject) {
+			renderContext.addDependencies(fragment.getDependencies());
+		}
 
-										GraphObject graphObject = (GraphObject) o;
-										renderContext.putDataObject(subKey, graphObject);
-										renderContent(renderContext, depth);
+		renderContext.getBuffer().append(fragment.getOutput());
+	}
 
-									}
-								}
+	/**
+	 * Render this node including data binding.
+	 *
+	 * @param renderContext
+	 * @param depth
+	 * @param plan
+	 * @throws FrameworkException
+	 */
+	private void renderWithData(final RenderContext renderContext, final int depth, final RenderPlan plan) throws FrameworkException {
+
+		final GraphObject details = renderContext.getDetailsDataObject();
+		final boolean detailMode  = details != null;
+
+		final String subKey = plan.getDataKey();
+
+		if (StringUtils.isNotBlank(subKey)) {
+
+			setDataRoot(renderContext, this, subKey);
+
+			final GraphObject currentDataNode = renderContext.getDataObject();
+
+			// fetch (optional) list of external data elements
+			final List<GraphObject> listData = checkListSources(securityContext, renderContext);
+
+			final PropertyKey propertyKey;
+
+			if (plan.renderDetails() && detailMode) {
+
+				renderContext.setDataObject(details);
+				renderContext.putDataObject(subKey, details);
+				renderContent(renderContext, depth);
+
+			} else {
+
+				if (listData.isEmpty() && currentDataNode != null) {
+
+				// There are two alternative ways of retrieving sub elements:
+					// First try to get generic properties,
+					// if that fails, try to create a propertyKey for the subKey
+					final Object elements = currentDataNode.getProperty(new GenericProperty(subKey));
+					renderContext.setRelatedProperty(new GenericProperty(subKey));
+					renderContext.setSourceDataObject(currentDataNode);
+
+					if (elements != null) {
 
+						if (elements instanceof Iterable) {
+
+							for (Object o : (Iterable) elements) {
+
+								if (o instanceof GraphObject) {
+
+									GraphObject graphObject = (GraphObject) o;
+									renderContext.putDataObject(subKey, graphObject);
+									renderContent(renderContext, depth);
+
+								}
 							}
 
-						} else {
+						}
 
-							propertyKey = StructrApp.getConfiguration().getPropertyKeyForJSONName(currentDataNode.getClass(), subKey, false);
-							renderContext.setRelatedProperty(propertyKey);
+					} else {
 
-							if (propertyKey != null) {
+						propertyKey = StructrApp.getConfiguration().getPropertyKeyForJSONName(currentDataNode.getClass(), subKey, false);
+						renderContext.setRelatedProperty(propertyKey);
 
-								final Object value = currentDataNode.getProperty(propertyKey);
-								if (value != null) {
+						if (propertyKey != null) {
 
-									if (value instanceof Iterable) {
+							final Object value = currentDataNode.getProperty(propertyKey);
+							if (value != null) {
 
-										for (final Object o : ((Iterable) value)) {
+								if (value instanceof Iterable) {
 
-											if (o instanceof GraphObject) {
+									for (final Object o : ((Iterable) value)) {
 
-												renderContext.putDataObject(subKey, (GraphObject) o);
-												renderContent(renderContext, depth);
+										if (o instanceof GraphObject) {
+
+											renderContext.putDataObject(subKey, (GraphObject) o);
+											renderContent(renderContext, depth);
 
-											}
 										}
 									}
 								}
 							}
-
 						}
 
-						// reset data node in render context
-						renderContext.setDataObject(currentDataNode);
-						renderContext.setRelatedProperty(null);
+					}
 
-					} else {
+					// reset data node in render context
+					renderContext.setDataObject(currentDataNode);
+					renderContext.setRelatedProperty(null);
 
-						renderContext.setListSource(listData);
-						renderNodeList(securityContext, renderContext, depth, subKey);
+				} else {
 
-					}
+					renderContext.setListSource(listData);
+					renderNodeList(securityContext, renderContext, depth, subKey);
 
 				}
 
-			} else {
-				renderContent(renderContext, depth);
 			}
+
+		} else {
+			renderContent(renderContext, depth);
+		}
+	}
+
+	/**
+	 * Returns the render plan of this node, creating and caching it if
+	 * necessary.
+	 *
+	 * @return the render plan of this node
+	 * @throws FrameworkException
+	 */
+	public RenderPlan getRenderPlan() throws FrameworkException {
+
+		final String uuid = getUuid();
+		RenderPlan plan   = RenderPlanCache.get(uuid);
+
+		if (plan == null) {
+
+			final long generation = RenderPlanCache.getGeneration();
+
+			plan = createRenderPlan();
+
+			RenderPlanCache.put(uuid, plan, generation);
 		}
 
+		return plan;
 	}
 
 	public Template getClosestTemplate(final Page page) {
@@ -983,6 +1090,31 @@ public abstract class DOMNode extends LinkedTreeNode<DOMChildren, DOMSiblings, D
 
 	// ----- protected methods -----
 
+	/**
+	 * Creates the render plan for this node from the current state of the
+	 * graph. Subclasses that read more structural information during
+	 * rendering should override this method.
+	 *
+	 * @return a new render plan
+	 * @throws FrameworkException
+	 */
+	protected RenderPlan createRenderPlan() throws FrameworkException {
+		return new RenderPlan(getProperty(dataKey), getProperty(hideOnIndex), getProperty(hideOnDetail), getProperty(renderDetails), getProperty(cacheFragmentForSeconds), getProperty(renderIndependently), hasDataSource());
+	}
+
+	/**
+	 * Returns whether this node fetches its own data when rendered.
+	 *
+	 * @return whether this node has a data source
+	 */
+	protected boolean hasDataSource() {
+
+		return StringUtils.isNotBlank(getProperty(restQuery))
+			|| StringUtils.isNotBlank(getProperty(cypherQuery))
+			|| StringUtils.isNotBlank(getProperty(xpathQuery))
+			|| StringUtils.isNotBlank(getProperty(functionQuery));
+	}
+
 	protected void setDataRoot(final RenderContext renderContext, final AbstractNode node, final String dataKey) {
 		// an outgoing RENDER_NODE relationship points to the data node where rendering starts
 		for (RenderNode rel : node.getOutgoingRelationships(RenderNode.class)) {
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.migration;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.App;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.BulkGraphOperation;
+import org.structr.core.graph.MaintenanceCommand;
+import org.structr.core.graph.NodeServiceCommand;
+import org.structr.core.graph.Tx;
+import org.structr.rest.resource.MaintenanceParameterResource;
+import org.structr.web.common.FileHelper;
+import org.structr.web.entity.AbstractFile;
+
+/**
+ * Writes the stored path of all files and folders, e.g. for files that
+ * were created before the path was stored.
+ *
+ * @author Christian Morgner
+ */
+public class BulkSetFilePathsCommand extends NodeServiceCommand implements MaintenanceCommand {
+
+	private static final Logger logger = Logger.getLogger(BulkSetFilePathsCommand.class.getName());
+
+	static {
+
+		MaintenanceParameterResource.registerMaintenanceCommand("setFilePaths", BulkSetFilePathsCommand.class);
+
+	}
+
+	@Override
+	public void execute(final Map<String, Object> map) throws FrameworkException {
+
+		final App app                  = StructrApp.getInstance();
+		final List<AbstractFile> files = new LinkedList<>();
+
+		// collect files and folders in transactional context
+		try (final Tx tx = app.tx()) {
+
+			files.addAll(app.nodeQuery(AbstractFile.class).getAsList());
+		}
+
+		logger.log(Level.INFO, "Start setting paths of {0} files and folders", files.size());
+
+		long count = bulkGraphOperation(securityContext, files, 1000, "SetFilePaths", new BulkGraphOperation<AbstractFile>() {
+
+			@Override
+			public void handleGraphObject(SecurityContext securityContext, AbstractFile file) {
+
+				final String path = FileHelper.getFolderPath(file);
+
+				if (!path.equals(file.getProperty(AbstractFile.path))) {
+
+					try {
+
+						// only this node, the nodes below it are part of the list anyway
+						file.unlockReadOnlyPropertiesOnce();
+						file.setProperty(AbstractFile.path, path);
+
+					} catch (FrameworkException fex) {
+
+						logger.log(Level.WARNING, "Unable to set path of {0}: {1}", new Object[] { file.getUuid(), fex.getMessage() } );
+					}
+				}
+			}
+
+			@Override
+			public void handleThrowable(SecurityContext securityContext, Throwable t, AbstractFile file) {
+				logger.log(Level.WARNING, "Unable to set path of {0}: {1}", new Object[] { file.getUuid(), t.getMessage() } );
+			}
+
+			@Override
+			public void handleTransactionFailure(SecurityContext securityContext, Throwable t) {
+				logger.log(Level.WARNING, "Unable to set file path: {0}", t.getMessage() );
+			}
+		});
+
+		logger.log(Level.INFO, "Finished setting paths of {0} files and folders", count);
+	}
+
+	@Override
+	public boolean requiresEnclosingTransaction() {
+		return false;
+	}
+}
@@ -29,17 +29,15 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Locale;
-import java.util.Queue;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletOutputStream;
-import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -52,6 +50,7 @@ import org.structr.common.AccessMode;
 import org.structr.common.GraphObjectComparator;
 import org.structr.common.PathHelper;
 import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
 import org.structr.common.ThreadLocalMatcher;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
@@ -64,6 +63,7 @@ import org.structr.core.auth.AuthHelper;
 import org.structr.core.auth.Authenticator;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
+import org.structr.core.graph.EntityVersions;
 import org.structr.core.graph.Tx;
 import org.structr.dynamic.File;
 import org.structr.rest.ResourceProvider;
@@ -71,9 +71,19 @@ import org.structr.rest.service.HttpService;
 import org.structr.rest.service.HttpServiceServlet;
 import org.structr.rest.service.StructrHttpServiceConfig;
 import org.structr.web.auth.UiAuthenticator;
+import org.structr.web.common.FileHelper;
+import org.structr.web.common.FileStreamer;
+import org.structr.web.common.OutputCache;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.RenderContext.EditMode;
+import org.structr.web.common.RenderExecutor;
+import org.structr.web.common.RenderPlanCache;
+import org.structr.web.common.RoutingTable;
+import org.structr.web.common.StreamingRenderBuffer;
+import org.structr.web.common.ThumbnailService;
 import org.structr.web.common.StringRenderBuffer;
+import org.structr.web.entity.AbstractFile;
+import org.structr.web.entity.FileBase;
 import org.structr.web.entity.Linkable;
 import org.structr.web.entity.Site;
 import org.structr.web.entity.User;
@@ -98,11 +108,12 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 	public static final String TARGET_PAGE_KEY = "target";
 	public static final String ERROR_PAGE_KEY = "onerror";
 	public static final String LOCALE_KEY = "locale";
+	public static final String ETAGS = "HtmlServlet.etags";
 
 	private static final ThreadLocalMatcher threadLocalUUIDMatcher = new ThreadLocalMatcher("[a-zA-Z0-9]{32}");
-	private static final ExecutorService threadPool = Executors.newCachedThreadPool();
 
 	private final StructrHttpServiceConfig config = new StructrHttpServiceConfig();
+	private boolean etags = false;
 
 	@Override
 	public StructrHttpServiceConfig getConfig() {
@@ -110,6 +121,31 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 	}
 
 	public HtmlServlet() {
+
+		// cache DOM render plans while pages are served
+		RenderPlanCache.register();
+
+		// cache rendered output if enabled
+		OutputCache.register();
+
+		// resolve pages and files from memory
+		RoutingTable.getInstance();
+
+		// generate thumbnails of new images in the background
+		ThumbnailService.getInstance();
+
+		etags = Services.parseBoolean(StructrApp.getConfigurationValue(ETAGS, "false"), false);
+
+		// create the bounded render executor so that its statistics are available right away
+		RenderExecutor.getInstance();
+
+		StatisticsRegistry.register("asyncOutput", new StatisticsRegistry.Source() {
+
+			@Override
+			public Map<String, Object> getStatistics() {
+				return StreamingRenderBuffer.getStatistics();
+			}
+		});
 	}
 
 	@Override
@@ -121,6 +157,8 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 		final Authenticator auth = config.getAuthenticator();
 		final SecurityContext securityContext;
+		Set<String> previousReads = null;
+		String etagKey = null;
 		final App app;
 
 		try {
@@ -173,6 +211,15 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 				final EditMode edit = renderContext.getEditMode(user);
 
+				etagKey = getETagKey(request, securityContext, edit);
+				if (etagKey != null) {
+
+					// record everything that is read from here on
+					previousReads = EntityVersions.startTracking();
+
+					EntityVersions.recordRead(user);
+				}
+
 				DOMNode rootElement = null;
 				AbstractNode dataNode = null;
 
@@ -201,7 +248,7 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 					final File file = findFile(securityContext, request, path);
 					if (file != null) {
 
-						streamFile(securityContext, file, request, response, edit);
+						streamFile(securityContext, file, request, response, edit, false);
 						return;
 
 					}
@@ -301,7 +348,13 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 				if (securityContext.isVisible(rootElement)) {
 
-					if (!EditMode.WIDGET.equals(edit) && !dontCache && notModifiedSince(request, response, rootElement, dontCache)) {
+					if (etagKey != null && notModified(request, response, etagKey)) {
+
+						ServletOutputStream out = response.getOutputStream();
+						out.flush();
+						out.close();
+
+					} else if (!EditMode.WIDGET.equals(edit) && !dontCache && notModifiedSince(request, response, rootElement, dontCache)) {
 
 						ServletOutputStream out = response.getOutputStream();
 						out.flush();
@@ -333,93 +386,131 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 						response.setHeader("X-XSS-Protection", "1; mode=block");
 
 						// async or not?
-						boolean isAsync = Services.parseBoolean(Services.getBaseConfiguration().getProperty(HttpService.ASYNC), true);
-						if (isAsync) {
+						boolean isAsync         = Services.parseBoolean(Services.getBaseConfiguration().getProperty(HttpService.ASYNC), true);
+						final String outputKey  = getOutputCacheKey(request, response, renderContext, rootElement, path, edit);
 
-							final AsyncContext async      = request.startAsync();
-							final ServletOutputStream out = async.getResponse().getOutputStream();
-							final AtomicBoolean finished  = new AtomicBoolean(false);
-							final DOMNode rootNode        = rootElement;
+						if (outputKey != null) {
 
-							threadPool.submit(new Runnable() {
+							OutputCache.Entry cachedOutput = OutputCache.get(outputKey);
+							if (cachedOutput == null) {
 
-								@Override
-								public void run() {
+								final Map<String, List<String>> previousHeaders = OutputCache.getHeaders(response);
+								final Object previousSessionState               = OutputCache.getSessionState(request);
+								final long generation                           = OutputCache.getGeneration();
+								final StringRenderBuffer buffer                 = new StringRenderBuffer();
 
-									try (final Tx tx = app.tx()) {
+								renderContext.setBuffer(buffer);
+								renderContext.startDependencyTracking();
 
-										//final long start = System.currentTimeMillis();
+								// render
+								rootElement.render(renderContext, 0);
 
-										// render
-										rootNode.render(renderContext, 0);
-										finished.set(true);
+								final Set<String> dependencies = renderContext.endDependencyTracking(null);
 
-										//final long end = System.currentTimeMillis();
-										//System.out.println("Done in " + (end-start) + " ms");
+								// do not keep output of requests that were redirected or failed while rendering
+								if (response.getStatus() != HttpServletResponse.SC_OK) {
 
-										tx.success();
+									response.getOutputStream().write(buffer.getBuffer().toString().getBytes("utf-8"));
+									response.getOutputStream().flush();
+									response.getOutputStream().close();
 
-									} catch (Throwable t) {
-										t.printStackTrace();
-										final String errorMsg = t.getMessage();
-										try {
-											//response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-											response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, errorMsg);
-											finished.set(true);
-										} catch (IOException ex) {
-											ex.printStackTrace();
-										}
-									}
+									tx.success();
+									return;
 								}
 
-							});
+								// keep the headers that were set while rendering, they must be replayed with the output
+								final Map<String, List<String>> headers = OutputCache.getModifiedHeaders(response, previousHeaders);
+								final String renderedContentType        = response.getContentType();
 
-							// start output write listener
-							out.setWriteListener(new WriteListener() {
+								// output that set a cookie or touched the session belongs to this client only, a null key skips the cache
+								final boolean shareable = OutputCache.isShareable(request, response, previousHeaders, previousSessionState);
 
-								@Override
-								public void onWritePossible() throws IOException {
+								cachedOutput = OutputCache.put(shareable ? outputKey : null, buffer.getBuffer().toString(), renderedContentType != null ? renderedContentType : contentType, headers, dependencies, 0, generation);
 
-									try {
+								// only freshly rendered output is known to match the recorded reads
+								writeCachedOutput(request, response, cachedOutput, rememberETag(etagKey, previousReads));
 
-										final Queue<String> queue = renderContext.getBuffer().getQueue();
-										while (out.isReady()) {
+								etagKey = null;
 
-											String buffer = null;
+							} else {
 
-											synchronized(queue) {
-												buffer = queue.poll();
-											}
+								cachedOutput.applyHeaders(response);
+								writeCachedOutput(request, response, cachedOutput, null);
+							}
 
-											if (buffer != null) {
+						} else if (isAsync && etagKey == null) {
 
-												out.print(buffer);
+							final RenderExecutor executor      = RenderExecutor.getInstance();
+							final AsyncContext async           = request.startAsync();
+							final ServletOutputStream out      = async.getResponse().getOutputStream();
+							final StreamingRenderBuffer buffer = new StreamingRenderBuffer(async, out);
+							final DOMNode rootNode             = rootElement;
 
-											} else {
+							renderContext.setBuffer(buffer);
+
+							try {
+
+								executor.submit(new RenderExecutor.RenderTask() {
+
+									@Override
+									public void render(final long deadline) {
+
+										renderContext.setDeadline(deadline);
+
+										try (final Tx tx = app.tx()) {
+
+											// render
+											rootNode.render(renderContext, 0);
+
+											tx.success();
+
+										} catch (FrameworkException fex) {
+
+											logger.log(Level.WARNING, "Unable to render page asynchronously: {0}", fex.getMessage());
+
+											if (!response.isCommitted()) {
 
-												if (finished.get()) {
+												if (fex.getStatus() == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
 
-													async.complete();
-													response.setStatus(HttpServletResponse.SC_OK);
+													serviceUnavailable(response, executor.getRetryAfter());
 
-													// prevent this block from being called again
-													break;
+												} else {
+
+													response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 												}
+											}
+
+										} catch (Throwable t) {
 
-												Thread.sleep(1);
+											logger.log(Level.WARNING, "Exception while rendering page asynchronously", t);
+
+											if (!response.isCommitted()) {
+												response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 											}
+
+										} finally {
+
+											// write remaining output and complete the request
+											buffer.finish();
 										}
+									}
+
+									@Override
+									public void expire() {
 
-									} catch (Throwable t) {
-										t.printStackTrace();
+										serviceUnavailable(response, executor.getRetryAfter());
+										buffer.finish();
 									}
-								}
+								});
 
-								@Override
-								public void onError(Throwable t) {
-									t.printStackTrace();
-								}
-							});
+								// start output write listener, output is written once the render thread produces it
+								out.setWriteListener(buffer);
+
+							} catch (RejectedExecutionException rex) {
+
+								serviceUnavailable(response, executor.getRetryAfter());
+								async.complete();
+							}
 
 						} else {
 
@@ -429,6 +520,17 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 							// render
 							rootElement.render(renderContext, 0);
 
+							if (etagKey != null && response.getStatus() == HttpServletResponse.SC_OK) {
+
+								final String etag = rememberETag(etagKey, previousReads);
+								if (etag != null) {
+
+									response.setHeader("ETag", etag);
+								}
+
+								etagKey = null;
+							}
+
 							response.getOutputStream().write(buffer.getBuffer().toString().getBytes("utf-8"));
 							response.getOutputStream().flush();
 							response.getOutputStream().close();
@@ -453,6 +555,12 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 			t.printStackTrace();
 			logger.log(Level.SEVERE, "Exception while processing request", t);
 			UiAuthenticator.writeInternalServerError(response);
+
+		} finally {
+
+			if (etagKey != null) {
+				EntityVersions.stopTracking(previousReads);
+			}
 		}
 	}
 
@@ -536,7 +644,7 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 					File file = findFile(securityContext, request, path);
 					if (file != null) {
 
-						//streamFile(securityContext, file, request, response, edit);
+						streamFile(securityContext, file, request, response, edit, true);
 						return;
 
 					}
@@ -878,6 +986,17 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 	 */
 	private Page findIndexPage(final SecurityContext securityContext, final EditMode edit) throws FrameworkException {
 
+		final RoutingTable routingTable = RoutingTable.getInstance();
+		if (routingTable.isEnabled()) {
+
+			for (final Page page : routingTable.getPages(securityContext)) {
+
+				if (securityContext.isVisible(page) && (EditMode.CONTENT.equals(edit) || isVisibleForSite(securityContext.getRequest(), page))) {
+					return page;
+				}
+			}
+		}
+
 		final Result<Page> result = StructrApp.getInstance(securityContext).nodeQuery(Page.class).sort(Page.position).order(false).getResult();
 		Collections.sort(result.getResults(), new GraphObjectComparator(Page.position, GraphObjectComparator.ASCENDING));
 
@@ -980,6 +1099,17 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 			logger.log(Level.FINE, "Requested id: {0}", uuid);
 
+			final RoutingTable routingTable = RoutingTable.getInstance();
+			if (routingTable.isEnabled()) {
+
+				final List<Linkable> routed = routingTable.getEntryPointsByUuid(securityContext, uuid);
+				if (!routed.isEmpty()) {
+
+					request.setAttribute(POSSIBLE_ENTRY_POINTS_KEY, routed);
+					return routed;
+				}
+			}
+
 			final Query query = StructrApp.getInstance(securityContext).nodeQuery();
 
 			query.and(GraphObject.id, uuid);
@@ -991,6 +1121,9 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 			logger.log(Level.FINE, "{0} results", results.size());
 			request.setAttribute(POSSIBLE_ENTRY_POINTS_KEY, results.getResults());
 
+			// entry points that are not in the routing table yet
+			addRoutes(results.getResults());
+
 			return (List<Linkable>) results.getResults();
 		}
 
@@ -1009,6 +1142,17 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 			logger.log(Level.FINE, "Requested path: {0}", path);
 
+			final RoutingTable routingTable = RoutingTable.getInstance();
+			if (routingTable.isEnabled()) {
+
+				final List<Linkable> routed = routingTable.getEntryPointsByPath(securityContext, path);
+				if (!routed.isEmpty()) {
+
+					request.setAttribute(POSSIBLE_ENTRY_POINTS_KEY, routed);
+					return routed;
+				}
+			}
+
 			final Query query = StructrApp.getInstance(securityContext).nodeQuery();
 
 			query.and(Page.path, path);
@@ -1018,8 +1162,28 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 			Result results = query.getResult();
 
 			logger.log(Level.FINE, "{0} results", results.size());
+
+			if (results.isEmpty()) {
+
+				// files without a stored path (created before the path was
+				// stored) are resolved along the folder hierarchy
+				final AbstractFile file = FileHelper.getFileByAbsolutePath(securityContext, path);
+				if (file instanceof FileBase) {
+
+					final List<Linkable> files = Collections.singletonList((Linkable) file);
+
+					request.setAttribute(POSSIBLE_ENTRY_POINTS_KEY, files);
+					addRoutes(files);
+
+					return files;
+				}
+			}
+
 			request.setAttribute(POSSIBLE_ENTRY_POINTS_KEY, results.getResults());
 
+			// entry points that are not in the routing table yet
+			addRoutes(results.getResults());
+
 			return (List<Linkable>) results.getResults();
 		}
 
@@ -1038,6 +1202,17 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 			logger.log(Level.FINE, "Requested name: {0}", name);
 
+			final RoutingTable routingTable = RoutingTable.getInstance();
+			if (routingTable.isEnabled()) {
+
+				final List<Linkable> routed = routingTable.getEntryPointsByName(securityContext, name);
+				if (!routed.isEmpty()) {
+
+					request.setAttribute(POSSIBLE_ENTRY_POINTS_KEY, routed);
+					return routed;
+				}
+			}
+
 			final Query query = StructrApp.getInstance(securityContext).nodeQuery();
 
 			query.and(AbstractNode.name, name);
@@ -1049,12 +1224,29 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 			logger.log(Level.FINE, "{0} results", results.size());
 			request.setAttribute(POSSIBLE_ENTRY_POINTS_KEY, results.getResults());
 
+			// entry points that are not in the routing table yet
+			addRoutes(results.getResults());
+
 			return (List<Linkable>) results.getResults();
 		}
 
 		return Collections.EMPTY_LIST;
 	}
 
+	private void addRoutes(final List results) {
+
+		final RoutingTable routingTable = RoutingTable.getInstance();
+		if (routingTable.isEnabled()) {
+
+			for (final Object result : results) {
+
+				if (result instanceof Linkable) {
+					routingTable.add((Linkable)result);
+				}
+			}
+		}
+	}
+
 	private List<Linkable> findPossibleEntryPoints(final SecurityContext securityContext, final HttpServletRequest request, final String path) throws FrameworkException {
 
 		List<Linkable> possibleEntryPoints = (List<Linkable>) request.getAttribute(POSSIBLE_ENTRY_POINTS_KEY);
@@ -1079,6 +1271,134 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 		return Collections.EMPTY_LIST;
 	}
 
+	/**
+	 * Returns the output cache key for the given request, or null if the
+	 * output of the request must not be cached.
+	 */
+	private String getOutputCacheKey(final HttpServletRequest request, final HttpServletResponse response, final RenderContext renderContext, final DOMNode rootElement, final String path, final EditMode edit) {
+
+		if (!OutputCache.isEnabled() || !EditMode.NONE.equals(edit) || response.getStatus() != HttpServletResponse.SC_OK || rootElement.getProperty(Page.dontCache)) {
+			return null;
+		}
+
+		final String requestKey = OutputCache.getRequestKey(renderContext);
+		if (requestKey != null) {
+
+			return "page|" + request.getServerName() + ":" + request.getServerPort() + "|" + path + "|" + requestKey;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the key under which the dependencies of a page response are
+	 * stored, or null if ETags are disabled or not applicable to the
+	 * request. The key contains the principal, so responses are never
+	 * shared between users.
+	 */
+	private String getETagKey(final HttpServletRequest request, final SecurityContext securityContext, final EditMode edit) {
+
+		if (!etags || !EditMode.NONE.equals(edit)) {
+			return null;
+		}
+
+		final Principal user     = securityContext.getUser(false);
+		final String queryString = request.getQueryString();
+		final StringBuilder buf  = new StringBuilder("page|");
+
+		buf.append(request.getServerName()).append(":").append(request.getServerPort());
+		buf.append(request.getRequestURI());
+
+		if (queryString != null) {
+			buf.append("?").append(queryString);
+		}
+
+		buf.append("|").append(getEffectiveLocale(request));
+		buf.append("|").append(user != null ? user.getUuid() : "anonymous");
+
+		return buf.toString();
+	}
+
+	/**
+	 * Answers the request with 304 if the If-None-Match header matches the
+	 * current fingerprint of the dependencies of the last response.
+	 */
+	private static boolean notModified(final HttpServletRequest request, final HttpServletResponse response, final String etagKey) {
+
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+
+			final String etag = EntityVersions.getInstance().getCurrentETag(etagKey);
+			if (etag != null) {
+
+				// cached output may have been sent with a separate ETag for the gzipped representation
+				for (final String candidate : new String[] { etag, getGzipETag(etag) }) {
+
+					if (EntityVersions.matches(ifNoneMatch, candidate)) {
+
+						response.setHeader("ETag", candidate);
+						response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static String rememberETag(final String etagKey, final Set<String> previousReads) {
+
+		if (etagKey != null) {
+			return EntityVersions.getInstance().remember(etagKey, EntityVersions.stopTracking(previousReads));
+		}
+
+		return null;
+	}
+
+	private static String getGzipETag(final String etag) {
+		return etag.substring(0, etag.length() - 1) + "-gzip\"";
+	}
+
+	private static void writeCachedOutput(final HttpServletRequest request, final HttpServletResponse response, final OutputCache.Entry entry, final String etag) throws IOException {
+
+		final String acceptEncoding = request.getHeader("Accept-Encoding");
+		final byte[] gzippedBytes   = entry.getGzippedBytes();
+		byte[] data                 = entry.getBytes();
+		String responseETag         = etag;
+
+		// use pre-compressed output if the client accepts it
+		if (gzippedBytes != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+
+			response.setHeader("Content-Encoding", "gzip");
+			data = gzippedBytes;
+
+			if (responseETag != null) {
+				responseETag = getGzipETag(responseETag);
+			}
+		}
+
+		if (responseETag != null) {
+			response.setHeader("ETag", responseETag);
+		}
+
+		response.setHeader("Vary", "Accept-Encoding");
+		response.setContentLength(data.length);
+
+		final ServletOutputStream out = response.getOutputStream();
+
+		out.write(data);
+		out.flush();
+		out.close();
+	}
+
+	private static void serviceUnavailable(final HttpServletResponse response, final int retryAfter) {
+
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setHeader("Retry-After", Integer.toString(retryAfter));
+	}
+
 	//~--- set methods ----------------------------------------------------
 	public static void setNoCacheHeaders(final HttpServletResponse response) {
 
@@ -1158,7 +1478,7 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 		config.setResourceProvider(resourceProvider);
 	}
 
-	private void streamFile(SecurityContext securityContext, final File file, HttpServletRequest request, HttpServletResponse response, final EditMode edit) throws IOException {
+	private void streamFile(SecurityContext securityContext, final File file, HttpServletRequest request, HttpServletResponse response, final EditMode edit, final boolean headOnly) throws IOException {
 
 		if (!securityContext.isVisible(file)) {
 
@@ -1187,8 +1507,6 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 		} else {
 
-			// 2b: stream file to response
-			final InputStream in = file.getInputStream();
 			final String contentType = file.getContentType();
 
 			if (contentType != null) {
@@ -1201,8 +1519,25 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 				response.setContentType("application/octet-stream");
 			}
 
+			final java.io.File fileOnDisk = file.getFileOnDisk();
+			if (fileOnDisk != null && fileOnDisk.isFile()) {
+
+				// 2b: stream file (or the requested ranges) to response
+				final boolean isAsync = Services.parseBoolean(Services.getBaseConfiguration().getProperty(HttpService.ASYNC), true);
+
+				FileStreamer.getInstance().stream(request, response, fileOnDisk, file.getLastModifiedDate(), headOnly, isAsync);
+				return;
+			}
+
 			response.setStatus(HttpServletResponse.SC_OK);
 
+			if (headOnly) {
+				return;
+			}
+
+			// 2c: content is not stored in the file system
+			final InputStream in = file.getInputStream();
+
 			try {
 
 				IOUtils.copy(in, out);
@@ -1225,8 +1560,6 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 				if (in != null) {
 					in.close();
 				}
-
-				response.setStatus(HttpServletResponse.SC_OK);
 			}
 		}
 	}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -56,6 +57,7 @@ import org.structr.rest.service.StructrHttpServiceConfig;
 import org.structr.schema.SchemaHelper;
 import org.structr.web.auth.UiAuthenticator;
 import org.structr.web.common.FileHelper;
+import org.structr.web.common.ThumbnailService;
 import org.structr.web.entity.Image;
 import org.structr.web.entity.VideoFile;
 
@@ -80,6 +82,9 @@ public class UploadServlet extends HttpServlet implements HttpServiceServlet {
 	private final StructrHttpServiceConfig config = new StructrHttpServiceConfig();
 
 	public UploadServlet() {
+
+		// generate thumbnails of uploaded images in the background
+		ThumbnailService.getInstance();
 	}
 
 	//~--- methods --------------------------------------------------------
@@ -235,6 +240,8 @@ public class UploadServlet extends HttpServlet implements HttpServiceServlet {
 	@Override
 	protected void doPut(final HttpServletRequest request, final HttpServletResponse response) throws ServletException {
 
+		final List<String> images = new LinkedList<>();
+
 		try (final Tx tx = StructrApp.getInstance().tx(false, false, false)) {
 
 			final String uuid = PathHelper.getName(request.getPathInfo());
@@ -299,6 +306,10 @@ public class UploadServlet extends HttpServlet implements HttpServiceServlet {
 							FileHelper.writeToFile(file, fileItem.getInputStream());
 							file.increaseVersion();
 
+							if (file instanceof Image) {
+								images.add(file.getUuid());
+							}
+
 						} else {
 
 							response.setStatus(HttpServletResponse.SC_FORBIDDEN);
@@ -321,5 +332,8 @@ public class UploadServlet extends HttpServlet implements HttpServiceServlet {
 			logger.log(Level.SEVERE, "Exception while processing request", t);
 			UiAuthenticator.writeInternalServerError(response);
 		}
+
+		// this transaction does not notify transaction listeners
+		ThumbnailService.getInstance().generate(images);
 	}
 }
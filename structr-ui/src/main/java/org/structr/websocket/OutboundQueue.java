@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * Bounded queue of outgoing text messages for a single websocket client.
+ *
+ * Messages are written asynchronously, one at a time and in the order in
+ * which they were offered, so a slow client never blocks the thread that
+ * offers a message. A message that is identical to the last pending
+ * message is coalesced with it. When the queue is full, the client is
+ * too slow to keep up: all pending messages are dropped and the queue is
+ * closed, since a client that missed messages can not be kept in sync.
+ *
+ * @author Christian Morgner
+ */
+public class OutboundQueue implements WriteCallback {
+
+	private static final Logger logger = Logger.getLogger(OutboundQueue.class.getName());
+
+	private final Deque<String> pending = new ArrayDeque<>();
+	private RemoteEndpoint remote       = null;
+	private int capacity                = 0;
+	private boolean writing             = false;
+	private boolean flushing            = false;
+	private boolean closed              = false;
+	private long coalesced              = 0L;
+
+	public OutboundQueue(final RemoteEndpoint remote, final int capacity) {
+
+		this.remote   = remote;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Queues the given message for sending.
+	 *
+	 * @param message
+	 * @return false if the queue is closed or full, in which case the
+	 * client should be disconnected
+	 */
+	public boolean offer(final String message) {
+
+		synchronized (this) {
+
+			if (closed) {
+				return false;
+			}
+
+			if (message.equals(pending.peekLast())) {
+
+				coalesced++;
+				return true;
+			}
+
+			if (pending.size() >= capacity) {
+
+				logger.log(Level.WARNING, "Outbound queue full, dropping {0} messages", pending.size());
+
+				close();
+				return false;
+			}
+
+			pending.add(message);
+		}
+
+		flush();
+
+		return true;
+	}
+
+	public synchronized void close() {
+
+		closed = true;
+		pending.clear();
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+
+	// ----- interface WriteCallback -----
+	@Override
+	public void writeSuccess() {
+
+		synchronized (this) {
+			writing = false;
+		}
+
+		flush();
+	}
+
+	@Override
+	public void writeFailed(final Throwable t) {
+
+		logger.log(Level.FINE, "Error sending message to client.", t);
+
+		synchronized (this) {
+
+			writing = false;
+			close();
+		}
+	}
+
+	// ----- private methods -----
+	private void flush() {
+
+		synchronized (this) {
+
+			// a write that completes immediately calls writeSuccess
+			// from within sendString, the loop below continues then
+			if (flushing) {
+				return;
+			}
+
+			flushing = true;
+		}
+
+		try {
+
+			while (true) {
+
+				final String message;
+
+				synchronized (this) {
+
+					if (writing || closed || pending.isEmpty()) {
+
+						flushing = false;
+						return;
+					}
+
+					message = pending.poll();
+					writing = true;
+				}
+
+				remote.sendString(message, this);
+			}
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Error sending message to client.", t);
+
+			synchronized (this) {
+
+				flushing = false;
+				writing  = false;
+				close();
+			}
+		}
+	}
+}
@@ -20,14 +20,19 @@ package org.structr.websocket;
 
 import com.google.gson.Gson;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
 import org.structr.common.AccessMode;
+import org.structr.common.Permission;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
@@ -37,7 +42,7 @@ import org.structr.core.auth.AuthHelper;
 import org.structr.core.auth.Authenticator;
 import org.structr.core.entity.Principal;
 import org.structr.core.graph.Tx;
-import org.structr.dynamic.File;
+import org.structr.web.common.BlobStore;
 import org.structr.web.entity.FileBase;
 import org.structr.web.entity.User;
 import org.structr.websocket.command.AbstractCommand;
@@ -58,6 +63,10 @@ public class StructrWebSocket implements WebSocketListener {
 	private static final Logger logger = Logger.getLogger(StructrWebSocket.class.getName());
 	private static final Map<String, Class> commandSet = new LinkedHashMap<>();
 
+	public static final int UUID_LENGTH                = 32;
+	public static final int CHUNK_HEADER_SIZE          = UUID_LENGTH + 16;
+	public static final int MAX_CHUNK_SIZE             = 1024 * 1024;
+
 	//~--- fields ---------------------------------------------------------
 	private String callback                        = null;
 	private Session session                        = null;
@@ -68,6 +77,7 @@ public class StructrWebSocket implements WebSocketListener {
 	private Map<String, FileUploadHandler> uploads = null;
 	private Authenticator authenticator            = null;
 	private String pagePath                        = null;
+	private OutboundQueue outbound                 = null;
 
 	//~--- constructors ---------------------------------------------------
 
@@ -92,12 +102,14 @@ public class StructrWebSocket implements WebSocketListener {
 
 		logger.log(Level.INFO, "New connection with protocol {0}", session.getProtocolVersion());
 
-		this.session = session;
-
-		syncController.registerClient(this);
+		this.session  = session;
+		this.outbound = new OutboundQueue(session.getRemote(), syncController.getOutboundQueueSize());
 
+		// the page path must be known when the client is registered
 		pagePath = request.getQueryString();
 
+		syncController.registerClient(this);
+
 	}
 
 	@Override
@@ -113,6 +125,10 @@ public class StructrWebSocket implements WebSocketListener {
 
 			syncController.unregisterClient(this);
 
+			if (outbound != null) {
+				outbound.close();
+			}
+
 			// flush and close open uploads
 			for (FileUploadHandler upload : uploads.values()) {
 
@@ -314,7 +330,9 @@ public class StructrWebSocket implements WebSocketListener {
                             securityContext.clearCustomView();
                         }
 
-			session.getRemote().sendString(msg);
+			if (!send(msg)) {
+				logger.log(Level.WARNING, "Unable to send websocket message to remote client");
+			}
 
 			tx.success();
 
@@ -325,61 +343,119 @@ public class StructrWebSocket implements WebSocketListener {
 
 	}
 
-	// ----- file handling -----
-	public void createFileUploadHandler(FileBase file) {
+	/**
+	 * Queues the given serialized message for asynchronous sending. If
+	 * the client can not keep up with the messages sent to it, the
+	 * connection is closed.
+	 *
+	 * @param message
+	 * @return false if the message could not be queued
+	 */
+	public boolean send(final String message) {
 
-		String uuid = file.getProperty(GraphObject.id);
+		final OutboundQueue queue = outbound;
 
-		uploads.put(uuid, new FileUploadHandler(file));
+		if (queue == null) {
+			return false;
+		}
 
-	}
+		if (queue.offer(message)) {
+			return true;
+		}
 
-	public void removeFileUploadHandler(final String uuid) {
+		final Session currentSession = session;
+
+		if (currentSession != null && currentSession.isOpen()) {
 
-		uploads.remove(uuid);
+			// client missed messages, make it reconnect and reload
+			currentSession.close(StatusCode.POLICY_VIOLATION, "Client too slow");
+		}
 
+		return false;
 	}
 
-	private FileUploadHandler handleExistingFile(final String uuid) {
+	// ----- subscriptions -----
+	public void subscribe(final SubscriptionIndex.Kind kind, final Collection<String> keys) {
 
-		FileUploadHandler newHandler = null;
+		syncController.getSubscriptionIndex().subscribe(this, kind, keys);
 
-		try {
+	}
 
-			File file = (File) StructrApp.getInstance(securityContext).get(uuid);
+	public void unsubscribe(final SubscriptionIndex.Kind kind, final Collection<String> keys) {
 
-			if (file != null) {
+		syncController.getSubscriptionIndex().unsubscribe(this, kind, keys);
 
-				newHandler = new FileUploadHandler(file);
+	}
 
-				//uploads.put(uuid, newHandler);
-			}
+	public int getPendingMessages() {
 
-		} catch (FrameworkException ex) {
+		final OutboundQueue queue = outbound;
 
-			logger.log(Level.WARNING, "File not found with id " + uuid, ex);
+		return queue != null ? queue.size() : 0;
+	}
 
-		}
+	// ----- file handling -----
+	public void createFileUploadHandler(FileBase file) {
 
-		return newHandler;
+		String uuid = file.getProperty(GraphObject.id);
+
+		uploads.put(uuid, new FileUploadHandler(file));
 
 	}
 
-	public void handleFileChunk(final String uuid, final int sequenceNumber, final int chunkSize, final byte[] data, final int chunks) throws IOException {
+	public void removeFileUploadHandler(final String uuid) {
+
+		final FileUploadHandler upload = uploads.remove(uuid);
+
+		if (upload != null) {
+
+			// close the channel of the aborted upload
+			upload.finish();
+		}
+
+	}
 
+	/**
+	 * Writes a chunk of a file upload, and stores the content of the file
+	 * when all chunks have been received. Must be called in a transaction.
+	 *
+	 * @param file
+	 * @param sequenceNumber
+	 * @param chunkSize
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param chunks
+	 * @return the stored content if the upload is complete, null otherwise
+	 *
+	 * @throws FrameworkException
+	 * @throws IOException
+	 */
+	public BlobStore.Content handleFileChunk(final FileBase file, final int sequenceNumber, final int chunkSize, final byte[] data, final int offset, final int length, final int chunks) throws FrameworkException, IOException {
+
+		final String uuid        = file.getUuid();
 		FileUploadHandler upload = uploads.get(uuid);
 
 		if (upload == null) {
 
-			upload = handleExistingFile(uuid);
+			// upload of new content for an existing file
+			upload = new FileUploadHandler(file);
+			uploads.put(uuid, upload);
 		}
 
-		if (upload != null) {
+		if (upload.handleChunk(sequenceNumber, chunkSize, data, offset, length, chunks)) {
+
+			uploads.remove(uuid);
+
+			final BlobStore.Content content = upload.complete(file);
 
-			upload.handleChunk(sequenceNumber, chunkSize, data, chunks);
+			file.increaseVersion();
 
+			return content;
 		}
 
+		return null;
+
 	}
 
 	private void authenticate(final String sessionId) {
@@ -465,9 +541,104 @@ public class StructrWebSocket implements WebSocketListener {
 		this.securityContext = SecurityContext.getInstance(user, AccessMode.Backend);
 	}
 
+	/**
+	 * Receives a chunk of a file upload. A binary frame consists of a
+	 * header of {@link #CHUNK_HEADER_SIZE} bytes and the chunk data. The
+	 * header contains the UUID of the file (32 ASCII characters), followed
+	 * by the sequence number of the chunk, the chunk size, the number of
+	 * chunks and the length of the chunk data as big-endian 32-bit integers.
+	 *
+	 * Every chunk is acknowledged with a STATUS message that contains the
+	 * chunk id, so clients can keep several chunks in flight.
+	 */
 	@Override
-	public void onWebSocketBinary(final byte[] bytes, int i, int i1) {
-		throw new UnsupportedOperationException("Not supported yet.");
+	public void onWebSocketBinary(final byte[] payload, final int offset, final int length) {
+
+		// binary frames never have a callback
+		this.callback = null;
+
+		if (length < CHUNK_HEADER_SIZE) {
+
+			send(MessageBuilder.status().code(400).message("Invalid chunk header").build(), true);
+			return;
+		}
+
+		final ByteBuffer header = ByteBuffer.wrap(payload, offset, CHUNK_HEADER_SIZE);
+		final String uuid       = new String(payload, offset, UUID_LENGTH, StandardCharsets.US_ASCII);
+
+		header.position(offset + UUID_LENGTH);
+
+		final int sequenceNumber = header.getInt();
+		final int chunkSize      = header.getInt();
+		final int chunks         = header.getInt();
+		final int dataLength     = header.getInt();
+
+		if (dataLength < 0 || dataLength != length - CHUNK_HEADER_SIZE) {
+
+			send(MessageBuilder.status().code(400).message("Invalid chunk length").build(), true);
+			return;
+		}
+
+		// the chunk size determines the write position, so it must be checked before anything is written
+		if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || dataLength > chunkSize || chunks <= 0) {
+
+			send(MessageBuilder.status().code(400).message("Invalid chunk size").build(), true);
+			return;
+		}
+
+		final App app = StructrApp.getInstance(securityContext);
+		String result = null;
+
+		try (final Tx tx = app.tx()) {
+
+			if (!isAuthenticated()) {
+
+				// send 401 Authentication Required
+				send(MessageBuilder.status().code(401).message("").build(), true);
+				return;
+			}
+
+			final GraphObject obj = app.get(uuid);
+
+			if (!(obj instanceof FileBase)) {
+
+				send(MessageBuilder.status().code(404).message("File not found").build(), true);
+				return;
+			}
+
+			final FileBase file = (FileBase) obj;
+
+			if (!securityContext.isAllowed(file, Permission.write)) {
+
+				logger.log(Level.WARNING, "No write permission for {0} on {1}", new Object[] {getCurrentUser().toString(), file.toString()});
+				send(MessageBuilder.status().message("No write permission").code(400).build(), true);
+				return;
+			}
+
+			final BlobStore.Content content = handleFileChunk(file, sequenceNumber, chunkSize, payload, offset + CHUNK_HEADER_SIZE, dataLength, chunks);
+
+			if (content != null) {
+
+				logger.log(Level.FINE, "File upload finished. Checksum: {0}, size: {1}", new Object[]{ content.getChecksum(), content.getSize() });
+			}
+
+			final long currentSize = (long)sequenceNumber * chunkSize + dataLength;
+
+			result = "{\"id\":\"" + file.getUuid() + "\", \"name\":\"" + file.getName() + "\",\"size\":" + currentSize + "}";
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			removeFileUploadHandler(uuid);
+
+			send(MessageBuilder.status().code(400).message("Could not process chunk data: " + ex.toString()).build(), true);
+			return;
+		}
+
+		// acknowledge after commit
+		send(MessageBuilder.status().code(200).message(result).data("chunkId", sequenceNumber).data("chunks", chunks).build(), true);
+
 	}
 
 	@Override
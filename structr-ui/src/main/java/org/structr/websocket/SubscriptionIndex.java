@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.eclipse.jetty.util.ConcurrentHashSet;
+
+/**
+ * Index of the websocket clients by the pages, entities and types they
+ * are interested in.
+ *
+ * A client that has not subscribed to anything receives all messages,
+ * like the admin UI does. A client that subscribed to at least one page,
+ * entity id or type only receives the messages that match one of its
+ * subscriptions. Lookups do not iterate over the connected clients, so
+ * the cost of a broadcast depends on the number of interested clients.
+ *
+ * @author Christian Morgner
+ */
+public class SubscriptionIndex {
+
+	public enum Kind {
+		Page, Id, Type
+	}
+
+	private final Map<Kind, ConcurrentMap<String, Set<StructrWebSocket>>> index = new EnumMap<>(Kind.class);
+	private final ConcurrentMap<StructrWebSocket, Subscriptions> clients        = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Class, Set<String>> typeNames                   = new ConcurrentHashMap<>();
+	private final Set<StructrWebSocket> wildcard                                = new ConcurrentHashSet<>();
+
+	public SubscriptionIndex() {
+
+		for (final Kind kind : Kind.values()) {
+			index.put(kind, new ConcurrentHashMap<String, Set<StructrWebSocket>>());
+		}
+	}
+
+	/**
+	 * Adds the given client, which is subscribed to its page path if it
+	 * has one, and to all messages otherwise.
+	 *
+	 * @param client
+	 */
+	public synchronized void add(final StructrWebSocket client) {
+
+		clients.put(client, new Subscriptions());
+
+		final String pagePath = client.getPagePath();
+		if (pagePath != null) {
+
+			subscribe(client, Kind.Page, Collections.singleton(pagePath));
+
+		} else {
+
+			wildcard.add(client);
+		}
+	}
+
+	public synchronized void remove(final StructrWebSocket client) {
+
+		final Subscriptions subscriptions = clients.remove(client);
+
+		if (subscriptions != null) {
+
+			for (final Kind kind : Kind.values()) {
+				removeKeys(client, kind, subscriptions.get(kind));
+			}
+		}
+
+		wildcard.remove(client);
+	}
+
+	public synchronized void subscribe(final StructrWebSocket client, final Kind kind, final Collection<String> keys) {
+
+		final Subscriptions subscriptions = clients.get(client);
+		if (subscriptions == null || keys.isEmpty()) {
+			return;
+		}
+
+		final ConcurrentMap<String, Set<StructrWebSocket>> map = index.get(kind);
+
+		for (final String key : keys) {
+
+			Set<StructrWebSocket> subscribers = map.get(key);
+			if (subscribers == null) {
+
+				subscribers = new ConcurrentHashSet<>();
+				map.put(key, subscribers);
+			}
+
+			subscribers.add(client);
+			subscriptions.get(kind).add(key);
+		}
+
+		wildcard.remove(client);
+	}
+
+	/**
+	 * Removes the given subscriptions of a client, or all of its
+	 * subscriptions if keys is null. A client without subscriptions
+	 * receives all messages again.
+	 *
+	 * @param client
+	 * @param kind
+	 * @param keys
+	 */
+	public synchronized void unsubscribe(final StructrWebSocket client, final Kind kind, final Collection<String> keys) {
+
+		final Subscriptions subscriptions = clients.get(client);
+		if (subscriptions == null) {
+			return;
+		}
+
+		final Set<String> keysToRemove = new LinkedHashSet<>(keys != null ? keys : subscriptions.get(kind));
+
+		removeKeys(client, kind, keysToRemove);
+		subscriptions.get(kind).removeAll(keysToRemove);
+
+		if (subscriptions.isEmpty()) {
+			wildcard.add(client);
+		}
+	}
+
+	/**
+	 * Returns the clients that are interested in a message for the given
+	 * page path, entity ids and types.
+	 *
+	 * @param pagePath the encoded page path of the message, or null
+	 * @param ids
+	 * @param types
+	 * @return the subscribers
+	 */
+	public Set<StructrWebSocket> getSubscribers(final String pagePath, final Collection<String> ids, final Collection<String> types) {
+
+		final Set<StructrWebSocket> subscribers = new LinkedHashSet<>(wildcard);
+
+		if (pagePath != null) {
+			addSubscribers(subscribers, Kind.Page, Collections.singleton(pagePath));
+		}
+
+		addSubscribers(subscribers, Kind.Id, ids);
+		addSubscribers(subscribers, Kind.Type, types);
+
+		return subscribers;
+	}
+
+	/**
+	 * @param kind
+	 * @return whether any client subscribed to keys of the given kind
+	 */
+	public boolean hasSubscriptions(final Kind kind) {
+		return !index.get(kind).isEmpty();
+	}
+
+	/**
+	 * Returns the names of the given type and its supertypes, so clients
+	 * can subscribe to a base type like FileBase.
+	 *
+	 * @param type
+	 * @return the type names
+	 */
+	public Set<String> getTypeNames(final Class type) {
+
+		Set<String> names = typeNames.get(type);
+		if (names == null) {
+
+			names = new LinkedHashSet<>();
+
+			for (Class current = type; current != null && !Object.class.equals(current); current = current.getSuperclass()) {
+				names.add(current.getSimpleName());
+			}
+
+			typeNames.put(type, names);
+		}
+
+		return names;
+	}
+
+	public Set<StructrWebSocket> getClients() {
+		return clients.keySet();
+	}
+
+	public int size() {
+		return clients.size();
+	}
+
+	// ----- private methods -----
+	private void addSubscribers(final Set<StructrWebSocket> subscribers, final Kind kind, final Collection<String> keys) {
+
+		if (keys == null) {
+			return;
+		}
+
+		final ConcurrentMap<String, Set<StructrWebSocket>> map = index.get(kind);
+		if (map.isEmpty()) {
+			return;
+		}
+
+		for (final String key : keys) {
+
+			final Set<StructrWebSocket> set = map.get(key);
+			if (set != null) {
+
+				subscribers.addAll(set);
+			}
+		}
+	}
+
+	private void removeKeys(final StructrWebSocket client, final Kind kind, final Collection<String> keys) {
+
+		final ConcurrentMap<String, Set<StructrWebSocket>> map = index.get(kind);
+
+		for (final String key : keys) {
+
+			final Set<StructrWebSocket> subscribers = map.get(key);
+			if (subscribers != null) {
+
+				subscribers.remove(client);
+
+				if (subscribers.isEmpty()) {
+					map.remove(key);
+				}
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	private static class Subscriptions {
+
+		private final Map<Kind, Set<String>> keys = new EnumMap<>(Kind.class);
+
+		public Subscriptions() {
+
+			for (final Kind kind : Kind.values()) {
+				keys.put(kind, new LinkedHashSet<String>());
+			}
+		}
+
+		public Set<String> get(final Kind kind) {
+			return keys.get(kind);
+		}
+
+		public boolean isEmpty() {
+
+			for (final Set<String> set : keys.values()) {
+
+				if (!set.isEmpty()) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -19,26 +19,32 @@
 package org.structr.websocket;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonPrimitive;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.eclipse.jetty.util.URIUtil;
-import org.eclipse.jetty.websocket.api.Session;
-import org.eclipse.jetty.websocket.api.WebSocketException;
 import org.neo4j.graphdb.RelationshipType;
 import org.structr.common.AccessMode;
 import org.structr.common.SecurityContext;
+import org.structr.common.StatisticsRegistry;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.StructrTransactionListener;
+import org.structr.core.Services;
 import org.structr.core.TransactionSource;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.Principal;
 import org.structr.core.graph.ModificationEvent;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.RelationshipInterface;
@@ -53,98 +59,114 @@ import org.structr.websocket.message.WebSocketMessage;
  *
  * @author Christian Morgner
  */
-public class WebsocketController implements StructrTransactionListener {
+public class WebsocketController implements StructrTransactionListener, StatisticsRegistry.Source {
 
 	private static final Logger logger = Logger.getLogger(WebsocketController.class.getName());
 
-	private final Set<StructrWebSocket> clients = new ConcurrentHashSet<>();
-	private Gson gson = null;
+	public static final String OUTBOUND_QUEUE_SIZE = "WebSocketServlet.outboundQueueSize";
+
+	private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+	private final AtomicLong broadcasts         = new AtomicLong(0L);
+	private final AtomicLong serializations     = new AtomicLong(0L);
+	private final AtomicLong deliveries         = new AtomicLong(0L);
+	private final AtomicLong dropped            = new AtomicLong(0L);
+	private Gson gson                           = null;
+	private int outboundQueueSize               = 0;
 
 	public WebsocketController(final Gson gson) {
 
-		this.gson = gson;
+		this.gson              = gson;
+		this.outboundQueueSize = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue(OUTBOUND_QUEUE_SIZE, "1000"), 1000));
 
 	}
 
 	public void registerClient(final StructrWebSocket client) {
 
-		clients.add(client);
+		subscriptions.add(client);
 
 	}
 
 	public void unregisterClient(final StructrWebSocket client) {
 
-		clients.remove(client);
+		subscriptions.remove(client);
+
+	}
+
+	public int getOutboundQueueSize() {
+		return outboundQueueSize;
+	}
 
+	public SubscriptionIndex getSubscriptionIndex() {
+		return subscriptions;
 	}
 
 	// ----- private methods -----
-	private void broadcast(final WebSocketMessage webSocketData) {
+	/**
+	 * Sends the given message to the clients that subscribed to the page
+	 * of the message, to one of the given entity ids or types, or to all
+	 * messages (see {@link SubscriptionIndex}). The message is serialized
+	 * once per visibility class of the receiving clients (see
+	 * {@link #getVisibilityKey(SecurityContext)}) and queued for sending
+	 * to each client, so slow clients do not delay the committing thread.
+	 */
+	private void broadcast(final WebSocketMessage webSocketData, final Set<String> ids, final Set<String> types) {
 
 		//logger.log(Level.FINE, "Broadcasting message to {0} clients..", clients.size());
 		// session must be valid to be received by the client
 		webSocketData.setSessionValid(true);
 
-		String message;
-		String pagePath = (String) webSocketData.getNodeData().get("pagePath");
+		final String pagePath                   = (String) webSocketData.getNodeData().get("pagePath");
+		final String encodedPagePath            = URIUtil.encodePath(pagePath);
+		final List<? extends GraphObject> result = webSocketData.getResult();
+		final String command                    = webSocketData.getCommand();
+		final boolean filterResult              = (result != null) && (result.size() > 0) && ("UPDATE".equals(command) || "ADD".equals(command) || "CREATE".equals(command));
+		final Map<String, String> messages      = new HashMap<>();
 
 		List<StructrWebSocket> clientsToRemove = new LinkedList<>();
 
-		// create message
-		for (StructrWebSocket socket : clients) {
+		broadcasts.incrementAndGet();
 
-			String clientPagePath = socket.getPagePath();
-			if (clientPagePath != null && !clientPagePath.equals(URIUtil.encodePath(pagePath))) {
+		for (StructrWebSocket socket : subscriptions.getSubscribers(encodedPagePath, ids, types)) {
+
+			if (socket.getSession() == null) {
 				continue;
 			}
 
-			Session session = socket.getSession();
+			SecurityContext securityContext = socket.getSecurityContext();
 
-			webSocketData.setCallback(socket.getCallback());
+			// For non-authenticated clients, construct a security context without user
+			if (securityContext == null) {
+				securityContext = SecurityContext.getInstance(null, AccessMode.Frontend);
+			}
 
-			if ((session != null)) { //&& socket.isAuthenticated()) {
+			final String key = filterResult ? getVisibilityKey(securityContext) : "";
+			String message   = messages.get(key);
 
-				List<? extends GraphObject> result = webSocketData.getResult();
+			if (message == null) {
 
-				if ((result != null) && (result.size() > 0)
-					&& (webSocketData.getCommand().equals("UPDATE") || webSocketData.getCommand().equals("ADD") || webSocketData.getCommand().equals("CREATE"))) {
+				// the callback is added per client, see withCallback()
+				final WebSocketMessage clientData = webSocketData.copy();
 
-					WebSocketMessage clientData = webSocketData.copy();
-					SecurityContext securityContext = socket.getSecurityContext();
-
-					// For non-authenticated clients, construct a security context without user
-					if (securityContext == null) {
-						securityContext = SecurityContext.getInstance(null, AccessMode.Frontend);
-					}
+				clientData.setCallback(null);
 
+				if (filterResult) {
 					clientData.setResult(filter(securityContext, result));
-
-					message = gson.toJson(clientData, WebSocketMessage.class);
-
-				} else {
-
-					message = gson.toJson(webSocketData, WebSocketMessage.class);
 				}
 
-				//logger.log(Level.INFO, "############################################################ SENDING \n{0}", message);
-				try {
-
-					session.getRemote().sendString(message);
-
-				} catch (Throwable t) {
+				message = gson.toJson(clientData, WebSocketMessage.class);
+				messages.put(key, message);
 
-					if (t instanceof WebSocketException) {
+				serializations.incrementAndGet();
+			}
 
-						WebSocketException wse = (WebSocketException) t;
+			//logger.log(Level.INFO, "############################################################ SENDING \n{0}", message);
+			if (socket.send(withCallback(message, socket.getCallback()))) {
 
-						if ("RemoteEndpoint unavailable, current state [CLOSED], expecting [OPEN or CONNECTED]".equals(wse.getMessage())) {
-							clientsToRemove.add(socket);
-						}
-					}
+				deliveries.incrementAndGet();
 
-					logger.log(Level.FINE, "Error sending message to client.", t);
-				}
+			} else {
 
+				clientsToRemove.add(socket);
 			}
 
 		}
@@ -152,6 +174,7 @@ public class WebsocketController implements StructrTransactionListener {
 		for (StructrWebSocket s : clientsToRemove) {
 
 			unregisterClient(s);
+			dropped.incrementAndGet();
 
 			logger.log(Level.WARNING, "Client removed from broadcast list: {0}", s);
 		}
@@ -173,6 +196,66 @@ public class WebsocketController implements StructrTransactionListener {
 
 	}
 
+	/**
+	 * Returns a key that is identical for all security contexts that see
+	 * the same nodes: all anonymous contexts, all superuser contexts and
+	 * all contexts of the same user (with the same access mode). Grants and
+	 * ownership are checked against the user itself, so users with the
+	 * same groups do not necessarily see the same nodes.
+	 */
+	static String getVisibilityKey(final SecurityContext securityContext) {
+
+		final Principal user = securityContext.getUser(false);
+		final String mode    = String.valueOf(securityContext.getAccessMode());
+
+		if (user == null) {
+
+			return "anonymous/" + mode;
+		}
+
+		if (securityContext.isSuperUser()) {
+
+			return "superuser/" + mode;
+		}
+
+		return "user/" + user.getUuid() + "/" + mode;
+	}
+
+	/**
+	 * Adds the given callback to a serialized message without
+	 * serializing the message again. Serialized messages are never
+	 * empty since they always contain the sessionValid flag.
+	 */
+	static String withCallback(final String message, final String callback) {
+
+		if (callback == null || !message.startsWith("{")) {
+			return message;
+		}
+
+		return "{\"callback\":" + new JsonPrimitive(callback).toString() + "," + message.substring(1);
+	}
+
+	// ----- interface StatisticsRegistry.Source -----
+	@Override
+	public Map<String, Object> getStatistics() {
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+		int pending                     = 0;
+
+		for (final StructrWebSocket socket : subscriptions.getClients()) {
+			pending += socket.getPendingMessages();
+		}
+
+		stats.put("clients", subscriptions.size());
+		stats.put("broadcasts", broadcasts.get());
+		stats.put("serializations", serializations.get());
+		stats.put("deliveries", deliveries.get());
+		stats.put("pending", pending);
+		stats.put("dropped", dropped.get());
+
+		return stats;
+	}
+
 	// ----- interface StructrTransactionListener -----
 	@Override
 	public void beforeCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) {
@@ -188,8 +271,14 @@ public class WebsocketController implements StructrTransactionListener {
 				try {
 					final WebSocketMessage message = getMessageForEvent(securityContext, event);
 					if (message != null) {
+
+						final Set<String> ids   = new LinkedHashSet<>();
+						final Set<String> types = new LinkedHashSet<>();
+
+						getSubscriptionKeys(event, ids, types);
+
 						logger.log(Level.FINE, "################### Broadcast message: {0}", message.getCommand());
-						broadcast(message);
+						broadcast(message, ids, types);
 					}
 
 				} catch (FrameworkException ignore) {
@@ -323,6 +412,68 @@ public class WebsocketController implements StructrTransactionListener {
 		return null;
 	}
 
+	/**
+	 * Collects the entity ids and type names a client can subscribe to in
+	 * order to receive the message for the given event: the node itself
+	 * and its page, or the nodes connected by a relationship.
+	 */
+	private void getSubscriptionKeys(final ModificationEvent modificationEvent, final Set<String> ids, final Set<String> types) {
+
+		final boolean needsIds   = subscriptions.hasSubscriptions(SubscriptionIndex.Kind.Id);
+		final boolean needsTypes = subscriptions.hasSubscriptions(SubscriptionIndex.Kind.Type);
+
+		if (!needsIds && !needsTypes) {
+			return;
+		}
+
+		if (modificationEvent.isNode()) {
+
+			if (modificationEvent.isDeleted()) {
+
+				ids.add(modificationEvent.getRemovedProperties().get(GraphObject.id));
+
+				final String type = modificationEvent.getRemovedProperties().get(GraphObject.type);
+				if (type != null) {
+
+					final Class typeClass = StructrApp.getConfiguration().getNodeEntityClass(type);
+					types.addAll(typeClass != null ? subscriptions.getTypeNames(typeClass) : Collections.singleton(type));
+				}
+
+				return;
+			}
+
+			final NodeInterface node = (NodeInterface) modificationEvent.getGraphObject();
+
+			ids.add(node.getUuid());
+
+			if (needsIds && node instanceof DOMNode) {
+
+				final String pageId = node.getProperty(DOMNode.pageId);
+				if (pageId != null) {
+
+					ids.add(pageId);
+				}
+			}
+
+			if (needsTypes) {
+				types.addAll(subscriptions.getTypeNames(node.getClass()));
+			}
+
+		} else {
+
+			final RelationshipInterface relationship = (RelationshipInterface) modificationEvent.getGraphObject();
+
+			ids.add(relationship.getSourceNodeId());
+			ids.add(relationship.getTargetNodeId());
+
+			if (needsTypes && !modificationEvent.isDeleted()) {
+
+				types.addAll(subscriptions.getTypeNames(relationship.getSourceNode().getClass()));
+				types.addAll(subscriptions.getTypeNames(relationship.getTargetNode().getClass()));
+			}
+		}
+	}
+
 	private WebSocketMessage createMessage(final String command) {
 
 		final WebSocketMessage newMessage = new WebSocketMessage();
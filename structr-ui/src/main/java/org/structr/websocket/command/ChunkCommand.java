@@ -32,7 +32,7 @@ import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.dynamic.File;
 import org.structr.util.Base64;
-import org.structr.web.common.FileHelper;
+import org.structr.web.common.BlobStore;
 import org.structr.websocket.StructrWebSocket;
 
 //~--- classes ----------------------------------------------------------------
@@ -92,24 +92,15 @@ public class ChunkCommand extends AbstractCommand {
 
 			}
 
-			getWebSocket().handleFileChunk(uuid, sequenceNumber, chunkSize, data, chunks);
+			final BlobStore.Content content = getWebSocket().handleFileChunk(file, sequenceNumber, chunkSize, data, 0, data.length, chunks);
 
-			if (sequenceNumber+1 == chunks) {
+			if (content != null) {
 
-				final long checksum = FileHelper.getChecksum(file);
-				final long size     = FileHelper.getSize(file);
-
-				file.setProperty(File.checksum, checksum);
-				file.setProperty(File.size, size);
-				file.increaseVersion();
-
-				getWebSocket().removeFileUploadHandler(uuid);
-
-				logger.log(Level.FINE, "File upload finished. Checksum: {0}, size: {1}", new Object[]{ checksum, size });
+				logger.log(Level.FINE, "File upload finished. Checksum: {0}, size: {1}", new Object[]{ content.getChecksum(), content.getSize() });
 
 			}
 
-			final long currentSize = (long)(sequenceNumber * chunkSize) + data.length;
+			final long currentSize = (long)sequenceNumber * chunkSize + data.length;
 
 			// This should trigger setting of lastModifiedDate in any case
 			getWebSocket().send(MessageBuilder.status().code(200).message("{\"id\":\"" + file.getUuid() + "\", \"name\":\"" + file.getName() + "\",\"size\":" + currentSize + "}").build(), true);
@@ -18,20 +18,27 @@
  */
 package org.structr.websocket.command;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.BitSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.error.FrameworkException;
-import org.structr.dynamic.File;
+import org.structr.web.common.BlobStore;
 import org.structr.web.common.FileHelper;
 import org.structr.web.entity.FileBase;
 
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Writes the chunks of a file upload into the private path of the file.
+ *
+ * The channel is opened once per upload and chunks are written at their
+ * position, so they may arrive in any order. The digest of the content is
+ * computed while the chunks arrive in sequence; the content is moved to
+ * the blob store when all chunks have been received.
  *
  * @author Christian Morgner
  */
@@ -41,80 +48,112 @@ public class FileUploadHandler {
 
 	//~--- fields ---------------------------------------------------------
 
-	private FileBase file                  = null;
-	private FileChannel privateFileChannel = null;
-	private Long size                      = 0L;
+	private FileBase file                   = null;
+	private java.io.File fileOnDisk         = null;
+	private FileChannel privateFileChannel  = null;
+	private BlobStore.ContentDigest digest  = null;
+	private BitSet received                 = null;
+	private int chunks                      = 0;
 
 	//~--- constructors ---------------------------------------------------
 
 	public FileUploadHandler(FileBase file) {
 
-		this.size = file.getProperty(File.size);
 		this.file = file;
 
-		if (this.size == null) {
-
-			FileChannel channel;
-			try {
+	}
 
-				channel = getChannel(false);
-				this.size = channel.size();
-				updateSize(this.size);
+	//~--- methods --------------------------------------------------------
 
-			} catch (IOException ex) {
-				logger.log(Level.SEVERE, "Could not access file", ex);
-			}
+	/**
+	 * Writes a chunk of the upload.
+	 *
+	 * @param sequenceNumber the index of the chunk
+	 * @param chunkSize the size of all chunks except the last one
+	 * @param data the buffer containing the chunk
+	 * @param offset the offset of the chunk in the buffer
+	 * @param length the length of the chunk
+	 * @param chunks the total number of chunks
+	 * @return true if all chunks of the upload have been received
+	 *
+	 * @throws IOException
+	 */
+	public boolean handleChunk(final int sequenceNumber, final int chunkSize, final byte[] data, final int offset, final int length, final int chunks) throws IOException {
 
+		if (sequenceNumber < 0 || sequenceNumber >= chunks) {
 
+			throw new IOException("Invalid chunk " + sequenceNumber + " of " + chunks);
 		}
 
-	}
+		if (chunkSize <= 0 || length > chunkSize) {
 
-	//~--- methods --------------------------------------------------------
+			throw new IOException("Invalid chunk size " + chunkSize + " for " + length + " bytes");
+		}
 
-	public void handleChunk(int sequenceNumber, int chunkSize, byte[] data, int chunks) throws IOException {
+		if (chunks != this.chunks) {
 
-		FileChannel channel = getChannel(sequenceNumber > 0);
+			// new upload, or the client restarted with a different chunk count
+			reset(chunks);
+		}
 
-		if (channel != null) {
+		final FileChannel channel = getChannel();
+		final ByteBuffer buffer   = ByteBuffer.wrap(data, offset, length);
+		long position             = (long)sequenceNumber * chunkSize;
 
-			channel.position(sequenceNumber * chunkSize);
-			channel.write(ByteBuffer.wrap(data));
+		while (buffer.hasRemaining()) {
 
-			if (this.size == null) {
+			position += channel.write(buffer, position);
+		}
 
-				this.size = channel.size();
+		if (digest != null) {
 
-			}
+			if (!received.get(sequenceNumber) && digest.getSize() == (long)sequenceNumber * chunkSize) {
 
-			// finish upload
-			if (sequenceNumber + 1 == chunks) {
+				digest.update(data, offset, length);
 
-				finish();
-				updateSize(this.size);
+			} else {
 
+				// out of order or repeated, digest the file when finished
+				digest = null;
 			}
-
 		}
 
+		received.set(sequenceNumber);
+
+		return received.cardinality() == chunks;
+
 	}
 
-	private void updateSize(final Long size) {
+	public boolean handleChunk(final int sequenceNumber, final int chunkSize, final byte[] data, final int chunks) throws IOException {
 
-		if (size == null) {
-			return;
-		}
+		return handleChunk(sequenceNumber, chunkSize, data, 0, data.length, chunks);
 
-		try {
+	}
 
-			file.setProperty(File.size, size);
+	/**
+	 * Closes the channel and moves the uploaded content to the blob store,
+	 * must be called in a transaction after {@link #handleChunk} returned
+	 * true.
+	 *
+	 * @param file the file node in the current transaction
+	 * @return the stored content
+	 *
+	 * @throws FrameworkException
+	 * @throws IOException
+	 */
+	public BlobStore.Content complete(final FileBase file) throws FrameworkException, IOException {
+
+		finish();
 
-		} catch (FrameworkException ex) {
+		final java.io.File uploaded = getFileOnDisk();
 
-			logger.log(Level.WARNING, "Could not set size to " + size, ex);
+		if (digest != null) {
 
+			return BlobStore.getInstance().adopt(file, uploaded, digest.getContent());
 		}
 
+		return BlobStore.getInstance().adopt(file, uploaded);
+
 	}
 
 	/**
@@ -124,16 +163,10 @@ public class FileUploadHandler {
 
 		try {
 
-			FileChannel channel = getChannel(false);
-
-			if (channel != null && channel.isOpen()) {
-
-				channel.force(true);
-				channel.close();
+			if (privateFileChannel != null && privateFileChannel.isOpen()) {
 
-				this.privateFileChannel = null;
-
-				//file.increaseVersion();
+				privateFileChannel.force(true);
+				privateFileChannel.close();
 
 			}
 
@@ -143,36 +176,74 @@ public class FileUploadHandler {
 
 		}
 
+		this.privateFileChannel = null;
+
 	}
 
 	//~--- get methods ----------------------------------------------------
 
+	/**
+	 * @return true if the channel to the uploaded file is open
+	 */
+	public boolean isOpen() {
+
+		return privateFileChannel != null && privateFileChannel.isOpen();
+
+	}
+
 	// ----- private methods -----
-	private FileChannel getChannel(final boolean append) throws IOException {
+	private void reset(final int chunks) throws IOException {
+
+		finish();
+
+		this.chunks   = chunks;
+		this.received = new BitSet(chunks);
+		this.digest   = new BlobStore.ContentDigest();
+
+		// discard the content of a previous upload
+		getChannel().truncate(0L);
+
+	}
+
+	private FileChannel getChannel() throws IOException {
 
 		if (this.privateFileChannel == null) {
 
-			String relativeFilePath = file.getRelativeFilePath();
+			final java.io.File uploaded = getFileOnDisk();
+
+			uploaded.getParentFile().mkdirs();
+
+			this.privateFileChannel = new RandomAccessFile(uploaded, "rw").getChannel();
+
+		}
+
+		return this.privateFileChannel;
+
+	}
 
-			if (relativeFilePath != null) {
+	private java.io.File getFileOnDisk() throws IOException {
 
-				if (relativeFilePath.contains("..")) {
+		if (this.fileOnDisk == null) {
 
-					throw new IOException("Security violation: File path contains ..");
-				}
+			// chunks are written to the private path of the file, the
+			// content is moved to the blob store when the upload is complete
+			final String relativeFilePath = BlobStore.getPrivatePath(file);
 
-				String filePath         = FileHelper.getFilePath(relativeFilePath);
-				java.io.File fileOnDisk = new java.io.File(filePath);
+			if (relativeFilePath == null) {
 
-				fileOnDisk.getParentFile().mkdirs();
+				throw new IOException("File has no path");
+			}
 
-				this.privateFileChannel = new FileOutputStream(fileOnDisk, append).getChannel();
+			if (relativeFilePath.contains("..")) {
 
+				throw new IOException("Security violation: File path contains ..");
 			}
 
+			this.fileOnDisk = new java.io.File(FileHelper.getFilePath(relativeFilePath));
+
 		}
 
-		return this.privateFileChannel;
+		return this.fileOnDisk;
 
 	}
 
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket.command;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.structr.websocket.StructrWebSocket;
+import org.structr.websocket.SubscriptionIndex;
+import org.structr.websocket.message.WebSocketMessage;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Subscribes the client to the broadcast messages for the given pages,
+ * entity ids and types (comma-separated). Once a client has subscribed
+ * to anything, it only receives the matching broadcast messages.
+ *
+ * The server gives no feedback on a SUBSCRIBE command.
+ *
+ * @author Christian Morgner
+ */
+public class SubscribeCommand extends AbstractCommand {
+
+	static {
+
+		StructrWebSocket.addCommand(SubscribeCommand.class);
+
+	}
+
+	@Override
+	public void processMessage(final WebSocketMessage webSocketData) {
+
+		getWebSocket().subscribe(SubscriptionIndex.Kind.Page, getKeys(webSocketData, "pages"));
+		getWebSocket().subscribe(SubscriptionIndex.Kind.Id,   getKeys(webSocketData, "ids"));
+		getWebSocket().subscribe(SubscriptionIndex.Kind.Type, getKeys(webSocketData, "types"));
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	@Override
+	public String getCommand() {
+		return "SUBSCRIBE";
+	}
+
+	// ----- package-private static methods -----
+	static Set<String> getKeys(final WebSocketMessage webSocketData, final String key) {
+
+		final Set<String> keys = new LinkedHashSet<>();
+		final Object value     = webSocketData.getNodeData().get(key);
+
+		if (value != null) {
+
+			for (final String part : value.toString().split(",")) {
+
+				final String trimmed = part.trim();
+				if (!trimmed.isEmpty()) {
+
+					keys.add(trimmed);
+				}
+			}
+		}
+
+		return keys;
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket.command;
+
+import java.util.Set;
+import org.structr.websocket.StructrWebSocket;
+import org.structr.websocket.SubscriptionIndex;
+import org.structr.websocket.message.WebSocketMessage;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Removes the subscriptions of the client for the given pages, entity ids
+ * and types (comma-separated), or all subscriptions if none are given. A
+ * client without subscriptions receives all broadcast messages.
+ *
+ * The server gives no feedback on an UNSUBSCRIBE command.
+ *
+ * @author Christian Morgner
+ */
+public class UnsubscribeCommand extends AbstractCommand {
+
+	static {
+
+		StructrWebSocket.addCommand(UnsubscribeCommand.class);
+
+	}
+
+	@Override
+	public void processMessage(final WebSocketMessage webSocketData) {
+
+		final Set<String> pages = SubscribeCommand.getKeys(webSocketData, "pages");
+		final Set<String> ids   = SubscribeCommand.getKeys(webSocketData, "ids");
+		final Set<String> types = SubscribeCommand.getKeys(webSocketData, "types");
+		final boolean all       = pages.isEmpty() && ids.isEmpty() && types.isEmpty();
+
+		getWebSocket().unsubscribe(SubscriptionIndex.Kind.Page, all ? null : pages);
+		getWebSocket().unsubscribe(SubscriptionIndex.Kind.Id,   all ? null : ids);
+		getWebSocket().unsubscribe(SubscriptionIndex.Kind.Type, all ? null : types);
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	@Override
+	public String getCommand() {
+		return "UNSUBSCRIBE";
+	}
+}
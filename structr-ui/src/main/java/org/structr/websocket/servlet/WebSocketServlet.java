@@ -21,10 +21,12 @@ package org.structr.websocket.servlet;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.structr.common.StatisticsRegistry;
 import org.structr.core.app.StructrApp;
 import org.structr.core.graph.TransactionCommand;
 import org.structr.rest.service.HttpServiceServlet;
 import org.structr.rest.service.StructrHttpServiceConfig;
+import org.structr.web.common.ThumbnailService;
 import org.structr.websocket.StructrWebSocket;
 import org.structr.websocket.StructrWebSocketCreator;
 import org.structr.websocket.WebsocketController;
@@ -40,7 +42,8 @@ import org.structr.websocket.message.WebSocketMessage;
  */
 public class WebSocketServlet extends org.eclipse.jetty.websocket.servlet.WebSocketServlet implements HttpServiceServlet {
 
-	private static final int MAX_TEXT_MESSAGE_SIZE = 1024 * 1024;
+	private static final int MAX_TEXT_MESSAGE_SIZE   = 1024 * 1024;
+	private static final int MAX_BINARY_MESSAGE_SIZE = StructrWebSocket.MAX_CHUNK_SIZE + StructrWebSocket.CHUNK_HEADER_SIZE;
 
 	private final StructrHttpServiceConfig config = new StructrHttpServiceConfig();
 
@@ -71,6 +74,11 @@ public class WebSocketServlet extends org.eclipse.jetty.websocket.servlet.WebSoc
 		// register (Structr) transaction listener
 		TransactionCommand.registerTransactionListener(syncController);
 
+		StatisticsRegistry.register("websocket", syncController);
+
+		// generate thumbnails of uploaded images in the background
+		ThumbnailService.getInstance();
+
 		factory.getPolicy().setIdleTimeout(61000);
 		factory.setCreator(new StructrWebSocketCreator(syncController, gson, config.getAuthenticator()));
 		factory.register(StructrWebSocket.class);
@@ -81,5 +89,8 @@ public class WebSocketServlet extends org.eclipse.jetty.websocket.servlet.WebSoc
 
 		factory.getPolicy().setMaxTextMessageSize(MAX_TEXT_MESSAGE_SIZE);
 
+		// binary frames carry upload chunks, see StructrWebSocket#onWebSocketBinary
+		factory.getPolicy().setMaxBinaryMessageSize(MAX_BINARY_MESSAGE_SIZE);
+
 	}
 }
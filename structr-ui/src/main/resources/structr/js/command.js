@@ -777,6 +777,46 @@ var Command = {
         log('clonePage()', obj);
         return sendObj(obj);
     },
+    /**
+     * Send a SUBSCRIBE command to the server.
+     *
+     * After subscribing, the client only receives the broadcast messages
+     * for the given pages, entity ids and types (arrays of strings, each
+     * optional), instead of all messages.
+     *
+     * The server gives no feedback on a SUBSCRIBE command.
+     */
+    subscribe: function(pages, ids, types) {
+        var obj = {};
+        obj.command = 'SUBSCRIBE';
+        var data = {};
+        data.pages = (pages || []).join(',');
+        data.ids = (ids || []).join(',');
+        data.types = (types || []).join(',');
+        obj.data = data;
+        log('subscribe()', obj);
+        return sendObj(obj);
+    },
+    /**
+     * Send an UNSUBSCRIBE command to the server.
+     *
+     * Removes the given subscriptions, or all subscriptions if no
+     * arguments are given. A client without subscriptions receives
+     * all broadcast messages.
+     *
+     * The server gives no feedback on an UNSUBSCRIBE command.
+     */
+    unsubscribe: function(pages, ids, types) {
+        var obj = {};
+        obj.command = 'UNSUBSCRIBE';
+        var data = {};
+        data.pages = (pages || []).join(',');
+        data.ids = (ids || []).join(',');
+        data.types = (types || []).join(',');
+        obj.data = data;
+        log('unsubscribe()', obj);
+        return sendObj(obj);
+    },
     /**
      * Send a CHUNK command to the server.
      *
@@ -801,6 +841,32 @@ var Command = {
         log('chunk()', obj);
         return sendObj(obj);
     },
+    /**
+     * Send a chunk of a file upload as a binary frame.
+     *
+     * The frame consists of a 48 byte header followed by the chunk data.
+     * The header contains the id of the file (32 ASCII characters), the
+     * chunk id, the chunk size, the number of chunks and the length of
+     * the chunk data as big-endian 32-bit integers.
+     *
+     * The server acknowledges each chunk with a STATUS message containing
+     * the chunk id.
+     */
+    binaryChunk: function(id, chunkId, chunkSize, chunk, chunks) {
+        var headerSize = 48;
+        var buffer = new ArrayBuffer(headerSize + chunk.byteLength);
+        var view = new DataView(buffer);
+        for (var i = 0; i < 32; i++) {
+            view.setUint8(i, id.charCodeAt(i));
+        }
+        view.setInt32(32, chunkId);
+        view.setInt32(36, chunkSize);
+        view.setInt32(40, chunks);
+        view.setInt32(44, chunk.byteLength);
+        new Uint8Array(buffer, headerSize).set(new Uint8Array(chunk));
+        log('binaryChunk()', id, chunkId, chunks);
+        return sendBinary(buffer);
+    },
     /**
      * Send a CREATE command to the server.
      *
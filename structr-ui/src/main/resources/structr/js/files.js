@@ -20,6 +20,8 @@
 var images, files, folders, drop;
 var fileList;
 var chunkSize = 1024 * 64;
+var maxChunksInFlight = 4;
+var uploads = {};
 var sizeLimit = 1024 * 1024 * 70;
 var win = $(window);
 var selectedElements = [];
@@ -460,48 +462,95 @@ var _Files = {
 
                 log('Uploading chunks for file ' + file.id);
 
-                var reader = new FileReader();
-                reader.readAsBinaryString(fileObj);
-                //reader.readAsText(fileObj);
+                _Files.startUpload(file, fileObj);
 
-                var chunks = Math.ceil(fileObj.size / chunkSize);
-                reader.onload = function(f) {
+                var typeIcon = Structr.node(file.id).find('.typeIcon');
+                var iconSrc = typeIcon.prop('src');
+                log('Icon src: ', iconSrc);
+                typeIcon.prop('src', iconSrc + '?' + new Date().getTime());
 
-                    log('File was read into memory.', f);
-                    var binaryContent = f.target.result;
-                    log('uploadFile: binaryContent', binaryContent);
+            }
 
-                    for (var c = 0; c < chunks; c++) {
+        });
 
-                        var start = c * chunkSize;
-                        var end = (c + 1) * chunkSize;
+    },
+    updateTextFile: function(file, text) {
+        _Files.startUpload(file, new Blob([text], {type: 'text/plain'}));
+    },
+    /**
+     * Upload the given blob as the content of the given file.
+     *
+     * Chunks are sent as binary frames, at most maxChunksInFlight
+     * chunks of an upload are sent before the server acknowledged
+     * them, see chunkAcknowledged(). Several uploads can run at the
+     * same time.
+     */
+    startUpload: function(file, blob) {
+
+        var chunks = Math.ceil(blob.size / chunkSize);
+        if (!chunks) {
+            return;
+        }
 
-                        var chunk = window.btoa(binaryContent.substring(start, end));
-                        // TODO: check if we can send binary data directly
+        uploads[file.id] = {
+            id: file.id,
+            blob: blob,
+            chunks: chunks,
+            next: 0,
+            acknowledged: 0,
+            inFlight: 0,
+            reading: false
+        };
+
+        _Files.sendChunks(uploads[file.id]);
+    },
+    sendChunks: function(upload) {
 
-                        Command.chunk(file.id, c, chunkSize, chunk, chunks);
+        if (upload.reading || upload.inFlight >= maxChunksInFlight || upload.next >= upload.chunks) {
+            return;
+        }
 
-                    }
+        var chunkId = upload.next++;
+        var start = chunkId * chunkSize;
+        var end = Math.min(start + chunkSize, upload.blob.size);
 
-                    var typeIcon = Structr.node(file.id).find('.typeIcon');
-                    var iconSrc = typeIcon.prop('src');
-                    log('Icon src: ', iconSrc);
-                    typeIcon.prop('src', iconSrc + '?' + new Date().getTime());
+        var reader = new FileReader();
+        reader.onload = function(f) {
 
-                }
+            upload.reading = false;
+
+            if (uploads[upload.id] !== upload) {
+                // upload was cancelled or restarted
+                return;
             }
 
-        });
+            Command.binaryChunk(upload.id, chunkId, chunkSize, f.target.result, upload.chunks);
+            upload.inFlight++;
+
+            _Files.sendChunks(upload);
+        };
 
+        upload.reading = true;
+        reader.readAsArrayBuffer(upload.blob.slice(start, end));
     },
-    updateTextFile: function(file, text) {
-        var chunks = Math.ceil(text.length / chunkSize);
-        for (var c = 0; c < chunks; c++) {
-            var start = c * chunkSize;
-            var end = (c + 1) * chunkSize;
-            var chunk = utf8_to_b64(text.substring(start, end));
-            Command.chunk(file.id, c, chunkSize, chunk, chunks);
+    chunkAcknowledged: function(id, chunkId) {
+
+        var upload = uploads[id];
+        if (!upload) {
+            return;
         }
+
+        upload.inFlight--;
+        upload.acknowledged++;
+
+        if (upload.acknowledged >= upload.chunks) {
+            delete uploads[id];
+        } else {
+            _Files.sendChunks(upload);
+        }
+    },
+    uploadFailed: function(id) {
+        delete uploads[id];
     },
     appendEditFileIcon: function(parent, file) {
 
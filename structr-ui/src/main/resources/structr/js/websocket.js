@@ -194,6 +194,10 @@ function wsConnect() {
 
                         var msgObj = JSON.parse(msg);
 
+                        if (data.data.chunkId !== undefined) {
+                            _Files.chunkAcknowledged(msgObj.id, data.data.chunkId);
+                        }
+
                         if (dialogBox.is(':visible')) {
 
                             dialogMsg.html('<div class="infoBox ' + msgClass + '">' + msgObj.size + ' bytes saved to ' + msgObj.name + '</div>');
@@ -500,6 +504,16 @@ function sendObj(obj, callback) {
     return true;
 }
 
+function sendBinary(buffer) {
+
+    try {
+        ws.send(buffer);
+    } catch (exception) {
+        log('Error in sendBinary(): ' + exception);
+    }
+    return true;
+}
+
 function send(text) {
 
     log(ws.readyState);
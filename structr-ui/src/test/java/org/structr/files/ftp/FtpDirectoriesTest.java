@@ -404,5 +404,149 @@ public class FtpDirectoriesTest extends FtpTest {
 			fail("Unexpected exception: " + ex.getMessage());
 		}
 	}
-	
+
+	public void test09ListingOfRootAndSubfolders() {
+
+		FTPClient ftp = setupFTPClient();
+
+		try (final Tx tx = app.tx()) {
+
+			createFTPDirectory(null, "FTPdir1");
+			createFTPDirectory("/FTPdir1", "FTPdir2");
+			createFTPFile("/FTPdir1", "file1");
+			createFTPFile(null, "file0");
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception: " + ex.getMessage());
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			// nested entries must not be listed in the root directory
+			FTPFile[] files = ftp.listFiles();
+
+			assertNotNull(files);
+			assertEquals(2, files.length);
+			assertEquals("FTPdir1", files[0].getName());
+			assertTrue(files[0].isDirectory());
+			assertEquals("file0", files[1].getName());
+			assertTrue(files[1].isFile());
+
+			ftp.changeWorkingDirectory("/FTPdir1");
+
+			files = ftp.listFiles();
+
+			assertNotNull(files);
+			assertEquals(2, files.length);
+			assertEquals("FTPdir2", files[0].getName());
+			assertEquals("file1", files[1].getName());
+			assertEquals(0L, files[1].getSize());
+
+			// a second listing in the same session is served from the listing cache
+			files = ftp.listFiles();
+
+			assertNotNull(files);
+			assertEquals(2, files.length);
+
+			tx.success();
+
+		} catch (IOException | FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception: " + ex.getMessage());
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			createFTPFile("/FTPdir1", "file2");
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception: " + ex.getMessage());
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			// the committed change invalidates the cached listing
+			FTPFile[] files = ftp.listFiles();
+
+			assertNotNull(files);
+			assertEquals(3, files.length);
+
+			ftp.disconnect();
+
+			tx.success();
+
+		} catch (IOException | FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception: " + ex.getMessage());
+		}
+	}
+
+	public void test10ListingAfterRename() {
+
+		FTPClient ftp = setupFTPClient();
+
+		try (final Tx tx = app.tx()) {
+
+			createFTPDirectory(null, "FTPdir1");
+			createFTPFile("/FTPdir1", "file1");
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception: " + ex.getMessage());
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			FTPFile[] files = ftp.listFiles("/FTPdir1");
+
+			assertNotNull(files);
+			assertEquals(1, files.length);
+			assertEquals("file1", files[0].getName());
+
+			// the prefetched metadata of the listing must not survive a rename
+			assertTrue(ftp.rename("/FTPdir1/file1", "/FTPdir1/file2"));
+
+			files = ftp.listFiles("/FTPdir1");
+
+			assertNotNull(files);
+			assertEquals(1, files.length);
+			assertEquals("file2", files[0].getName());
+
+			files = ftp.listFiles();
+
+			assertNotNull(files);
+			assertEquals(1, files.length);
+			assertEquals("FTPdir1", files[0].getName());
+
+			assertTrue(ftp.rename("/FTPdir1", "/FTPdir2"));
+
+			files = ftp.listFiles();
+
+			assertNotNull(files);
+			assertEquals(1, files.length);
+			assertEquals("FTPdir2", files[0].getName());
+
+			files = ftp.listFiles("/FTPdir2");
+
+			assertNotNull(files);
+			assertEquals(1, files.length);
+			assertEquals("file2", files[0].getName());
+
+			ftp.disconnect();
+
+			tx.success();
+
+		} catch (IOException | FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception: " + ex.getMessage());
+		}
+	}
 }
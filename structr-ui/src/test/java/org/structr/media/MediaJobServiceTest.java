@@ -0,0 +1,399 @@
+package org.structr.media;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Runs the media job service against a stub executable that mimics the
+ * output of avconv.
+ *
+ * @author Christian Morgner
+ */
+public class MediaJobServiceTest extends TestCase {
+
+	private File stub = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		stub = File.createTempFile("avconv-stub", ".sh");
+		stub.deleteOnExit();
+
+		try (final Writer writer = new FileWriter(stub)) {
+
+			writer.write("#!/bin/sh\n");
+			writer.write("echo '  Duration: 00:00:10.00, start: 0.000000, bitrate: 1000 kb/s' >&2\n");
+			writer.write("printf 'frame=  125 fps=0 q=0.0 size=0kB time=5.00 bitrate=0.0kbits/s\\r' >&2\n");
+			writer.write("while [ ! -f \"$1\" ]; do sleep 0.05; done\n");
+			writer.write("exit ${2:-0}\n");
+		}
+
+		stub.setExecutable(true);
+	}
+
+	public void testProgressAndCallback() throws Exception {
+
+		final MediaJobService service        = new MediaJobService(1, 1);
+		final File marker                    = new File(stub.getAbsolutePath() + ".done");
+		final List<String> results           = Collections.synchronizedList(new ArrayList<String>());
+		final MediaJob<String> job           = service.submit(MediaJobService.Type.Conversion, new StubProcess(stub + " " + marker, null, null), 0, new ResultCollector(results));
+
+		try {
+
+			// wait for the progress reported in the error stream of the stub
+			final long timeout = System.currentTimeMillis() + 5000;
+			while (job.getProgress() < 0.5 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(0.5, job.getProgress(), 0.001);
+			assertEquals(MediaJob.State.Running, job.getState());
+
+			marker.createNewFile();
+
+			assertEquals("0", job.get(5, TimeUnit.SECONDS));
+			assertEquals(MediaJob.State.Finished, job.getState());
+			assertEquals(1.0, job.getProgress(), 0.001);
+			assertEquals(Arrays.asList("finished:0"), results);
+
+		} finally {
+
+			marker.delete();
+			service.shutdown();
+		}
+	}
+
+	public void testFailedProcess() throws Exception {
+
+		final MediaJobService service        = new MediaJobService(1, 1);
+		final File marker                    = new File(stub.getAbsolutePath() + ".done");
+		final List<String> results           = Collections.synchronizedList(new ArrayList<String>());
+
+		marker.createNewFile();
+
+		try {
+
+			final MediaJob<String> job = service.submit(MediaJobService.Type.Metadata, new StubProcess(stub + " " + marker + " 1", null, null), 0, new ResultCollector(results));
+
+			assertEquals("1", job.get(5, TimeUnit.SECONDS));
+			assertEquals(MediaJob.State.Failed, job.getState());
+			assertEquals(Arrays.asList("failed:Failed"), results);
+			assertEquals(1L, service.getStatistics().get("failed"));
+
+		} finally {
+
+			marker.delete();
+			service.shutdown();
+		}
+	}
+
+	public void testConcurrencyIsLimitedPerType() throws Exception {
+
+		final MediaJobService service = new MediaJobService(2, 1);
+		final CountDownLatch release  = new CountDownLatch(1);
+		final AtomicInteger running   = new AtomicInteger(0);
+		final AtomicInteger peak      = new AtomicInteger(0);
+		final List<MediaJob<String>> jobs = new ArrayList<>();
+
+		try {
+
+			for (int i=0; i<5; i++) {
+				jobs.add(service.submit(MediaJobService.Type.Conversion, new StubProcess("true", release, null, running, peak), 0, null));
+			}
+
+			// metadata jobs are not blocked by conversions
+			final MediaJob<String> metadata = service.submit(MediaJobService.Type.Metadata, new StubProcess("true", null, null), 0, null);
+			assertEquals("0", metadata.get(5, TimeUnit.SECONDS));
+
+			final long timeout = System.currentTimeMillis() + 5000;
+			while (running.get() < 2 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(2, service.getActiveJobs(MediaJobService.Type.Conversion));
+			assertEquals(3, service.getQueueDepth(MediaJobService.Type.Conversion));
+
+			release.countDown();
+
+			for (final MediaJob<String> job : jobs) {
+				assertEquals("0", job.get(5, TimeUnit.SECONDS));
+			}
+
+			assertEquals(2, peak.get());
+
+		} finally {
+
+			service.shutdown();
+		}
+	}
+
+	public void testPriorities() throws Exception {
+
+		final MediaJobService service = new MediaJobService(1, 1);
+		final CountDownLatch release  = new CountDownLatch(1);
+		final List<String> order      = Collections.synchronizedList(new ArrayList<String>());
+
+		try {
+
+			final MediaJob<String> blocker = service.submit(MediaJobService.Type.Conversion, new StubProcess("true", release, null), 0, null);
+			final MediaJob<String> low1    = service.submit(MediaJobService.Type.Conversion, new StubProcess("true", null, order, "low1"), 0, null);
+			final MediaJob<String> low2    = service.submit(MediaJobService.Type.Conversion, new StubProcess("true", null, order, "low2"), 0, null);
+			final MediaJob<String> high    = service.submit(MediaJobService.Type.Conversion, new StubProcess("true", null, order, "high"), 10, null);
+
+			assertEquals(MediaJob.State.Queued, high.getState());
+
+			release.countDown();
+
+			blocker.get(5, TimeUnit.SECONDS);
+			low1.get(5, TimeUnit.SECONDS);
+			low2.get(5, TimeUnit.SECONDS);
+			high.get(5, TimeUnit.SECONDS);
+
+			assertEquals(Arrays.asList("high", "low1", "low2"), order);
+
+		} finally {
+
+			service.shutdown();
+		}
+	}
+
+	public void testCancel() throws Exception {
+
+		final MediaJobService service = new MediaJobService(1, 1);
+		final File marker             = new File(stub.getAbsolutePath() + ".never");
+		final List<String> results    = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> order      = Collections.synchronizedList(new ArrayList<String>());
+
+		try {
+
+			final MediaJob<String> running = service.submit(MediaJobService.Type.Conversion, new StubProcess(stub + " " + marker, null, order, "running"), 0, new ResultCollector(results));
+			final MediaJob<String> queued  = service.submit(MediaJobService.Type.Conversion, new StubProcess("true", null, order, "queued"), 0, new ResultCollector(results));
+
+			final long timeout = System.currentTimeMillis() + 5000;
+			while (running.getProgress() < 0.5 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+
+			assertTrue(queued.cancel(true));
+			assertTrue(running.cancel(true));
+
+			assertEquals(MediaJob.State.Cancelled, running.getState());
+			assertEquals(MediaJob.State.Cancelled, queued.getState());
+			assertEquals(0, service.getQueueDepth(MediaJobService.Type.Conversion));
+
+			// the worker is free again after the stub process was destroyed
+			final MediaJob<String> next = service.submit(MediaJobService.Type.Conversion, new StubProcess("true", null, order, "next"), 0, null);
+			assertEquals("0", next.get(5, TimeUnit.SECONDS));
+
+			assertEquals(Arrays.asList("running", "next"), order);
+			assertEquals(Arrays.asList("failed:Cancelled", "failed:Cancelled"), results);
+			assertEquals(2L, service.getStatistics().get("cancelled"));
+
+		} finally {
+
+			service.shutdown();
+		}
+	}
+
+	public void testNestedExecutionDoesNotDeadlock() throws Exception {
+
+		final MediaJobService service = new MediaJobService(1, 1);
+		final List<String> order      = Collections.synchronizedList(new ArrayList<String>());
+
+		try {
+
+			final MediaJob<String> outer = service.submit(MediaJobService.Type.Metadata, new StubProcess("true", null, order, "outer") {
+
+				@Override
+				public void preprocess() {
+
+					super.preprocess();
+
+					try {
+						// the only worker of the pool is busy with this job
+						order.add(service.execute(MediaJobService.Type.Metadata, new StubProcess("true", null, order, "inner"), 0));
+
+					} catch (Exception ex) {
+						order.add(ex.toString());
+					}
+				}
+
+			}, 0, null);
+
+			assertEquals("0", outer.get(5, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("outer", "inner", "0"), order);
+
+		} finally {
+
+			service.shutdown();
+		}
+	}
+
+	public void testPersistentQueue() throws Exception {
+
+		final File queueDirectory     = new File(stub.getAbsolutePath() + ".queue");
+		final MediaJobService service = new MediaJobService(1, 1, queueDirectory);
+		final CountDownLatch release  = new CountDownLatch(1);
+		final List<String> resumed    = Collections.synchronizedList(new ArrayList<String>());
+
+		try {
+
+			// the record of a finished job is removed
+			final MediaJob<String> finished = service.submit(MediaJobService.Type.Conversion, new StubProcess("true", null, null), 0, null, Collections.singletonMap("name", "finished"));
+			assertEquals("0", finished.get(5, TimeUnit.SECONDS));
+
+			final long timeout = System.currentTimeMillis() + 5000;
+			while (queueDirectory.list().length > 0 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(0, queueDirectory.list().length);
+
+			// records of running and queued jobs are kept when the service is shut down
+			service.submit(MediaJobService.Type.Conversion, new StubProcess("true", release, null), 0, null, Collections.singletonMap("name", "running"));
+			service.submit(MediaJobService.Type.Conversion, new StubProcess("true", null, null), 0, null, Collections.singletonMap("name", "queued"));
+
+			assertEquals(2, queueDirectory.list().length);
+
+		} finally {
+
+			service.shutdown();
+			release.countDown();
+		}
+
+		final MediaJobService restarted = new MediaJobService(1, 1, queueDirectory);
+
+		try {
+
+			final int count = restarted.resume(new MediaJobService.JobFactory() {
+
+				@Override
+				public void resume(final Map<String, String> record) {
+					resumed.add(record.get("name"));
+				}
+			});
+
+			assertEquals(2, count);
+			assertEquals(Arrays.asList("running", "queued"), resumed);
+			assertEquals(0, queueDirectory.list().length);
+
+		} finally {
+
+			restarted.shutdown();
+
+			for (final File file : queueDirectory.listFiles()) {
+				file.delete();
+			}
+
+			queueDirectory.delete();
+		}
+	}
+
+	// ----- nested classes -----
+	private static class StubProcess extends AbstractProcess<String> {
+
+		private CountDownLatch release = null;
+		private List<String> order     = null;
+		private AtomicInteger running  = null;
+		private AtomicInteger peak     = null;
+		private String commandLine     = null;
+		private String name            = null;
+
+		public StubProcess(final String commandLine, final CountDownLatch release, final List<String> order) {
+			this(commandLine, release, order, null);
+		}
+
+		public StubProcess(final String commandLine, final CountDownLatch release, final List<String> order, final String name) {
+
+			super(null);
+
+			this.commandLine = commandLine;
+			this.release     = release;
+			this.order       = order;
+			this.name        = name;
+		}
+
+		public StubProcess(final String commandLine, final CountDownLatch release, final List<String> order, final AtomicInteger running, final AtomicInteger peak) {
+
+			this(commandLine, release, order, null);
+
+			this.running = running;
+			this.peak    = peak;
+		}
+
+		@Override
+		public void preprocess() {
+
+			if (order != null) {
+				order.add(name);
+			}
+
+			if (running != null) {
+
+				final int count = running.incrementAndGet();
+				while (true) {
+
+					final int current = peak.get();
+					if (count <= current || peak.compareAndSet(current, count)) {
+						break;
+					}
+				}
+			}
+
+			try {
+
+				if (release != null) {
+					release.await(10, TimeUnit.SECONDS);
+				}
+
+			} catch (InterruptedException iex) {
+
+			} finally {
+
+				if (running != null) {
+					running.decrementAndGet();
+				}
+			}
+		}
+
+		@Override
+		public StringBuilder getCommandLine() {
+			return new StringBuilder(commandLine);
+		}
+
+		@Override
+		public String processExited(final int exitCode) {
+			return Integer.toString(exitCode);
+		}
+	}
+
+	private static class ResultCollector implements MediaJob.Callback<String> {
+
+		private List<String> results = null;
+
+		public ResultCollector(final List<String> results) {
+			this.results = results;
+		}
+
+		@Override
+		public void jobFinished(final MediaJob<String> job, final String result) {
+			results.add("finished:" + result);
+		}
+
+		@Override
+		public void jobFailed(final MediaJob<String> job) {
+			results.add("failed:" + job.getState());
+		}
+	}
+}
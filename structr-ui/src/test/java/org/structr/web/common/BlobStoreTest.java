@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.Tx;
+import org.structr.dynamic.File;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class BlobStoreTest extends StructrUiTest {
+
+	public void testDeduplication() {
+
+		final byte[] data = "Hello world! This content is stored only once.".getBytes();
+		File file1        = null;
+		File file2        = null;
+		File file3        = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file1 = FileHelper.createFile(securityContext, data, "text/plain", File.class, "file1.txt");
+			file2 = FileHelper.createFile(securityContext, new ByteArrayInputStream(data), "text/plain", File.class, "file2.txt");
+			file3 = FileHelper.createFile(securityContext, "Other content".getBytes(), "text/plain", File.class, "file3.txt");
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		final java.io.File blob;
+
+		try (final Tx tx = app.tx()) {
+
+			final CRC32 crc = new CRC32();
+			crc.update(data);
+
+			// identical content is stored once, checksum and size are computed while writing
+			assertTrue(BlobStore.isBlobPath(file1.getRelativeFilePath()));
+			assertEquals(file1.getRelativeFilePath(), file2.getRelativeFilePath());
+			assertEquals(file1.getProperty(File.contentHash), file2.getProperty(File.contentHash));
+			assertFalse(file1.getRelativeFilePath().equals(file3.getRelativeFilePath()));
+			assertEquals(Long.valueOf(crc.getValue()), file1.getChecksum());
+			assertEquals(Long.valueOf(crc.getValue()), file2.getChecksum());
+			assertEquals(Long.valueOf(data.length), file2.getSize());
+
+			blob = file1.getFileOnDisk();
+			assertTrue(blob.exists());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		// blob must survive as long as it is referenced
+		try (final Tx tx = app.tx()) {
+
+			app.delete(file1);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		assertTrue(blob.exists());
+
+		try (final Tx tx = app.tx()) {
+
+			app.delete(file2);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		assertFalse(blob.exists());
+	}
+
+	public void testOutputStreamReleasesPreviousContent() {
+
+		File file = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, "Version 1".getBytes(), "text/plain", File.class, "versioned.txt");
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		java.io.File previous = null;
+
+		try (final Tx tx = app.tx()) {
+
+			previous = file.getFileOnDisk();
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		try (final OutputStream out = file.getOutputStream()) {
+
+			out.write("Version 2".getBytes());
+
+		} catch (IOException ioex) {
+
+			ioex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final CRC32 crc = new CRC32();
+			crc.update("Version 2".getBytes());
+
+			assertFalse(previous.exists());
+			assertTrue(file.getFileOnDisk().exists());
+			assertEquals(Long.valueOf(crc.getValue()), file.getChecksum());
+			assertEquals(Long.valueOf(9), file.getSize());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testPreviousContentIsReleasedAfterCommit() {
+
+		File file = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, "Version 1".getBytes(), "text/plain", File.class, "committed.txt");
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		java.io.File previous = null;
+		java.io.File current  = null;
+
+		try (final Tx tx = app.tx()) {
+
+			previous = file.getFileOnDisk();
+
+			BlobStore.getInstance().write(file, "Version 2".getBytes());
+
+			current = file.getFileOnDisk();
+
+			// previous content must exist until the transaction is committed
+			assertTrue(previous.exists());
+			assertTrue(current.exists());
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		assertFalse(previous.exists());
+		assertTrue(current.exists());
+	}
+
+	public void testRollbackKeepsPreviousContent() {
+
+		File file = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, "Version 1".getBytes(), "text/plain", File.class, "rollback.txt");
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		java.io.File previous = null;
+		java.io.File orphan   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			previous = file.getFileOnDisk();
+
+			BlobStore.getInstance().write(file, "Version 2, rolled back".getBytes());
+
+			orphan = file.getFileOnDisk();
+
+			assertTrue(orphan.exists());
+
+			// no tx.success(), transaction is rolled back
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		// previous content is still there, blob of the rolled back transaction is gone
+		assertTrue(previous.exists());
+		assertFalse(orphan.exists());
+
+		try (final Tx tx = app.tx()) {
+
+			assertEquals(previous, file.getFileOnDisk());
+			assertEquals(Long.valueOf(9), file.getSize());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testRollbackKeepsSharedBlob() {
+
+		final byte[] data = "Shared content".getBytes();
+		File file1        = null;
+		File file2        = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file1 = FileHelper.createFile(securityContext, data, "text/plain", File.class, "shared1.txt");
+			file2 = FileHelper.createFile(securityContext, "Other content".getBytes(), "text/plain", File.class, "shared2.txt");
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		java.io.File shared = null;
+
+		try (final Tx tx = app.tx()) {
+
+			shared = file1.getFileOnDisk();
+
+			// references the blob of file1 in a transaction that is rolled back
+			BlobStore.getInstance().write(file2, data);
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		// blob is still referenced by file1
+		assertTrue(shared.exists());
+	}
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.graph.Tx;
+import org.structr.dynamic.File;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class FileStreamerTest extends StructrUiTest {
+
+	public void testParseRanges() {
+
+		List<FileStreamer.ByteRange> ranges = null;
+
+		// single ranges
+		ranges = FileStreamer.parseRanges("bytes=0-99", 1000, 16);
+		assertEquals(1, ranges.size());
+		assertEquals(0, ranges.get(0).start);
+		assertEquals(99, ranges.get(0).end);
+
+		ranges = FileStreamer.parseRanges("bytes=900-", 1000, 16);
+		assertEquals(900, ranges.get(0).start);
+		assertEquals(999, ranges.get(0).end);
+
+		ranges = FileStreamer.parseRanges("bytes=-100", 1000, 16);
+		assertEquals(900, ranges.get(0).start);
+		assertEquals(999, ranges.get(0).end);
+
+		ranges = FileStreamer.parseRanges("bytes=-5000", 1000, 16);
+		assertEquals(0, ranges.get(0).start);
+		assertEquals(999, ranges.get(0).end);
+
+		ranges = FileStreamer.parseRanges("bytes=500-5000", 1000, 16);
+		assertEquals(500, ranges.get(0).start);
+		assertEquals(999, ranges.get(0).end);
+
+		// multiple ranges are sorted, overlapping and adjacent ranges are coalesced
+		ranges = FileStreamer.parseRanges("bytes=500-599, 0-9, 10-19, 550-650", 1000, 16);
+		assertEquals(2, ranges.size());
+		assertEquals(0, ranges.get(0).start);
+		assertEquals(19, ranges.get(0).end);
+		assertEquals(500, ranges.get(1).start);
+		assertEquals(650, ranges.get(1).end);
+
+		// unsatisfiable
+		assertTrue(FileStreamer.parseRanges("bytes=1000-", 1000, 16).isEmpty());
+		assertTrue(FileStreamer.parseRanges("bytes=-0", 1000, 16).isEmpty());
+		assertTrue(FileStreamer.parseRanges("bytes=0-10", 0, 16).isEmpty());
+
+		// malformed or too many ranges: send the whole file
+		assertNull(FileStreamer.parseRanges("items=0-10", 1000, 16));
+		assertNull(FileStreamer.parseRanges("bytes=10-5", 1000, 16));
+		assertNull(FileStreamer.parseRanges("bytes=a-b", 1000, 16));
+		assertNull(FileStreamer.parseRanges("bytes=0-1,3-4,6-7", 1000, 2));
+	}
+
+	public void testIfRange() {
+
+		final DateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+		httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		final Date lastModified = new Date(1400000000000L);
+
+		assertTrue(FileStreamer.ifRangeMatches(null, lastModified));
+		assertTrue(FileStreamer.ifRangeMatches(httpDateFormat.format(lastModified), lastModified));
+		assertFalse(FileStreamer.ifRangeMatches(httpDateFormat.format(new Date(1300000000000L)), lastModified));
+		assertFalse(FileStreamer.ifRangeMatches("\"abcdef\"", lastModified));
+		assertFalse(FileStreamer.ifRangeMatches(httpDateFormat.format(lastModified), null));
+	}
+
+	public void testRangeRequests() {
+
+		final byte[] content = new byte[1000];
+
+		for (int i=0; i<content.length; i++) {
+			content[i] = (byte)('a' + (i % 26));
+		}
+
+		createPublicFile("range.txt", content);
+
+		try {
+
+			HttpURLConnection connection = null;
+
+			// whole file
+			connection = open("range.txt", null);
+			assertEquals(200, connection.getResponseCode());
+			assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+			assertEquals("1000", connection.getHeaderField("Content-Length"));
+			assertEquals(1000, IOUtils.toByteArray(connection.getInputStream()).length);
+
+			// single range
+			connection = open("range.txt", "bytes=26-51");
+			assertEquals(206, connection.getResponseCode());
+			assertEquals("bytes 26-51/1000", connection.getHeaderField("Content-Range"));
+			assertEquals("abcdefghijklmnopqrstuvwxyz", IOUtils.toString(connection.getInputStream()));
+
+			// suffix range
+			connection = open("range.txt", "bytes=-10");
+			assertEquals(206, connection.getResponseCode());
+			assertEquals("bytes 990-999/1000", connection.getHeaderField("Content-Range"));
+			assertEquals(10, IOUtils.toByteArray(connection.getInputStream()).length);
+
+			// multiple ranges
+			connection = open("range.txt", "bytes=0-2,26-28");
+			assertEquals(206, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("multipart/byteranges; boundary="));
+
+			final byte[] multipart = IOUtils.toByteArray(connection.getInputStream());
+			final String body      = new String(multipart, "ISO-8859-1");
+
+			assertEquals(Integer.parseInt(connection.getHeaderField("Content-Length")), multipart.length);
+			assertTrue(body.contains("Content-Range: bytes 0-2/1000\r\n\r\nabc\r\n"));
+			assertTrue(body.contains("Content-Range: bytes 26-28/1000\r\n\r\nabc\r\n"));
+
+			// unsatisfiable range
+			connection = open("range.txt", "bytes=2000-");
+			assertEquals(416, connection.getResponseCode());
+			assertEquals("bytes */1000", connection.getHeaderField("Content-Range"));
+
+			// If-Range with a different date: whole file
+			connection = open("range.txt", "bytes=0-9");
+			connection.setRequestProperty("If-Range", "Thu, 01 Jan 2004 00:00:00 GMT");
+			assertEquals(200, connection.getResponseCode());
+			assertEquals(1000, IOUtils.toByteArray(connection.getInputStream()).length);
+
+			// HEAD: headers only
+			connection = open("range.txt", null);
+			connection.setRequestMethod("HEAD");
+			assertEquals(200, connection.getResponseCode());
+			assertEquals("1000", connection.getHeaderField("Content-Length"));
+
+		} catch (IOException ioex) {
+
+			ioex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testMultipleRanges() {
+
+		final byte[] content = new byte[100000];
+
+		for (int i=0; i<content.length; i++) {
+			content[i] = (byte)('a' + (i % 26));
+		}
+
+		createPublicFile("multirange.txt", content);
+
+		try {
+
+			// three parts, the last one larger than a single output buffer
+			final HttpURLConnection connection = open("multirange.txt", "bytes=0-2,26-28,50000-99999");
+			assertEquals(206, connection.getResponseCode());
+
+			final String contentType = connection.getContentType();
+			assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+
+			final String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+			final byte[] data     = IOUtils.toByteArray(connection.getInputStream());
+			final String body     = new String(data, "ISO-8859-1");
+
+			assertEquals(Integer.parseInt(connection.getHeaderField("Content-Length")), data.length);
+
+			// all parts must be sent, followed by the closing boundary
+			assertTrue(body.contains("Content-Range: bytes 0-2/100000\r\n\r\nabc\r\n--" + boundary));
+			assertTrue(body.contains("Content-Range: bytes 26-28/100000\r\n\r\nabc\r\n--" + boundary));
+			assertTrue(body.contains("Content-Range: bytes 50000-99999/100000\r\n\r\n" + new String(content, 50000, 50000, "ISO-8859-1") + "\r\n--" + boundary + "--\r\n"));
+			assertTrue(body.endsWith("\r\n--" + boundary + "--\r\n"));
+
+		} catch (IOException ioex) {
+
+			ioex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testConcurrentDownloads() {
+
+		final int size               = 32 * 1024 * 1024;
+		final int clients            = 16;
+		final AtomicInteger complete = new AtomicInteger(0);
+		final List<Thread> downloads = new ArrayList<>();
+
+		createPublicFile("large.bin", new byte[size]);
+
+		for (int i=0; i<clients; i++) {
+
+			downloads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try (final InputStream in = open("large.bin", null).getInputStream()) {
+
+						final byte[] buffer = new byte[65536];
+						long count          = 0L;
+						int read            = 0;
+
+						while ((read = in.read(buffer)) >= 0) {
+							count += read;
+						}
+
+						if (count == size) {
+							complete.incrementAndGet();
+						}
+
+					} catch (IOException ioex) {
+						ioex.printStackTrace();
+					}
+				}
+			}));
+		}
+
+		for (final Thread download : downloads) {
+			download.start();
+		}
+
+		for (final Thread download : downloads) {
+
+			try { download.join(); } catch (InterruptedException iex) {}
+		}
+
+		assertEquals("All downloads should be complete", clients, complete.get());
+	}
+
+	// ----- private methods -----
+	private void createPublicFile(final String name, final byte[] content) {
+
+		try (final Tx tx = app.tx()) {
+
+			final File file = FileHelper.createFile(securityContext, content, "application/octet-stream", File.class, name);
+			file.setProperty(GraphObject.visibleToPublicUsers, true);
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	private HttpURLConnection open(final String name, final String range) throws IOException {
+
+		final HttpURLConnection connection = (HttpURLConnection)new URL(baseUri + name).openConnection();
+
+		if (range != null) {
+			connection.setRequestProperty("Range", range);
+		}
+
+		return connection;
+	}
+}
@@ -23,7 +23,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
+import org.structr.core.entity.AbstractNode;
 import org.structr.core.graph.Tx;
+import org.structr.web.entity.AbstractFile;
 import org.structr.web.entity.Folder;
 
 /**
@@ -67,4 +69,66 @@ public class FolderTest extends StructrTest {
 		
 	}
 
+	public void testPathsAfterRenameAndMove() {
+
+		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+
+		try (final Tx tx = app.tx()) {
+
+			FileHelper.createFolderPath(securityContext, "/a/b/c");
+			FileHelper.createFolderPath(securityContext, "/d");
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			Logger.getLogger(FolderTest.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final Folder c = (Folder) FileHelper.getFileByAbsolutePath(securityContext, "/a/b/c");
+			assertNotNull(c);
+			assertEquals("/a/b/c", c.getProperty(AbstractFile.path));
+
+			// rename top-level folder
+			FileHelper.getFileByAbsolutePath(securityContext, "/a").setProperty(AbstractNode.name, "x");
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			Logger.getLogger(FolderTest.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertNull(FileHelper.getFileByAbsolutePath(securityContext, "/a/b/c"));
+
+			final Folder c = (Folder) FileHelper.getFileByAbsolutePath(securityContext, "/x/b/c");
+			assertNotNull(c);
+			assertEquals("/x/b/c", c.getProperty(AbstractFile.path));
+
+			// move folder b into d
+			final Folder b = (Folder) FileHelper.getFileByAbsolutePath(securityContext, "/x/b");
+			b.setProperty(AbstractFile.parent, (Folder) FileHelper.getFileByAbsolutePath(securityContext, "/d"));
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			Logger.getLogger(FolderTest.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertNull(FileHelper.getFileByAbsolutePath(securityContext, "/x/b/c"));
+
+			final Folder c = (Folder) FileHelper.getFileByAbsolutePath(securityContext, "/d/b/c");
+			assertNotNull(c);
+			assertEquals("/d/b/c", c.getProperty(AbstractFile.path));
+			assertEquals("/d/b/c", FileHelper.getFolderPath(c));
+
+		} catch (FrameworkException ex) {
+			Logger.getLogger(FolderTest.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
 }
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import junit.framework.TestCase;
+
+/**
+ * Verifies that the headers of a cached page are replayed on a cache hit,
+ * and that output which is private to a client is not cached.
+ *
+ * @author Christian Morgner
+ */
+public class OutputCacheTest extends TestCase {
+
+	public void testHeadersAreReplayed() {
+
+		final TestResponse rendered              = new TestResponse();
+		final HttpServletResponse renderResponse = rendered.create();
+
+		// headers set before rendering are not part of the entry
+		renderResponse.setHeader("X-Frame-Options", "SAMEORIGIN");
+
+		final Map<String, List<String>> previousHeaders = OutputCache.getHeaders(renderResponse);
+
+		// headers and cookies set while rendering
+		renderResponse.setContentType("application/json");
+		renderResponse.setHeader("X-Custom", "value");
+		renderResponse.addHeader("Set-Cookie", "a=1");
+		renderResponse.addHeader("Set-Cookie", "b=2");
+
+		final Map<String, List<String>> headers = OutputCache.getModifiedHeaders(renderResponse, previousHeaders);
+
+		assertFalse(headers.containsKey("X-Frame-Options"));
+
+		final OutputCache.Entry entry = OutputCache.put("key", "{}", renderResponse.getContentType(), headers, Collections.<String>emptySet(), 0, 0L);
+
+		// cache hit
+		final TestResponse replayed = new TestResponse();
+
+		entry.applyHeaders(replayed.create());
+
+		assertEquals("application/json", replayed.contentType);
+		assertEquals(Arrays.asList("value"), replayed.headers.get("X-Custom"));
+		assertFalse(replayed.headers.containsKey("X-Frame-Options"));
+
+		// cookies belong to the client that rendered the page
+		assertFalse(replayed.headers.containsKey("Set-Cookie"));
+	}
+
+	public void testCookiesAndSessionsAreNotShared() {
+
+		final TestRequest request                = new TestRequest();
+		final HttpServletRequest renderRequest   = request.create();
+		final TestResponse rendered              = new TestResponse();
+		final HttpServletResponse renderResponse = rendered.create();
+
+		Map<String, List<String>> previousHeaders = OutputCache.getHeaders(renderResponse);
+		Object previousSessionState               = OutputCache.getSessionState(renderRequest);
+
+		renderResponse.setHeader("X-Custom", "value");
+
+		assertTrue(OutputCache.isShareable(renderRequest, renderResponse, previousHeaders, previousSessionState));
+
+		// cookie set while rendering
+		renderResponse.addHeader("Set-Cookie", "a=1");
+
+		assertFalse(OutputCache.isShareable(renderRequest, renderResponse, previousHeaders, previousSessionState));
+
+		// session created while rendering
+		previousHeaders      = OutputCache.getHeaders(renderResponse);
+		previousSessionState = OutputCache.getSessionState(renderRequest);
+
+		renderRequest.getSession(true);
+
+		assertFalse(OutputCache.isShareable(renderRequest, renderResponse, previousHeaders, previousSessionState));
+
+		// session modified while rendering
+		previousSessionState = OutputCache.getSessionState(renderRequest);
+
+		assertTrue(OutputCache.isShareable(renderRequest, renderResponse, previousHeaders, previousSessionState));
+
+		request.attributes.put("user", "admin");
+
+		assertFalse(OutputCache.isShareable(renderRequest, renderResponse, previousHeaders, previousSessionState));
+	}
+
+	// ----- nested classes -----
+	private static class TestRequest {
+
+		private final Map<String, Object> attributes = new LinkedHashMap<>();
+		private HttpSession session                  = null;
+
+		public HttpServletRequest create() {
+
+			return (HttpServletRequest)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+
+				@Override
+				public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+					switch (method.getName()) {
+
+						case "getSession":
+
+							if (session == null && (args == null || Boolean.TRUE.equals(args[0]))) {
+								session = createSession();
+							}
+
+							return session;
+
+						case "hashCode":
+							return System.identityHashCode(proxy);
+
+						case "equals":
+							return proxy == args[0];
+					}
+
+					return null;
+				}
+			});
+		}
+
+		private HttpSession createSession() {
+
+			return (HttpSession)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { HttpSession.class }, new InvocationHandler() {
+
+				@Override
+				public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+					switch (method.getName()) {
+
+						case "getId":
+							return "session1";
+
+						case "getAttributeNames":
+							return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+
+						case "getAttribute":
+							return attributes.get((String)args[0]);
+
+						case "hashCode":
+							return System.identityHashCode(proxy);
+
+						case "equals":
+							return proxy == args[0];
+					}
+
+					return null;
+				}
+			});
+		}
+	}
+
+	private static class TestResponse {
+
+		private final Map<String, List<String>> headers = new LinkedHashMap<>();
+		private String contentType                      = null;
+
+		public HttpServletResponse create() {
+
+			return (HttpServletResponse)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { HttpServletResponse.class }, new InvocationHandler() {
+
+				@Override
+				public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+					switch (method.getName()) {
+
+						case "setContentType":
+							contentType = (String)args[0];
+							return null;
+
+						case "getContentType":
+							return contentType;
+
+						case "setHeader":
+							headers.put((String)args[0], new ArrayList<>(Arrays.asList((String)args[1])));
+							return null;
+
+						case "addHeader":
+
+							List<String> values = headers.get((String)args[0]);
+							if (values == null) {
+
+								values = new ArrayList<>();
+								headers.put((String)args[0], values);
+							}
+
+							values.add((String)args[1]);
+							return null;
+
+						case "getHeaderNames":
+							return new ArrayList<>(headers.keySet());
+
+						case "getHeaders":
+							return headers.containsKey((String)args[0]) ? new ArrayList<>(headers.get((String)args[0])) : new ArrayList<String>();
+
+						case "hashCode":
+							return System.identityHashCode(proxy);
+
+						case "equals":
+							return proxy == args[0];
+					}
+
+					return null;
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.Tx;
+import org.structr.web.Importer;
+import org.structr.web.entity.dom.DOMElement;
+import org.structr.web.entity.dom.Page;
+import org.w3c.dom.NodeList;
+
+/**
+ * Verifies that parallel subtrees are isolated from the calling thread and
+ * that failures are propagated.
+ *
+ * @author Christian Morgner
+ */
+public class ParallelRendererTest extends StructrUiTest {
+
+	public void testSubtreeContextIsIsolated() {
+
+		try (final Tx tx = app.tx()) {
+
+			final Map<String, String[]> parameters = new LinkedHashMap<>();
+			parameters.put("name", new String[] { "value" });
+
+			final HttpServletRequest request  = createRequest(parameters);
+			final RenderContext renderContext = new RenderContext(securityContext, request, null, RenderContext.EditMode.NONE, Locale.GERMAN);
+
+			renderContext.store("key", "parent");
+			renderContext.incrementCounter(1);
+
+			final RenderContext subtreeContext = renderContext.copyForSubtree();
+
+			assertTrue(subtreeContext.isParallelSubtree());
+			assertNull(subtreeContext.getResponse());
+			assertNotSame(request, subtreeContext.getRequest());
+			assertNotSame(securityContext, subtreeContext.getSecurityContext());
+			assertEquals("value", subtreeContext.getRequest().getParameter("name"));
+
+			// variables and counters are copied, not shared
+			assertEquals("parent", subtreeContext.retrieve("key"));
+			assertEquals(1, subtreeContext.getCounter(1));
+
+			subtreeContext.store("key", "subtree");
+			subtreeContext.store("other", "subtree");
+			subtreeContext.incrementCounter(1);
+			subtreeContext.getRequest().setAttribute("attribute", "subtree");
+
+			assertEquals("parent", renderContext.retrieve("key"));
+			assertNull(renderContext.retrieve("other"));
+			assertEquals(1, renderContext.getCounter(1));
+			assertEquals("subtree", subtreeContext.getRequest().getAttribute("attribute"));
+			assertNull(request.getAttribute("attribute"));
+
+			// headers are merged when the subtree is finished
+			subtreeContext.addHeader("X-Subtree", "true");
+			assertFalse(renderContext.getHeaders().containsKey("X-Subtree"));
+
+			renderContext.merge(subtreeContext);
+			assertEquals("true", renderContext.getHeaders().get("X-Subtree"));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testOutputInDocumentOrder() {
+
+		final ParallelRenderer renderer = new ParallelRenderer(true, false, 2);
+
+		try {
+
+			final Page page = Importer.parsePageFromSource(securityContext, "<html><head><title>Title</title></head><body><div>one</div><div>two</div><div>three</div></body></html>", "order");
+
+			try (final Tx tx = app.tx()) {
+
+				final NodeList divs                = page.getElementsByTagName("div");
+				final RenderContext renderContext  = new RenderContext(securityContext);
+				final ParallelRenderer.Stitcher stitcher = renderer.newStitcher(renderContext);
+
+				stitcher.submit((DOMElement)divs.item(0), 0);
+				stitcher.render((DOMElement)divs.item(1), 0);
+				stitcher.submit((DOMElement)divs.item(2), 0);
+				stitcher.finish();
+
+				final String output = getOutput(renderContext);
+
+				assertTrue(output.indexOf("one") >= 0);
+				assertTrue(output.indexOf("one") < output.indexOf("two"));
+				assertTrue(output.indexOf("two") < output.indexOf("three"));
+
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testFailedSubtreeIsPropagated() {
+
+		final ParallelRenderer renderer = new ParallelRenderer(true, false, 2);
+		DOMElement deleted              = null;
+
+		try {
+
+			final Page page = Importer.parsePageFromSource(securityContext, "<html><head><title>Title</title></head><body><div>one</div><div>two</div></body></html>", "failure");
+
+			try (final Tx tx = app.tx()) {
+
+				deleted = (DOMElement)page.getElementsByTagName("div").item(1);
+				app.delete(deleted);
+
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		final RenderContext renderContext = new RenderContext(securityContext);
+
+		try (final Tx tx = app.tx()) {
+
+			final ParallelRenderer.Stitcher stitcher = renderer.newStitcher(renderContext);
+
+			// node does not exist any more, rendering the subtree fails
+			stitcher.submit(deleted, 0);
+			stitcher.finish();
+
+			fail("Failed subtree must throw an exception");
+
+		} catch (FrameworkException fex) {
+
+			assertFalse(getOutput(renderContext).contains("Error while rendering subtree"));
+		}
+	}
+
+	public void testCancel() {
+
+		final ParallelRenderer renderer = new ParallelRenderer(true, false, 2);
+
+		try {
+
+			final Page page = Importer.parsePageFromSource(securityContext, "<html><head><title>Title</title></head><body><div>one</div><div>two</div></body></html>", "cancel");
+
+			try (final Tx tx = app.tx()) {
+
+				final NodeList divs                = page.getElementsByTagName("div");
+				final RenderContext renderContext  = new RenderContext(securityContext);
+				final ParallelRenderer.Stitcher stitcher = renderer.newStitcher(renderContext);
+
+				stitcher.submit((DOMElement)divs.item(0), 0);
+				stitcher.submit((DOMElement)divs.item(1), 0);
+
+				// children are discarded, nothing is written
+				stitcher.cancel();
+				stitcher.finish();
+
+				assertEquals("", getOutput(renderContext));
+
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testCancelledSubtreeStopsAtDeadlineCheck() {
+
+		final RenderContext renderContext = new RenderContext(securityContext);
+
+		try {
+
+			renderContext.checkDeadline();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		// subtrees are cancelled without interrupting their threads
+		renderContext.cancel();
+
+		try {
+
+			renderContext.checkDeadline();
+			fail("Cancelled render context must stop rendering");
+
+		} catch (FrameworkException fex) {
+
+			assertEquals(503, fex.getStatus());
+		}
+	}
+
+	// ----- private methods -----
+	private String getOutput(final RenderContext renderContext) {
+
+		final StringBuilder buf = new StringBuilder();
+
+		for (final String part : renderContext.getBuffer().getQueue()) {
+			buf.append(part);
+		}
+
+		return buf.toString();
+	}
+
+	private HttpServletRequest createRequest(final Map<String, String[]> parameters) {
+
+		return (HttpServletRequest)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+				switch (method.getName()) {
+
+					case "getParameterMap":
+						return parameters;
+
+					case "getParameter":
+						return parameters.containsKey(args[0]) ? parameters.get(args[0])[0] : null;
+
+					case "getAttributeNames":
+						return Collections.enumeration(Collections.<String>emptyList());
+
+					case "getServerPort":
+						return 80;
+
+					case "hashCode":
+						return System.identityHashCode(proxy);
+
+					case "equals":
+						return proxy == args[0];
+				}
+
+				return null;
+			}
+		});
+	}
+}
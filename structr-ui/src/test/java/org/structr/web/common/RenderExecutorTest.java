@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class RenderExecutorTest extends TestCase {
+
+	public void testQueueIsBounded() throws Exception {
+
+		final RenderExecutor executor = new RenderExecutor(1, 1, 10000, 5);
+		final CountDownLatch started  = new CountDownLatch(1);
+		final CountDownLatch release  = new CountDownLatch(1);
+		final CountDownLatch done     = new CountDownLatch(2);
+
+		executor.submit(new TestTask(started, release, done));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		executor.submit(new TestTask(null, null, done));
+
+		assertEquals(1, executor.getActiveRenders());
+		assertEquals(1, executor.getQueueDepth());
+
+		try {
+
+			executor.submit(new TestTask(null, null, done));
+			fail("Full queue should reject render requests");
+
+		} catch (RejectedExecutionException expected) {
+		}
+
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		final Map<String, Object> stats = executor.getStatistics();
+
+		assertEquals(1L, stats.get("rejected"));
+		assertEquals(0L, stats.get("expired"));
+
+		executor.shutdown();
+	}
+
+	public void testQueuedRequestsExpire() throws Exception {
+
+		final RenderExecutor executor = new RenderExecutor(1, 10, 100, 5);
+		final CountDownLatch started  = new CountDownLatch(1);
+		final CountDownLatch release  = new CountDownLatch(1);
+		final CountDownLatch done     = new CountDownLatch(2);
+		final TestTask queued         = new TestTask(null, null, done);
+
+		executor.submit(new TestTask(started, release, done));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		executor.submit(queued);
+
+		// let the deadline of the queued request pass
+		Thread.sleep(300);
+		release.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(queued.expired);
+		assertEquals(1L, executor.getStatistics().get("expired"));
+
+		executor.shutdown();
+	}
+
+	public void testLatencyPercentiles() {
+
+		final RenderExecutor.LatencySamples samples = new RenderExecutor.LatencySamples(100);
+
+		for (int i=200; i>0; i--) {
+			samples.add(i);
+		}
+
+		// only the 100 most recent samples (100 .. 1) are kept
+		final Map<String, Object> percentiles = samples.getPercentiles();
+
+		assertEquals(100, percentiles.get("samples"));
+		assertEquals(50L, percentiles.get("p50"));
+		assertEquals(90L, percentiles.get("p90"));
+		assertEquals(99L, percentiles.get("p99"));
+		assertEquals(100L, percentiles.get("max"));
+	}
+
+	// ----- nested classes -----
+	private static class TestTask implements RenderExecutor.RenderTask {
+
+		private CountDownLatch started   = null;
+		private CountDownLatch release   = null;
+		private CountDownLatch done      = null;
+		private volatile boolean expired = false;
+
+		public TestTask(final CountDownLatch started, final CountDownLatch release, final CountDownLatch done) {
+
+			this.started = started;
+			this.release = release;
+			this.done    = done;
+		}
+
+		@Override
+		public void render(final long deadline) throws Exception {
+
+			if (started != null) {
+				started.countDown();
+			}
+
+			if (release != null) {
+				release.await();
+			}
+
+			done.countDown();
+		}
+
+		@Override
+		public void expire() {
+
+			expired = true;
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.Tx;
+import org.structr.core.property.StringProperty;
+import org.structr.web.Importer;
+import org.structr.web.entity.dom.DOMElement;
+import org.structr.web.entity.dom.Page;
+
+/**
+ * Verifies that cached render plans are invalidated when the DOM changes.
+ *
+ * @author Christian Morgner
+ */
+public class RenderPlanCacheTest extends StructrUiTest {
+
+	public void testInvalidation() {
+
+		try {
+
+			RenderPlanCache.register();
+
+			final Page page = Importer.parsePageFromSource(securityContext, "<html><head><title>Title</title></head><body><div class=\"one\">Test</div></body></html>", "test");
+
+			try (final Tx tx = app.tx()) {
+
+				assertTrue(page.getContent(RenderContext.EditMode.NONE).contains("<div class=\"one\">Test</div>"));
+				tx.success();
+			}
+
+			// modify static attribute
+			try (final Tx tx = app.tx()) {
+
+				final DOMElement div = (DOMElement)page.getElementsByTagName("div").item(0);
+				div.setAttribute("class", "two");
+				div.setProperty(new StringProperty("data-test"), "${upper('test')}");
+
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertTrue(page.getContent(RenderContext.EditMode.NONE).contains("<div class=\"two\" data-test=\"TEST\">Test</div>"));
+				tx.success();
+			}
+
+			// add child node
+			try (final Tx tx = app.tx()) {
+
+				final DOMElement div = (DOMElement)page.getElementsByTagName("div").item(0);
+				div.appendChild(page.createElement("span"));
+
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertTrue(page.getContent(RenderContext.EditMode.NONE).contains("<span></span>"));
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testInvalidationWithoutNotifications() {
+
+		try {
+
+			RenderPlanCache.register();
+
+			final Page page = Importer.parsePageFromSource(securityContext, "<html><head><title>Title</title></head><body><div class=\"one\">Test</div></body></html>", "test");
+
+			try (final Tx tx = app.tx()) {
+
+				assertTrue(page.getContent(RenderContext.EditMode.NONE).contains("<div class=\"one\">Test</div>"));
+				tx.success();
+			}
+
+			// modify attribute in a transaction without callbacks and notifications
+			try (final Tx tx = app.tx(false, false, false)) {
+
+				final DOMElement div = (DOMElement)page.getElementsByTagName("div").item(0);
+				div.setAttribute("class", "two");
+
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertTrue(page.getContent(RenderContext.EditMode.NONE).contains("<div class=\"two\">Test</div>"));
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+}
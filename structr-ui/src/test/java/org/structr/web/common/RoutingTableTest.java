@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.List;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.Tx;
+import org.structr.dynamic.File;
+import org.structr.web.entity.Folder;
+import org.structr.web.entity.Linkable;
+import org.structr.web.entity.dom.Page;
+
+/**
+ * Verifies lookups in the routing table and its invalidation when pages and
+ * files are renamed or moved.
+ *
+ * @author Christian Morgner
+ */
+public class RoutingTableTest extends StructrUiTest {
+
+	private RoutingTable routingTable = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		super.setUp();
+
+		routingTable = new RoutingTable(true);
+		TransactionCommand.registerCommitListener(routingTable);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		TransactionCommand.removeCommitListener(routingTable);
+
+		super.tearDown();
+	}
+
+	public void testLookup() {
+
+		try {
+
+			final Page page;
+			final File file;
+
+			try (final Tx tx = app.tx()) {
+
+				page = Page.createNewPage(securityContext, "test");
+				file = app.create(File.class, "file1");
+
+				file.setProperty(File.parent, FileHelper.createFolderPath(securityContext, "/folder1"));
+
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(page, routingTable.getEntryPointsByName(securityContext, "test"));
+				assertEntryPoint(page, routingTable.getEntryPointsByUuid(securityContext, page.getUuid()));
+				assertEntryPoint(file, routingTable.getEntryPointsByPath(securityContext, "/folder1/file1"));
+				assertEntryPoint(file, routingTable.getEntryPointsByName(securityContext, "file1"));
+				assertEntryPoint(file, routingTable.getEntryPointsByUuid(securityContext, file.getUuid()));
+
+				assertTrue(routingTable.getEntryPointsByName(securityContext, "missing").isEmpty());
+				assertTrue(routingTable.getEntryPointsByPath(securityContext, "/file1").isEmpty());
+
+				final List<Page> pages = routingTable.getPages(securityContext);
+
+				assertEquals(1, pages.size());
+				assertEquals(page.getUuid(), pages.get(0).getUuid());
+
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testPageRename() {
+
+		try {
+
+			final Page page;
+
+			try (final Tx tx = app.tx()) {
+
+				page = Page.createNewPage(securityContext, "test");
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(page, routingTable.getEntryPointsByName(securityContext, "test"));
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				page.setProperty(Page.name, "renamed");
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(page, routingTable.getEntryPointsByName(securityContext, "renamed"));
+				assertTrue(routingTable.getEntryPointsByName(securityContext, "test").isEmpty());
+				tx.success();
+			}
+
+			// rename in a transaction without notifications
+			try (final Tx tx = app.tx(true, true, false)) {
+
+				page.setProperty(Page.name, "silent");
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(page, routingTable.getEntryPointsByName(securityContext, "silent"));
+				assertTrue(routingTable.getEntryPointsByName(securityContext, "renamed").isEmpty());
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testFileRename() {
+
+		try {
+
+			final Folder folder;
+			final File file;
+
+			try (final Tx tx = app.tx()) {
+
+				folder = FileHelper.createFolderPath(securityContext, "/folder1");
+				file   = app.create(File.class, "file1");
+
+				file.setProperty(File.parent, folder);
+
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(file, routingTable.getEntryPointsByPath(securityContext, "/folder1/file1"));
+				tx.success();
+			}
+
+			// rename file
+			try (final Tx tx = app.tx()) {
+
+				file.setProperty(File.name, "file2");
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(file, routingTable.getEntryPointsByPath(securityContext, "/folder1/file2"));
+				assertTrue(routingTable.getEntryPointsByPath(securityContext, "/folder1/file1").isEmpty());
+				tx.success();
+			}
+
+			// rename parent folder
+			try (final Tx tx = app.tx()) {
+
+				folder.setProperty(Folder.name, "folder2");
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(file, routingTable.getEntryPointsByPath(securityContext, "/folder2/file2"));
+				assertTrue(routingTable.getEntryPointsByPath(securityContext, "/folder1/file2").isEmpty());
+				tx.success();
+			}
+
+			// move file to the root folder in a transaction without notifications
+			try (final Tx tx = app.tx(true, true, false)) {
+
+				file.setProperty(File.parent, null);
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEntryPoint(file, routingTable.getEntryPointsByPath(securityContext, "/file2"));
+				assertTrue(routingTable.getEntryPointsByPath(securityContext, "/folder2/file2").isEmpty());
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	// ----- private methods -----
+	private void assertEntryPoint(final Linkable expected, final List<Linkable> entryPoints) {
+
+		assertEquals(1, entryPoints.size());
+		assertEquals(expected.getUuid(), entryPoints.get(0).getUuid());
+	}
+}
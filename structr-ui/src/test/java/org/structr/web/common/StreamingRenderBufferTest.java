@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class StreamingRenderBufferTest extends TestCase {
+
+	public void testUtf8Encoding() throws Exception {
+
+		final TestOutputStream out         = new TestOutputStream(true);
+		final StreamingRenderBuffer buffer = new StreamingRenderBuffer(null, out, new ByteBufferPool(16, 4), 4, 1000);
+
+		buffer.onWritePossible();
+
+		buffer.append("<div>äöü €</div>");
+		buffer.append("\uD83D");
+		buffer.append("\uDE00 and a longer text that spans several buffers");
+		buffer.finish();
+
+		assertEquals("<div>äöü €</div>😀 and a longer text that spans several buffers", out.getOutput());
+		assertTrue(buffer.isCompleted());
+	}
+
+	public void testRendererIsPausedForSlowClient() throws Exception {
+
+		final TestOutputStream out                 = new TestOutputStream(false);
+		final StreamingRenderBuffer buffer         = new StreamingRenderBuffer(null, out, new ByteBufferPool(16, 4), 2, 10000);
+		final AtomicReference<Throwable> exception = new AtomicReference<>();
+		final StringBuilder expected               = new StringBuilder();
+
+		for (int i=0; i<100; i++) {
+			expected.append("0123456789");
+		}
+
+		buffer.onWritePossible();
+
+		final Thread renderer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+
+					for (int i=0; i<100; i++) {
+						buffer.append("0123456789");
+					}
+
+					buffer.finish();
+
+				} catch (Throwable t) {
+					exception.set(t);
+				}
+			}
+		});
+
+		renderer.start();
+		renderer.join(500);
+
+		// the ring holds two buffers, so the renderer must wait for the client
+		assertTrue(renderer.isAlive());
+		assertEquals(0, out.getOutput().length());
+
+		out.setReady(true);
+		buffer.onWritePossible();
+
+		renderer.join(5000);
+
+		assertFalse(renderer.isAlive());
+		assertNull(exception.get());
+		assertEquals(expected.toString(), out.getOutput());
+		assertTrue(buffer.isCompleted());
+	}
+
+	public void testWriteTimeout() throws Exception {
+
+		final TestOutputStream out         = new TestOutputStream(false);
+		final StreamingRenderBuffer buffer = new StreamingRenderBuffer(null, out, new ByteBufferPool(16, 4), 1, 200);
+
+		buffer.onWritePossible();
+
+		try {
+
+			for (int i=0; i<10; i++) {
+				buffer.append("0123456789");
+			}
+
+			fail("Slow client should cause an exception");
+
+		} catch (IllegalStateException expected) {
+		}
+
+		buffer.finish();
+		assertTrue(buffer.isCompleted());
+	}
+
+	// ----- nested classes -----
+	private static class TestOutputStream extends ServletOutputStream {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private volatile boolean ready            = false;
+
+		public TestOutputStream(final boolean ready) {
+			this.ready = ready;
+		}
+
+		public void setReady(final boolean ready) {
+			this.ready = ready;
+		}
+
+		public String getOutput() throws IOException {
+
+			synchronized (bytes) {
+				return bytes.toString("utf-8");
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			return ready;
+		}
+
+		@Override
+		public void setWriteListener(final WriteListener writeListener) {
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+
+			synchronized (bytes) {
+				bytes.write(b);
+			}
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+
+			synchronized (bytes) {
+				bytes.write(b, off, len);
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.structr.common.ThumbnailParameters;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.Tx;
+import org.structr.web.entity.Image;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class ThumbnailServiceTest extends StructrTest {
+
+	public void testProactiveGeneration() {
+
+		ThumbnailService.getInstance();
+
+		final String uuid = createImage("proactive.png");
+
+		// thumbnails of the default sizes are generated after the image was committed
+		assertTrue("Thumbnail should be generated in the background", waitForThumbnail(uuid, 100, 100));
+		assertTrue("Thumbnail should be generated in the background", waitForThumbnail(uuid, 300, 300));
+	}
+
+	public void testInFlightDeduplication() {
+
+		final ThumbnailService service        = new ThumbnailService(true, 1, 10);
+		final ThumbnailParameters parameters  = new ThumbnailParameters(50, 50, false);
+		final String uuid                     = createImage("dedup.png");
+
+		try (final Tx tx = app.tx()) {
+
+			final Image image = (Image)app.get(uuid);
+
+			for (int i=0; i<10; i++) {
+
+				final Image result = service.getThumbnail(image, parameters);
+				assertNotNull(result);
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		assertTrue("Thumbnail should be generated in the background", waitForThumbnail(uuid, 50, 50));
+
+		try (final Tx tx = app.tx()) {
+
+			final Image image = (Image)app.get(uuid);
+			int count         = 0;
+
+			for (final Image thumbnail : image.getThumbnails()) {
+
+				if (thumbnail.getWidth() <= 50 && thumbnail.getHeight() <= 50) {
+					count++;
+				}
+			}
+
+			assertEquals("Concurrent requests must generate the thumbnail only once", 1, count);
+
+			// existing thumbnail is returned directly
+			assertFalse(uuid.equals(service.getThumbnail(image, parameters).getUuid()));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	// ----- private methods -----
+	private String createImage(final String name) {
+
+		try (final Tx tx = app.tx()) {
+
+			final BufferedImage source = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+			final Graphics2D graphics  = source.createGraphics();
+
+			graphics.setColor(Color.ORANGE);
+			graphics.fillRect(0, 0, 200, 150);
+			graphics.dispose();
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(source, "png", out);
+
+			final Image image = ImageHelper.createImage(securityContext, out.toByteArray(), "image/png", Image.class, name, false);
+
+			image.setProperty(Image.width, 400);
+			image.setProperty(Image.height, 300);
+
+			tx.success();
+
+			return image.getUuid();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		return null;
+	}
+
+	private boolean waitForThumbnail(final String uuid, final int maxWidth, final int maxHeight) {
+
+		for (int i=0; i<100; i++) {
+
+			try (final Tx tx = app.tx()) {
+
+				final Image image = (Image)app.get(uuid);
+				if (image.getExistingScaledImage(maxWidth, maxHeight, false) != null) {
+
+					return true;
+				}
+
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				fex.printStackTrace();
+			}
+
+			try { Thread.sleep(100); } catch (InterruptedException iex) {}
+		}
+
+		return false;
+	}
+}
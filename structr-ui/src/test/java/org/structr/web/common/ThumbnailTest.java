@@ -19,8 +19,15 @@
 package org.structr.web.common;
 
 
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.imageio.ImageIO;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.graph.Tx;
 import org.structr.web.common.ImageHelper.Thumbnail;
@@ -77,4 +84,79 @@ public class ThumbnailTest extends StructrTest {
 			fail("Unexpected exception");
 		}
 	}
+
+	public void test02ThumbnailMemoryIsBounded() {
+
+		final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+
+			logger.log(Level.INFO, "Thread allocation counter not available, skipping test.");
+			return;
+		}
+
+		final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+		final long threadId                                  = Thread.currentThread().getId();
+		final int sourceWidth                                = 4000;
+		final int sourceHeight                               = 3000;
+
+		// the raster of the fully decoded image would need sourceWidth * sourceHeight * 3 bytes
+		final long bound = sourceWidth * sourceHeight * 3 / 4;
+
+		try {
+
+			final java.io.File source = java.io.File.createTempFile("structr-thumbnail-test", ".png");
+			source.deleteOnExit();
+
+			BufferedImage large = new BufferedImage(sourceWidth, sourceHeight, BufferedImage.TYPE_3BYTE_BGR);
+			final Graphics2D graphics = large.createGraphics();
+
+			graphics.setPaint(new GradientPaint(0, 0, Color.RED, sourceWidth, sourceHeight, Color.BLUE));
+			graphics.fillRect(0, 0, sourceWidth, sourceHeight);
+			graphics.dispose();
+
+			ImageIO.write(large, "png", source);
+			large = null;
+
+			try (final Tx tx = app.tx(); final FileInputStream in = new FileInputStream(source)) {
+
+				final Image img = ImageHelper.createImage(securityContext, in, "image/png", Image.class, "large.png", false);
+
+				assertNotNull(img);
+
+				for (int i=0; i<3; i++) {
+
+					final long before   = allocationBean.getThreadAllocatedBytes(threadId);
+					final Thumbnail tn  = ImageHelper.createThumbnail(img, 200, 200);
+					final long consumed = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+					assertNotNull(tn);
+					assertEquals(200, tn.getWidth());
+					assertEquals(150, tn.getHeight());
+
+					logger.log(Level.INFO, "Thumbnail of {0}x{1} image allocated {2} bytes", new Object[] { sourceWidth, sourceHeight, consumed });
+
+					// total allocation is an upper bound for the peak heap usage of thumbnail creation
+					assertTrue("Thumbnail creation allocated " + consumed + " bytes, more than " + bound, consumed < bound);
+				}
+
+				assertEquals(new Integer(sourceWidth), img.getWidth());
+				assertEquals(new Integer(sourceHeight), img.getHeight());
+
+				tx.success();
+			}
+
+		} catch (Exception ex) {
+
+			logger.log(Level.SEVERE, ex.toString());
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testSubsampling() {
+
+		assertEquals(1, ImageHelper.getSubsampling(400, 300, 200, 150));
+		assertEquals(2, ImageHelper.getSubsampling(800, 600, 200, 150));
+		assertEquals(10, ImageHelper.getSubsampling(4000, 3000, 200, 150));
+		assertEquals(5, ImageHelper.getSubsampling(4000, 3000, 400, 150));
+	}
 }
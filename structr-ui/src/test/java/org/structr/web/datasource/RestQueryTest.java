@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.servlet.http.HttpServletRequest;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.Tx;
+import org.structr.schema.action.ActionContext;
+import org.structr.web.common.StructrUiTest;
+
+/**
+ * Verifies that REST queries are split into path and parameters before
+ * expressions are evaluated.
+ *
+ * @author Christian Morgner
+ */
+public class RestQueryTest extends StructrUiTest {
+
+	public void testStaticQuery() throws FrameworkException {
+
+		final RestQuery.BoundRequest request = bind("/Folder?name=test&sort=name", true);
+
+		assertEquals("/Folder", request.getPathInfo());
+		assertEquals("name=test&sort=name", request.getQueryString());
+		assertEquals(Arrays.asList("name", "sort"), Collections.list(request.getParameterNames()));
+		assertEquals("test", request.getParameter("name"));
+		assertEquals("name", request.getParameter("sort"));
+		assertEquals("/Folder?name=test&sort=name", request.getQuery());
+	}
+
+	public void testPathOnly() throws FrameworkException {
+
+		final RestQuery.BoundRequest request = bind("/Folder", true);
+
+		assertEquals("/Folder", request.getPathInfo());
+		assertEquals("", request.getQueryString());
+		assertTrue(request.getParameterMap().isEmpty());
+		assertEquals("/Folder", request.getQuery());
+	}
+
+	public void testOnlyFirstEqualsSignSeparatesValue() throws FrameworkException {
+
+		final RestQuery.BoundRequest request = bind("/Folder?a=b=c", true);
+
+		assertEquals("b=c", request.getParameter("a"));
+	}
+
+	public void testEmptyParametersAreIgnored() throws FrameworkException {
+
+		final RestQuery.BoundRequest request = bind("/Folder?a=&=b&c&&d=1", true);
+
+		assertEquals(Arrays.asList("d"), Collections.list(request.getParameterNames()));
+		assertEquals("1", request.getParameter("d"));
+		assertEquals("d=1", request.getQueryString());
+	}
+
+	public void testExpressionResultsAreNotSplit() throws FrameworkException {
+
+		final RestQuery.BoundRequest request = bind("/${concat('Fol', 'der')}?name=${concat('a&b', '=c')}&sort=name", true);
+
+		assertEquals("/Folder", request.getPathInfo());
+		assertEquals(Arrays.asList("name", "sort"), Collections.list(request.getParameterNames()));
+		assertEquals("a&b=c", request.getParameter("name"));
+		assertEquals("name", request.getParameter("sort"));
+	}
+
+	public void testLiteralQuery() throws FrameworkException {
+
+		final RestQuery.BoundRequest request = bind("/Folder?name=${name}", false);
+
+		assertEquals("${name}", request.getParameter("name"));
+	}
+
+	// ----- private methods -----
+	private RestQuery.BoundRequest bind(final String source, final boolean withExpressions) throws FrameworkException {
+
+		try (final Tx tx = app.tx()) {
+
+			final RestQuery.BoundRequest request = RestQuery.compile(source, withExpressions).bind(new ActionContext(securityContext), null, createRequest());
+
+			tx.success();
+
+			return request;
+		}
+	}
+
+	private HttpServletRequest createRequest() {
+
+		return (HttpServletRequest)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+				switch (method.getName()) {
+
+					case "hashCode":
+						return System.identityHashCode(proxy);
+
+					case "equals":
+						return proxy == args[0];
+				}
+
+				return null;
+			}
+		});
+	}
+}
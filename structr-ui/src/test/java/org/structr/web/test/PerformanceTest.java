@@ -18,6 +18,8 @@
  */
 package org.structr.web.test;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Predicate;
@@ -25,7 +27,10 @@ import org.structr.core.graph.NodeServiceCommand;
 import org.structr.core.graph.StructrTransaction;
 import org.structr.core.graph.TransactionCommand;
 import org.structr.core.graph.Tx;
+import org.structr.core.parser.Functions;
 import org.structr.web.common.DOMTest;
+import org.structr.web.common.RenderContext;
+import org.structr.web.entity.dom.Page;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -36,6 +41,8 @@ import org.w3c.dom.Node;
  */
 public class PerformanceTest extends DOMTest {
 
+	private static final Logger logger = Logger.getLogger(PerformanceTest.class.getName());
+
 	public void testSiblingPerformance() {
 
 		try (final Tx tx = app.tx()) {
@@ -100,6 +107,63 @@ public class PerformanceTest extends DOMTest {
 
 	}
 
+	public void testContentRenderingThroughput() {
+
+		try (final Tx tx = app.tx()) {
+
+			final Page page    = (Page)getDocument();
+			final Element html = page.createElement("html");
+			final Element body = page.createElement("body");
+
+			page.appendChild(html);
+			html.appendChild(body);
+
+			// content-heavy page: 100 content nodes with 5 expressions each
+			for (int i=0; i<100; i++) {
+
+				final Element div = page.createElement("div");
+				body.appendChild(div);
+
+				div.appendChild(page.createTextNode("<b>${this.name}</b> ${upper(this.name)} ${if(empty(this.name), 'a', 'b')} ${concat('x', this.id)} ${lower(concat(this.name, '-', 'suffix'))}"));
+			}
+
+			final int count = 50;
+
+			// warm-up
+			final String expected = page.getContent(RenderContext.EditMode.NONE);
+
+			// parse all expressions on every render
+			final long t0 = System.currentTimeMillis();
+
+			for (int i=0; i<count; i++) {
+
+				Functions.clearExpressionCache();
+				assertEquals(expected, page.getContent(RenderContext.EditMode.NONE));
+			}
+
+			final long t1 = System.currentTimeMillis();
+
+			// use cached expression trees
+			for (int i=0; i<count; i++) {
+
+				assertEquals(expected, page.getContent(RenderContext.EditMode.NONE));
+			}
+
+			final long t2 = System.currentTimeMillis();
+
+			logger.log(Level.INFO, "Rendering {0} pages with 500 expressions each: {1} ms uncached ({2} pages/s), {3} ms cached ({4} pages/s)", new Object[] { count, t1 - t0, count * 1000 / Math.max(1, t1 - t0), t2 - t1, count * 1000 / Math.max(1, t2 - t1) });
+			logger.log(Level.INFO, "Expression cache: {0}", Functions.getExpressionCacheStatistics());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+
+			fail("Unexpected exception");
+		}
+	}
+
 	/*
 	 public void testForcedVsUnforcedTransactions() {
 
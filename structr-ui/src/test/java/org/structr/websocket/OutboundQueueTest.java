@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class OutboundQueueTest extends TestCase {
+
+	public void testMessagesAreSentInOrder() {
+
+		final Endpoint endpoint   = new Endpoint(true);
+		final OutboundQueue queue = new OutboundQueue(endpoint.proxy(), 10);
+
+		for (int i=0; i<5; i++) {
+			assertTrue(queue.offer("message" + i));
+		}
+
+		assertEquals(5, endpoint.sent.size());
+		assertEquals("message0", endpoint.sent.get(0));
+		assertEquals("message4", endpoint.sent.get(4));
+		assertEquals(0, queue.size());
+	}
+
+	public void testOneWriteAtATime() {
+
+		final Endpoint endpoint   = new Endpoint(false);
+		final OutboundQueue queue = new OutboundQueue(endpoint.proxy(), 10);
+
+		queue.offer("message0");
+		queue.offer("message1");
+		queue.offer("message2");
+
+		// next message is only sent when the previous write completed
+		assertEquals(1, endpoint.sent.size());
+		assertEquals(2, queue.size());
+
+		endpoint.complete();
+		assertEquals(2, endpoint.sent.size());
+		assertEquals("message1", endpoint.sent.get(1));
+
+		endpoint.complete();
+		endpoint.complete();
+		assertEquals(3, endpoint.sent.size());
+		assertEquals(0, queue.size());
+	}
+
+	public void testDuplicatesAreCoalesced() {
+
+		final Endpoint endpoint   = new Endpoint(false);
+		final OutboundQueue queue = new OutboundQueue(endpoint.proxy(), 10);
+
+		queue.offer("message0");
+		queue.offer("message1");
+		queue.offer("message1");
+
+		assertEquals(1, queue.size());
+		assertEquals(1, queue.getCoalesced());
+	}
+
+	public void testSlowClientIsDropped() {
+
+		final Endpoint endpoint   = new Endpoint(false);
+		final OutboundQueue queue = new OutboundQueue(endpoint.proxy(), 3);
+
+		// first message is written, three are pending
+		for (int i=0; i<4; i++) {
+			assertTrue(queue.offer("message" + i));
+		}
+
+		assertFalse(queue.offer("message4"));
+		assertTrue(queue.isClosed());
+		assertEquals(0, queue.size());
+
+		endpoint.complete();
+		assertEquals(1, endpoint.sent.size());
+	}
+
+	public void testFailedWriteClosesQueue() {
+
+		final Endpoint endpoint   = new Endpoint(false);
+		final OutboundQueue queue = new OutboundQueue(endpoint.proxy(), 10);
+
+		queue.offer("message0");
+		queue.offer("message1");
+
+		endpoint.fail();
+
+		assertTrue(queue.isClosed());
+		assertFalse(queue.offer("message2"));
+	}
+
+	public void testCallbackIsAddedToSerializedMessage() {
+
+		final String message = "{\n  \"command\": \"UPDATE\",\n  \"sessionValid\": true\n}";
+
+		assertSame(message, WebsocketController.withCallback(message, null));
+		assertEquals("{\"callback\":\"abc\\\"d\",\n  \"command\": \"UPDATE\",\n  \"sessionValid\": true\n}", WebsocketController.withCallback(message, "abc\"d"));
+	}
+
+	// ----- nested classes -----
+	private static class Endpoint implements InvocationHandler {
+
+		private final List<WriteCallback> callbacks = new ArrayList<>();
+		private final List<String> sent             = new ArrayList<>();
+		private boolean immediate                   = false;
+
+		public Endpoint(final boolean immediate) {
+			this.immediate = immediate;
+		}
+
+		public RemoteEndpoint proxy() {
+			return (RemoteEndpoint)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { RemoteEndpoint.class }, this);
+		}
+
+		public void complete() {
+			callbacks.remove(0).writeSuccess();
+		}
+
+		public void fail() {
+			callbacks.remove(0).writeFailed(new IllegalStateException("Closed"));
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+			if ("sendString".equals(method.getName()) && args.length == 2) {
+
+				final WriteCallback callback = (WriteCallback)args[1];
+
+				sent.add((String)args[0]);
+
+				if (immediate) {
+
+					callback.writeSuccess();
+
+				} else {
+
+					callbacks.add(callback);
+				}
+
+				return null;
+			}
+
+			throw new UnsupportedOperationException(method.getName());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class SubscriptionIndexTest extends TestCase {
+
+	public void testClientsWithoutSubscriptionsReceiveEverything() {
+
+		final SubscriptionIndex index  = new SubscriptionIndex();
+		final StructrWebSocket client1 = new StructrWebSocket();
+		final StructrWebSocket client2 = new StructrWebSocket();
+
+		index.add(client1);
+		index.add(client2);
+
+		assertEquals(2, index.getSubscribers(null, Arrays.asList("abc"), Arrays.asList("Page")).size());
+
+		index.remove(client2);
+
+		assertEquals(Collections.singleton(client1), index.getSubscribers(null, null, null));
+		assertEquals(1, index.size());
+	}
+
+	public void testSubscriptionsByIdTypeAndPage() {
+
+		final SubscriptionIndex index      = new SubscriptionIndex();
+		final StructrWebSocket everything  = new StructrWebSocket();
+		final StructrWebSocket byId        = new StructrWebSocket();
+		final StructrWebSocket byType      = new StructrWebSocket();
+		final StructrWebSocket byPage      = new StructrWebSocket();
+
+		index.add(everything);
+		index.add(byId);
+		index.add(byType);
+		index.add(byPage);
+
+		index.subscribe(byId, SubscriptionIndex.Kind.Id, Arrays.asList("id1", "id2"));
+		index.subscribe(byType, SubscriptionIndex.Kind.Type, Arrays.asList("AbstractList"));
+		index.subscribe(byPage, SubscriptionIndex.Kind.Page, Arrays.asList("/index"));
+
+		assertTrue(index.hasSubscriptions(SubscriptionIndex.Kind.Id));
+
+		Set<StructrWebSocket> subscribers = index.getSubscribers(null, Arrays.asList("id2"), Arrays.asList("Page"));
+		assertEquals(2, subscribers.size());
+		assertTrue(subscribers.contains(everything));
+		assertTrue(subscribers.contains(byId));
+
+		subscribers = index.getSubscribers(null, Arrays.asList("id3"), index.getTypeNames(ArrayList.class));
+		assertEquals(2, subscribers.size());
+		assertTrue(subscribers.contains(byType));
+
+		subscribers = index.getSubscribers("/index", null, null);
+		assertEquals(2, subscribers.size());
+		assertTrue(subscribers.contains(byPage));
+	}
+
+	public void testUnsubscribe() {
+
+		final SubscriptionIndex index = new SubscriptionIndex();
+		final StructrWebSocket client = new StructrWebSocket();
+
+		index.add(client);
+		index.subscribe(client, SubscriptionIndex.Kind.Id, Arrays.asList("id1", "id2"));
+
+		assertTrue(index.getSubscribers(null, Arrays.asList("id3"), null).isEmpty());
+
+		index.unsubscribe(client, SubscriptionIndex.Kind.Id, Arrays.asList("id1"));
+
+		assertTrue(index.getSubscribers(null, Arrays.asList("id1"), null).isEmpty());
+		assertEquals(1, index.getSubscribers(null, Arrays.asList("id2"), null).size());
+
+		// without subscriptions, the client receives everything again
+		index.unsubscribe(client, SubscriptionIndex.Kind.Id, null);
+
+		assertFalse(index.hasSubscriptions(SubscriptionIndex.Kind.Id));
+		assertEquals(1, index.getSubscribers(null, Arrays.asList("id3"), null).size());
+
+		index.remove(client);
+
+		assertTrue(index.getSubscribers(null, null, null).isEmpty());
+	}
+
+	public void testTypeNamesIncludeSupertypes() {
+
+		final Set<String> names = new SubscriptionIndex().getTypeNames(ArrayList.class);
+
+		assertTrue(names.contains("ArrayList"));
+		assertTrue(names.contains(AbstractList.class.getSimpleName()));
+		assertFalse(names.contains("Object"));
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2010-2014 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket.command;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.Tx;
+import org.structr.dynamic.File;
+import org.structr.web.common.BlobStore;
+import org.structr.web.common.FileHelper;
+import org.structr.web.common.StructrUiTest;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class FileUploadHandlerTest extends StructrUiTest {
+
+	private static final int CHUNK_SIZE = 1000;
+
+	public void testChunksInSequence() {
+
+		final byte[] data = createData(4500);
+		final File file   = upload("inorder.bin", data, new int[] { 0, 1, 2, 3, 4 });
+
+		assertContent(file, data);
+	}
+
+	public void testChunksOutOfSequence() {
+
+		final byte[] data = createData(4500);
+		final File file   = upload("outoforder.bin", data, new int[] { 1, 0, 4, 2, 3 });
+
+		assertContent(file, data);
+	}
+
+	public void testChunksInFrameBuffer() {
+
+		final byte[] data  = createData(2500);
+		final byte[] frame = new byte[CHUNK_SIZE + 48];
+		File file          = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, new ByteArrayInputStream(new byte[0]), "application/octet-stream", File.class, "frame.bin");
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final FileUploadHandler handler = new FileUploadHandler(file);
+
+			for (int i=0; i<3; i++) {
+
+				// chunk data follows a header in the frame buffer
+				final int length = Math.min(CHUNK_SIZE, data.length - i * CHUNK_SIZE);
+				System.arraycopy(data, i * CHUNK_SIZE, frame, 48, length);
+
+				assertEquals(i == 2, handler.handleChunk(i, CHUNK_SIZE, frame, 48, length, 3));
+			}
+
+			handler.complete(file);
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		assertContent(file, data);
+	}
+
+	public void testFinishClosesAbortedUpload() {
+
+		final byte[] data = createData(2500);
+		File file         = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, new ByteArrayInputStream(new byte[0]), "application/octet-stream", File.class, "aborted.bin");
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final FileUploadHandler handler = new FileUploadHandler(file);
+
+			assertFalse(handler.handleChunk(0, CHUNK_SIZE, Arrays.copyOfRange(data, 0, CHUNK_SIZE), 3));
+			assertTrue(handler.isOpen());
+
+			// upload is aborted, e.g. when processing a chunk failed
+			handler.finish();
+			assertFalse(handler.isOpen());
+
+			// finishing twice must not fail
+			handler.finish();
+			assertFalse(handler.isOpen());
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testInvalidChunkSizeIsRejected() {
+
+		final byte[] data = createData(CHUNK_SIZE);
+		File file         = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, new ByteArrayInputStream(new byte[0]), "application/octet-stream", File.class, "invalid.bin");
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		final FileUploadHandler handler = new FileUploadHandler(file);
+
+		// negative chunk size
+		try {
+
+			handler.handleChunk(1, -CHUNK_SIZE, data, 3);
+			fail("Negative chunk size must be rejected");
+
+		} catch (IOException expected) {
+		}
+
+		// chunk larger than the chunk size
+		try {
+
+			handler.handleChunk(0, CHUNK_SIZE - 1, data, 3);
+			fail("Chunk larger than the chunk size must be rejected");
+
+		} catch (IOException expected) {
+		}
+
+		assertFalse(handler.isOpen());
+	}
+
+	public void testRollbackKeepsPreviousContent() {
+
+		final byte[] previous = createData(1500);
+		final byte[] data     = createData(2500);
+		File file             = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, previous, "application/octet-stream", File.class, "rollback.bin");
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final FileUploadHandler handler = new FileUploadHandler(file);
+
+			for (int i=0; i<3; i++) {
+
+				final int start = i * CHUNK_SIZE;
+				handler.handleChunk(i, CHUNK_SIZE, Arrays.copyOfRange(data, start, Math.min(start + CHUNK_SIZE, data.length)), 3);
+			}
+
+			handler.complete(file);
+
+			// no tx.success(), transaction is rolled back
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		// previous content must still be available
+		assertContent(file, previous);
+	}
+
+	// ----- private methods -----
+	private File upload(final String name, final byte[] data, final int[] order) {
+
+		final int chunks = (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		File file        = null;
+
+		try (final Tx tx = app.tx()) {
+
+			file = FileHelper.createFile(securityContext, new ByteArrayInputStream(new byte[0]), "application/octet-stream", File.class, name);
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final FileUploadHandler handler = new FileUploadHandler(file);
+
+			for (int i=0; i<order.length; i++) {
+
+				final int sequenceNumber = order[i];
+				final int start          = sequenceNumber * CHUNK_SIZE;
+				final byte[] chunk       = Arrays.copyOfRange(data, start, Math.min(start + CHUNK_SIZE, data.length));
+
+				// upload is complete when the last missing chunk arrives
+				assertEquals(i == order.length - 1, handler.handleChunk(sequenceNumber, CHUNK_SIZE, chunk, chunks));
+			}
+
+			final BlobStore.Content content = handler.complete(file);
+
+			assertEquals(data.length, content.getSize());
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		return file;
+	}
+
+	private void assertContent(final File file, final byte[] data) {
+
+		try (final Tx tx = app.tx()) {
+
+			final CRC32 crc = new CRC32();
+			crc.update(data);
+
+			assertTrue(Arrays.equals(data, Files.readAllBytes(file.getFileOnDisk().toPath())));
+			assertEquals(Long.valueOf(crc.getValue()), file.getChecksum());
+			assertEquals(Long.valueOf(data.length), file.getSize());
+			assertEquals(BlobStore.digest(file.getFileOnDisk()).getHash(), file.getProperty(File.contentHash));
+
+			tx.success();
+
+		} catch (FrameworkException | IOException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	private byte[] createData(final int size) {
+
+		final byte[] data = new byte[size];
+
+		for (int i=0; i<size; i++) {
+			data[i] = (byte)(i * 31 + i / 7);
+		}
+
+		return data;
+	}
+}